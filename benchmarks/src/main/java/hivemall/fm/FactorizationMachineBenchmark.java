@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.fm.FMHyperParameters.FFMHyperParameters;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link FactorizationMachineModel#predict(Feature[])} of a row of 32 features. Entries are
+ * created on the first access, so the measured iterations only look up existing entries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FactorizationMachineBenchmark {
+
+    private static final int ROW_SIZE = 32;
+    private static final int NUM_FIELDS = 16;
+
+    @Param({"fm_string", "fm_int", "fm_array", "ffm"})
+    public String model;
+
+    @Param({"5", "20"})
+    public int factors;
+
+    private FactorizationMachineModel fmModel;
+    private Feature[] features;
+
+    @Setup
+    public void setup() throws Exception {
+        final Random rnd = new Random(43L);
+        this.features = new Feature[ROW_SIZE];
+        if ("ffm".equals(model)) {
+            FFMHyperParameters params = new FFMHyperParameters();
+            params.processOptions(parseOptions(new FieldAwareFactorizationMachineUDTF()));
+            this.fmModel = new FFMStringFeatureMapModel(params);
+            for (int i = 0; i < ROW_SIZE; i++) {
+                String fv = rnd.nextInt(NUM_FIELDS) + ":" + rnd.nextInt(1 << 20) + ":"
+                        + rnd.nextFloat();
+                features[i] = Feature.parseFFMFeature(fv, params.numFeatures, params.numFields);
+            }
+            fmModel.check(features);
+            return;
+        }
+
+        FMHyperParameters params = new FMHyperParameters();
+        params.processOptions(parseOptions(new FactorizationMachineUDTF()));
+        final boolean asInt;
+        if ("fm_string".equals(model)) {
+            this.fmModel = new FMStringFeatureMapModel(params);
+            asInt = false;
+        } else if ("fm_int".equals(model)) {
+            this.fmModel = new FMIntFeatureMapModel(params);
+            asInt = true;
+        } else if ("fm_array".equals(model)) {
+            this.fmModel = new FMArrayModel(params);
+            asInt = true;
+        } else {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        for (int i = 0; i < ROW_SIZE; i++) {
+            String fv = (1 + rnd.nextInt(params.numFeatures - 1)) + ":" + rnd.nextFloat();
+            features[i] = Feature.parseFeature(fv, asInt);
+        }
+        fmModel.check(features);
+    }
+
+    private CommandLine parseOptions(final FactorizationMachineUDTF udtf)
+            throws UDFArgumentException {
+        final String[] args = {"-factors", String.valueOf(factors), "-seed", "43",
+                "-num_features", String.valueOf(1 << 20)};
+        try {
+            return new BasicParser().parse(udtf.getOptions(), args);
+        } catch (ParseException e) {
+            throw new UDFArgumentException(e);
+        }
+    }
+
+    @Benchmark
+    public double predict() throws HiveException {
+        return fmModel.predict(features);
+    }
+
+}
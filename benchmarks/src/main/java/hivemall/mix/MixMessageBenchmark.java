@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix;
+
+import hivemall.mix.MixMessage.MixEventName;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips of a mix message and of a batch of 256 messages through {@link MixMessageEncoder}
+ * and {@link MixMessageDecoder}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixMessageBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    @Param({"plain", "compact", "compact_halffloat"})
+    public String format;
+
+    private EmbeddedChannel client;
+    private EmbeddedChannel server;
+    private MixMessage message;
+    private MixMessageBatch batch;
+
+    @Setup
+    public void setup() {
+        final boolean compact = format.startsWith("compact");
+        final boolean halfFloat = format.endsWith("halffloat");
+        this.client = new EmbeddedChannel(new MixMessageEncoder(compact, halfFloat));
+        this.server = new EmbeddedChannel(new MixMessageDecoder());
+
+        final Random rnd = new Random(43L);
+        this.message = new MixMessage(MixEventName.average, new Text("feature_" + rnd.nextInt()),
+            rnd.nextFloat(), (short) 3, 2);
+        message.setGroupID("group1");
+        this.batch = new MixMessageBatch(MixEventName.average, "group1", BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new MixMessage(MixEventName.average, new Text("feature_" + i),
+                rnd.nextFloat(), (short) i, 1));
+        }
+    }
+
+    @Benchmark
+    public Object roundTripMessage() {
+        return roundTrip(message);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Object roundTripBatch() {
+        return roundTrip(batch);
+    }
+
+    private Object roundTrip(final Object msg) {
+        client.writeOutbound(msg);
+        ByteBuf buf = (ByteBuf) client.readOutbound();
+        server.writeInbound(buf);
+        return server.readInbound();
+    }
+
+}
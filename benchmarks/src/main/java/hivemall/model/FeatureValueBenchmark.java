@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a row of 64 features of the form <code>feature:value</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FeatureValueBenchmark {
+
+    private static final int NUM_FEATURES = 64;
+
+    private String[] strings;
+    private Text[] texts;
+    private FeatureValue probe;
+
+    @Setup
+    public void setup() {
+        this.strings = new String[NUM_FEATURES];
+        this.texts = new Text[NUM_FEATURES];
+        for (int i = 0; i < NUM_FEATURES; i++) {
+            String s = (i * 7919) + ":" + (0.1f * i);
+            strings[i] = s;
+            texts[i] = new Text(s);
+        }
+        this.probe = new FeatureValue();
+    }
+
+    @Benchmark
+    public void parseString(Blackhole bh) {
+        for (String s : strings) {
+            bh.consume(FeatureValue.parse(s));
+        }
+    }
+
+    @Benchmark
+    public void parseFeatureAsStringWithProbe(Blackhole bh) {
+        final FeatureValue probe = this.probe;
+        for (String s : strings) {
+            FeatureValue.parseFeatureAsString(s, probe);
+            bh.consume(probe.getValueAsFloat());
+        }
+    }
+
+    @Benchmark
+    public void parseTextWithProbe(Blackhole bh) {
+        final FeatureValue probe = this.probe;
+        for (Text t : texts) {
+            FeatureValue.parseFeatureAsString(t, probe);
+            bh.consume(probe.getValueAsFloat());
+        }
+    }
+
+    @Benchmark
+    public void parseTextAsInt(Blackhole bh) {
+        final FeatureValue probe = this.probe;
+        for (Text t : texts) {
+            FeatureValue.parseFeatureAsInt(t, probe);
+            bh.consume(probe.getValueAsFloat());
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.IntWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and updating the weights of 64 random features, as a linear learner does for a row.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PredictionModelBenchmark {
+
+    private static final int NUM_DIMS = 1 << 20;
+    private static final int ROW_SIZE = 64;
+
+    @Param({"sparse", "dense", "space_efficient"})
+    public String model;
+
+    @Param({"false", "true"})
+    public boolean covariance;
+
+    private PredictionModel predictionModel;
+    private IntWritable[] features;
+
+    @Setup
+    public void setup() {
+        if ("sparse".equals(model)) {
+            this.predictionModel = new SparseModel(NUM_DIMS, covariance);
+        } else if ("dense".equals(model)) {
+            this.predictionModel = new DenseModel(NUM_DIMS, covariance);
+        } else if ("space_efficient".equals(model)) {
+            this.predictionModel = new SpaceEfficientDenseModel(NUM_DIMS, covariance);
+        } else {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+        final Random rnd = new Random(43L);
+        this.features = new IntWritable[ROW_SIZE];
+        for (int i = 0; i < ROW_SIZE; i++) {
+            features[i] = new IntWritable(rnd.nextInt(NUM_DIMS));
+        }
+        // fill the sparse model as much as the others
+        for (int i = 0; i < NUM_DIMS; i += 16) {
+            predictionModel.set(new IntWritable(i), newWeight(0.1f));
+        }
+        for (IntWritable f : features) {
+            predictionModel.set(f, newWeight(0.1f));
+        }
+    }
+
+    private IWeightValue newWeight(final float w) {
+        return covariance ? new WeightValue.WeightValueWithCovar(w, 0.5f) : new WeightValue(w);
+    }
+
+    @Benchmark
+    public float getWeight() {
+        float sum = 0.f;
+        for (IntWritable f : features) {
+            sum += predictionModel.getWeight(f);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float getAndSet() {
+        float sum = 0.f;
+        for (IntWritable f : features) {
+            IWeightValue old = predictionModel.get(f);
+            float w = old.get() * 0.999f;
+            predictionModel.set(f, newWeight(w));
+            sum += w;
+        }
+        return sum;
+    }
+
+}
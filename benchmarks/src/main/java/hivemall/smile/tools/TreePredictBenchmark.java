@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.tools;
+
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.data.Attribute;
+import hivemall.smile.data.Attribute.NumericAttribute;
+import hivemall.smile.vm.FlatTree;
+import hivemall.smile.vm.StackMachine;
+import hivemall.smile.vm.VMRuntimeException;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluating a classification tree of at most <code>leafs</code> leaf nodes, which is learned from
+ * random data, by {@link DecisionTree#predict(double[])}, by {@link StackMachine#eval(double[])} of
+ * the opcode model and by {@link FlatTree#predict(double[])} of the flat model.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TreePredictBenchmark {
+
+    private static final int NUM_TRAIN = 2000;
+    private static final int NUM_TEST = 256;
+    private static final int NUM_VARS = 16;
+
+    @Param({"16", "256"})
+    public int leafs;
+
+    private DecisionTree tree;
+    private StackMachine vm;
+    private FlatTree flatTree;
+    private double[][] rows;
+
+    @Setup
+    public void setup() throws Exception {
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[NUM_TRAIN][];
+        final int[] y = new int[NUM_TRAIN];
+        for (int i = 0; i < NUM_TRAIN; i++) {
+            x[i] = randomRow(rnd);
+            // a noisy label of a nonlinear rule
+            double s = x[i][0] * x[i][1] + Math.sin(3.d * x[i][2]) - x[i][3];
+            y[i] = (s + 0.3d * rnd.nextGaussian() > 0.d) ? 1 : 0;
+        }
+        final Attribute[] attrs = new Attribute[NUM_VARS];
+        for (int j = 0; j < NUM_VARS; j++) {
+            attrs[j] = new NumericAttribute(j);
+        }
+        this.tree = new DecisionTree(attrs, x, y, leafs);
+
+        this.vm = new StackMachine();
+        vm.compile(tree.predictOpCodegen(StackMachine.SEP));
+
+        byte[] b = tree.predictFlatCodegen(false);
+        this.flatTree = FlatTree.deserialize(b, 0, b.length);
+
+        this.rows = new double[NUM_TEST][];
+        for (int i = 0; i < NUM_TEST; i++) {
+            rows[i] = randomRow(rnd);
+        }
+    }
+
+    private static double[] randomRow(final Random rnd) {
+        final double[] row = new double[NUM_VARS];
+        for (int j = 0; j < NUM_VARS; j++) {
+            row[j] = rnd.nextGaussian();
+        }
+        return row;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_TEST)
+    public int decisionTree() {
+        int sum = 0;
+        for (double[] row : rows) {
+            sum += tree.predict(row);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_TEST)
+    public double stackMachine() throws VMRuntimeException {
+        double sum = 0.d;
+        for (double[] row : rows) {
+            vm.eval(row);
+            sum += vm.getResult().doubleValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_TEST)
+    public double flatTree() {
+        double sum = 0.d;
+        for (double[] row : rows) {
+            sum += flatTree.predict(row);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and updates of {@link OpenHashMap} and {@link Int2FloatOpenHashTable} holding
+ * <code>size</code> entries.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpenHashTableBenchmark {
+
+    private static final int NUM_OPS = 1024;
+
+    @Param({"16384", "1048576"})
+    public int size;
+
+    private OpenHashMap<Object, Float> objectMap;
+    private Int2FloatOpenHashTable intTable;
+    /** keys to access, half of which are absent */
+    private int[] keys;
+    private Integer[] boxedKeys;
+
+    @Setup
+    public void setup() {
+        this.objectMap = new OpenHashMap<Object, Float>(size);
+        this.intTable = new Int2FloatOpenHashTable(size);
+        for (int i = 0; i < size; i++) {
+            int key = i * 2;
+            objectMap.put(Integer.valueOf(key), Float.valueOf(i));
+            intTable.put(key, i);
+        }
+        final Random rnd = new Random(43L);
+        this.keys = new int[NUM_OPS];
+        this.boxedKeys = new Integer[NUM_OPS];
+        for (int i = 0; i < NUM_OPS; i++) {
+            int key = rnd.nextInt(size * 2);
+            keys[i] = key;
+            boxedKeys[i] = Integer.valueOf(key);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_OPS)
+    public int openHashMapGet() {
+        int found = 0;
+        for (Integer key : boxedKeys) {
+            if (objectMap.get(key) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_OPS)
+    public int openHashMapPut() {
+        int found = 0;
+        for (Integer key : boxedKeys) {
+            if (objectMap.put(key, Float.valueOf(1.f)) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_OPS)
+    public float int2FloatGet() {
+        float sum = 0.f;
+        for (int key : keys) {
+            sum += intTable.get(key);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_OPS)
+    public float int2FloatPut() {
+        float sum = 0.f;
+        for (int key : keys) {
+            sum += intTable.put(key, 1.f);
+        }
+        return sum;
+    }
+
+}
@@ -19,25 +19,41 @@
 package hivemall;
 
 import static org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
+import hivemall.common.ConcurrentTrainer;
+import hivemall.common.ConcurrentTrainer.ExampleHandler;
+import hivemall.common.ConversionState;
+import hivemall.common.ExampleReplayBuffer;
+import hivemall.common.ExampleReplayBuffer.ReplayListener;
+import hivemall.common.LearnerMetrics;
 import hivemall.mix.MixMessage.MixEventName;
 import hivemall.mix.client.MixClient;
 import hivemall.model.DenseModel;
+import hivemall.model.FeatureValue;
+import hivemall.model.IWeightValue;
+import hivemall.model.IntSparseModel;
+import hivemall.model.ModelBlock;
 import hivemall.model.PredictionModel;
 import hivemall.model.SpaceEfficientDenseModel;
 import hivemall.model.SparseModel;
+import hivemall.model.StripedSparseModel;
 import hivemall.model.SynchronizedModelWrapper;
 import hivemall.model.WeightValue;
 import hivemall.model.WeightValue.WeightValueWithCovar;
 import hivemall.utils.datetime.StopWatch;
-import hivemall.utils.hadoop.HadoopUtils;
+import hivemall.utils.hadoop.DistributedCacheLoader;
+import hivemall.utils.hadoop.DistributedCacheLoader.LineHandler;
 import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.hadoop.TextInterner;
 import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,23 +62,34 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.lazy.LazySimpleSerDe;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableFloatObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Reporter;
 
 public abstract class LearnerBaseUDTF extends UDTFWithOptions {
     private static final Log logger = LogFactory.getLog(LearnerBaseUDTF.class);
 
     protected String preloadedModelFile;
     protected boolean dense_model;
+    protected boolean int_feature;
     protected int model_dims;
     protected boolean disable_halffloat;
     protected boolean is_mini_batch;
@@ -71,9 +98,40 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
     protected String mixSessionName;
     protected int mixThreshold;
     protected boolean mixCancel;
+    protected int mixBatchSize;
+    protected long mixBatchInterval;
+    protected boolean mixCompact;
+    protected boolean mixHalfFloat;
+    protected int mixReplicas;
     protected boolean ssl;
+    protected int iterations;
+    protected boolean shuffle;
+    protected long seed;
+    protected int numThreads;
+    /** Whether to output the model as {@link ModelBlock}s */
+    protected boolean compactModel;
+    protected int compactPartitions;
+    protected boolean compactHalfFloat;
+
+    /** The number of trained examples */
+    protected int count;
 
     protected MixClient mixClient;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    protected LearnerMetrics metrics;
+    /** Convergence state of multi-epoch training. Null unless the convergence check is enabled */
+    @Nullable
+    protected ConversionState cvState;
+
+    // records training examples for the 2nd and later iterations
+    private ExampleReplayBuffer replayBuffer;
+    // trains examples on multiple threads
+    private ConcurrentTrainer concurrentTrainer;
+
+    // buffers reused in parseFeatures()
+    private FeatureValue[] featureVectorBuffer;
+    private TextInterner featureInterner;
 
     public LearnerBaseUDTF() {}
 
@@ -88,6 +146,8 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         opts.addOption("dense", "densemodel", false, "Use dense model or not");
         opts.addOption("dims", "feature_dimensions", true,
             "The dimension of model [default: 16777216 (2^24)]");
+        opts.addOption("int_feature", false,
+            "Use a compact sparse model that assumes integer features [default: false]");
         opts.addOption("disable_halffloat", false,
             "Toggle this option to disable the use of SpaceEfficientDenseModel");
         opts.addOption("mini_batch", "mini_batch_size", true,
@@ -98,7 +158,41 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         opts.addOption("mix_threshold", true,
             "Threshold to mix local updates in range (0,127] [default: 3]");
         opts.addOption("mix_cancel", "enable_mix_canceling", false, "Enable mix cancel requests");
+        opts.addOption("mix_batch", "mix_batch_size", true,
+            "Coalesce mix requests into batches of the given size [default: 0 (disabled)]");
+        opts.addOption("mix_batch_interval", true,
+            "The max time in msec to hold mix requests in a batch [default: 100]");
+        opts.addOption("mix_compact", false,
+            "Send mix requests in the compact wire format [default: false]");
+        opts.addOption("mix_halffloat", false,
+            "Send weights in half-floats in the compact wire format [default: false]");
+        opts.addOption("mix_replicas", true,
+            "The number of backup MIX servers used while the primary one is down [default: 0]");
         opts.addOption("ssl", false, "Use SSL for the communication with mix servers");
+        // multi-epoch training
+        opts.addOption("iters", "iterations", true, "The number of iterations [default: 1]");
+        opts.addOption("disable_shuffle", false,
+            "Replay training examples in the input order in iterations [default: OFF]");
+        opts.addOption("seed", true, "Seed value used for shuffling [default: -1 (random)]");
+        opts.addOption("disable_cv", "disable_cvtest", false,
+            "Whether to disable convergence check [default: OFF]");
+        opts.addOption("cv_rate", "convergence_rate", true,
+            "Threshold to determine convergence [default: 0.005]");
+        opts.addOption("threads", "num_threads", true,
+            "The number of threads to train a shared model concurrently [default: 1]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
+        // compact model output
+        opts.addOption("compact_model", false,
+            "Output the model as compressed blocks of (int part, binary block) [default: OFF]");
+        opts.addOption("compact_partitions", true,
+            "The number of partitions of the compact model [default: 16]");
+        opts.addOption("compact_halffloat", false,
+            "Write weights of the compact model in half-precision floats"
+                    + " (implies -compact_model) [default: OFF]");
         return opts;
     }
 
@@ -108,6 +202,7 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
             throws UDFArgumentException {
         String modelfile = null;
         boolean denseModel = false;
+        boolean intFeature = false;
         int modelDims = -1;
         boolean disableHalfFloat = false;
         int miniBatchSize = 1;
@@ -115,7 +210,23 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         String mixSessionName = null;
         int mixThreshold = -1;
         boolean mixCancel = false;
+        int mixBatchSize = 0;
+        long mixBatchInterval = 100L;
+        boolean mixCompact = false;
+        boolean mixHalfFloat = false;
+        int mixReplicas = 0;
         boolean ssl = false;
+        int iterations = 1;
+        boolean shuffle = true;
+        long seed = -1L;
+        boolean conversionCheck = true;
+        double convergenceRate = 0.005d;
+        int numThreads = 1;
+        boolean metrics = false;
+        boolean metricsJmx = false;
+        boolean compactModel = false;
+        int compactPartitions = 16;
+        boolean compactHalfFloat = false;
 
         CommandLine cl = null;
         if (argOIs.length >= 3) {
@@ -128,6 +239,7 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
             if (denseModel) {
                 modelDims = Primitives.parseInt(cl.getOptionValue("dims"), 16777216);
             }
+            intFeature = cl.hasOption("int_feature");
             disableHalfFloat = cl.hasOption("disable_halffloat");
 
             miniBatchSize = Primitives.parseInt(cl.getOptionValue("mini_batch_size"), miniBatchSize);
@@ -144,11 +256,78 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
                         + mixThreshold);
             }
             mixCancel = cl.hasOption("mix_cancel");
+            mixBatchSize = Primitives.parseInt(cl.getOptionValue("mix_batch_size"), mixBatchSize);
+            if (mixBatchSize < 0 || mixBatchSize > 4096) {
+                throw new UDFArgumentException("mix_batch_size must be in range [0,4096]: "
+                        + mixBatchSize);
+            }
+            mixBatchInterval = Primitives.parseLong(cl.getOptionValue("mix_batch_interval"),
+                mixBatchInterval);
+            if (mixBatchInterval <= 0L) {
+                throw new UDFArgumentException("mix_batch_interval must be greater than 0: "
+                        + mixBatchInterval);
+            }
+            mixHalfFloat = cl.hasOption("mix_halffloat");
+            mixCompact = mixHalfFloat || cl.hasOption("mix_compact");
+            mixReplicas = Primitives.parseInt(cl.getOptionValue("mix_replicas"), mixReplicas);
+            if (mixReplicas < 0) {
+                throw new UDFArgumentException("mix_replicas must not be negative: "
+                        + mixReplicas);
+            }
             ssl = cl.hasOption("ssl");
+
+            iterations = Primitives.parseInt(cl.getOptionValue("iterations"), iterations);
+            if (iterations < 1) {
+                throw new UDFArgumentException("iterations must be greater than 0: "
+                        + iterations);
+            }
+            shuffle = !cl.hasOption("disable_shuffle");
+            seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
+            conversionCheck = !cl.hasOption("disable_cvtest");
+            convergenceRate = Primitives.parseDouble(cl.getOptionValue("cv_rate"),
+                convergenceRate);
+
+            numThreads = Primitives.parseInt(cl.getOptionValue("threads"), numThreads);
+            if (numThreads < 1) {
+                throw new UDFArgumentException("threads must be greater than 0: " + numThreads);
+            }
+            if (numThreads > 1) {
+                if (!isConcurrentTrainingSupported()) {
+                    throw new UDFArgumentException(getClass().getSimpleName()
+                            + " does not support the -threads option");
+                }
+                if (miniBatchSize > 1) {
+                    throw new UDFArgumentException(
+                        "-threads cannot be used with -mini_batch_size");
+                }
+                if (mixCancel) {
+                    throw new UDFArgumentException("-threads cannot be used with -mix_cancel");
+                }
+                if (intFeature && !denseModel) {// no striped model of integer features
+                    throw new UDFArgumentException(
+                        "-threads cannot be used with -int_feature unless -dense is given");
+                }
+            }
+
+            metricsJmx = cl.hasOption("metrics_jmx");
+            metrics = metricsJmx || cl.hasOption("metrics");
+
+            compactHalfFloat = cl.hasOption("compact_halffloat");
+            compactModel = compactHalfFloat || cl.hasOption("compact_model");
+            compactPartitions = Primitives.parseInt(cl.getOptionValue("compact_partitions"),
+                compactPartitions);
+            if (compactPartitions < 1) {
+                throw new UDFArgumentException("compact_partitions must be greater than 0: "
+                        + compactPartitions);
+            }
+        }
+        if (seed == -1L) {
+            seed = System.nanoTime();
         }
 
         this.preloadedModelFile = modelfile;
         this.dense_model = denseModel;
+        this.int_feature = intFeature;
         this.model_dims = modelDims;
         this.disable_halffloat = disableHalfFloat;
         this.is_mini_batch = miniBatchSize > 1;
@@ -157,7 +336,23 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         this.mixSessionName = mixSessionName;
         this.mixThreshold = mixThreshold;
         this.mixCancel = mixCancel;
+        this.mixBatchSize = mixBatchSize;
+        this.mixBatchInterval = mixBatchInterval;
+        this.mixCompact = mixCompact;
+        this.mixHalfFloat = mixHalfFloat;
+        this.mixReplicas = mixReplicas;
         this.ssl = ssl;
+        this.iterations = iterations;
+        this.shuffle = shuffle;
+        this.seed = seed;
+        this.numThreads = numThreads;
+        this.compactModel = compactModel;
+        this.compactPartitions = compactPartitions;
+        this.compactHalfFloat = compactHalfFloat;
+        this.cvState = (iterations > 1 && conversionCheck) ? new ConversionState(true,
+            convergenceRate) : null;
+        this.metrics = metrics ? new LearnerMetrics(getClass().getSimpleName(), metricsJmx)
+                : null;
         return cl;
     }
 
@@ -178,6 +373,17 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
                         + " initial dimensions" + (useCovar ? " w/ covariances" : ""));
                 model = new DenseModel(model_dims, useCovar);
             }
+        } else if (numThreads > 1) {
+            int initModelSize = getInitialModelSize();
+            int numStripes = numThreads * 4;
+            logger.info("Build a striped sparse model for " + numThreads + " threads with "
+                    + initModelSize + " initial dimensions" + (useCovar ? " w/ covariances" : ""));
+            model = new StripedSparseModel(numStripes, initModelSize, useCovar);
+        } else if (int_feature) {
+            int initModelSize = getInitialModelSize();
+            logger.info("Build a sparse model for integer features with " + initModelSize
+                    + " initial dimensions" + (useCovar ? " w/ covariances" : ""));
+            model = new IntSparseModel(initModelSize, useCovar);
         } else {
             int initModelSize = getInitialModelSize();
             logger.info("Build a sparse model with initial with " + initModelSize
@@ -186,15 +392,27 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         }
         if (mixConnectInfo != null) {
             model.configureClock();
-            model = new SynchronizedModelWrapper(model);
+            if (numThreads == 1) {// dense and striped models allow concurrent updates
+                model = new SynchronizedModelWrapper(model);
+            }
             MixClient client = configureMixClient(mixConnectInfo, label, model);
             model.configureMix(client, mixCancel);
             this.mixClient = client;
+            if (metrics != null) {
+                metrics.addMixClient(client);
+            }
         }
         assert (model != null);
         return model;
     }
 
+    /**
+     * @return true if the model holds features as Java integers
+     */
+    protected boolean useIntFeature() {
+        return dense_model || int_feature;
+    }
+
     protected MixClient configureMixClient(String connectURIs, String label, PredictionModel model) {
         assert (connectURIs != null);
         assert (model != null);
@@ -203,7 +421,14 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
             jobId = jobId + '-' + label;
         }
         MixEventName event = useCovariance() ? MixEventName.argminKLD : MixEventName.average;
-        MixClient client = new MixClient(event, jobId, connectURIs, ssl, mixThreshold, model);
+        MixClient client = new MixClient(event, jobId, connectURIs, ssl, mixThreshold, model,
+            mixBatchSize, mixBatchInterval);
+        if (mixCompact) {
+            client.setCompactFormat(mixHalfFloat);
+        }
+        if (mixReplicas > 0) {
+            client.setNumReplicas(mixReplicas);
+        }
         logger.info("Successfully configured mix client: " + connectURIs);
         return client;
     }
@@ -212,22 +437,300 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         return 16384;
     }
 
+    /**
+     * Parses a list of features into a {@link FeatureValue} array. String features are parsed
+     * directly from their UTF-8 bytes, and string keys are interned so that no object is allocated
+     * for features already seen.
+     * 
+     * Note that the returned array and its elements are reused in the next invocation.
+     * 
+     * @return null if the given list is empty
+     */
+    @Nullable
+    protected final FeatureValue[] parseFeatureVector(@Nonnull final List<?> features,
+            @Nonnull final ObjectInspector featureInspector, final boolean parseFeature) {
+        final int size = features.size();
+        if (size == 0) {
+            return null;
+        }
+        final LearnerMetrics metrics = this.metrics;
+        final long parseStart = (metrics == null) ? 0L : metrics.startParse();
+
+        FeatureValue[] featureVector = featureVectorBuffer;
+        if (featureVector == null || featureVector.length != size) {
+            featureVector = new FeatureValue[size];
+            this.featureVectorBuffer = featureVector;
+        }
+        final boolean intFeature = useIntFeature();
+        if (parseFeature && !intFeature && featureInterner == null) {
+            this.featureInterner = new TextInterner();
+        }
+
+        for (int i = 0; i < size; i++) {
+            Object f = features.get(i);
+            if (f == null) {
+                featureVector[i] = null;
+                continue;
+            }
+            FeatureValue fv = featureVector[i];
+            if (fv == null) {
+                fv = new FeatureValue();
+                featureVector[i] = fv;
+            }
+            if (parseFeature) {
+                Text t = ((StringObjectInspector) featureInspector).getPrimitiveWritableObject(f);
+                if (intFeature) {
+                    FeatureValue.parseFeatureAsInt(t, fv);
+                } else {
+                    FeatureValue.parse(t, fv, featureInterner);
+                }
+            } else {
+                Object k = ObjectInspectorUtils.copyToStandardObject(f, featureInspector);
+                fv.setFeature(k);
+                fv.setValue(1.d);
+            }
+        }
+        if (metrics != null) {
+            metrics.endParse(parseStart);
+        }
+        return featureVector;
+    }
+
+    /**
+     * Trains an example, or queues it for the trainer threads when -threads is specified. The
+     * example is also recorded to replay it in the 2nd and later iterations.
+     * 
+     * @param target the target value, which is ignored when a label is given
+     * @param label the object label, or null to use the target value
+     */
+    protected final void processExample(@Nonnull final FeatureValue[] features,
+            final double target, @Nullable final Object label) throws HiveException {
+        if (iterations > 1) {
+            ExampleReplayBuffer buffer = replayBuffer;
+            if (buffer == null) {
+                buffer = new ExampleReplayBuffer(ExampleReplayBuffer.DEFAULT_BLOCK_SIZE,
+                    featureInterner);
+                this.replayBuffer = buffer;
+            }
+            if (label == null) {
+                buffer.add(features, target);
+            } else {
+                buffer.add(features, label);
+            }
+        }
+        dispatchExample(features, target, label);
+    }
+
+    private void dispatchExample(@Nonnull final FeatureValue[] features, final double target,
+            @Nullable final Object label) throws HiveException {
+        count++;
+        if (numThreads > 1) {
+            ConcurrentTrainer trainer = concurrentTrainer;
+            if (trainer == null) {
+                trainer = new ConcurrentTrainer(numThreads, new ExampleHandler() {
+                    @Override
+                    public float handle(FeatureValue[] features, double target, Object label)
+                            throws HiveException {
+                        return measureTrainExample(features, target, label);
+                    }
+                });
+                this.concurrentTrainer = trainer;
+            }
+            trainer.submit(features, target, label);
+        } else {
+            float loss = measureTrainExample(features, target, label);
+            if (cvState != null) {
+                cvState.incrLoss(loss);
+            }
+        }
+        final LearnerMetrics metrics = this.metrics;
+        if (metrics != null && metrics.incrRows()) {
+            metrics.report(getReporter(), getModelSize());
+        }
+    }
+
+    private float measureTrainExample(@Nonnull final FeatureValue[] features,
+            final double target, @Nullable final Object label) throws HiveException {
+        final LearnerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return trainExample(features, target, label);
+        }
+        final long start = metrics.startUpdate();
+        final float loss = trainExample(features, target, label);
+        metrics.endUpdate(start);
+        return loss;
+    }
+
+    /**
+     * Trains an example given to {@link #processExample(FeatureValue[], double, Object)}. Invoked
+     * concurrently by the trainer threads when -threads is specified.
+     * 
+     * @param target the target value, or NaN when a label is given
+     * @param label the object label, or null when a target value is given
+     * @return the loss of the example if the convergence check is enabled, otherwise 0
+     */
+    protected abstract float trainExample(@Nonnull FeatureValue[] features, double target,
+            @Nullable Object label) throws HiveException;
+
+    /**
+     * @return true if {@link #trainExample(FeatureValue[], double, Object)} can be invoked
+     *         concurrently
+     */
+    protected boolean isConcurrentTrainingSupported() {
+        return false;
+    }
+
+    /**
+     * @return the output schema of (int part, binary block) used when -compact_model is specified
+     */
+    @Nonnull
+    protected static StructObjectInspector getCompactModelReturnOI() {
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("part");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("block");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableBinaryObjectInspector);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    /**
+     * Forwards the touched weights of a model as a {@link ModelBlock} per partition of features.
+     * 
+     * @return the number of forwarded weights
+     */
+    protected final int forwardCompactModel(@Nonnull final PredictionModel model)
+            throws HiveException {
+        final boolean useCovar = useCovariance();
+        final ModelBlock.Builder[] builders = new ModelBlock.Builder[compactPartitions];
+        final IMapIterator<Object, IWeightValue> itor = model.entries();
+        final WeightValue probe = useCovar ? new WeightValueWithCovar() : new WeightValue();
+        int numWeights = 0;
+        while (itor.next() != -1) {
+            itor.getValue(probe);
+            if (!probe.isTouched()) {
+                continue; // skip outputting untouched weights
+            }
+            Object k = itor.getKey();
+            int part = ModelBlock.partition(k, builders.length);
+            ModelBlock.Builder builder = builders[part];
+            if (builder == null) {
+                builder = new ModelBlock.Builder(useCovar, compactHalfFloat);
+                builders[part] = builder;
+            }
+            builder.add(k, probe.get(), useCovar ? probe.getCovariance() : 1.f);
+            numWeights++;
+        }
+
+        final IntWritable partObj = new IntWritable();
+        final Object[] forwardObj = new Object[] {partObj, null};
+        long bytes = 0L;
+        for (int part = 0; part < builders.length; part++) {
+            final ModelBlock.Builder builder = builders[part];
+            if (builder == null) {
+                continue;
+            }
+            builders[part] = null;
+            final byte[] block;
+            try {
+                block = builder.build();
+            } catch (IOException e) {
+                throw new HiveException("Failed to build a model block", e);
+            }
+            bytes += block.length;
+            partObj.set(part);
+            forwardObj[1] = new BytesWritable(block);
+            forward(forwardObj);
+        }
+        logger.info("Forwarded " + numWeights + " weights in " + bytes + " bytes of model blocks");
+        return numWeights;
+    }
+
+    /**
+     * @return the number of features held in the model(s), or -1 if unknown
+     */
+    protected long getModelSize() {
+        return -1L;
+    }
+
+    /**
+     * Waits for the trainer threads to train all the queued examples.
+     */
+    private void syncTrainers() throws HiveException {
+        if (concurrentTrainer != null) {
+            double loss = concurrentTrainer.sync();
+            if (cvState != null) {
+                cvState.incrLoss(loss);
+            }
+        }
+    }
+
+    private void runTrainingIterations(@Nonnull final ExampleReplayBuffer buffer)
+            throws HiveException {
+        final long numTrainingExamples = buffer.size();
+        if (numTrainingExamples == 0L) {
+            return;
+        }
+
+        final Reporter reporter = getReporter();
+        final Counter iterCounter = (reporter == null) ? null : reporter.getCounter(
+            "hivemall.LearnerBaseUDTF$Counter", "iteration");
+        final ReplayListener listener = new ReplayListener() {
+            long replayed = 0L;
+
+            @Override
+            public void onReplay(FeatureValue[] features, double target, Object label)
+                    throws HiveException {
+                if (++replayed % 100000L == 0L) {
+                    reportProgress(reporter);
+                }
+                dispatchExample(features, target, label);
+            }
+        };
+        final Random rnd = shuffle ? new Random(seed) : null;
+
+        final ConversionState cvState = this.cvState;
+        syncTrainers();
+        if (cvState != null) {// the losses of the 1st iteration
+            cvState.isConverged(1, numTrainingExamples);
+        }
+        int iter = 2;
+        for (; iter <= iterations; iter++) {
+            reportProgress(reporter);
+            setCounterValue(iterCounter, iter);
+
+            buffer.replay(listener, rnd);
+            syncTrainers();
+
+            if (cvState != null && cvState.isConverged(iter, numTrainingExamples)) {
+                break;
+            }
+        }
+        logger.info("Performed " + Math.min(iter, iterations) + " iterations of "
+                + NumberUtils.formatNumber(numTrainingExamples) + " training examples "
+                + (buffer.isSpilled() ? "on a secondary storage" : "on memory"));
+    }
+
     protected void loadPredictionModel(PredictionModel model, String filename,
             PrimitiveObjectInspector keyOI) {
         final StopWatch elapsed = new StopWatch();
+        final File file = new File(filename);
+        final MapredContext context = MapredContextAccessor.get();
         final long lines;
         try {
             if (useCovariance()) {
-                lines = loadPredictionModel(model, new File(filename), keyOI,
-                    writableFloatObjectInspector, writableFloatObjectInspector);
+                lines = loadPredictionModel(model, file, keyOI, writableFloatObjectInspector,
+                    writableFloatObjectInspector, context);
             } else {
-                lines = loadPredictionModel(model, new File(filename), keyOI,
-                    writableFloatObjectInspector);
+                lines = loadPredictionModel(model, file, keyOI, writableFloatObjectInspector,
+                    context);
             }
         } catch (IOException e) {
             throw new RuntimeException("Failed to load a model: " + filename, e);
         } catch (SerDeException e) {
             throw new RuntimeException("Failed to load a model: " + filename, e);
+        } catch (HiveException e) {
+            throw new RuntimeException("Failed to load a model: " + filename, e);
         }
         if (model.size() > 0) {
             logger.info("Loaded " + model.size() + " features from distributed cache '" + filename
@@ -235,105 +738,116 @@ public abstract class LearnerBaseUDTF extends UDTFWithOptions {
         }
     }
 
-    private static long loadPredictionModel(PredictionModel model, File file,
-            PrimitiveObjectInspector keyOI, WritableFloatObjectInspector valueOI)
-            throws IOException, SerDeException {
-        long count = 0L;
+    /**
+     * Loads the weights of a model file that has key and value columns.
+     * 
+     * @param context the context to decompress files by the codecs of the job, or null to read
+     *        text files as they are
+     * @return the number of lines read, or 0 if the file does not exist
+     */
+    public static long loadPredictionModel(@Nonnull final PredictionModel model,
+            @Nonnull final File file, @Nonnull final PrimitiveObjectInspector keyOI,
+            @Nonnull final WritableFloatObjectInspector valueOI,
+            @Nullable final MapredContext context) throws IOException, SerDeException,
+            HiveException {
         if (!file.exists()) {
-            return count;
+            return 0L;
         }
-        if (!file.getName().endsWith(".crc")) {
-            if (file.isDirectory()) {
-                for (File f : file.listFiles()) {
-                    count += loadPredictionModel(model, f, keyOI, valueOI);
-                }
-            } else {
-                LazySimpleSerDe serde = HiveUtils.getKeyValueLineSerde(keyOI, valueOI);
-                StructObjectInspector lineOI = (StructObjectInspector) serde.getObjectInspector();
-                StructField keyRef = lineOI.getStructFieldRef("key");
-                StructField valueRef = lineOI.getStructFieldRef("value");
-                PrimitiveObjectInspector keyRefOI = (PrimitiveObjectInspector) keyRef.getFieldObjectInspector();
-                FloatObjectInspector varRefOI = (FloatObjectInspector) valueRef.getFieldObjectInspector();
-
-                BufferedReader reader = null;
+        final LazySimpleSerDe serde = HiveUtils.getKeyValueLineSerde(keyOI, valueOI);
+        final StructObjectInspector lineOI = (StructObjectInspector) serde.getObjectInspector();
+        StructField keyRef = lineOI.getStructFieldRef("key");
+        StructField valueRef = lineOI.getStructFieldRef("value");
+        final PrimitiveObjectInspector keyRefOI = (PrimitiveObjectInspector) keyRef.getFieldObjectInspector();
+        final FloatObjectInspector varRefOI = (FloatObjectInspector) valueRef.getFieldObjectInspector();
+
+        return DistributedCacheLoader.readLines(file, context, new LineHandler() {
+            @Override
+            public void handle(String line) throws HiveException {
+                Text lineText = new Text(line);
+                final Object lineObj;
                 try {
-                    reader = HadoopUtils.getBufferedReader(file);
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        count++;
-                        Text lineText = new Text(line);
-                        Object lineObj = serde.deserialize(lineText);
-                        List<Object> fields = lineOI.getStructFieldsDataAsList(lineObj);
-                        Object f0 = fields.get(0);
-                        Object f1 = fields.get(1);
-                        if (f0 == null || f1 == null) {
-                            continue; // avoid the case that key or value is null
-                        }
-                        Object k = keyRefOI.getPrimitiveWritableObject(keyRefOI.copyObject(f0));
-                        float v = varRefOI.get(f1);
-                        model.set(k, new WeightValue(v, false));
-                    }
-                } finally {
-                    IOUtils.closeQuietly(reader);
+                    lineObj = serde.deserialize(lineText);
+                } catch (SerDeException e) {
+                    throw new HiveException("Failed to parse a line: " + line, e);
                 }
+                List<Object> fields = lineOI.getStructFieldsDataAsList(lineObj);
+                Object f0 = fields.get(0);
+                Object f1 = fields.get(1);
+                if (f0 == null || f1 == null) {
+                    return; // avoid the case that key or value is null
+                }
+                Object k = keyRefOI.getPrimitiveWritableObject(keyRefOI.copyObject(f0));
+                float v = varRefOI.get(f1);
+                model.set(k, new WeightValue(v, false));
             }
-        }
-        return count;
+        });
     }
 
-    private static long loadPredictionModel(PredictionModel model, File file,
-            PrimitiveObjectInspector featureOI, WritableFloatObjectInspector weightOI,
-            WritableFloatObjectInspector covarOI) throws IOException, SerDeException {
-        long count = 0L;
+    private static long loadPredictionModel(@Nonnull final PredictionModel model,
+            @Nonnull final File file, @Nonnull final PrimitiveObjectInspector featureOI,
+            @Nonnull final WritableFloatObjectInspector weightOI,
+            @Nonnull final WritableFloatObjectInspector covarOI,
+            @Nullable final MapredContext context) throws IOException, SerDeException,
+            HiveException {
         if (!file.exists()) {
-            return count;
+            return 0L;
         }
-        if (!file.getName().endsWith(".crc")) {
-            if (file.isDirectory()) {
-                for (File f : file.listFiles()) {
-                    count += loadPredictionModel(model, f, featureOI, weightOI, covarOI);
-                }
-            } else {
-                LazySimpleSerDe serde = HiveUtils.getLineSerde(featureOI, weightOI, covarOI);
-                StructObjectInspector lineOI = (StructObjectInspector) serde.getObjectInspector();
-                StructField c1ref = lineOI.getStructFieldRef("c1");
-                StructField c2ref = lineOI.getStructFieldRef("c2");
-                StructField c3ref = lineOI.getStructFieldRef("c3");
-                PrimitiveObjectInspector c1oi = (PrimitiveObjectInspector) c1ref.getFieldObjectInspector();
-                FloatObjectInspector c2oi = (FloatObjectInspector) c2ref.getFieldObjectInspector();
-                FloatObjectInspector c3oi = (FloatObjectInspector) c3ref.getFieldObjectInspector();
-
-                BufferedReader reader = null;
+        final LazySimpleSerDe serde = HiveUtils.getLineSerde(featureOI, weightOI, covarOI);
+        final StructObjectInspector lineOI = (StructObjectInspector) serde.getObjectInspector();
+        StructField c1ref = lineOI.getStructFieldRef("c1");
+        StructField c2ref = lineOI.getStructFieldRef("c2");
+        StructField c3ref = lineOI.getStructFieldRef("c3");
+        final PrimitiveObjectInspector c1oi = (PrimitiveObjectInspector) c1ref.getFieldObjectInspector();
+        final FloatObjectInspector c2oi = (FloatObjectInspector) c2ref.getFieldObjectInspector();
+        final FloatObjectInspector c3oi = (FloatObjectInspector) c3ref.getFieldObjectInspector();
+
+        return DistributedCacheLoader.readLines(file, context, new LineHandler() {
+            @Override
+            public void handle(String line) throws HiveException {
+                Text lineText = new Text(line);
+                final Object lineObj;
                 try {
-                    reader = HadoopUtils.getBufferedReader(file);
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        count++;
-                        Text lineText = new Text(line);
-                        Object lineObj = serde.deserialize(lineText);
-                        List<Object> fields = lineOI.getStructFieldsDataAsList(lineObj);
-                        Object f0 = fields.get(0);
-                        Object f1 = fields.get(1);
-                        Object f2 = fields.get(2);
-                        if (f0 == null || f1 == null) {
-                            continue; // avoid unexpected case
-                        }
-                        Object k = c1oi.getPrimitiveWritableObject(c1oi.copyObject(f0));
-                        float v = c2oi.get(f1);
-                        float cov = (f2 == null) ? WeightValueWithCovar.DEFAULT_COVAR
-                                : c3oi.get(f2);
-                        model.set(k, new WeightValueWithCovar(v, cov, false));
-                    }
-                } finally {
-                    IOUtils.closeQuietly(reader);
+                    lineObj = serde.deserialize(lineText);
+                } catch (SerDeException e) {
+                    throw new HiveException("Failed to parse a line: " + line, e);
                 }
+                List<Object> fields = lineOI.getStructFieldsDataAsList(lineObj);
+                Object f0 = fields.get(0);
+                Object f1 = fields.get(1);
+                Object f2 = fields.get(2);
+                if (f0 == null || f1 == null) {
+                    return; // avoid unexpected case
+                }
+                Object k = c1oi.getPrimitiveWritableObject(c1oi.copyObject(f0));
+                float v = c2oi.get(f1);
+                float cov = (f2 == null) ? WeightValueWithCovar.DEFAULT_COVAR : c3oi.get(f2);
+                model.set(k, new WeightValueWithCovar(v, cov, false));
             }
-        }
-        return count;
+        });
     }
 
     @Override
     public void close() throws HiveException {
+        final ExampleReplayBuffer buffer = replayBuffer;
+        final ConcurrentTrainer trainer = concurrentTrainer;
+        try {
+            if (buffer != null) {
+                this.replayBuffer = null;
+                try {
+                    runTrainingIterations(buffer);
+                } finally {
+                    buffer.close();
+                }
+            }
+        } finally {
+            if (trainer != null) {
+                this.concurrentTrainer = null;
+                trainer.close();
+            }
+        }
+        if (metrics != null) {
+            metrics.close(getReporter(), getModelSize());
+        }
         if (mixClient != null) {
             IOUtils.closeQuietly(mixClient);
             this.mixClient = null;
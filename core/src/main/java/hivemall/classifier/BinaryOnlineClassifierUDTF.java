@@ -19,6 +19,7 @@
 package hivemall.classifier;
 
 import hivemall.LearnerBaseUDTF;
+import hivemall.common.LossFunctions;
 import hivemall.model.FeatureValue;
 import hivemall.model.IWeightValue;
 import hivemall.model.PredictionModel;
@@ -56,7 +57,6 @@ public abstract class BinaryOnlineClassifierUDTF extends LearnerBaseUDTF {
     private boolean parseFeature;
 
     protected PredictionModel model;
-    protected int count;
 
     @Override
     public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -70,7 +70,7 @@ public abstract class BinaryOnlineClassifierUDTF extends LearnerBaseUDTF {
 
         processOptions(argOIs);
 
-        PrimitiveObjectInspector featureOutputOI = dense_model ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
+        PrimitiveObjectInspector featureOutputOI = useIntFeature() ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
                 : featureInputOI;
         this.model = createModel();
         if (preloadedModelFile != null) {
@@ -91,6 +91,9 @@ public abstract class BinaryOnlineClassifierUDTF extends LearnerBaseUDTF {
     }
 
     protected StructObjectInspector getReturnOI(ObjectInspector featureRawOI) {
+        if (compactModel) {
+            return getCompactModelReturnOI();
+        }
         ArrayList<String> fieldNames = new ArrayList<String>();
         ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
 
@@ -117,34 +120,36 @@ public abstract class BinaryOnlineClassifierUDTF extends LearnerBaseUDTF {
         int label = PrimitiveObjectInspectorUtils.getInt(args[1], labelOI);
         checkLabelValue(label);
 
-        count++;
-        train(featureVector, label);
+        processExample(featureVector, label, null);
     }
 
-    @Nullable
-    protected final FeatureValue[] parseFeatures(@Nonnull final List<?> features) {
-        final int size = features.size();
-        if (size == 0) {
-            return null;
+    @Override
+    protected float trainExample(@Nonnull final FeatureValue[] features, final double target,
+            @Nullable final Object label) {
+        final int y = (int) target;
+        float loss = 0.f;
+        if (cvState != null) {
+            float p = predict(features);
+            loss = Math.max(0.f, LossFunctions.hingeLoss(p, y > 0 ? 1.f : -1.f));
         }
+        train(features, y);
+        return loss;
+    }
 
-        final ObjectInspector featureInspector = featureListOI.getListElementObjectInspector();
-        final FeatureValue[] featureVector = new FeatureValue[size];
-        for (int i = 0; i < size; i++) {
-            Object f = features.get(i);
-            if (f == null) {
-                continue;
-            }
-            final FeatureValue fv;
-            if (parseFeature) {
-                fv = FeatureValue.parse(f);
-            } else {
-                Object k = ObjectInspectorUtils.copyToStandardObject(f, featureInspector);
-                fv = new FeatureValue(k, 1.f);
-            }
-            featureVector[i] = fv;
-        }
-        return featureVector;
+    @Override
+    protected boolean isConcurrentTrainingSupported() {
+        return true;
+    }
+
+    @Override
+    protected long getModelSize() {
+        return (model == null) ? -1L : model.size();
+    }
+
+    @Nullable
+    protected final FeatureValue[] parseFeatures(@Nonnull final List<?> features) {
+        return parseFeatureVector(features, featureListOI.getListElementObjectInspector(),
+            parseFeature);
     }
 
     protected void checkLabelValue(int label) throws UDFArgumentException {
@@ -251,7 +256,9 @@ public abstract class BinaryOnlineClassifierUDTF extends LearnerBaseUDTF {
         super.close();
         if (model != null) {
             int numForwarded = 0;
-            if (useCovariance()) {
+            if (compactModel) {
+                numForwarded = forwardCompactModel(model);
+            } else if (useCovariance()) {
                 final WeightValueWithCovar probe = new WeightValueWithCovar();
                 final Object[] forwardMapObj = new Object[3];
                 final FloatWritable fv = new FloatWritable();
@@ -75,7 +75,6 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
     private PrimitiveObjectInspector labelInputOI;
 
     protected Map<Object, PredictionModel> label2model;
-    protected int count;
 
     @Override
     public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
@@ -95,7 +94,7 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
 
         processOptions(argOIs);
 
-        PrimitiveObjectInspector featureOutputOI = dense_model ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
+        PrimitiveObjectInspector featureOutputOI = useIntFeature() ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
                 : featureInputOI;
         this.label2model = new HashMap<Object, PredictionModel>(64);
         if (preloadedModelFile != null) {
@@ -158,34 +157,38 @@ public abstract class MulticlassOnlineClassifierUDTF extends LearnerBaseUDTF {
             throw new UDFArgumentException("label value must not be NULL");
         }
 
-        count++;
-        train(featureVector, label);
+        processExample(featureVector, Double.NaN, label);
     }
 
-    @Nullable
-    protected final FeatureValue[] parseFeatures(@Nonnull final List<?> features) {
-        final int size = features.size();
-        if (size == 0) {
-            return null;
+    @Override
+    protected float trainExample(@Nonnull final FeatureValue[] features, final double target,
+            @Nullable final Object label) {
+        assert (label != null);
+        float loss = 0.f;
+        if (cvState != null) {
+            Margin margin = getMargin(features, label);
+            loss = Math.max(0.f, 1.f - margin.get());
         }
+        train(features, label);
+        return loss;
+    }
 
-        final ObjectInspector featureInspector = featureListOI.getListElementObjectInspector();
-        final FeatureValue[] featureVector = new FeatureValue[size];
-        for (int i = 0; i < size; i++) {
-            Object f = features.get(i);
-            if (f == null) {
-                continue;
-            }
-            final FeatureValue fv;
-            if (parseFeature) {
-                fv = FeatureValue.parse(f);
-            } else {
-                Object k = ObjectInspectorUtils.copyToStandardObject(f, featureInspector);
-                fv = new FeatureValue(k, 1.f);
-            }
-            featureVector[i] = fv;
+    @Override
+    protected long getModelSize() {
+        if (label2model == null) {
+            return -1L;
         }
-        return featureVector;
+        long size = 0L;
+        for (PredictionModel model : label2model.values()) {
+            size += model.size();
+        }
+        return size;
+    }
+
+    @Nullable
+    protected final FeatureValue[] parseFeatures(@Nonnull final List<?> features) {
+        return parseFeatureVector(features, featureListOI.getListElementObjectInspector(),
+            parseFeature);
     }
 
     protected abstract void train(@Nonnull final FeatureValue[] features,
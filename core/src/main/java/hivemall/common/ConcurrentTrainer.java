@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.model.FeatureValue;
+import hivemall.utils.concurrent.NamedThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * Trains examples on multiple threads in the Hogwild! manner. A single producer copies examples
+ * into batches of a bounded ring, and worker threads take batches from the ring and train them
+ * without coordinating model updates.
+ * 
+ * Recht et al., Hogwild!: A Lock-Free Approach to Parallelizing Stochastic Gradient Descent, NIPS
+ * 2011.
+ */
+@NotThreadSafe
+public final class ConcurrentTrainer {
+    private static final Log logger = LogFactory.getLog(ConcurrentTrainer.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 128;
+
+    private static final Batch POISON = new Batch(0);
+    /** interval to check a failure of workers while waiting for a free batch */
+    private static final long POLL_INTERVAL_MILLIS = 100L;
+
+    @Nonnull
+    private final ExampleHandler handler;
+    @Nonnull
+    private final BlockingQueue<Batch> freeQueue;
+    @Nonnull
+    private final BlockingQueue<Batch> readyQueue;
+    @Nonnull
+    private final Thread[] workers;
+
+    @Nonnull
+    private Batch batch;
+    private long submitted;
+
+    @GuardedBy("this")
+    private long completed;
+    @GuardedBy("this")
+    private double losses;
+    @Nullable
+    private volatile Throwable error;
+
+    public ConcurrentTrainer(int numThreads, @Nonnull ExampleHandler handler) {
+        this(numThreads, DEFAULT_BATCH_SIZE, numThreads * 4, handler);
+    }
+
+    public ConcurrentTrainer(int numThreads, int batchSize, int numBatches,
+            @Nonnull ExampleHandler handler) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be greater than 0: " + numThreads);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than 0: " + batchSize);
+        }
+        if (numBatches < 1) {
+            throw new IllegalArgumentException("numBatches must be greater than 0: " + numBatches);
+        }
+        this.handler = handler;
+        this.freeQueue = new ArrayBlockingQueue<Batch>(numBatches);
+        this.readyQueue = new ArrayBlockingQueue<Batch>(numBatches + numThreads);
+        for (int i = 1; i < numBatches; i++) {
+            freeQueue.add(new Batch(batchSize));
+        }
+        this.batch = new Batch(batchSize);
+        this.submitted = 0L;
+        this.completed = 0L;
+        this.losses = 0.d;
+
+        NamedThreadFactory factory = new NamedThreadFactory("hivemall-trainer", true);
+        this.workers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            Thread worker = factory.newThread(new Worker());
+            workers[i] = worker;
+            worker.start();
+        }
+        logger.info("Started " + numThreads + " trainer threads");
+    }
+
+    /**
+     * Queues an example to be trained by a worker thread. The given features are copied and can be
+     * reused by the caller.
+     */
+    public void submit(@Nonnull final FeatureValue[] features, final double target,
+            @Nullable final Object label) throws HiveException {
+        checkError();
+        Batch b = batch;
+        b.add(features, target, label);
+        if (b.isFull()) {
+            publish(b);
+            this.batch = takeFreeBatch();
+        }
+    }
+
+    /**
+     * Waits until all the queued examples are trained.
+     * 
+     * @return the sum of losses returned by the handler since the last synchronization
+     */
+    public double sync() throws HiveException {
+        if (batch.size > 0) {
+            publish(batch);
+            this.batch = takeFreeBatch();
+        }
+        final double sum;
+        synchronized (this) {
+            // a worker that failed may never complete its batch
+            while (completed < submitted && error == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new HiveException("Interrupted while waiting for trainer threads", e);
+                }
+            }
+            sum = losses;
+            this.losses = 0.d;
+        }
+        checkError();
+        return sum;
+    }
+
+    /**
+     * Trains all the queued examples and stops the worker threads.
+     * 
+     * @return the sum of losses returned by the handler since the last synchronization
+     */
+    public double close() throws HiveException {
+        final double sum;
+        try {
+            sum = sync();
+        } finally {
+            for (int i = 0; i < workers.length; i++) {
+                readyQueue.offer(POISON);
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    throw new HiveException("Interrupted while stopping trainer threads", e);
+                }
+            }
+        }
+        return sum;
+    }
+
+    private void publish(@Nonnull final Batch b) throws HiveException {
+        submitted++;
+        try {
+            readyQueue.put(b);
+        } catch (InterruptedException e) {
+            throw new HiveException("Interrupted while queueing training examples", e);
+        }
+    }
+
+    @Nonnull
+    private Batch takeFreeBatch() throws HiveException {
+        while (true) {
+            final Batch b;
+            try {
+                b = freeQueue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new HiveException("Interrupted while queueing training examples", e);
+            }
+            if (b != null) {
+                return b;
+            }
+            checkError(); // batches held by failed workers are never freed
+        }
+    }
+
+    private void checkError() throws HiveException {
+        final Throwable e = error;
+        if (e != null) {
+            throw new HiveException("Exception caused in a trainer thread", e);
+        }
+    }
+
+    private synchronized void onError(@Nonnull final Throwable e) {
+        this.error = e;
+        notifyAll();
+    }
+
+    private synchronized void onCompleted(final double loss) {
+        this.completed++;
+        this.losses += loss;
+        if (completed == submitted) {
+            notifyAll();
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        Worker() {}
+
+        @Override
+        public void run() {
+            while (true) {
+                final Batch b;
+                try {
+                    b = readyQueue.take();
+                } catch (InterruptedException e) {
+                    onError(e);
+                    return;
+                }
+                if (b == POISON) {
+                    return;
+                }
+
+                double loss = 0.d;
+                if (error == null) {// just drain examples after a failure
+                    try {
+                        for (int i = 0; i < b.size; i++) {
+                            loss += handler.handle(b.features[i], b.targets[i], b.labels[i]);
+                        }
+                    } catch (Throwable e) {
+                        logger.error("Exception caused in a trainer thread", e);
+                        onError(e);
+                    }
+                }
+                b.clear();
+                freeQueue.add(b);
+                onCompleted(loss);
+            }
+        }
+
+    }
+
+    private static final class Batch {
+
+        @Nonnull
+        final FeatureValue[][] features;
+        @Nonnull
+        final double[] targets;
+        @Nonnull
+        final Object[] labels;
+        int size;
+
+        Batch(int capacity) {
+            this.features = new FeatureValue[capacity][];
+            this.targets = new double[capacity];
+            this.labels = new Object[capacity];
+            this.size = 0;
+        }
+
+        boolean isFull() {
+            return size == features.length;
+        }
+
+        void add(@Nonnull final FeatureValue[] src, final double target,
+                @Nullable final Object label) {
+            FeatureValue[] dst = features[size];
+            if (dst == null || dst.length != src.length) {
+                FeatureValue[] newDst = new FeatureValue[src.length];
+                if (dst != null) {// reuse FeatureValue instances
+                    System.arraycopy(dst, 0, newDst, 0, Math.min(dst.length, src.length));
+                }
+                dst = newDst;
+                features[size] = dst;
+            }
+            for (int i = 0; i < src.length; i++) {
+                final FeatureValue f = src[i];
+                if (f == null) {
+                    dst[i] = null;
+                    continue;
+                }
+                FeatureValue fv = dst[i];
+                if (fv == null) {
+                    fv = new FeatureValue();
+                    dst[i] = fv;
+                }
+                fv.setFeature(f.getFeature());
+                fv.setValue(f.getValue());
+            }
+            targets[size] = target;
+            labels[size] = label;
+            size++;
+        }
+
+        void clear() {
+            // keep feature arrays for reuse
+            for (int i = 0; i < size; i++) {
+                labels[i] = null;
+            }
+            this.size = 0;
+        }
+
+    }
+
+    public interface ExampleHandler {
+
+        /**
+         * Trains an example. Invoked concurrently from the worker threads.
+         * 
+         * @return the loss of the example
+         */
+        float handle(@Nonnull FeatureValue[] features, double target, @Nullable Object label)
+                throws HiveException;
+    }
+
+}
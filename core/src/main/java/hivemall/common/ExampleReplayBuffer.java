@@ -0,0 +1,489 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.model.FeatureValue;
+import hivemall.utils.hadoop.TextInterner;
+import hivemall.utils.io.FileUtils;
+import hivemall.utils.io.NioStatefullSegment;
+import hivemall.utils.lang.ArrayUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A buffer that records training examples in a compact binary form so that they can be replayed
+ * for multiple training iterations.
+ * 
+ * Records are kept on memory until the buffer reaches the block size. Then, the buffer is spilled
+ * to a temporary file as a block. On replay, blocks are visited in a random order and records in
+ * each block are shuffled when a {@link Random} instance is given.
+ * 
+ * Each record is laid out as
+ * <code>[int recordBytes][int numFeatures]{[byte keyType][key][float value]}*[byte labelType][label]</code>
+ * .
+ */
+@NotThreadSafe
+public final class ExampleReplayBuffer {
+    private static final Log logger = LogFactory.getLog(ExampleReplayBuffer.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024 * 1024; // 16 MiB
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024; // 64 KiB
+    private static final int INT_BYTES = Integer.SIZE / 8;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_TEXT = 3;
+    private static final byte TYPE_STRING = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_INT_WRITABLE = 6;
+    private static final byte TYPE_LONG_WRITABLE = 7;
+
+    private final int blockSize;
+    @Nonnull
+    private final TextInterner interner;
+
+    @Nonnull
+    private ByteBuffer buf;
+    /** offsets of the records in the current block */
+    @Nonnull
+    private int[] offsets;
+    private int numRecordsInBlock;
+    private long numRecords;
+
+    @Nullable
+    private NioStatefullSegment fileIO;
+    @Nonnull
+    private long[] blockPositions;
+    @Nonnull
+    private int[] blockBytes;
+    private int numBlocks;
+    /** true once examples are replayed */
+    private boolean sealed;
+
+    // buffer reused for replaying records
+    @Nullable
+    private FeatureValue[] features;
+
+    public ExampleReplayBuffer() {
+        this(DEFAULT_BLOCK_SIZE, null);
+    }
+
+    public ExampleReplayBuffer(@Nonnegative int blockSize, @Nullable TextInterner interner) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be greater than 0: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.interner = (interner == null) ? new TextInterner() : interner;
+        this.buf = ByteBuffer.allocate(Math.min(INITIAL_BUFFER_SIZE, blockSize));
+        this.offsets = new int[1024];
+        this.numRecordsInBlock = 0;
+        this.numRecords = 0L;
+        this.fileIO = null;
+        this.blockPositions = new long[16];
+        this.blockBytes = new int[16];
+        this.numBlocks = 0;
+        this.sealed = false;
+    }
+
+    /**
+     * @return the number of recorded examples
+     */
+    public long size() {
+        return numRecords;
+    }
+
+    /**
+     * @return true if a part of the records were spilled to a temporary file
+     */
+    public boolean isSpilled() {
+        return fileIO != null;
+    }
+
+    public void add(@Nonnull final FeatureValue[] x, final double target) throws HiveException {
+        final int start = beginRecord(x, 1 + 8);
+        writeFeatures(x);
+        buf.put(TYPE_DOUBLE);
+        buf.putDouble(target);
+        endRecord(start);
+    }
+
+    public void add(@Nonnull final FeatureValue[] x, @Nonnull final Object label)
+            throws HiveException {
+        final int start = beginRecord(x, requiredBytes(label));
+        writeFeatures(x);
+        writeObject(label);
+        endRecord(start);
+    }
+
+    private int beginRecord(@Nonnull final FeatureValue[] x, final int labelBytes)
+            throws HiveException {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add an example after replay");
+        }
+        int required = INT_BYTES + INT_BYTES + labelBytes;
+        for (FeatureValue f : x) {
+            if (f == null) {
+                required += 1;
+            } else {
+                required += requiredBytes(f.getFeature()) + 4;
+            }
+        }
+        ensureCapacity(required);
+
+        final int start = buf.position();
+        buf.putInt(0); // placeholder for recordBytes
+        buf.putInt(x.length);
+        return start;
+    }
+
+    private void endRecord(final int start) {
+        int recordBytes = buf.position() - start - INT_BYTES;
+        buf.putInt(start, recordBytes);
+
+        if (numRecordsInBlock == offsets.length) {
+            this.offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[numRecordsInBlock++] = start;
+        numRecords++;
+    }
+
+    private void writeFeatures(@Nonnull final FeatureValue[] x) {
+        for (FeatureValue f : x) {
+            if (f == null) {
+                buf.put(TYPE_NULL);
+                continue;
+            }
+            writeObject(f.getFeature());
+            buf.putFloat(f.getValueAsFloat());
+        }
+    }
+
+    /**
+     * @return the upper bound of the bytes required to write the given object
+     */
+    private static int requiredBytes(@Nonnull final Object o) {
+        if (o instanceof Integer || o instanceof IntWritable) {
+            return 1 + 4;
+        } else if (o instanceof Long || o instanceof LongWritable) {
+            return 1 + 8;
+        } else if (o instanceof Text) {
+            return 1 + INT_BYTES + ((Text) o).getLength();
+        } else if (o instanceof String) {
+            return 1 + INT_BYTES + ((String) o).length() * 3; // at most 3 bytes per char in UTF-8
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + o.getClass().getName());
+        }
+    }
+
+    private void writeObject(@Nonnull final Object o) {
+        if (o instanceof Integer) {
+            buf.put(TYPE_INT);
+            buf.putInt(((Integer) o).intValue());
+        } else if (o instanceof Long) {
+            buf.put(TYPE_LONG);
+            buf.putLong(((Long) o).longValue());
+        } else if (o instanceof IntWritable) {
+            buf.put(TYPE_INT_WRITABLE);
+            buf.putInt(((IntWritable) o).get());
+        } else if (o instanceof LongWritable) {
+            buf.put(TYPE_LONG_WRITABLE);
+            buf.putLong(((LongWritable) o).get());
+        } else if (o instanceof Text) {
+            Text t = (Text) o;
+            buf.put(TYPE_TEXT);
+            buf.putInt(t.getLength());
+            buf.put(t.getBytes(), 0, t.getLength());
+        } else if (o instanceof String) {
+            byte[] b = ((String) o).getBytes(StandardCharsets.UTF_8);
+            buf.put(TYPE_STRING);
+            buf.putInt(b.length);
+            buf.put(b);
+        } else {
+            throw new IllegalArgumentException("Unsupported type: " + o.getClass().getName());
+        }
+    }
+
+    private void ensureCapacity(final int required) throws HiveException {
+        if (buf.remaining() >= required) {
+            return;
+        }
+        final int newSize = Math.max(buf.capacity() * 2, buf.position() + required);
+        if (newSize <= blockSize) {
+            growBuffer(newSize);
+            return;
+        }
+        if (numRecordsInBlock > 0) {
+            spill();
+            if (buf.remaining() >= required) {
+                return;
+            }
+        }
+        // a record larger than the block size forms a block by itself
+        growBuffer(Math.max(required, blockSize));
+    }
+
+    private void growBuffer(final int newSize) {
+        ByteBuffer newBuf = ByteBuffer.allocate(newSize);
+        buf.flip();
+        newBuf.put(buf);
+        this.buf = newBuf;
+    }
+
+    private void spill() throws HiveException {
+        NioStatefullSegment dst = fileIO;
+        if (dst == null) {
+            final File file;
+            try {
+                file = File.createTempFile("hivemall_replay", ".sgmt");
+                file.deleteOnExit();
+                if (!file.canWrite()) {
+                    throw new HiveException("Cannot write a temporary file: "
+                            + file.getAbsolutePath());
+                }
+                logger.info("Record training examples to a file: " + file.getAbsolutePath());
+            } catch (IOException e) {
+                throw new HiveException("Failed to create a temporary file", e);
+            }
+            this.fileIO = dst = new NioStatefullSegment(file, false);
+        }
+
+        final long position = dst.getPosition();
+        final int bytes = buf.position();
+        buf.flip();
+        try {
+            dst.write(buf);
+        } catch (IOException e) {
+            throw new HiveException("Exception causes while writing a buffer to file", e);
+        }
+        buf.clear();
+
+        if (numBlocks == blockBytes.length) {
+            this.blockPositions = Arrays.copyOf(blockPositions, numBlocks * 2);
+            this.blockBytes = Arrays.copyOf(blockBytes, numBlocks * 2);
+        }
+        blockPositions[numBlocks] = position;
+        blockBytes[numBlocks] = bytes;
+        numBlocks++;
+        this.numRecordsInBlock = 0;
+    }
+
+    /**
+     * Replays all the recorded examples. No example should be added after calling this method.
+     * 
+     * @param rnd shuffles examples if not null
+     */
+    public void replay(@Nonnull final ReplayListener listener, @Nullable final Random rnd)
+            throws HiveException {
+        if (numRecords == 0L) {
+            return;
+        }
+        if (fileIO == null) {
+            this.sealed = true;
+            replayBlock(listener, rnd);
+            return;
+        }
+
+        if (!sealed) {
+            this.sealed = true;
+            if (numRecordsInBlock > 0) {
+                spill();
+            }
+            try {
+                fileIO.flush();
+            } catch (IOException e) {
+                throw new HiveException("Failed to flush a file: "
+                        + fileIO.getFile().getAbsolutePath(), e);
+            }
+            if (logger.isInfoEnabled()) {
+                File tmpFile = fileIO.getFile();
+                logger.info("Wrote " + numRecords + " records in " + numBlocks
+                        + " blocks to a temporary file for iterative training: "
+                        + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
+                        + ")");
+            }
+        }
+
+        final int[] blocks = new int[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            blocks[i] = i;
+        }
+        if (rnd != null) {
+            ArrayUtils.shuffle(blocks, rnd);
+        }
+        for (int block : blocks) {
+            readBlock(block);
+            replayBlock(listener, rnd);
+        }
+    }
+
+    private void readBlock(final int block) throws HiveException {
+        final int bytes = blockBytes[block];
+        if (buf.capacity() < bytes) {
+            this.buf = ByteBuffer.allocate(bytes);
+        }
+        buf.clear();
+        buf.limit(bytes);
+        try {
+            int bytesRead = fileIO.read(blockPositions[block], buf);
+            if (bytesRead != bytes) {
+                throw new HiveException("Illegal file format was detected. Expected " + bytes
+                        + " bytes but read " + bytesRead + " bytes");
+            }
+        } catch (IOException e) {
+            throw new HiveException("Failed to read a file: " + fileIO.getFile().getAbsolutePath(),
+                e);
+        }
+
+        int numRecords = 0;
+        int pos = 0;
+        while (pos < bytes) {
+            if (numRecords == offsets.length) {
+                this.offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[numRecords++] = pos;
+            pos += INT_BYTES + buf.getInt(pos);
+        }
+        this.numRecordsInBlock = numRecords;
+    }
+
+    private void replayBlock(@Nonnull final ReplayListener listener, @Nullable final Random rnd)
+            throws HiveException {
+        final int numRecords = numRecordsInBlock;
+        if (rnd != null) {
+            ArrayUtils.shuffle(offsets, numRecords, rnd);
+        }
+        final ByteBuffer src = buf.duplicate();
+        for (int i = 0; i < numRecords; i++) {
+            src.position(offsets[i] + INT_BYTES);
+            replayRecord(src, listener);
+        }
+    }
+
+    private void replayRecord(@Nonnull final ByteBuffer src, @Nonnull final ReplayListener listener)
+            throws HiveException {
+        final int size = src.getInt();
+        FeatureValue[] x = features;
+        if (x == null || x.length != size) {
+            x = new FeatureValue[size];
+            this.features = x;
+        }
+        for (int j = 0; j < size; j++) {
+            byte type = src.get();
+            if (type == TYPE_NULL) {
+                x[j] = null;
+                continue;
+            }
+            FeatureValue fv = x[j];
+            if (fv == null) {
+                fv = new FeatureValue();
+                x[j] = fv;
+            }
+            fv.setFeature(readObject(type, src));
+            fv.setValue(src.getFloat());
+        }
+
+        final byte labelType = src.get();
+        if (labelType == TYPE_DOUBLE) {
+            listener.onReplay(x, src.getDouble(), null);
+        } else {
+            listener.onReplay(x, Double.NaN, readObject(labelType, src));
+        }
+    }
+
+    @Nonnull
+    private Object readObject(final byte type, @Nonnull final ByteBuffer src) {
+        switch (type) {
+            case TYPE_INT:
+                return Integer.valueOf(src.getInt());
+            case TYPE_LONG:
+                return Long.valueOf(src.getLong());
+            case TYPE_INT_WRITABLE:
+                return new IntWritable(src.getInt());
+            case TYPE_LONG_WRITABLE:
+                return new LongWritable(src.getLong());
+            case TYPE_TEXT: {
+                int len = src.getInt();
+                int pos = src.position();
+                src.position(pos + len);
+                return interner.intern(src.array(), src.arrayOffset() + pos, len);
+            }
+            case TYPE_STRING: {
+                int len = src.getInt();
+                int pos = src.position();
+                src.position(pos + len);
+                return new String(src.array(), src.arrayOffset() + pos, len,
+                    StandardCharsets.UTF_8);
+            }
+            default:
+                throw new IllegalStateException("Illegal type was detected: " + type);
+        }
+    }
+
+    /**
+     * Releases the buffers and deletes the temporary file if any.
+     */
+    public void close() throws HiveException {
+        final NioStatefullSegment file = fileIO;
+        this.fileIO = null;
+        this.buf = ByteBuffer.allocate(0);
+        this.offsets = new int[0];
+        this.numRecordsInBlock = 0;
+        this.features = null;
+        if (file != null) {
+            try {
+                file.close(true);
+            } catch (IOException e) {
+                throw new HiveException("Failed to close a file: "
+                        + file.getFile().getAbsolutePath(), e);
+            }
+        }
+    }
+
+    public interface ReplayListener {
+
+        /**
+         * Note that the given features are reused in the next invocation.
+         * 
+         * @param target the target value if recorded with a double target; otherwise NaN
+         * @param label the label if recorded with an object label; otherwise null
+         */
+        void onReplay(@Nonnull FeatureValue[] features, double target, @Nullable Object label)
+                throws HiveException;
+    }
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.mix.client.MixClient;
+import hivemall.utils.datetime.DateTimeFormatter;
+import hivemall.utils.lang.NumberUtils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Tracks the training metrics of a learner and publishes them through Hadoop counters and,
+ * optionally, a JMX MBean.
+ * 
+ * Parse and update times are measured for one in {@link #SAMPLING_INTERVAL} rows and scaled by the
+ * number of rows, so that calls to {@link System#nanoTime()} stay off the most of rows. Metrics
+ * are published every {@link #REPORT_INTERVAL} rows and on {@link #close(Reporter, long)}.
+ */
+public final class LearnerMetrics implements LearnerMetricsMBean {
+    private static final Log logger = LogFactory.getLog(LearnerMetrics.class);
+
+    public static final String COUNTER_GROUP = "hivemall.common.LearnerMetrics$Counter";
+    public static final int SAMPLING_INTERVAL = 64;
+    public static final long REPORT_INTERVAL = 65536L;
+
+    private static final int SAMPLING_MASK = SAMPLING_INTERVAL - 1;
+    private static final long REPORT_MASK = REPORT_INTERVAL - 1L;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private static final AtomicInteger SEQUENCE = new AtomicInteger(0);
+
+    /**
+     * Metrics published as counters. Gauges such as the throughput and the heap usage are exposed
+     * only through JMX because counters are summed up across tasks.
+     */
+    private enum Metric {
+        rows, parse_millis, update_millis, model_size, gc_millis, gc_count, mix_sent,
+        mix_received;
+    }
+
+    @Nonnull
+    private final String name;
+    private final boolean jmx;
+    @Nonnull
+    private final List<MixClient> mixClients;
+
+    // updated by the thread that processes rows
+    private long rows;
+    private long parses;
+    private long sampledParses;
+    private long sampledParseNanos;
+    private long startNanos;
+    private long gcMillisAtStart;
+    private long gcCountAtStart;
+    @Nullable
+    private ObjectName mbeanName;
+    @Nullable
+    private Counter[] counters;
+
+    // updated by trainer threads. Lost increments just shift the sampled rows
+    private int updateTicks;
+    @GuardedBy("this")
+    private long sampledUpdates;
+    @GuardedBy("this")
+    private long sampledUpdateNanos;
+    @GuardedBy("this")
+    private long trainingNanos;
+
+    // published on report
+    private volatile long publishedRows;
+    private volatile long rowsPerSecond;
+    private volatile long parseTimeMillis;
+    private volatile long updateTimeMillis;
+    private volatile long modelSize = -1L;
+    private volatile long heapUsed;
+    private volatile long gcTimeMillis;
+    private volatile long gcCount;
+    private volatile long mixRequestsSent;
+    private volatile long mixUpdatesReceived;
+
+    /**
+     * @param name the name of the learner
+     * @param jmx whether to expose the metrics through JMX while training
+     */
+    public LearnerMetrics(@Nonnull String name, boolean jmx) {
+        this.name = name;
+        this.jmx = jmx;
+        this.mixClients = new ArrayList<MixClient>(1);
+    }
+
+    public void addMixClient(@Nonnull MixClient mixClient) {
+        mixClients.add(mixClient);
+    }
+
+    /**
+     * @return the start time to be given to {@link #endParse(long)}
+     */
+    public long startParse() {
+        if ((parses++ & SAMPLING_MASK) != 0L) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    public void endParse(final long start) {
+        if (start != NOT_SAMPLED) {
+            sampledParses++;
+            sampledParseNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Can be invoked by multiple threads.
+     * 
+     * @return the start time to be given to {@link #endUpdate(long)}
+     */
+    public long startUpdate() {
+        final int ticks = updateTicks;
+        this.updateTicks = ticks + 1;
+        if ((ticks & SAMPLING_MASK) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Can be invoked by multiple threads.
+     */
+    public void endUpdate(final long start) {
+        if (start != NOT_SAMPLED) {
+            long elapsed = System.nanoTime() - start;
+            synchronized (this) {
+                sampledUpdates++;
+                sampledUpdateNanos += elapsed;
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent in building a model at once, e.g., from buffered rows.
+     */
+    public synchronized void addTrainingTime(final long nanos) {
+        this.trainingNanos += nanos;
+    }
+
+    /**
+     * Counts a trained row.
+     * 
+     * @return true if the metrics should be reported
+     */
+    public boolean incrRows() {
+        final long r = rows++;
+        if (r == 0L) {
+            start();
+        }
+        return (r & REPORT_MASK) == REPORT_MASK;
+    }
+
+    private void start() {
+        this.startNanos = System.nanoTime();
+        final long[] gc = getGcStats();
+        this.gcMillisAtStart = gc[0];
+        this.gcCountAtStart = gc[1];
+        if (jmx) {// not at construction as learners are also initialized in query compilation
+            this.mbeanName = registerMBean(this, name);
+        }
+    }
+
+    /**
+     * Publishes the metrics.
+     * 
+     * @param modelSize the number of features held in the model, or -1 if unknown
+     */
+    public void report(@Nullable final Reporter reporter, final long modelSize) {
+        if (rows == 0L) {
+            return;
+        }
+        final long elapsedNanos = Math.max(1L, System.nanoTime() - startNanos);
+        final long sampledUpdates, sampledUpdateNanos, trainingNanos;
+        synchronized (this) {
+            sampledUpdates = this.sampledUpdates;
+            sampledUpdateNanos = this.sampledUpdateNanos;
+            trainingNanos = this.trainingNanos;
+        }
+        this.publishedRows = rows;
+        this.rowsPerSecond = (long) (rows * 1000000000.d / elapsedNanos);
+        this.parseTimeMillis = estimateMillis(sampledParseNanos, sampledParses, parses);
+        this.updateTimeMillis = estimateMillis(sampledUpdateNanos, sampledUpdates, rows)
+                + trainingNanos / 1000000L;
+        this.modelSize = modelSize;
+        this.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final long[] gc = getGcStats();
+        this.gcTimeMillis = gc[0] - gcMillisAtStart;
+        this.gcCount = gc[1] - gcCountAtStart;
+        final boolean mixed = !mixClients.isEmpty();
+        if (mixed) {
+            long sent = 0L, received = 0L;
+            for (MixClient client : mixClients) {
+                sent += client.getNumSentRequests();
+                received += client.getNumReceivedUpdates();
+            }
+            this.mixRequestsSent = sent;
+            this.mixUpdatesReceived = received;
+        }
+
+        if (reporter != null) {
+            Counter[] counters = this.counters;
+            if (counters == null) {
+                final Metric[] metrics = Metric.values();
+                counters = new Counter[metrics.length];
+                for (Metric m : metrics) {
+                    counters[m.ordinal()] = reporter.getCounter(COUNTER_GROUP, m.name());
+                }
+                this.counters = counters;
+            }
+            setCounterValue(counters[Metric.rows.ordinal()], rows);
+            setCounterValue(counters[Metric.parse_millis.ordinal()], parseTimeMillis);
+            setCounterValue(counters[Metric.update_millis.ordinal()], updateTimeMillis);
+            if (modelSize >= 0L) {
+                setCounterValue(counters[Metric.model_size.ordinal()], modelSize);
+            }
+            setCounterValue(counters[Metric.gc_millis.ordinal()], gcTimeMillis);
+            setCounterValue(counters[Metric.gc_count.ordinal()], gcCount);
+            if (mixed) {
+                setCounterValue(counters[Metric.mix_sent.ordinal()], mixRequestsSent);
+                setCounterValue(counters[Metric.mix_received.ordinal()], mixUpdatesReceived);
+            }
+        }
+    }
+
+    /**
+     * Publishes the final metrics, logs them, and unregisters the MBean.
+     */
+    public void close(@Nullable final Reporter reporter, final long modelSize) {
+        if (rows == 0L) {
+            return;
+        }
+        report(reporter, modelSize);
+        if (logger.isInfoEnabled()) {
+            logger.info(name + " trained " + NumberUtils.formatNumber(rows) + " rows ("
+                    + NumberUtils.formatNumber(rowsPerSecond) + " rows/sec), parse: "
+                    + DateTimeFormatter.formatTime(parseTimeMillis) + ", update: "
+                    + DateTimeFormatter.formatTime(updateTimeMillis) + ", model size: "
+                    + (modelSize < 0L ? "unknown" : NumberUtils.formatNumber(modelSize))
+                    + ", heap used: " + NumberUtils.prettySize(heapUsed) + ", GC: "
+                    + DateTimeFormatter.formatTime(gcTimeMillis) + " in " + gcCount
+                    + " collections"
+                    + (mixClients.isEmpty() ? "" : ", mix sent: " + mixRequestsSent + ", received: "
+                            + mixUpdatesReceived));
+        }
+        final ObjectName mbeanName = this.mbeanName;
+        if (mbeanName != null) {
+            this.mbeanName = null;
+            unregisterMBean(mbeanName);
+        }
+        mixClients.clear();
+    }
+
+    private static long estimateMillis(final long sampledNanos, final long sampled,
+            final long total) {
+        if (sampled == 0L) {
+            return 0L;
+        }
+        return (long) ((double) sampledNanos / sampled * total / 1000000.d);
+    }
+
+    /**
+     * @return the accumulated collection time in msec and the collection count
+     */
+    @Nonnull
+    private static long[] getGcStats() {
+        long millis = 0L, count = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long t = gc.getCollectionTime();
+            if (t > 0L) {
+                millis += t;
+            }
+            long c = gc.getCollectionCount();
+            if (c > 0L) {
+                count += c;
+            }
+        }
+        return new long[] {millis, count};
+    }
+
+    private static void setCounterValue(@Nullable final Counter counter, final long value) {
+        if (counter != null) {
+            synchronized (counter) {
+                counter.setValue(value);
+            }
+        }
+    }
+
+    @Nullable
+    private static ObjectName registerMBean(@Nonnull final LearnerMetrics metrics,
+            @Nonnull final String name) {
+        final ObjectName objName;
+        try {
+            objName = new ObjectName("hivemall:type=" + LearnerMetricsMBean.class.getSimpleName()
+                    + ",name=" + name + ",id=" + SEQUENCE.incrementAndGet());
+        } catch (MalformedObjectNameException e) {
+            logger.error("Illegal MBean name for " + name, e);
+            return null;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(new StandardMBean(metrics, LearnerMetricsMBean.class), objName);
+            logger.info("Registered MBean: " + objName);
+        } catch (Exception e) {
+            logger.error("Failed registering mbean: " + objName, e);
+            return null;
+        }
+        return objName;
+    }
+
+    private static void unregisterMBean(@Nonnull final ObjectName objName) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objName);
+            logger.info("Unregistered MBean: " + objName);
+        } catch (Exception e) {
+            logger.warn("Failed unregistering mbean: " + objName);
+        }
+    }
+
+    @Override
+    public long getRows() {
+        return publishedRows;
+    }
+
+    @Override
+    public long getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    @Override
+    public long getParseTimeMillis() {
+        return parseTimeMillis;
+    }
+
+    @Override
+    public long getUpdateTimeMillis() {
+        return updateTimeMillis;
+    }
+
+    @Override
+    public long getModelSize() {
+        return modelSize;
+    }
+
+    @Override
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        return gcTimeMillis;
+    }
+
+    @Override
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    @Override
+    public long getMixRequestsSent() {
+        return mixRequestsSent;
+    }
+
+    @Override
+    public long getMixUpdatesReceived() {
+        return mixUpdatesReceived;
+    }
+
+}
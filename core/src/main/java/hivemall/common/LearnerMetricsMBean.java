@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+/**
+ * Training metrics of a learner, as of the last time they were reported.
+ */
+public interface LearnerMetricsMBean {
+
+    /**
+     * @return the number of trained rows including those replayed in iterations
+     */
+    long getRows();
+
+    long getRowsPerSecond();
+
+    /**
+     * @return the estimated time in msec spent in parsing features
+     */
+    long getParseTimeMillis();
+
+    /**
+     * @return the estimated time in msec spent in updating the model
+     */
+    long getUpdateTimeMillis();
+
+    /**
+     * @return the number of features (or other parameter units) held in the model, or -1 if
+     *         unknown
+     */
+    long getModelSize();
+
+    long getHeapUsed();
+
+    long getGcTimeMillis();
+
+    long getGcCount();
+
+    long getMixRequestsSent();
+
+    long getMixUpdatesReceived();
+
+}
@@ -410,6 +410,22 @@ public final class LossFunctions {
         return Math.log(1.d + Math.exp(-z));
     }
 
+    /**
+     * Cross entropy loss for a target probability y in range [0,1] and a raw prediction p before
+     * applying the sigmoid function, i.e., <code>log(1+exp(p)) - y*p</code>.
+     */
+    public static float crossEntropyLoss(final float p, final float y) {
+        final float softplus;
+        if (p > 18.f) {
+            softplus = p;
+        } else if (p < -18.f) {
+            softplus = (float) Math.exp(p);
+        } else {
+            softplus = (float) Math.log(1.d + Math.exp(p));
+        }
+        return softplus - y * p;
+    }
+
     public static float squaredLoss(float p, float y) {
         final float z = p - y;
         return z * z * 0.5f;
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ensemble;
+
+import hivemall.UDTFWithOptions;
+import hivemall.model.ModelBlock;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+@Description(
+        name = "explode_model_block",
+        value = "_FUNC_(binary block [, const string options]) - Returns (feature, weight [, covar])"
+                + " for each entry of a model block")
+public final class ExplodeModelBlockUDTF extends UDTFWithOptions {
+
+    private static final int INT_FEATURE = 0, BIGINT_FEATURE = 1, STRING_FEATURE = 2;
+
+    private BinaryObjectInspector blockOI;
+    private int featureType;
+    private boolean outputCovar;
+
+    private Object[] forwardObj;
+
+    public ExplodeModelBlockUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("feature_type", true,
+            "The type of output features: int, bigint or string [default: string]");
+        opts.addOption("covar", false, "Output covariances as the third column [default: OFF]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        String type = "string";
+        boolean covar = false;
+
+        CommandLine cl = null;
+        if (argOIs.length >= 2) {
+            String rawArgs = HiveUtils.getConstString(argOIs[1]);
+            cl = parseOptions(rawArgs);
+            type = cl.getOptionValue("feature_type", type);
+            covar = cl.hasOption("covar");
+        }
+
+        if ("int".equalsIgnoreCase(type)) {
+            this.featureType = INT_FEATURE;
+        } else if ("bigint".equalsIgnoreCase(type)) {
+            this.featureType = BIGINT_FEATURE;
+        } else if ("string".equalsIgnoreCase(type)) {
+            this.featureType = STRING_FEATURE;
+        } else {
+            throw new UDFArgumentException("Unsupported feature_type: " + type);
+        }
+        this.outputCovar = covar;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 1 && argOIs.length != 2) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 1 or 2 arguments: binary block [, const string options]");
+        }
+        this.blockOI = HiveUtils.asBinaryOI(argOIs[0]);
+        processOptions(argOIs);
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("feature");
+        switch (featureType) {
+            case INT_FEATURE:
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+                break;
+            case BIGINT_FEATURE:
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+                break;
+            default:
+                fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+                break;
+        }
+        fieldNames.add("weight");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+        if (outputCovar) {
+            fieldNames.add("covar");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+        }
+
+        this.forwardObj = new Object[fieldNames.size()];
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (args[0] == null) {
+            return;
+        }
+        final byte[] block = blockOI.getPrimitiveJavaObject(args[0]);
+        if (block == null || block.length == 0) {
+            return;
+        }
+
+        final IntWritable intFeature = new IntWritable();
+        final LongWritable longFeature = new LongWritable();
+        final Text textFeature = new Text();
+        final FloatWritable weight = new FloatWritable();
+        final FloatWritable covar = new FloatWritable();
+        final Object[] forwardObj = this.forwardObj;
+        try {
+            final ModelBlock.Reader reader = new ModelBlock.Reader(block);
+            final boolean stringKey = reader.isStringKey();
+            if (stringKey && featureType != STRING_FEATURE) {
+                throw new HiveException("The model block has string features");
+            }
+            if (outputCovar) {
+                forwardObj[2] = reader.hasCovariance() ? covar : null;
+            }
+            while (reader.next()) {
+                switch (featureType) {
+                    case INT_FEATURE:
+                        intFeature.set((int) reader.getKey());
+                        forwardObj[0] = intFeature;
+                        break;
+                    case BIGINT_FEATURE:
+                        longFeature.set(reader.getKey());
+                        forwardObj[0] = longFeature;
+                        break;
+                    default:
+                        if (stringKey) {
+                            textFeature.set(reader.getKeyBytes(), 0, reader.getKeyLength());
+                        } else {
+                            textFeature.set(Long.toString(reader.getKey()));
+                        }
+                        forwardObj[0] = textFeature;
+                        break;
+                }
+                weight.set(reader.getWeight());
+                forwardObj[1] = weight;
+                covar.set(reader.getCovariance());
+                forward(forwardObj);
+            }
+        } catch (IOException e) {
+            throw new HiveException("Failed to read a model block", e);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.ensemble;
+
+import hivemall.model.ModelBlock;
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentTypeException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.udf.generic.AbstractGenericUDAFResolver;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDAFEvaluator.AbstractAggregationBuffer;
+import org.apache.hadoop.hive.serde.serdeConstants;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
+
+@Description(
+        name = "merge_model_blocks",
+        value = "_FUNC_(binary block) - Returns a model block in which weights of the given model"
+                + " blocks are averaged for each feature",
+        extended = "Weights are averaged by argmin_kld when the blocks have covariances")
+public final class MergeModelBlocksUDAF extends AbstractGenericUDAFResolver {
+
+    @Override
+    public GenericUDAFEvaluator getEvaluator(TypeInfo[] typeInfo) throws SemanticException {
+        if (typeInfo.length != 1) {
+            throw new UDFArgumentTypeException(typeInfo.length - 1,
+                "_FUNC_ takes exactly one argument");
+        }
+        if (!serdeConstants.BINARY_TYPE_NAME.equals(typeInfo[0].getTypeName())) {
+            throw new UDFArgumentTypeException(0, "The argument `binary block` is invalid form: "
+                    + typeInfo[0]);
+        }
+        return new Evaluator();
+    }
+
+    public static final class Evaluator extends GenericUDAFEvaluator {
+
+        private BinaryObjectInspector blockOI;
+
+        public Evaluator() {}
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            assert (parameters.length == 1) : parameters.length;
+            super.init(mode, parameters);
+
+            // both original data and partial aggregations are blocks
+            this.blockOI = HiveUtils.asBinaryOI(parameters[0]);
+            return PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            AggregationBuffer myAggr = new BlocksAggregationBuffer();
+            reset(myAggr);
+            return myAggr;
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            BlocksAggregationBuffer myAggr = (BlocksAggregationBuffer) agg;
+            myAggr.blocks = new ArrayList<byte[]>();
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            merge(agg, parameters[0]);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            return terminate(agg);
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            final byte[] block = blockOI.getPrimitiveJavaObject(partial);
+            if (block == null || block.length == 0) {
+                return;
+            }
+
+            BlocksAggregationBuffer myAggr = (BlocksAggregationBuffer) agg;
+            final List<byte[]> blocks = myAggr.blocks;
+            blocks.add(block);
+            if (blocks.size() >= ModelBlock.MERGE_FANIN) {
+                // bounds the number of blocks held
+                byte[] merged = mergeBlocks(blocks);
+                blocks.clear();
+                blocks.add(merged);
+            }
+        }
+
+        @Override
+        public BytesWritable terminate(AggregationBuffer agg) throws HiveException {
+            BlocksAggregationBuffer myAggr = (BlocksAggregationBuffer) agg;
+            final List<byte[]> blocks = myAggr.blocks;
+            if (blocks.isEmpty()) {
+                return null;
+            }
+            if (blocks.size() == 1) {
+                return new BytesWritable(blocks.get(0));
+            }
+            return new BytesWritable(mergeBlocks(blocks));
+        }
+
+        private static byte[] mergeBlocks(final List<byte[]> blocks) throws HiveException {
+            try {
+                return ModelBlock.merge(blocks);
+            } catch (IOException e) {
+                throw new HiveException("Failed to merge model blocks", e);
+            }
+        }
+
+    }
+
+    public static final class BlocksAggregationBuffer extends AbstractAggregationBuffer {
+
+        List<byte[]> blocks;
+
+        public BlocksAggregationBuffer() {
+            super();
+        }
+
+    }
+
+}
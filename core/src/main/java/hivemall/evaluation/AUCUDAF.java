@@ -20,11 +20,13 @@ package hivemall.evaluation;
 
 import hivemall.utils.hadoop.HiveUtils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
@@ -38,19 +40,25 @@ import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.StructField;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.WritableIntObjectInspector;
 import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 
 @SuppressWarnings("deprecation")
 @Description(
         name = "auc",
         value = "_FUNC_(array rankItems, array correctItems [, const int recommendSize = rankItems.size])"
-                + " - Returns AUC")
+                + " - Returns AUC of rankings\n"
+                + "_FUNC_(double score, int|boolean label [, const int bins = 65536])"
+                + " - Returns AUC of a binary classifier, where label > 0 is positive")
 public final class AUCUDAF extends AbstractGenericUDAFResolver {
 
     // prevent instantiation
@@ -63,6 +71,23 @@ public final class AUCUDAF extends AbstractGenericUDAFResolver {
                 "_FUNC_ takes two or three arguments");
         }
 
+        if (HiveUtils.isPrimitiveTypeInfo(typeInfo[0])) {// binary classification
+            if (!HiveUtils.isNumberTypeInfo(typeInfo[0])) {
+                throw new UDFArgumentTypeException(0,
+                    "The first argument `double score` is invalid form: " + typeInfo[0]);
+            }
+            if (!HiveUtils.isIntegerTypeInfo(typeInfo[1])
+                    && !HiveUtils.isBooleanTypeInfo(typeInfo[1])) {
+                throw new UDFArgumentTypeException(1,
+                    "The second argument `int label` is invalid form: " + typeInfo[1]);
+            }
+            if (typeInfo.length == 3 && !HiveUtils.isIntegerTypeInfo(typeInfo[2])) {
+                throw new UDFArgumentTypeException(2,
+                    "The third argument `const int bins` is invalid form: " + typeInfo[2]);
+            }
+            return new ClassificationEvaluator();
+        }
+
         ListTypeInfo arg1type = HiveUtils.asListTypeInfo(typeInfo[0]);
         if (!HiveUtils.isPrimitiveTypeInfo(arg1type.getListElementTypeInfo())
                 && !HiveUtils.isStructTypeInfo(arg1type.getListElementTypeInfo())) {
@@ -204,6 +229,146 @@ public final class AUCUDAF extends AbstractGenericUDAFResolver {
 
     }
 
+    /**
+     * Computes the AUC of a binary classifier from a {@link ScoreHistogram}, so that partial
+     * aggregations can be merged in combiners without sorting examples.
+     */
+    public static class ClassificationEvaluator extends GenericUDAFEvaluator {
+
+        private PrimitiveObjectInspector scoreOI;
+        private PrimitiveObjectInspector labelOI;
+        private int bins;
+
+        private BinaryObjectInspector partialOI;
+
+        public ClassificationEvaluator() {}
+
+        @Override
+        public ObjectInspector init(Mode mode, ObjectInspector[] parameters) throws HiveException {
+            assert (parameters.length >= 1 && parameters.length <= 3) : parameters.length;
+            super.init(mode, parameters);
+
+            // initialize input
+            if (mode == Mode.PARTIAL1 || mode == Mode.COMPLETE) {// from original data
+                this.scoreOI = HiveUtils.asDoubleCompatibleOI(parameters[0]);
+                this.labelOI = HiveUtils.asPrimitiveObjectInspector(parameters[1]);
+                int bins = ScoreHistogram.DEFAULT_BINS;
+                if (parameters.length == 3) {
+                    bins = HiveUtils.getConstInt(parameters[2]);
+                    if (bins < ScoreHistogram.MIN_BINS || bins > ScoreHistogram.MAX_BINS
+                            || Integer.bitCount(bins) != 1) {
+                        throw new UDFArgumentException("The third argument `const int bins` "
+                                + "must be a power of two in [" + ScoreHistogram.MIN_BINS + ", "
+                                + ScoreHistogram.MAX_BINS + "]: " + bins);
+                    }
+                }
+                this.bins = bins;
+            } else {// from partial aggregation
+                this.partialOI = (BinaryObjectInspector) parameters[0];
+            }
+
+            // initialize output
+            final ObjectInspector outputOI;
+            if (mode == Mode.PARTIAL1 || mode == Mode.PARTIAL2) {// terminatePartial
+                outputOI = PrimitiveObjectInspectorFactory.writableBinaryObjectInspector;
+            } else {// terminate
+                outputOI = PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+            }
+            return outputOI;
+        }
+
+        @Override
+        public AggregationBuffer getNewAggregationBuffer() throws HiveException {
+            AggregationBuffer myAggr = new ClassificationAUCAggregationBuffer();
+            reset(myAggr);
+            return myAggr;
+        }
+
+        @Override
+        public void reset(AggregationBuffer agg) throws HiveException {
+            ClassificationAUCAggregationBuffer myAggr = (ClassificationAUCAggregationBuffer) agg;
+            myAggr.histogram = null;
+        }
+
+        @Override
+        public void iterate(AggregationBuffer agg, Object[] parameters) throws HiveException {
+            final Object scoreObj = parameters[0];
+            final Object labelObj = parameters[1];
+            if (scoreObj == null || labelObj == null) {
+                return;
+            }
+            final double score = PrimitiveObjectInspectorUtils.getDouble(scoreObj, scoreOI);
+            if (Double.isNaN(score)) {
+                return;
+            }
+            final boolean positive = PrimitiveObjectInspectorUtils.getInt(labelObj, labelOI) > 0;
+
+            ClassificationAUCAggregationBuffer myAggr = (ClassificationAUCAggregationBuffer) agg;
+            ScoreHistogram histogram = myAggr.histogram;
+            if (histogram == null) {
+                histogram = new ScoreHistogram(bins);
+                myAggr.histogram = histogram;
+            }
+            histogram.add(score, positive);
+        }
+
+        @Override
+        public Object terminatePartial(AggregationBuffer agg) throws HiveException {
+            ClassificationAUCAggregationBuffer myAggr = (ClassificationAUCAggregationBuffer) agg;
+            if (myAggr.histogram == null) {
+                return null;
+            }
+            return new BytesWritable(myAggr.histogram.serialize());
+        }
+
+        @Override
+        public void merge(AggregationBuffer agg, Object partial) throws HiveException {
+            if (partial == null) {
+                return;
+            }
+            final BytesWritable b = partialOI.getPrimitiveWritableObject(partial);
+            final byte[] buf = b.getBytes();
+            final int length = b.getLength();
+
+            ClassificationAUCAggregationBuffer myAggr = (ClassificationAUCAggregationBuffer) agg;
+            ScoreHistogram histogram = myAggr.histogram;
+            if (histogram == null) {
+                histogram = new ScoreHistogram(ScoreHistogram.getBins(buf, 0));
+                myAggr.histogram = histogram;
+            }
+            try {
+                histogram.merge(buf, 0, length);
+            } catch (IOException e) {
+                throw new HiveException("Failed to merge a partial histogram", e);
+            }
+        }
+
+        @Override
+        public DoubleWritable terminate(AggregationBuffer agg) throws HiveException {
+            ClassificationAUCAggregationBuffer myAggr = (ClassificationAUCAggregationBuffer) agg;
+            if (myAggr.histogram == null) {
+                return null;
+            }
+            double auc = myAggr.histogram.auc();
+            if (Double.isNaN(auc)) {
+                return null; // no positive or no negative example
+            }
+            return new DoubleWritable(auc);
+        }
+
+    }
+
+    public static class ClassificationAUCAggregationBuffer extends AbstractAggregationBuffer {
+
+        @Nullable
+        ScoreHistogram histogram;
+
+        public ClassificationAUCAggregationBuffer() {
+            super();
+        }
+
+    }
+
     public static class AUCAggregationBuffer extends AbstractAggregationBuffer {
 
         double sum;
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import hivemall.utils.io.FastByteArrayInputStream;
+import hivemall.utils.io.FastByteArrayOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * A mergeable histogram of the numbers of positive and negative examples per score to compute the
+ * AUC of a binary classifier without sorting examples.
+ * 
+ * Scores are kept exactly while the number of distinct scores is at most the number of bins. Then
+ * the low bits of an order-preserving 64-bit key of each score are dropped, one bit at a time, until
+ * the occupied bins fit in the number of bins. The bin width thus adapts to the range the scores
+ * actually occupy, e.g., scores clustered in [4.0, 4.3] still get most of the bins, while every
+ * partial histogram shares the same power-of-two bin boundaries so that partials are merged by
+ * dropping the low bits of the finer one. The resulting bins only depend on the set of scores and
+ * not on the order of additions and merges. Examples in the same bin are treated as ties, which
+ * gives the AUC of the rounded scores.
+ */
+public final class ScoreHistogram {
+
+    public static final int DEFAULT_BINS = 65536;
+    public static final int MIN_BINS = 256;
+    public static final int MAX_BINS = 1 << 24;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /** log2(bins) */
+    private final int bits;
+    private final int maxEntries;
+
+    /** the number of low bits dropped from exact keys, or 0 if exact */
+    private int shift;
+    // open-addressing hash table of score keys
+    private long[] keys;
+    private long[] positives;
+    private long[] negatives;
+    private boolean[] used;
+    private int size;
+
+    public ScoreHistogram() {
+        this(DEFAULT_BINS);
+    }
+
+    /**
+     * @param bins a power of two in [{@link #MIN_BINS}, {@link #MAX_BINS}]
+     */
+    public ScoreHistogram(@Nonnegative int bins) {
+        if (bins < MIN_BINS || bins > MAX_BINS || Integer.bitCount(bins) != 1) {
+            throw new IllegalArgumentException("bins must be a power of two in [" + MIN_BINS
+                    + ", " + MAX_BINS + "]: " + bins);
+        }
+        this.bits = Integer.numberOfTrailingZeros(bins);
+        this.maxEntries = bins;
+        clear();
+    }
+
+    public void clear() {
+        this.shift = 0;
+        allocate(64);
+    }
+
+    private void allocate(final int capacity) {
+        this.keys = new long[capacity];
+        this.positives = new long[capacity];
+        this.negatives = new long[capacity];
+        this.used = new boolean[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return true if the AUC is computed from the exact scores
+     */
+    public boolean isExact() {
+        return shift == 0;
+    }
+
+    /**
+     * @return the number of distinct scores, or of occupied bins when not exact
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param score a score, where NaN is not allowed
+     * @param positive the label of the example
+     */
+    public void add(final double score, final boolean positive) {
+        if (Double.isNaN(score)) {
+            throw new IllegalArgumentException("score must not be NaN");
+        }
+        final long key = exactKey(score) >> shift;
+        if (positive) {
+            add(key, 1L, 0L);
+        } else {
+            add(key, 0L, 1L);
+        }
+    }
+
+    private void add(final long key, final long pos, final long neg) {
+        int i = find(key);
+        if (!used[i]) {
+            if (size >= maxEntries) {
+                final int oldShift = shift;
+                coarsen(shift + 1);
+                add(key >> (shift - oldShift), pos, neg);
+                return;
+            }
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                rehash(keys.length * 2);
+                i = find(key);
+            }
+            used[i] = true;
+            keys[i] = key;
+            size++;
+        }
+        positives[i] += pos;
+        negatives[i] += neg;
+    }
+
+    private int find(final long key) {
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(final int newCapacity) {
+        final long[] oldKeys = keys, oldPositives = positives, oldNegatives = negatives;
+        final boolean[] oldUsed = used;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = find(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                positives[j] = oldPositives[i];
+                negatives[j] = oldNegatives[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Drops the low bits of the keys so that they are keys of the given shift.
+     */
+    private void coarsen(final int newShift) {
+        if (newShift <= shift) {
+            return;
+        }
+        final long[] oldKeys = keys, oldPositives = positives, oldNegatives = negatives;
+        final boolean[] oldUsed = used;
+        final int d = newShift - shift;
+        this.shift = newShift;
+        allocate(keys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                add(oldKeys[i] >> d, oldPositives[i], oldNegatives[i]);
+            }
+        }
+    }
+
+    public void merge(@Nonnull final ScoreHistogram other) {
+        if (other.bits != bits) {
+            throw new IllegalArgumentException("Cannot merge a histogram of "
+                    + (1L << other.bits) + " bins into one of " + (1L << bits) + " bins");
+        }
+        coarsen(other.shift);
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.used[i]) {
+                // keys are coarsened in this loop when bins overflow
+                add(other.keys[i] >> (shift - other.shift), other.positives[i],
+                    other.negatives[i]);
+            }
+        }
+    }
+
+    /**
+     * Computes the area under the ROC curve where tied positive and negative examples count half.
+     * 
+     * @return the AUC, or NaN if there are no positive or no negative examples
+     */
+    public double auc() {
+        final int n = size;
+        final long[] sortedKeys = new long[n];
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            if (used[i]) {
+                sortedKeys[j++] = keys[i];
+            }
+        }
+        Arrays.sort(sortedKeys);
+
+        // sum over positives of the number of negatives with lower scores
+        double area = 0.d;
+        long totalPositives = 0L, totalNegatives = 0L;
+        for (int k = 0; k < n; k++) {
+            final int i = find(sortedKeys[k]);
+            final long pos = positives[i];
+            final long neg = negatives[i];
+            area += pos * (totalNegatives + 0.5d * neg);
+            totalPositives += pos;
+            totalNegatives += neg;
+        }
+        if (totalPositives == 0L || totalNegatives == 0L) {
+            return Double.NaN;
+        }
+        return area / ((double) totalPositives * totalNegatives);
+    }
+
+    @Nonnull
+    public byte[] serialize() {
+        final long[] sortedKeys = new long[size];
+        for (int i = 0, j = 0; i < keys.length; i++) {
+            if (used[i]) {
+                sortedKeys[j++] = keys[i];
+            }
+        }
+        Arrays.sort(sortedKeys);
+
+        final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(16 + size * 6);
+        final DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeByte(bits);
+            out.writeByte(shift);
+            WritableUtils.writeVInt(out, size);
+            long prev = 0L;
+            for (long key : sortedKeys) {
+                final int i = find(key);
+                WritableUtils.writeVLong(out, key - prev); // deltas of sorted keys
+                WritableUtils.writeVLong(out, positives[i]);
+                WritableUtils.writeVLong(out, negatives[i]);
+                prev = key;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // should never happen
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the number of bins of a histogram serialized by {@link #serialize()}
+     */
+    public static int getBins(@Nonnull final byte[] buf, final int offset) {
+        return 1 << buf[offset];
+    }
+
+    /**
+     * Merges a histogram serialized by {@link #serialize()}.
+     */
+    public void merge(@Nonnull final byte[] buf, final int offset, final int length)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new FastByteArrayInputStream(buf, offset,
+            length));
+        final int otherBits = in.readByte();
+        if (otherBits != bits) {
+            throw new IOException("Cannot merge a histogram of " + (1L << otherBits)
+                    + " bins into one of " + (1L << bits) + " bins");
+        }
+        final int otherShift = in.readByte();
+        coarsen(otherShift);
+        final int otherSize = WritableUtils.readVInt(in);
+        long key = 0L;
+        for (int k = 0; k < otherSize; k++) {
+            key += WritableUtils.readVLong(in);
+            long pos = WritableUtils.readVLong(in);
+            long neg = WritableUtils.readVLong(in);
+            add(key >> (shift - otherShift), pos, neg);
+        }
+    }
+
+    /**
+     * @return a key whose signed order is the order of the score
+     */
+    private static long exactKey(final double score) {
+        final long bits = Double.doubleToLongBits(score + 0.d); // -0.0 + 0.0 = 0.0
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.utils.concurrent.NamedThreadFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * Replays recorded training examples on multiple threads in the Hogwild! manner. The caller reads
+ * chunks of records and submits them while worker threads train the previously submitted chunks,
+ * so that reading the next chunk overlaps with training. Each worker thread has its own
+ * {@link ChunkHandler}.
+ */
+@NotThreadSafe
+final class ConcurrentReplayTrainer {
+    private static final Log logger = LogFactory.getLog(ConcurrentReplayTrainer.class);
+
+    private static final Chunk POISON = new Chunk(0);
+
+    @Nonnull
+    private final BlockingQueue<Chunk> freeQueue;
+    @Nonnull
+    private final BlockingQueue<Chunk> readyQueue;
+    @Nonnull
+    private final Thread[] workers;
+
+    private long submitted;
+
+    @GuardedBy("this")
+    private long completed;
+    @GuardedBy("this")
+    private double losses;
+    @Nullable
+    private volatile Throwable error;
+    private volatile boolean closed;
+
+    /**
+     * @param handlers a handler for each worker thread
+     * @param chunkBytes the initial capacity of a chunk
+     */
+    ConcurrentReplayTrainer(@Nonnull ChunkHandler[] handlers, int chunkBytes) {
+        if (handlers.length < 1) {
+            throw new IllegalArgumentException("At least one handler is required");
+        }
+        // two chunks per thread to be trained while the others are being read
+        final int numChunks = handlers.length * 2;
+        this.freeQueue = new ArrayBlockingQueue<Chunk>(numChunks);
+        this.readyQueue = new ArrayBlockingQueue<Chunk>(numChunks + handlers.length);
+        for (int i = 0; i < numChunks; i++) {
+            freeQueue.add(new Chunk(chunkBytes));
+        }
+        this.submitted = 0L;
+        this.completed = 0L;
+        this.losses = 0.d;
+        this.closed = false;
+
+        NamedThreadFactory factory = new NamedThreadFactory("hivemall-fm-trainer", true);
+        this.workers = new Thread[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            Thread worker = factory.newThread(new Worker(handlers[i]));
+            workers[i] = worker;
+            worker.start();
+        }
+        logger.info("Started " + handlers.length + " trainer threads");
+    }
+
+    /**
+     * Queues the remaining records of the given buffer to be trained by a worker thread. The
+     * records are copied and the buffer can be reused by the caller.
+     * 
+     * @param t the number of training updates before the first record
+     */
+    void submit(@Nonnull final ByteBuffer records, final long t) throws HiveException {
+        checkError();
+        final Chunk chunk;
+        try {
+            chunk = freeQueue.take();
+        } catch (InterruptedException e) {
+            throw new HiveException("Interrupted while queueing training examples", e);
+        }
+        chunk.set(records, t);
+        submitted++;
+        try {
+            readyQueue.put(chunk);
+        } catch (InterruptedException e) {
+            throw new HiveException("Interrupted while queueing training examples", e);
+        }
+    }
+
+    /**
+     * Waits until all the queued records are trained.
+     * 
+     * @return the sum of losses returned by the handlers since the last synchronization
+     */
+    double sync() throws HiveException {
+        final double sum;
+        synchronized (this) {
+            while (completed < submitted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new HiveException("Interrupted while waiting for trainer threads", e);
+                }
+            }
+            sum = losses;
+            this.losses = 0.d;
+        }
+        checkError();
+        return sum;
+    }
+
+    /**
+     * Stops the worker threads without waiting for the queued records.
+     */
+    void close() throws HiveException {
+        this.closed = true;
+        for (int i = 0; i < workers.length; i++) {
+            readyQueue.offer(POISON);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new HiveException("Interrupted while stopping trainer threads", e);
+            }
+        }
+    }
+
+    private void checkError() throws HiveException {
+        final Throwable e = error;
+        if (e != null) {
+            throw new HiveException("Exception caused in a trainer thread", e);
+        }
+    }
+
+    private synchronized void onCompleted(final double loss) {
+        this.completed++;
+        this.losses += loss;
+        if (completed == submitted) {
+            notifyAll();
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        @Nonnull
+        private final ChunkHandler handler;
+
+        Worker(@Nonnull ChunkHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Chunk chunk;
+                try {
+                    chunk = readyQueue.take();
+                } catch (InterruptedException e) {
+                    error = e;
+                    return;
+                }
+                if (chunk == POISON) {
+                    return;
+                }
+
+                double loss = 0.d;
+                if (error == null && !closed) {// just drain chunks after a failure
+                    try {
+                        loss = handler.handle(chunk.records, chunk.t);
+                    } catch (Throwable e) {
+                        logger.error("Exception caused in a trainer thread", e);
+                        error = e;
+                    }
+                }
+                freeQueue.add(chunk);
+                onCompleted(loss);
+            }
+        }
+
+    }
+
+    private static final class Chunk {
+
+        @Nonnull
+        ByteBuffer records;
+        long t;
+
+        Chunk(int capacity) {
+            this.records = ByteBuffer.allocate(capacity);
+            this.t = 0L;
+        }
+
+        void set(@Nonnull final ByteBuffer src, final long t) {
+            ByteBuffer dst = records;
+            if (dst.capacity() < src.remaining()) {
+                dst = ByteBuffer.allocate(src.remaining());
+                this.records = dst;
+            }
+            dst.clear();
+            dst.put(src);
+            dst.flip();
+            this.t = t;
+        }
+
+    }
+
+    interface ChunkHandler {
+
+        /**
+         * Trains the remaining records of a chunk. Invoked from a single worker thread.
+         * 
+         * @param t the number of training updates before the first record
+         * @return the sum of losses of the records
+         */
+        double handle(@Nonnull ByteBuffer records, long t) throws HiveException;
+    }
+
+}
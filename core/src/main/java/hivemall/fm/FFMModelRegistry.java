@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.utils.io.IOUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A JVM-wide registry of mapped FFM models shared by ffm_predict instances. Models are reference
+ * counted and up to {@code maxIdleModels} models that are no longer referenced are kept in LRU
+ * order so that switching among model IDs does not reload models.
+ * 
+ * A model is registered under a key that identifies the model across queries, i.e., its model ID
+ * together with a fingerprint of the serialized model, since a JVM may be reused across queries
+ * and model IDs are only unique within a model table.
+ */
+@ThreadSafe
+public final class FFMModelRegistry {
+    private static final Log LOG = LogFactory.getLog(FFMModelRegistry.class);
+
+    public static final int DEFAULT_MAX_IDLE_MODELS = 8;
+
+    private static final FFMModelRegistry INSTANCE = new FFMModelRegistry(
+        DEFAULT_MAX_IDLE_MODELS);
+
+    /** model key to registered model in access order */
+    @Nonnull
+    private final LinkedHashMap<String, RefCounted> models;
+    private final int maxIdleModels;
+
+    FFMModelRegistry(int maxIdleModels) {
+        this.models = new LinkedHashMap<String, RefCounted>(16, 0.75f, true);
+        this.maxIdleModels = maxIdleModels;
+    }
+
+    @Nonnull
+    public static FFMModelRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the registered model with its reference count incremented, or null if not registered
+     */
+    @Nullable
+    public synchronized MappedFFMPredictionModel acquire(@Nonnull final String key) {
+        RefCounted ref = models.get(key);
+        if (ref == null) {
+            return null;
+        }
+        ref.refCount++;
+        return ref.model;
+    }
+
+    /**
+     * Registers a model and acquires it. When another thread has registered a model for the same
+     * key in the meantime, the given model is closed and the registered one is acquired instead.
+     */
+    @Nonnull
+    public synchronized MappedFFMPredictionModel register(@Nonnull final String key,
+            @Nonnull final MappedFFMPredictionModel model) {
+        RefCounted ref = models.get(key);
+        if (ref == null) {
+            ref = new RefCounted(model);
+            models.put(key, ref);
+        } else if (ref.model != model) {
+            IOUtils.closeQuietly(model);
+        }
+        ref.refCount++;
+        return ref.model;
+    }
+
+    public synchronized void release(@Nonnull final String key) {
+        RefCounted ref = models.get(key);
+        if (ref == null) {
+            throw new IllegalStateException("Model is not registered: " + key);
+        }
+        if (ref.refCount <= 0) {
+            throw new IllegalStateException("Model is released more than acquired: " + key);
+        }
+        ref.refCount--;
+        evictIdleModels();
+    }
+
+    private void evictIdleModels() {
+        int numIdle = 0;
+        for (RefCounted ref : models.values()) {
+            if (ref.refCount == 0) {
+                numIdle++;
+            }
+        }
+        final Iterator<Map.Entry<String, RefCounted>> itor = models.entrySet().iterator();
+        while (numIdle > maxIdleModels && itor.hasNext()) {
+            Map.Entry<String, RefCounted> e = itor.next();
+            RefCounted ref = e.getValue();
+            if (ref.refCount == 0) {
+                itor.remove();
+                IOUtils.closeQuietly(ref.model);
+                numIdle--;
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Evicted FFM model '" + e.getKey() + "': " + ref.model);
+                }
+            }
+        }
+    }
+
+    synchronized int size() {
+        return models.size();
+    }
+
+    synchronized int getRefCount(@Nonnull final String key) {
+        RefCounted ref = models.get(key);
+        return (ref == null) ? 0 : ref.refCount;
+    }
+
+    private static final class RefCounted {
+        @Nonnull
+        final MappedFFMPredictionModel model;
+        int refCount;
+
+        RefCounted(@Nonnull MappedFFMPredictionModel model) {
+            this.model = model;
+            this.refCount = 0;
+        }
+    }
+
+}
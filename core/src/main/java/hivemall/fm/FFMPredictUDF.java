@@ -18,20 +18,29 @@
  */
 package hivemall.fm;
 
+import hivemall.UDFWithOptions;
+import hivemall.utils.hadoop.HadoopUtils;
 import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.io.IOUtils;
 import hivemall.utils.lang.NumberUtils;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.Arrays;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.UDFType;
-import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
 import org.apache.hadoop.hive.serde2.lazybinary.LazyBinaryArray;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
@@ -40,34 +49,71 @@ import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectIn
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 import org.apache.hadoop.io.Text;
 
-@Description(name = "ffm_predict",
-        value = "_FUNC_(string modelId, string model, array<string> features)"
+@Description(
+        name = "ffm_predict",
+        value = "_FUNC_(string modelId, string model, array<string> features [, const string options])"
                 + " returns a prediction result in double from a Field-aware Factorization Machine")
 @UDFType(deterministic = true, stateful = false)
-public final class FFMPredictUDF extends GenericUDF {
+public final class FFMPredictUDF extends UDFWithOptions {
+    private static final Log LOG = LogFactory.getLog(FFMPredictUDF.class);
+
+    private static final String MODEL_FILE_SUFFIX = ".ffm";
 
     private StringObjectInspector _modelIdOI;
     private StringObjectInspector _modelOI;
     private ListObjectInspector _featureListOI;
 
+    private boolean _heapModel = false;
+    @Nullable
+    private File _modelDir;
+
     private DoubleWritable _result;
     @Nullable
     private String _cachedModeId;
     @Nullable
-    private FFMPredictionModel _cachedModel;
+    private IFFMPredictionModel _cachedModel;
+    /** the key of {@link #_cachedModel} in {@link FFMModelRegistry} if it is mapped */
+    @Nullable
+    private String _registryKey;
     @Nullable
     private Feature[] _probes;
 
     public FFMPredictUDF() {}
 
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("heap", "heap_model", false,
+            "Deserialize the model into each task's heap instead of mapping it from a local file");
+        opts.addOption("mmap_dir", true,
+            "The local directory of the mapped model files <modelId>-<length>-<hash>.ffm"
+                    + " [default: ${java.io.tmpdir}/hivemall_ffm/<jobId>]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull String optionValue) throws UDFArgumentException {
+        CommandLine cl = parseOptions(optionValue);
+        this._heapModel = cl.hasOption("heap_model");
+        String dir = cl.getOptionValue("mmap_dir");
+        if (dir != null) {
+            this._modelDir = new File(dir);
+        }
+        return cl;
+    }
+
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
-        if (argOIs.length != 3) {
-            throw new UDFArgumentException("_FUNC_ takes 3 arguments");
+        if (argOIs.length != 3 && argOIs.length != 4) {
+            throw new UDFArgumentException("_FUNC_ takes 3 or 4 arguments");
         }
         this._modelIdOI = HiveUtils.asStringOI(argOIs[0]);
         this._modelOI = HiveUtils.asStringOI(argOIs[1]);
         this._featureListOI = HiveUtils.asListOI(argOIs[2]);
+        if (argOIs.length == 4) {
+            String optionValue = HiveUtils.getConstString(argOIs[3]);
+            processOptions(optionValue);
+        }
 
         this._result = new DoubleWritable();
         return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
@@ -80,23 +126,15 @@ public final class FFMPredictUDF extends GenericUDF {
             throw new HiveException("modelId is not set");
         }
 
-        final FFMPredictionModel model;
+        final IFFMPredictionModel model;
         if (modelId.equals(_cachedModeId)) {
             model = this._cachedModel;
         } else {
-            Text serModel = _modelOI.getPrimitiveWritableObject(args[1].get());
-            if (serModel == null) {
-                throw new HiveException("Model is null for model ID: " + modelId);
-            }
-            byte[] b = serModel.getBytes();
-            final int length = serModel.getLength();
-            try {
-                model = FFMPredictionModel.deserialize(b, length);
-                b = null;
-            } catch (ClassNotFoundException e) {
-                throw new HiveException(e);
-            } catch (IOException e) {
-                throw new HiveException(e);
+            releaseModel();
+            if (_heapModel) {
+                model = deserializeModel(modelId, args[1]);
+            } else {
+                model = acquireMappedModel(modelId, args[1]);
             }
             this._cachedModeId = modelId;
             this._cachedModel = model;
@@ -124,8 +162,128 @@ public final class FFMPredictUDF extends GenericUDF {
         return _result;
     }
 
+    @Nonnull
+    private FFMPredictionModel deserializeModel(@Nonnull final String modelId,
+            @Nonnull final DeferredObject arg) throws HiveException {
+        Text serModel = getSerializedModel(modelId, arg);
+        byte[] b = serModel.getBytes();
+        final int length = serModel.getLength();
+        try {
+            return FFMPredictionModel.deserialize(b, length);
+        } catch (ClassNotFoundException e) {
+            throw new HiveException(e);
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    @Nonnull
+    private Text getSerializedModel(@Nonnull final String modelId,
+            @Nonnull final DeferredObject arg) throws HiveException {
+        Text serModel = _modelOI.getPrimitiveWritableObject(arg.get());
+        if (serModel == null) {
+            throw new HiveException("Model is null for model ID: " + modelId);
+        }
+        return serModel;
+    }
+
+    /**
+     * Acquires a mapped model shared in the JVM. Model IDs are only unique within a model table
+     * and a JVM may be reused across queries, so a mapped model is identified by its model ID
+     * together with the length and a hash of the serialized model. A model file found in the
+     * model directory, e.g., one written by another task on the same node, is mapped as it is if
+     * its fingerprint matches. Otherwise, the model is deserialized once and written to the
+     * directory.
+     */
+    @Nonnull
+    private MappedFFMPredictionModel acquireMappedModel(@Nonnull final String modelId,
+            @Nonnull final DeferredObject arg) throws HiveException {
+        final Text serModel = getSerializedModel(modelId, arg);
+        final int length = serModel.getLength();
+        final int fingerprint = MurmurHash3.murmurhash3_x86_32(serModel.getBytes(), 0, length,
+            0x9747b28c);
+        final String identity = length + "-" + Integer.toHexString(fingerprint);
+        final String key = modelId + '-' + identity;
+
+        final FFMModelRegistry registry = FFMModelRegistry.getInstance();
+        MappedFFMPredictionModel model = registry.acquire(key);
+        if (model != null) {
+            this._registryKey = key;
+            return model;
+        }
+
+        final File file = getModelFile(modelId, identity);
+        try {
+            if (file.exists()) {
+                model = openModelFile(file, fingerprint);
+            }
+            if (model == null) {
+                FFMPredictionModel heapModel = deserializeModel(modelId, arg);
+                MappedFFMPredictionModel.write(heapModel, file, fingerprint);
+                file.deleteOnExit();
+                model = MappedFFMPredictionModel.open(file);
+            }
+        } catch (IOException e) {
+            throw new HiveException("Failed to map the model '" + modelId + "' to " + file, e);
+        }
+        this._registryKey = key;
+        return registry.register(key, model);
+    }
+
+    /**
+     * @return the mapped model, or null if the file is not of the expected model
+     */
+    @Nullable
+    private static MappedFFMPredictionModel openModelFile(@Nonnull final File file,
+            final int fingerprint) {
+        final MappedFFMPredictionModel model;
+        try {
+            model = MappedFFMPredictionModel.open(file);
+        } catch (IOException e) {
+            LOG.warn("Rewrite an unreadable FFM model file: " + file, e);
+            return null;
+        }
+        if (model.getFingerprint() != fingerprint) {
+            LOG.warn("Rewrite a FFM model file of another model: " + file);
+            IOUtils.closeQuietly(model);
+            return null;
+        }
+        return model;
+    }
+
+    @Nonnull
+    private File getModelFile(@Nonnull final String modelId, @Nonnull final String identity)
+            throws HiveException {
+        File dir = _modelDir;
+        if (dir == null) {
+            dir = new File(System.getProperty("java.io.tmpdir"), "hivemall_ffm");
+            if (mapredContext != null) {
+                dir = new File(dir, HadoopUtils.getJobId());
+            }
+            this._modelDir = dir;
+        }
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new HiveException("Failed to create a directory: " + dir.getAbsolutePath());
+        }
+        try {
+            return new File(dir, URLEncoder.encode(modelId, "UTF-8") + '-' + identity
+                    + MODEL_FILE_SUFFIX);
+        } catch (IOException e) {
+            throw new HiveException(e);
+        }
+    }
+
+    private void releaseModel() {
+        if (_registryKey != null) {
+            FFMModelRegistry.getInstance().release(_registryKey);
+            this._registryKey = null;
+        }
+        this._cachedModeId = null;
+        this._cachedModel = null;
+    }
+
     private static double predict(@Nonnull final Feature[] x,
-            @Nonnull final FFMPredictionModel model) throws HiveException {
+            @Nonnull final IFFMPredictionModel model) throws HiveException {
         // w0
         double ret = model.getW0();
         // W
@@ -150,7 +308,7 @@ public final class FFMPredictUDF extends GenericUDF {
                 if (!model.getV(ei, jField, vij)) {
                     continue;
                 }
-                if (!model.getV(ej, iField, vij)) {
+                if (!model.getV(ej, iField, vji)) {
                     continue;
                 }
                 for (int f = 0; f < factors; f++) {
@@ -169,8 +327,8 @@ public final class FFMPredictUDF extends GenericUDF {
     @Override
     public void close() throws IOException {
         super.close();
+        releaseModel();
         // clean up to help GC
-        this._cachedModel = null;
         this._probes = null;
     }
 
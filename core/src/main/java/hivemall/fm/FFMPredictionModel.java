@@ -43,7 +43,7 @@ import javax.annotation.Nullable;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-public final class FFMPredictionModel implements Externalizable {
+public final class FFMPredictionModel implements IFFMPredictionModel, Externalizable {
     private static final Log LOG = LogFactory.getLog(FFMPredictionModel.class);
 
     private static final byte HALF_FLOAT_ENTRY = 1;
@@ -74,18 +74,22 @@ public final class FFMPredictionModel implements Externalizable {
         this._numFields = numFields;
     }
 
+    @Override
     public int getNumFactors() {
         return _factors;
     }
 
+    @Override
     public double getW0() {
         return _w0;
     }
 
+    @Override
     public int getNumFeatures() {
         return _numFeatures;
     }
 
+    @Override
     public int getNumFields() {
         return _numFields;
     }
@@ -94,6 +98,16 @@ public final class FFMPredictionModel implements Externalizable {
         return _map.size();
     }
 
+    @Nonnull
+    Int2LongOpenHashTable getMap() {
+        return _map;
+    }
+
+    @Nonnull
+    HeapBuffer getBuffer() {
+        return _buf;
+    }
+
     public long approxBytesConsumed() {
         int size = _map.size();
 
@@ -117,6 +131,7 @@ public final class FFMPredictionModel implements Externalizable {
         return new Entry(_buf, _factors, ptr);
     }
 
+    @Override
     public float getW(@Nonnull final Feature x) {
         int j = x.getFeatureIndex();
 
@@ -130,6 +145,7 @@ public final class FFMPredictionModel implements Externalizable {
     /**
      * @return true if V exists
      */
+    @Override
     public boolean getV(@Nonnull final Feature x, @Nonnull final int yField, @Nonnull float[] dst) {
         int j = Feature.toIntFeature(x, yField, _numFields);
 
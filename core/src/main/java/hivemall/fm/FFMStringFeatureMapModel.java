@@ -24,6 +24,7 @@ import hivemall.fm.FMHyperParameters.FFMHyperParameters;
 import hivemall.utils.buffer.HeapBuffer;
 import hivemall.utils.collections.Int2LongOpenHashTable;
 import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.SizeOf;
 import hivemall.utils.math.MathUtils;
 
 import javax.annotation.Nonnull;
@@ -50,6 +51,9 @@ public final class FFMStringFeatureMapModel extends FieldAwareFactorizationMachi
 
     private final int _entrySize;
 
+    /** Whether entries are kept by FTRL for concurrent updates */
+    private boolean _reserved;
+
     public FFMStringFeatureMapModel(@Nonnull FFMHyperParameters params) {
         super(params);
         this._w0 = 0.f;
@@ -62,6 +66,7 @@ public final class FFMStringFeatureMapModel extends FieldAwareFactorizationMachi
         this._lambda1 = params.lambda1;
         this._lamdda2 = params.lamdda2;
         this._entrySize = entrySize(_factor, _useFTRL, _useAdaGrad);
+        this._reserved = false;
     }
 
     @Nonnull
@@ -141,7 +146,11 @@ public final class FFMStringFeatureMapModel extends FieldAwareFactorizationMachi
         final double n = theta.updateN(gradWi);
 
         if (Math.abs(z) <= _lambda1) {
-            removeEntry(x);
+            if (_reserved) {
+                resetEntry(theta);
+            } else {
+                removeEntry(x);
+            }
             return wi != 0;
         }
 
@@ -222,6 +231,39 @@ public final class FFMStringFeatureMapModel extends FieldAwareFactorizationMachi
         _map.remove(j);
     }
 
+    /**
+     * Resets an entry in place to the state of a newly created one.
+     */
+    private void resetEntry(@Nonnull final Entry entry) {
+        final long ptr = entry.getOffset();
+        for (int i = 0; i < _entrySize; i += SizeOf.INT) {
+            _buf.putInt(ptr + i, 0);
+        }
+        entry.setV(initV());
+    }
+
+    @Override
+    boolean supportsConcurrentUpdates() {
+        return true;
+    }
+
+    /**
+     * Creates the entries of W and V that x may update. Once reserved, an entry of W is reset in
+     * place instead of being removed by FTRL so that the map is not modified by concurrent updates.
+     */
+    @Override
+    void reserve(@Nonnull final Feature[] x) {
+        this._reserved = true;
+        for (Feature e : x) {
+            if (_params.linearCoeff) {
+                getEntry(e);
+            }
+            for (Feature other : x) {
+                getEntry(e, other.getField());
+            }
+        }
+    }
+
     @Nonnull
     protected final Entry newEntry(final float W, @Nonnull final float[] V) {
         Entry entry = newEntry();
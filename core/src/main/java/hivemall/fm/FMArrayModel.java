@@ -112,6 +112,18 @@ public final class FMArrayModel extends FactorizationMachineModel {
         v[f] = nextVif;
     }
 
+    @Override
+    boolean supportsConcurrentUpdates() {
+        return true;
+    }
+
+    @Override
+    void reserve(@Nonnull final Feature[] x) {
+        for (Feature e : x) {
+            getV(e.getFeatureIndex(), true);
+        }
+    }
+
     @Override
     public void check(@Nonnull Feature[] x) throws HiveException {
         for (Feature e : x) {
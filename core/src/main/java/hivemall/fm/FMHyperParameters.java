@@ -63,6 +63,7 @@ class FMHyperParameters {
     int iters = 1;
     boolean conversionCheck = true;
     double convergenceRate = 0.005d;
+    int numThreads = 1;
 
     // adaptive regularization
     boolean adaptiveReglarization = false;
@@ -79,7 +80,7 @@ class FMHyperParameters {
                 + ", lambdaV=" + lambdaV + ", sigma=" + sigma + ", seed=" + seed + ", vInit="
                 + vInit + ", minTarget=" + minTarget + ", maxTarget=" + maxTarget + ", eta=" + eta
                 + ", numFeatures=" + numFeatures + ", iters=" + iters + ", conversionCheck="
-                + conversionCheck + ", convergenceRate=" + convergenceRate
+                + conversionCheck + ", convergenceRate=" + convergenceRate + ", numThreads=" + numThreads
                 + ", adaptiveReglarization=" + adaptiveReglarization + ", validationRatio="
                 + validationRatio + ", validationThreshold=" + validationThreshold
                 + ", parseFeatureAsInt=" + parseFeatureAsInt + "]";
@@ -105,6 +106,10 @@ class FMHyperParameters {
         this.iters = Primitives.parseInt(cl.getOptionValue("iterations"), iters);
         this.conversionCheck = !cl.hasOption("disable_cvtest");
         this.convergenceRate = Primitives.parseDouble(cl.getOptionValue("cv_rate"), convergenceRate);
+        this.numThreads = Primitives.parseInt(cl.getOptionValue("threads"), numThreads);
+        if (numThreads < 1) {
+            throw new UDFArgumentException("threads must be greater than 0: " + numThreads);
+        }
         this.adaptiveReglarization = cl.hasOption("adaptive_regularizaion");
         this.validationRatio = Primitives.parseFloat(cl.getOptionValue("validation_ratio"),
             validationRatio);
@@ -118,6 +118,18 @@ public final class FMStringFeatureMapModel extends FactorizationMachineModel {
         V[f] = nextVif;
     }
 
+    @Override
+    boolean supportsConcurrentUpdates() {
+        return true;
+    }
+
+    @Override
+    void reserve(@Nonnull final Feature[] x) {
+        for (Feature e : x) {
+            getV(e, 0); // creates an entry of W and V
+        }
+    }
+
     static final class Entry {
 
         float W;
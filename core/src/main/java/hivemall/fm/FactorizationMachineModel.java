@@ -335,6 +335,22 @@ public abstract class FactorizationMachineModel {
 
     public void check(@Nonnull Feature[] x) throws HiveException {}
 
+    /**
+     * @return whether examples can be trained by multiple threads without locks once their
+     *         parameters are reserved by {@link #reserve(Feature[])}
+     */
+    boolean supportsConcurrentUpdates() {
+        return false;
+    }
+
+    /**
+     * Allocates the parameters that training x may update, so that training x again does not
+     * change the structure of this model.
+     */
+    void reserve(@Nonnull Feature[] x) {
+        throw new UnsupportedOperationException();
+    }
+
     public enum VInitScheme {
         random /* default */, gaussian;
 
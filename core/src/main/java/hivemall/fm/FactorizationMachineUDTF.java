@@ -21,9 +21,11 @@ package hivemall.fm;
 import hivemall.UDTFWithOptions;
 import hivemall.common.ConversionState;
 import hivemall.common.EtaEstimator;
+import hivemall.common.LearnerMetrics;
 import hivemall.common.LossFunctions;
 import hivemall.common.LossFunctions.LossFunction;
 import hivemall.common.LossFunctions.LossType;
+import hivemall.fm.ConcurrentReplayTrainer.ChunkHandler;
 import hivemall.fm.FMStringFeatureMapModel.Entry;
 import hivemall.utils.collections.IMapIterator;
 import hivemall.utils.hadoop.HiveUtils;
@@ -68,6 +70,8 @@ import org.apache.hadoop.mapred.Reporter;
 public class FactorizationMachineUDTF extends UDTFWithOptions {
     private static final Log LOG = LogFactory.getLog(FactorizationMachineUDTF.class);
     private static final int INT_BYTES = Integer.SIZE / 8;
+    /** The size of a chunk of records replayed by a thread of concurrent iterations */
+    private static final int CHUNK_BYTES = 64 * 1024; // 64 KiB
 
     protected ListObjectInspector _xOI;
     protected PrimitiveObjectInspector _yOI;
@@ -97,6 +101,9 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
     protected LossFunction _lossFunction;
     protected EtaEstimator _etaEstimator;
     protected ConversionState _cvState;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    protected LearnerMetrics _metrics;
 
     // ----------------------------------------
 
@@ -142,6 +149,8 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             "Whether to disable convergence check [default: OFF]");
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
+        opts.addOption("threads", "num_threads", true,
+            "The number of threads to run the iterations after the first one [default: 1]");
         // adaptive regularization
         if (isAdaptiveRegularizationSupported()) {
             opts.addOption("adareg", "adaptive_regularizaion", false,
@@ -162,6 +171,11 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
         // feature representation
         opts.addOption("int_feature", "feature_as_integer", false,
             "Parse a feature as integer [default: OFF]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -185,6 +199,9 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
         this._iterations = params.iters;
         this._factors = params.factors;
         this._parseFeatureAsInt = params.parseFeatureAsInt;
+        if (params.numThreads > 1 && params.adaptiveReglarization) {
+            throw new UDFArgumentException("-threads cannot be used with -adareg");
+        }
         if (params.adaptiveReglarization) {
             this._va_rand = new Random(params.seed + 31L);
         }
@@ -194,6 +211,10 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
                 : LossFunctions.getLossFunction(LossType.SquaredLoss);
         this._etaEstimator = params.eta;
         this._cvState = new ConversionState(params.conversionCheck, params.convergenceRate);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this._metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
         return cl;
     }
 
@@ -266,12 +287,21 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
     public void process(Object[] args) throws HiveException {
         if (_model == null) {
             this._model = initModel(_params);
+            if (_params.numThreads > 1 && !_model.supportsConcurrentUpdates()) {
+                throw new UDFArgumentException("-threads is not supported for "
+                        + _model.getClass().getSimpleName());
+            }
         }
 
+        final LearnerMetrics metrics = _metrics;
+        final long parseStart = (metrics == null) ? 0L : metrics.startParse();
         Feature[] x = parseFeatures(args[0]);
         if (x == null) {
             return;
         }
+        if (metrics != null) {
+            metrics.endParse(parseStart);
+        }
         this._probes = x;
 
         double y = PrimitiveObjectInspectorUtils.getDouble(args[1], _yOI);
@@ -282,7 +312,25 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
         ++_t;
         recordTrain(x, y);
         boolean adaptiveRegularization = (_va_rand != null) && _t >= _validationThreshold;
+        measureTrain(x, y, adaptiveRegularization);
+        if (_iterations > 1 && _params.numThreads > 1) {
+            _model.reserve(x);
+        }
+    }
+
+    private void measureTrain(@Nonnull final Feature[] x, final double y,
+            final boolean adaptiveRegularization) throws HiveException {
+        final LearnerMetrics metrics = _metrics;
+        if (metrics == null) {
+            train(x, y, adaptiveRegularization);
+            return;
+        }
+        final long start = metrics.startUpdate();
         train(x, y, adaptiveRegularization);
+        metrics.endUpdate(start);
+        if (metrics.incrRows()) {
+            metrics.report(getReporter(), _model.getSize());
+        }
     }
 
     @Nullable
@@ -369,15 +417,26 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
      * Update model parameters
      */
     protected void trainTheta(final Feature[] x, final double y) throws HiveException {
-        final float eta = _etaEstimator.eta(_t);
+        double loss = trainTheta(x, y, _t);
+        _cvState.incrLoss(loss);
+    }
+
+    /**
+     * Update model parameters by the t-th training example. Invoked concurrently from the worker
+     * threads of {@link #runTrainingIteration(int)} when -threads is specified.
+     * 
+     * @return the loss of x before the update
+     */
+    protected double trainTheta(@Nonnull final Feature[] x, final double y, final long t)
+            throws HiveException {
+        final float eta = _etaEstimator.eta(t);
 
         final double p = _model.predict(x);
         final double lossGrad = _model.dloss(p, y);
-        double loss = _lossFunction.loss(p, y);
-        _cvState.incrLoss(loss);
+        final double loss = _lossFunction.loss(p, y);
 
         if (MathUtils.closeToZero(lossGrad)) {
-            return;
+            return loss;
         }
 
         // w0 update
@@ -392,6 +451,7 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
                 _model.updateV(lossGrad, xi, f, sumVfx[f], eta);
             }
         }
+        return loss;
     }
 
     /**
@@ -424,6 +484,9 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
         if (_iterations > 1) {
             runTrainingIteration(_iterations);
         }
+        if (_metrics != null) {
+            _metrics.close(getReporter(), _model.getSize());
+        }
 
         final int P = _model.getSize();
         if (P <= 0) {
@@ -533,6 +596,10 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             "hivemall.fm.FactorizationMachines$Counter", "iteration");
 
         try {
+            if (_params.numThreads > 1) {
+                runConcurrentTrainingIteration(iterations, inputBuf, fileIO, reporter, iterCounter);
+                return;
+            }
             if (fileIO.getPosition() == 0L) {// run iterations w/o temporary file
                 if (inputBuf.position() == 0) {
                     return; // no training example
@@ -555,7 +622,7 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
                         double y = inputBuf.getDouble();
                         // invoke train
                         ++_t;
-                        train(x, y, adaregr);
+                        measureTrain(x, y, adaregr);
                     }
                     if (_cvState.isConverged(iter, numTrainingExamples)) {
                         break;
@@ -569,22 +636,7 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
             } else {// read training examples in the temporary file and invoke train for each example
 
                 // write training examples in buffer to a temporary file
-                if (inputBuf.remaining() > 0) {
-                    writeBuffer(inputBuf, fileIO);
-                }
-                try {
-                    fileIO.flush();
-                } catch (IOException e) {
-                    throw new HiveException("Failed to flush a file: "
-                            + fileIO.getFile().getAbsolutePath(), e);
-                }
-                if (LOG.isInfoEnabled()) {
-                    File tmpFile = fileIO.getFile();
-                    LOG.info("Wrote " + numTrainingExamples
-                            + " records to a temporary file for iterative training: "
-                            + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile)
-                            + ")");
-                }
+                flushRecords(inputBuf, fileIO, numTrainingExamples);
 
                 // run iterations
                 int iter = 2;
@@ -633,7 +685,7 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
 
                             // invoke training
                             ++_t;
-                            train(x, y, adaregr);
+                            measureTrain(x, y, adaregr);
 
                             remain -= recordBytes;
                         }
@@ -661,6 +713,189 @@ public class FactorizationMachineUDTF extends UDTFWithOptions {
         }
     }
 
+    private static void flushRecords(@Nonnull final ByteBuffer inputBuf,
+            @Nonnull final NioStatefullSegment fileIO, final long numTrainingExamples)
+            throws HiveException {
+        if (inputBuf.remaining() > 0) {
+            writeBuffer(inputBuf, fileIO);
+        }
+        try {
+            fileIO.flush();
+        } catch (IOException e) {
+            throw new HiveException("Failed to flush a file: "
+                    + fileIO.getFile().getAbsolutePath(), e);
+        }
+        if (LOG.isInfoEnabled()) {
+            File tmpFile = fileIO.getFile();
+            LOG.info("Wrote " + numTrainingExamples
+                    + " records to a temporary file for iterative training: "
+                    + tmpFile.getAbsolutePath() + " (" + FileUtils.prettyFileSize(tmpFile) + ")");
+        }
+    }
+
+    /**
+     * Runs iterations on multiple threads that update the model without locks. Recorded examples
+     * are split into chunks and the next chunk is read from the temporary file while the worker
+     * threads train the previous ones. Metrics of each example are not measured.
+     */
+    private void runConcurrentTrainingIteration(final int iterations,
+            @Nonnull final ByteBuffer inputBuf, @Nonnull final NioStatefullSegment fileIO,
+            @Nullable final Reporter reporter, @Nullable final Counter iterCounter)
+            throws HiveException {
+        final long numTrainingExamples = _t;
+        final boolean onMemory = (fileIO.getPosition() == 0L);
+        if (onMemory) {
+            if (inputBuf.position() == 0) {
+                return; // no training example
+            }
+            inputBuf.flip();
+        } else {
+            flushRecords(inputBuf, fileIO, numTrainingExamples);
+        }
+
+        final int numThreads = _params.numThreads;
+        final ChunkHandler[] workers = new ChunkHandler[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = newReplayWorker();
+        }
+        final ConcurrentReplayTrainer trainer = new ConcurrentReplayTrainer(workers, CHUNK_BYTES);
+
+        int iter = 2;
+        try {
+            for (; iter <= iterations; iter++) {
+                reportProgress(reporter);
+                setCounterValue(iterCounter, iter);
+
+                long t = _t;
+                if (onMemory) {
+                    t = submitRecords(inputBuf.duplicate(), trainer, t);
+                } else {
+                    inputBuf.clear();
+                    fileIO.resetPosition();
+                    while (true) {
+                        reportProgress(reporter);
+                        final int bytesRead;
+                        try {
+                            bytesRead = fileIO.read(inputBuf);
+                        } catch (IOException e) {
+                            throw new HiveException("Failed to read a file: "
+                                    + fileIO.getFile().getAbsolutePath(), e);
+                        }
+                        if (bytesRead == 0) { // reached file EOF
+                            break;
+                        }
+                        assert (bytesRead > 0) : bytesRead;
+
+                        inputBuf.flip();
+                        if (inputBuf.remaining() < INT_BYTES) {
+                            throw new HiveException("Illegal file format was detected");
+                        }
+                        t = submitRecords(inputBuf, trainer, t);
+                        inputBuf.compact();
+                    }
+                }
+                _cvState.incrLoss(trainer.sync());
+                this._t = t;
+                if (_cvState.isConverged(iter, numTrainingExamples)) {
+                    break;
+                }
+            }
+        } finally {
+            trainer.close();
+        }
+        LOG.info("Performed " + Math.min(iter, iterations) + " iterations of "
+                + NumberUtils.formatNumber(numTrainingExamples) + " training examples "
+                + (onMemory ? "on memory" : "on a secondary storage") + " with " + numThreads
+                + " threads (thus " + NumberUtils.formatNumber(_t)
+                + " training updates in total)");
+    }
+
+    /**
+     * Submits the complete records in a buffer to the trainer in chunks of about
+     * {@link #CHUNK_BYTES}, leaving an incomplete record in the buffer.
+     * 
+     * @return the number of training updates after the submitted records
+     */
+    private static long submitRecords(@Nonnull final ByteBuffer buf,
+            @Nonnull final ConcurrentReplayTrainer trainer, long t) throws HiveException {
+        final ByteBuffer chunk = buf.duplicate();
+        final int limit = buf.limit();
+        int start = buf.position();
+        int pos = start;
+        int records = 0;
+        while (limit - pos >= INT_BYTES) {
+            final int end = pos + INT_BYTES + buf.getInt(pos);
+            if (end > limit) {
+                break;
+            }
+            if (end - start > CHUNK_BYTES && records > 0) {
+                chunk.limit(pos);
+                chunk.position(start);
+                trainer.submit(chunk, t);
+                t += records;
+                records = 0;
+                start = pos;
+            }
+            pos = end;
+            records++;
+        }
+        if (records > 0) {
+            chunk.limit(pos);
+            chunk.position(start);
+            trainer.submit(chunk, t);
+            t += records;
+        }
+        buf.position(pos);
+        return t;
+    }
+
+    @Nonnull
+    protected ReplayWorker newReplayWorker() {
+        return new ReplayWorker();
+    }
+
+    /**
+     * Trains the recorded examples of chunks in a worker thread of concurrent iterations.
+     * Subclasses keep buffers of the thread in a subclass of this.
+     */
+    protected class ReplayWorker implements ChunkHandler {
+
+        protected ReplayWorker() {}
+
+        @Override
+        public final double handle(@Nonnull final ByteBuffer records, final long t0)
+                throws HiveException {
+            double loss = 0.d;
+            long t = t0;
+            while (records.remaining() > 0) {
+                records.getInt(); // skip the record bytes
+                final int xLength = records.getInt();
+                final Feature[] x = new Feature[xLength];
+                for (int j = 0; j < xLength; j++) {
+                    x[j] = instantiateFeature(records);
+                }
+                final double y = records.getDouble();
+
+                ++t;
+                try {
+                    loss += train(x, y, t);
+                } catch (Exception ex) {
+                    throw new HiveException("Exception caused in the " + t
+                            + "-th call of train()", ex);
+                }
+            }
+            return loss;
+        }
+
+        /**
+         * @return the loss of x before the update
+         */
+        protected double train(@Nonnull Feature[] x, double y, long t) throws HiveException {
+            return trainTheta(x, y, t);
+        }
+
+    }
+
     @Nonnull
     protected Feature instantiateFeature(@Nonnull final ByteBuffer input) {
         if (_parseFeatureAsInt) {
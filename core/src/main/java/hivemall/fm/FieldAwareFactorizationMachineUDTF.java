@@ -70,9 +70,8 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
 
     private transient FFMStringFeatureMapModel _ffmModel;
 
-    private transient IntArrayList _fieldList;
     @Nullable
-    private transient DoubleArray3D _sumVfX;
+    private transient Workspace _workspace;
 
     public FieldAwareFactorizationMachineUDTF() {
         super();
@@ -137,7 +136,7 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
     public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
         StructObjectInspector oi = super.initialize(argOIs);
 
-        this._fieldList = new IntArrayList();
+        this._workspace = new Workspace();
         return oi;
     }
 
@@ -183,16 +182,27 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
 
     @Override
     protected void trainTheta(@Nonnull final Feature[] x, final double y) throws HiveException {
-        final float eta_t = _etaEstimator.eta(_t);
+        double loss = trainTheta(x, y, _t, _workspace);
+        _cvState.incrLoss(loss);
+    }
+
+    @Override
+    protected double trainTheta(@Nonnull final Feature[] x, final double y, final long t)
+            throws HiveException {
+        return trainTheta(x, y, t, new Workspace());
+    }
+
+    private double trainTheta(@Nonnull final Feature[] x, final double y, final long t,
+            @Nonnull final Workspace workspace) throws HiveException {
+        final float eta_t = _etaEstimator.eta(t);
 
         final double p = _ffmModel.predict(x);
         final double lossGrad = _ffmModel.dloss(p, y);
 
-        double loss = _lossFunction.loss(p, y);
-        _cvState.incrLoss(loss);
+        final double loss = _lossFunction.loss(p, y);
 
         if (MathUtils.closeToZero(lossGrad)) {
-            return;
+            return loss;
         }
 
         // w0 update
@@ -201,9 +211,9 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
         }
 
         // ViFf update
-        final IntArrayList fieldList = getFieldList(x);
+        final IntArrayList fieldList = getFieldList(x, workspace.fieldList);
         // sumVfX[i as in index for x][index for field list][index for factorized dimension]
-        final DoubleArray3D sumVfX = _ffmModel.sumVfX(x, fieldList, _sumVfX);
+        final DoubleArray3D sumVfX = _ffmModel.sumVfX(x, fieldList, workspace.sumVfX);
         for (int i = 0; i < x.length; i++) {
             final Feature x_i = x[i];
             if (x_i.value == 0.f) {
@@ -217,15 +227,16 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
                 final int yField = fieldList.get(fieldIndex);
                 for (int f = 0, k = _factors; f < k; f++) {
                     double sumViX = sumVfX.get(i, fieldIndex, f);
-                    _ffmModel.updateV(lossGrad, x_i, yField, f, sumViX, _t);
+                    _ffmModel.updateV(lossGrad, x_i, yField, f, sumViX, t);
                 }
             }
         }
 
         // clean up per training instance caches
         sumVfX.clear();
-        this._sumVfX = sumVfX;
+        workspace.sumVfX = sumVfX;
         fieldList.clear();
+        return loss;
     }
 
     private boolean updateWi(double lossGrad, @Nonnull Feature xi, float eta) {
@@ -241,12 +252,41 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
     }
 
     @Nonnull
-    private IntArrayList getFieldList(@Nonnull final Feature[] x) {
+    private static IntArrayList getFieldList(@Nonnull final Feature[] x,
+            @Nonnull final IntArrayList fieldList) {
         for (Feature e : x) {
             int field = e.getField();
-            _fieldList.add(field);
+            fieldList.add(field);
         }
-        return _fieldList;
+        return fieldList;
+    }
+
+    @Override
+    protected ReplayWorker newReplayWorker() {
+        final Workspace workspace = new Workspace();
+        return new ReplayWorker() {
+            @Override
+            protected double train(@Nonnull Feature[] x, double y, long t) throws HiveException {
+                return trainTheta(x, y, t, workspace);
+            }
+        };
+    }
+
+    /**
+     * Per training instance caches of a thread
+     */
+    private static final class Workspace {
+
+        @Nonnull
+        final IntArrayList fieldList;
+        @Nullable
+        DoubleArray3D sumVfX;
+
+        Workspace() {
+            this.fieldList = new IntArrayList();
+            this.sumVfX = null;
+        }
+
     }
 
     @Override
@@ -263,8 +303,7 @@ public final class FieldAwareFactorizationMachineUDTF extends FactorizationMachi
     @Override
     protected void forwardModel() throws HiveException {
         this._model = null;
-        this._fieldList = null;
-        this._sumVfX = null;
+        this._workspace = null;
 
         Text modelId = new Text();
         String taskId = HadoopUtils.getUniqueTaskIdString();
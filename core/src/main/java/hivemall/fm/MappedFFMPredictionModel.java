@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.utils.collections.Int2LongOpenHashTable;
+import hivemall.utils.collections.IntOpenHashTable;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.io.NIOUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.lang.SizeOf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A FFM prediction model that is read in place from a memory-mapped file. The pages of the file
+ * are shared through the OS page cache by every task on a node and nothing but a few buffer
+ * objects is kept on the Java heap.
+ * 
+ * <pre>
+ * [header]  magic, version, w0, factors, numFeatures, numFields, used, capacity, fingerprint
+ * [keys]    int[capacity]   open-addressing table of features
+ * [slots]   int[capacity]   entry index of each key, or -1 for an empty slot
+ * [entries] float[used * (1 + factors)]  W followed by V of each entry
+ * </pre>
+ * 
+ * All values are stored in little endian.
+ */
+@ThreadSafe
+public final class MappedFFMPredictionModel implements IFFMPredictionModel, Closeable {
+    private static final Log LOG = LogFactory.getLog(MappedFFMPredictionModel.class);
+
+    private static final int MAGIC = 0x4D4D4646; // "FFMM" in little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MAX_CAPACITY = 1 << 28;
+    /** Entries are mapped in segments of at most 1 GiB since a buffer is indexed by int */
+    private static final int SEGMENT_BYTES = 1 << 30;
+
+    @Nonnull
+    private final File _file;
+    private final double _w0;
+    private final int _factors;
+    private final int _numFeatures;
+    private final int _numFields;
+    private final int _size;
+    /** fingerprint of the model the file was written from */
+    private final int _fingerprint;
+
+    private final int _mask;
+    @Nonnull
+    private final ByteBuffer _keys;
+    @Nonnull
+    private final ByteBuffer _slots;
+    @Nonnull
+    private final ByteBuffer[] _entries;
+    private final int _entryBytes;
+    private final int _entriesPerSegment;
+
+    private MappedFFMPredictionModel(@Nonnull File file, @Nonnull FileChannel channel)
+            throws IOException {
+        this._file = file;
+
+        final long fileSize = channel.size();
+        if (fileSize < HEADER_BYTES) {
+            throw new IOException("Illegal FFM model file size " + fileSize + ": " + file);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        NIOUtils.readFully(channel, header, 0L);
+        header.flip();
+        int magic = header.getInt();
+        int version = header.getInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a FFM model file of version " + VERSION + ": " + file);
+        }
+        this._w0 = header.getDouble();
+        this._factors = header.getInt();
+        this._numFeatures = header.getInt();
+        this._numFields = header.getInt();
+        this._size = header.getInt();
+        final int capacity = header.getInt();
+        this._fingerprint = header.getInt();
+        this._mask = capacity - 1;
+        this._entryBytes = Entry.sizeOf(_factors);
+        this._entriesPerSegment = SEGMENT_BYTES / _entryBytes;
+
+        final long tableBytes = (long) capacity * SizeOf.INT;
+        final long entriesPos = HEADER_BYTES + tableBytes * 2L;
+        final long expectedSize = entriesPos + (long) _size * _entryBytes;
+        if (Integer.bitCount(capacity) != 1 || fileSize != expectedSize) {
+            throw new IOException("Broken FFM model file of " + fileSize
+                    + " bytes where expected " + expectedSize + " bytes: " + file);
+        }
+
+        this._keys = map(channel, HEADER_BYTES, tableBytes);
+        this._slots = map(channel, HEADER_BYTES + tableBytes, tableBytes);
+        final int numSegments = (_size + _entriesPerSegment - 1) / _entriesPerSegment;
+        this._entries = new ByteBuffer[numSegments];
+        long pos = entriesPos;
+        for (int i = 0; i < numSegments; i++) {
+            int n = Math.min(_entriesPerSegment, _size - i * _entriesPerSegment);
+            long bytes = (long) n * _entryBytes;
+            _entries[i] = map(channel, pos, bytes);
+            pos += bytes;
+        }
+    }
+
+    @Nonnull
+    private static ByteBuffer map(@Nonnull final FileChannel channel, final long position,
+            final long size) throws IOException {
+        MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, position, size);
+        return buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Maps a model file written by {@link #write(FFMPredictionModel, File)}. The file descriptor
+     * is closed on return while the mapping stays valid until the model is garbage collected.
+     */
+    @Nonnull
+    public static MappedFFMPredictionModel open(@Nonnull final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedFFMPredictionModel model = new MappedFFMPredictionModel(file, raf.getChannel());
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Mapped a FFM model of " + NumberUtils.formatNumber(model._size)
+                        + " entries (" + NumberUtils.prettySize(file.length()) + ") from "
+                        + file.getAbsolutePath());
+            }
+            return model;
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+    }
+
+    @Nonnull
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * @return the fingerprint given to {@link #write(FFMPredictionModel, File, int)}
+     */
+    public int getFingerprint() {
+        return _fingerprint;
+    }
+
+    @Override
+    public double getW0() {
+        return _w0;
+    }
+
+    @Override
+    public int getNumFactors() {
+        return _factors;
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return _numFeatures;
+    }
+
+    @Override
+    public int getNumFields() {
+        return _numFields;
+    }
+
+    public int getActualNumFeatures() {
+        return _size;
+    }
+
+    /**
+     * @return the index of the entry, or -1 if not found
+     */
+    private int findEntry(final int key) {
+        final ByteBuffer keys = _keys;
+        final ByteBuffer slots = _slots;
+        final int mask = _mask;
+        int i = hash(key) & mask;
+        while (true) {
+            final int slot = slots.getInt(i * SizeOf.INT);
+            if (slot == -1) {
+                return -1;
+            }
+            if (keys.getInt(i * SizeOf.INT) == key) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    @Override
+    public float getW(@Nonnull final Feature x) {
+        final int idx = findEntry(x.getFeatureIndex());
+        if (idx == -1) {
+            return 0.f;
+        }
+        ByteBuffer segment = _entries[idx / _entriesPerSegment];
+        return segment.getFloat((idx % _entriesPerSegment) * _entryBytes);
+    }
+
+    @Override
+    public boolean getV(@Nonnull final Feature x, final int yField, @Nonnull final float[] dst) {
+        final int idx = findEntry(Feature.toIntFeature(x, yField, _numFields));
+        if (idx == -1) {
+            return false;
+        }
+        final ByteBuffer segment = _entries[idx / _entriesPerSegment];
+        final int offset = (idx % _entriesPerSegment) * _entryBytes + SizeOf.FLOAT;
+        boolean allZero = true;
+        for (int f = 0, len = dst.length; f < len; f++) {
+            float v = segment.getFloat(offset + f * SizeOf.FLOAT);
+            dst[f] = v;
+            allZero &= (v == 0.f);
+        }
+        return !allZero; // treat as null
+    }
+
+    /**
+     * Nothing to release explicitly. The mapped pages are unmapped when the model is garbage
+     * collected.
+     */
+    @Override
+    public void close() throws IOException {}
+
+    @Override
+    public String toString() {
+        return "MappedFFMPredictionModel [file=" + _file + ", size=" + _size + ", factors="
+                + _factors + "]";
+    }
+
+    /**
+     * Writes a model in the mapped layout. The file is first written to a temporary file in the
+     * same directory and then renamed so that concurrent readers never see a partial file.
+     */
+    public static void write(@Nonnull final FFMPredictionModel model, @Nonnull final File file)
+            throws IOException {
+        write(model, file, 0);
+    }
+
+    /**
+     * Writes a model in the mapped layout together with a fingerprint of its source, e.g., a hash
+     * of the serialized model, so that a reader can tell whether an existing file is stale.
+     */
+    public static void write(@Nonnull final FFMPredictionModel model, @Nonnull final File file,
+            final int fingerprint) throws IOException {
+        final Int2LongOpenHashTable map = model.getMap();
+        final int used = map.size();
+        final int capacity = capacity(used);
+        final int factors = model.getNumFactors();
+
+        final int[] keys = new int[capacity];
+        final int[] slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        final long[] ptrs = new long[used];
+        final int[] srcKeys = map.getKeys();
+        final long[] srcValues = map.getValues();
+        final byte[] srcStates = map.getStates();
+        final int mask = capacity - 1;
+        int n = 0;
+        for (int i = 0; i < srcKeys.length; i++) {
+            if (srcStates[i] != IntOpenHashTable.FULL) {
+                continue;
+            }
+            final int key = srcKeys[i];
+            int j = hash(key) & mask;
+            while (slots[j] != -1) {
+                j = (j + 1) & mask;
+            }
+            keys[j] = key;
+            slots[j] = n;
+            ptrs[n] = srcValues[i];
+            n++;
+        }
+        assert (n == used) : n + " != " + used;
+
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile()
+                                                                       .getParentFile());
+        final RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buf = ByteBuffer.allocate(1024 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC);
+            buf.putInt(VERSION);
+            buf.putDouble(model.getW0());
+            buf.putInt(factors);
+            buf.putInt(model.getNumFeatures());
+            buf.putInt(model.getNumFields());
+            buf.putInt(used);
+            buf.putInt(capacity);
+            buf.putInt(fingerprint);
+            assert (buf.position() == HEADER_BYTES);
+
+            for (int key : keys) {
+                putInt(key, buf, channel);
+            }
+            for (int slot : slots) {
+                putInt(slot, buf, channel);
+            }
+            final Entry e = new Entry(model.getBuffer(), factors);
+            final float[] Vf = new float[factors];
+            for (long ptr : ptrs) {
+                e.setOffset(ptr);
+                e.getV(Vf);
+                putFloat(e.getW(), buf, channel);
+                for (float v : Vf) {
+                    putFloat(v, buf, channel);
+                }
+            }
+            buf.flip();
+            NIOUtils.writeFully(channel, buf);
+            channel.force(false);
+        } finally {
+            IOUtils.closeQuietly(raf);
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Failed to rename " + tmpFile + " to " + file);
+        }
+    }
+
+    private static void putInt(final int v, @Nonnull final ByteBuffer buf,
+            @Nonnull final FileChannel channel) throws IOException {
+        if (buf.remaining() < SizeOf.INT) {
+            buf.flip();
+            NIOUtils.writeFully(channel, buf);
+            buf.clear();
+        }
+        buf.putInt(v);
+    }
+
+    private static void putFloat(final float v, @Nonnull final ByteBuffer buf,
+            @Nonnull final FileChannel channel) throws IOException {
+        if (buf.remaining() < SizeOf.FLOAT) {
+            buf.flip();
+            NIOUtils.writeFully(channel, buf);
+            buf.clear();
+        }
+        buf.putFloat(v);
+    }
+
+    private static int capacity(final int used) throws IOException {
+        final long required = (long) Math.ceil(used / LOAD_FACTOR) + 1L;
+        if (required > MAX_CAPACITY) {
+            throw new IOException("Too many entries for a mapped FFM model: " + used);
+        }
+        int capacity = 16;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * The finalizer of MurmurHash3 to spread hashed features over the table
+     */
+    private static int hash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
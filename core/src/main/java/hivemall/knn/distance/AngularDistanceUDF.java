@@ -19,7 +19,7 @@
 package hivemall.knn.distance;
 
 import hivemall.knn.similarity.AngularSimilarityUDF;
-import hivemall.utils.hadoop.HiveUtils;
+import hivemall.knn.similarity.CosineSimilarityUDF;
 
 import java.util.Arrays;
 import java.util.List;
@@ -29,7 +29,6 @@ import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
-import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
@@ -42,24 +41,23 @@ import org.apache.hadoop.io.FloatWritable;
 @UDFType(deterministic = true, stateful = false)
 public final class AngularDistanceUDF extends GenericUDF {
 
-    private ListObjectInspector arg0ListOI, arg1ListOI;
+    private FeatureVectorPair vectors;
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
         if (argOIs.length != 2) {
             throw new UDFArgumentException("angular_distance takes 2 arguments");
         }
-        this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
-        this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.vectors = new FeatureVectorPair(argOIs[0], argOIs[1]);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float d = 1.f - AngularSimilarityUDF.angularSimilarity(ftvec1, ftvec2);
+        float cosineSim = CosineSimilarityUDF.cosineSimilarity(vectors, arguments[0],
+            arguments[1]);
+        float d = 1.f - AngularSimilarityUDF.angularSimilarity(cosineSim);
         return new FloatWritable(d);
     }
 
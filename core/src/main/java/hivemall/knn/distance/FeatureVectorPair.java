@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.distance;
+
+import hivemall.utils.hadoop.HiveUtils;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+
+/**
+ * Reads the two vector arguments of a distance or similarity function in the cheapest form
+ * available: float arrays for <code>array&lt;float|double&gt;</code>, a {@link SortedSparseVector}
+ * for features of the form <code>index[:value]</code> and lists of strings otherwise.
+ */
+public final class FeatureVectorPair {
+
+    public enum Form {
+        /** {@link #dense1()} and {@link #dense2()} of {@link #denseSize()} elements */
+        DENSE,
+        /** {@link #sparse1()} and {@link #sparse2()} */
+        SPARSE,
+        /** {@link #list1()} and {@link #list2()}, either of which can be null */
+        LIST
+    }
+
+    @Nonnull
+    private final ListObjectInspector listOI1, listOI2;
+    @Nullable
+    private final PrimitiveObjectInspector elemOI1, elemOI2;
+
+    private float[] dense1, dense2;
+    private int denseSize;
+    private SortedSparseVector sparse1, sparse2;
+    private List<String> list1, list2;
+
+    public FeatureVectorPair(@Nonnull ObjectInspector argOI1, @Nonnull ObjectInspector argOI2)
+            throws UDFArgumentException {
+        this.listOI1 = HiveUtils.asListOI(argOI1);
+        this.listOI2 = HiveUtils.asListOI(argOI2);
+        ObjectInspector e1 = listOI1.getListElementObjectInspector();
+        ObjectInspector e2 = listOI2.getListElementObjectInspector();
+        if (HiveUtils.isFloatingPointOI(e1) && HiveUtils.isFloatingPointOI(e2)) {
+            this.elemOI1 = (PrimitiveObjectInspector) e1;
+            this.elemOI2 = (PrimitiveObjectInspector) e2;
+            this.dense1 = new float[0];
+            this.dense2 = new float[0];
+        } else {
+            this.elemOI1 = null;
+            this.elemOI2 = null;
+            this.sparse1 = new SortedSparseVector();
+            this.sparse2 = new SortedSparseVector();
+        }
+    }
+
+    /**
+     * @return the form in which the arguments have been read
+     */
+    @Nonnull
+    public Form read(@Nonnull final DeferredObject arg1, @Nonnull final DeferredObject arg2)
+            throws HiveException {
+        if (elemOI1 != null) {
+            final Object o1 = arg1.get();
+            final Object o2 = arg2.get();
+            if (o1 != null && o2 != null) {
+                final int size = listOI1.getListLength(o1);
+                if (listOI2.getListLength(o2) != size) {
+                    throw new UDFArgumentException("Dimension mismatched: " + size + " and "
+                            + listOI2.getListLength(o2));
+                }
+                this.dense1 = toFloatArray(o1, listOI1, elemOI1, size, dense1);
+                this.dense2 = toFloatArray(o2, listOI2, elemOI2, size, dense2);
+                this.denseSize = size;
+                return Form.DENSE;
+            }
+        }
+        this.list1 = HiveUtils.asStringList(arg1, listOI1);
+        this.list2 = HiveUtils.asStringList(arg2, listOI2);
+        if (elemOI1 == null && list1 != null && list2 != null && sparse1.set(list1)
+                && sparse2.set(list2)) {
+            return Form.SPARSE;
+        }
+        return Form.LIST;
+    }
+
+    @Nonnull
+    public float[] dense1() {
+        return dense1;
+    }
+
+    @Nonnull
+    public float[] dense2() {
+        return dense2;
+    }
+
+    public int denseSize() {
+        return denseSize;
+    }
+
+    @Nonnull
+    public SortedSparseVector sparse1() {
+        return sparse1;
+    }
+
+    @Nonnull
+    public SortedSparseVector sparse2() {
+        return sparse2;
+    }
+
+    @Nullable
+    public List<String> list1() {
+        return list1;
+    }
+
+    @Nullable
+    public List<String> list2() {
+        return list2;
+    }
+
+    @Nonnull
+    private static float[] toFloatArray(@Nonnull final Object argObj,
+            @Nonnull final ListObjectInspector listOI,
+            @Nonnull final PrimitiveObjectInspector elemOI, final int size, @Nonnull float[] dst) {
+        if (dst.length < size) {
+            dst = new float[size];
+        }
+        if (elemOI instanceof FloatObjectInspector) {
+            final FloatObjectInspector oi = (FloatObjectInspector) elemOI;
+            for (int i = 0; i < size; i++) {
+                Object o = listOI.getListElement(argObj, i);
+                dst[i] = (o == null) ? 0.f : oi.get(o);
+            }
+        } else {
+            final DoubleObjectInspector oi = (DoubleObjectInspector) elemOI;
+            for (int i = 0; i < size; i++) {
+                Object o = listOI.getListElement(argObj, i);
+                dst[i] = (o == null) ? 0.f : (float) oi.get(o);
+            }
+        }
+        return dst;
+    }
+
+}
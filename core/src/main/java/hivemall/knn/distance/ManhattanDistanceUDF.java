@@ -19,19 +19,20 @@
 package hivemall.knn.distance;
 
 import hivemall.model.FeatureValue;
-import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.math.VectorUtils;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nonnull;
+
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
-import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
@@ -40,25 +41,49 @@ import org.apache.hadoop.io.FloatWritable;
 @UDFType(deterministic = true, stateful = false)
 public final class ManhattanDistanceUDF extends GenericUDF {
 
-    private ListObjectInspector arg0ListOI, arg1ListOI;
+    private FeatureVectorPair vectors;
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
         if (argOIs.length != 2) {
             throw new UDFArgumentException("manhattan_distance takes 2 arguments");
         }
-        this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
-        this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.vectors = new FeatureVectorPair(argOIs[0], argOIs[1]);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float d = (float) manhattanDistance(ftvec1, ftvec2);
-        return new FloatWritable(d);
+        final double d;
+        switch (vectors.read(arguments[0], arguments[1])) {
+            case DENSE:
+                d = VectorUtils.manhattanDistance(vectors.dense1(), vectors.dense2(),
+                    vectors.denseSize());
+                break;
+            case SPARSE:
+                d = manhattanDistance(vectors.sparse1(), vectors.sparse2());
+                break;
+            default:
+                d = manhattanDistance(vectors.list1(), vectors.list2());
+                break;
+        }
+        return new FloatWritable((float) d);
+    }
+
+    public static double manhattanDistance(@Nonnull final float[] ftvec1,
+            @Nonnull final float[] ftvec2) {
+        if (ftvec1.length != ftvec2.length) {
+            throw new IllegalArgumentException("Dimension mismatched: " + ftvec1.length + " and "
+                    + ftvec2.length);
+        }
+        return VectorUtils.manhattanDistance(ftvec1, ftvec2, ftvec1.length);
+    }
+
+    public static double manhattanDistance(@Nonnull final SortedSparseVector ftvec1,
+            @Nonnull final SortedSparseVector ftvec2) {
+        return VectorUtils.manhattanDistance(ftvec1.indexes(), ftvec1.values(),
+            ftvec1.size(), ftvec2.indexes(), ftvec2.values(), ftvec2.size());
     }
 
     public static double manhattanDistance(final List<String> ftvec1, final List<String> ftvec2) {
@@ -20,18 +20,20 @@ package hivemall.knn.distance;
 
 import hivemall.model.FeatureValue;
 import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.math.VectorUtils;
 
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nonnull;
+
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
-import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
@@ -41,7 +43,7 @@ import org.apache.hadoop.io.FloatWritable;
 @UDFType(deterministic = true, stateful = false)
 public final class MinkowskiDistanceUDF extends GenericUDF {
 
-    private ListObjectInspector arg0ListOI, arg1ListOI;
+    private FeatureVectorPair vectors;
     private double order_p;
 
     @Override
@@ -49,8 +51,7 @@ public final class MinkowskiDistanceUDF extends GenericUDF {
         if (argOIs.length != 3) {
             throw new UDFArgumentException("minkowski_distance takes 3 arguments");
         }
-        this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
-        this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.vectors = new FeatureVectorPair(argOIs[0], argOIs[1]);
         this.order_p = HiveUtils.getAsConstDouble(argOIs[2]);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
@@ -58,10 +59,37 @@ public final class MinkowskiDistanceUDF extends GenericUDF {
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float d = (float) minkowskiDistance(ftvec1, ftvec2, order_p);
-        return new FloatWritable(d);
+        final double d;
+        switch (vectors.read(arguments[0], arguments[1])) {
+            case DENSE:
+                d = Math.pow(VectorUtils.minkowskiDistanceSum(vectors.dense1(), vectors.dense2(),
+                    vectors.denseSize(), order_p), 1.d / order_p);
+                break;
+            case SPARSE:
+                d = minkowskiDistance(vectors.sparse1(), vectors.sparse2(), order_p);
+                break;
+            default:
+                d = minkowskiDistance(vectors.list1(), vectors.list2(), order_p);
+                break;
+        }
+        return new FloatWritable((float) d);
+    }
+
+    public static double minkowskiDistance(@Nonnull final float[] ftvec1,
+            @Nonnull final float[] ftvec2, final double orderP) {
+        if (ftvec1.length != ftvec2.length) {
+            throw new IllegalArgumentException("Dimension mismatched: " + ftvec1.length + " and "
+                    + ftvec2.length);
+        }
+        double d = VectorUtils.minkowskiDistanceSum(ftvec1, ftvec2, ftvec1.length, orderP);
+        return Math.pow(d, 1.d / orderP);
+    }
+
+    public static double minkowskiDistance(@Nonnull final SortedSparseVector ftvec1,
+            @Nonnull final SortedSparseVector ftvec2, final double orderP) {
+        double d = VectorUtils.minkowskiDistanceSum(ftvec1.indexes(), ftvec1.values(),
+            ftvec1.size(), ftvec2.indexes(), ftvec2.values(), ftvec2.size(), orderP);
+        return Math.pow(d, 1.d / orderP);
     }
 
     public static double minkowskiDistance(final List<String> ftvec1, final List<String> ftvec2,
@@ -87,7 +115,7 @@ public final class MinkowskiDistanceUDF extends GenericUDF {
             float v2f = probe.getValueAsFloat();
             Float v1 = map.remove(f2);
             if (v1 == null) {
-                d += Math.abs(v2f);
+                d += Math.pow(Math.abs(v2f), orderP);
             } else {
                 float v1f = v1.floatValue();
                 d += Math.pow(Math.abs(v1f - v2f), orderP);
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.distance;
+
+import hivemall.utils.math.VectorUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A reusable sparse vector of integer indexes in ascending order and their values, which is the
+ * input of the sparse kernels in {@link VectorUtils}.
+ */
+public final class SortedSparseVector {
+
+    @Nonnull
+    private int[] indexes;
+    @Nonnull
+    private float[] values;
+    private int size;
+
+    @Nonnull
+    private long[] entries;
+
+    public SortedSparseVector() {
+        this(16);
+    }
+
+    public SortedSparseVector(int initialCapacity) {
+        this.indexes = new int[initialCapacity];
+        this.values = new float[initialCapacity];
+        this.entries = new long[initialCapacity];
+        this.size = 0;
+    }
+
+    @Nonnull
+    public int[] indexes() {
+        return indexes;
+    }
+
+    @Nonnull
+    public float[] values() {
+        return values;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sets features of the form <code>index[:value]</code>. Null elements are ignored and the last
+     * value wins for a duplicate index.
+     * 
+     * @return false, leaving this vector in an unspecified state, when a feature is not an integer
+     *         index
+     */
+    public boolean set(@Nullable final List<String> features) {
+        if (features == null) {
+            this.size = 0;
+            return true;
+        }
+        final int n = features.size();
+        ensureCapacity(n);
+        final int[] keys = indexes;
+        final float[] vals = values;
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            final String s = features.get(i);
+            if (s == null) {
+                continue;
+            }
+            final int pos = s.indexOf(':');
+            final int end = (pos >= 0) ? pos : s.length();
+            final long index = parseIndex(s, end);
+            if (index == Long.MIN_VALUE) {
+                return false;
+            }
+            keys[k] = (int) index;
+            vals[k] = (pos >= 0) ? (float) Double.parseDouble(s.substring(pos + 1)) : 1.f;
+            k++;
+        }
+        sort(k);
+        return true;
+    }
+
+    /**
+     * Sets the first <code>n</code> elements of the given indexes and values, which need not be
+     * sorted. The last value wins for a duplicate index.
+     */
+    public void set(@Nonnull final int[] keys, @Nonnull final float[] vals, final int n) {
+        ensureCapacity(n);
+        System.arraycopy(keys, 0, indexes, 0, n);
+        System.arraycopy(vals, 0, values, 0, n);
+        sort(n);
+    }
+
+    /**
+     * @return sum(x^2)
+     */
+    public double squaredNorm() {
+        return VectorUtils.squaredNorm(values, size);
+    }
+
+    private void ensureCapacity(final int n) {
+        if (n > indexes.length) {
+            int newCapacity = Math.max(n, indexes.length * 2);
+            this.indexes = new int[newCapacity];
+            this.values = new float[newCapacity];
+            this.entries = new long[newCapacity];
+        }
+    }
+
+    /**
+     * Sorts the first n elements by index, keeping the last of the duplicates.
+     */
+    private void sort(final int n) {
+        final int[] keys = indexes;
+        final float[] vals = values;
+        final long[] e = entries;
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            e[i] = ((long) keys[i] << 32) | i;
+            if (i > 0 && keys[i - 1] >= keys[i]) {
+                sorted = false;
+            }
+        }
+        if (sorted) {
+            this.size = n;
+            return;
+        }
+        Arrays.sort(e, 0, n);
+        // positions are restored from the sorted entries, so copy the values aside first
+        final float[] copy = Arrays.copyOf(vals, n);
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            final int key = (int) (e[i] >> 32);
+            final int pos = (int) e[i];
+            if (k > 0 && keys[k - 1] == key) {
+                vals[k - 1] = copy[pos];
+            } else {
+                keys[k] = key;
+                vals[k] = copy[pos];
+                k++;
+            }
+        }
+        this.size = k;
+    }
+
+    /**
+     * @return the integer in s[0, end), or Long.MIN_VALUE when it is not a decimal int
+     */
+    private static long parseIndex(@Nonnull final String s, final int end) {
+        if (end == 0 || end > 11) {
+            return Long.MIN_VALUE;
+        }
+        int i = 0;
+        boolean negative = false;
+        if (s.charAt(0) == '-') {
+            if (end == 1) {
+                return Long.MIN_VALUE;
+            }
+            negative = true;
+            i = 1;
+        }
+        long v = 0L;
+        for (; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            v = v * 10L + (c - '0');
+        }
+        if (negative) {
+            v = -v;
+        }
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return v;
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.lsh;
+
+import hivemall.model.FeatureValue;
+import hivemall.utils.hashing.MurmurHash3;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An in-memory LSH index of multiple hash tables. A row is put into a bucket of each table whose
+ * key is built from several locality sensitive hashes, and rows sharing a bucket with a query in
+ * any table are its candidates of nearest neighbors.
+ * <p>
+ * Each table is kept as (key, row) pairs packed into longs and sorted, so that a bucket is a range
+ * found by binary search and the index costs 8 bytes per row and table.
+ */
+public final class LshIndex {
+
+    @Nonnull
+    private final Hasher _hasher;
+    /** (key, row) pairs of each table in ascending order */
+    @Nonnull
+    private final long[][] _tables;
+    private final int _numRows;
+
+    private LshIndex(@Nonnull Hasher hasher, @Nonnull long[][] tables, int numRows) {
+        this._hasher = hasher;
+        this._tables = tables;
+        this._numRows = numRows;
+    }
+
+    public int numRows() {
+        return _numRows;
+    }
+
+    public int numTables() {
+        return _tables.length;
+    }
+
+    /**
+     * Collects the rows in the buckets of the given features, each row once.
+     * 
+     * @param visited a work array of {@link #numRows()} elements, all zero before the first call
+     * @param stamp a value different from the ones given to the previous calls with the same
+     *        visited array
+     * @param dst the array to which candidate rows are written
+     * @return the number of candidates, which is at most {@link #numRows()}
+     */
+    public int candidates(@Nonnull final List<String> features, @Nonnull final int[] visited,
+            final int stamp, @Nonnull final int[] dst) {
+        final int[] keys = new int[_tables.length];
+        _hasher.hash(features, keys);
+        int size = 0;
+        for (int t = 0; t < _tables.length; t++) {
+            final long[] table = _tables[t];
+            final long key = keys[t];
+            int i = Arrays.binarySearch(table, key << 32);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            for (; i < table.length && (table[i] >> 32) == key; i++) {
+                int row = (int) table[i];
+                if (visited[row] != stamp) {
+                    visited[row] = stamp;
+                    dst[size++] = row;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Nonnull
+    public static Builder newSimHashBuilder(int numTables, int numHashes, long seed) {
+        if (numHashes < 1 || numHashes > 32) {
+            throw new IllegalArgumentException("The number of hashes must be in range [1,32]: "
+                    + numHashes);
+        }
+        return new Builder(new SimHash(numTables, numHashes, seed), numTables);
+    }
+
+    @Nonnull
+    public static Builder newMinHashBuilder(int numTables, int numHashes, long seed) {
+        if (numHashes < 1) {
+            throw new IllegalArgumentException("Invalid number of hashes: " + numHashes);
+        }
+        return new Builder(new MinHash(numTables, numHashes, seed), numTables);
+    }
+
+    public static final class Builder {
+
+        @Nonnull
+        private final Hasher hasher;
+        @Nonnull
+        private final int[] keys;
+        @Nonnull
+        private long[][] tables;
+        private int numRows;
+
+        private Builder(@Nonnull Hasher hasher, int numTables) {
+            if (numTables < 1) {
+                throw new IllegalArgumentException("Invalid number of tables: " + numTables);
+            }
+            this.hasher = hasher;
+            this.keys = new int[numTables];
+            this.tables = new long[numTables][1024];
+            this.numRows = 0;
+        }
+
+        /**
+         * @return the row index of the given features
+         */
+        public int add(@Nonnull final List<String> features) {
+            final int row = numRows;
+            if (row == tables[0].length) {
+                for (int t = 0; t < tables.length; t++) {
+                    tables[t] = Arrays.copyOf(tables[t], row * 2);
+                }
+            }
+            hasher.hash(features, keys);
+            for (int t = 0; t < tables.length; t++) {
+                tables[t][row] = ((long) keys[t] << 32) | row;
+            }
+            this.numRows = row + 1;
+            return row;
+        }
+
+        @Nonnull
+        public LshIndex build() {
+            final long[][] built = new long[tables.length][];
+            for (int t = 0; t < tables.length; t++) {
+                long[] table = Arrays.copyOf(tables[t], numRows);
+                Arrays.sort(table);
+                built[t] = table;
+                tables[t] = null;
+            }
+            return new LshIndex(hasher, built, numRows);
+        }
+
+    }
+
+    private interface Hasher {
+
+        /**
+         * Writes the bucket key of each table. Must be thread-safe as an index is shared.
+         */
+        void hash(@Nonnull List<String> features, @Nonnull int[] keys);
+
+    }
+
+    /**
+     * Random hyperplane hashing for cosine similarity. A feature is mapped to +1 or -1 for each
+     * hyperplane by the bits of its 32-bit hash per table.
+     */
+    private static final class SimHash implements Hasher {
+
+        @Nonnull
+        private final int[] seeds;
+        private final int numBits;
+
+        SimHash(int numTables, int numBits, long seed) {
+            this.seeds = newSeeds(numTables, seed);
+            this.numBits = numBits;
+        }
+
+        @Override
+        public void hash(@Nonnull final List<String> features, @Nonnull final int[] keys) {
+            final int numTables = seeds.length;
+            final double[] acc = new double[numTables * numBits];
+            final FeatureValue probe = new FeatureValue();
+            for (String f : features) {
+                if (f == null) {
+                    continue;
+                }
+                FeatureValue.parseFeatureAsString(f, probe);
+                final String feature = probe.getFeature();
+                final double v = probe.getValue();
+                for (int t = 0; t < numTables; t++) {
+                    final int h = MurmurHash3.murmurhash3_x86_32(feature, seeds[t]);
+                    for (int b = 0, i = t * numBits; b < numBits; b++, i++) {
+                        if (((h >>> b) & 1) == 1) {
+                            acc[i] += v;
+                        } else {
+                            acc[i] -= v;
+                        }
+                    }
+                }
+            }
+            for (int t = 0; t < numTables; t++) {
+                int key = 0;
+                for (int b = 0, i = t * numBits; b < numBits; b++, i++) {
+                    if (acc[i] > 0.d) {
+                        key |= (1 << b);
+                    }
+                }
+                keys[t] = key;
+            }
+        }
+
+    }
+
+    /**
+     * MinHash for Jaccard similarity of the sets of feature strings.
+     */
+    private static final class MinHash implements Hasher {
+
+        @Nonnull
+        private final int[] seeds;
+        private final int numHashes;
+
+        MinHash(int numTables, int numHashes, long seed) {
+            this.seeds = newSeeds(numTables * numHashes, seed);
+            this.numHashes = numHashes;
+        }
+
+        @Override
+        public void hash(@Nonnull final List<String> features, @Nonnull final int[] keys) {
+            final int[] mins = new int[seeds.length];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            for (String f : features) {
+                if (f == null) {
+                    continue;
+                }
+                for (int j = 0; j < seeds.length; j++) {
+                    int h = MurmurHash3.murmurhash3_x86_32(f, seeds[j]);
+                    if (h < mins[j]) {
+                        mins[j] = h;
+                    }
+                }
+            }
+            for (int t = 0; t < keys.length; t++) {
+                int key = 1;
+                for (int j = t * numHashes, end = j + numHashes; j < end; j++) {
+                    key = 31 * key + mins[j];
+                }
+                keys[t] = key;
+            }
+        }
+
+    }
+
+    @Nonnull
+    private static int[] newSeeds(final int size, final long seed) {
+        final int[] seeds = new int[size];
+        final Random rand = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            seeds[i] = rand.nextInt();
+        }
+        return seeds;
+    }
+
+}
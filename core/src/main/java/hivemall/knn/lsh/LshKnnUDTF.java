@@ -0,0 +1,529 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.lsh;
+
+import hivemall.UDTFWithOptions;
+import hivemall.knn.distance.JaccardDistanceUDF;
+import hivemall.knn.distance.SortedSparseVector;
+import hivemall.model.FeatureValue;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.DistributedCacheLoader;
+import hivemall.utils.hadoop.DistributedCacheLoader.LineHandler;
+import hivemall.utils.hadoop.DistributedCacheLoader.Loader;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Primitives;
+import hivemall.utils.math.VectorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Finds the k nearest neighbors of each row in a reference dataset through an LSH index, instead of
+ * joining rows on minhash signatures and comparing all the pairs in a bucket. The reference
+ * dataset is loaded from a file in the distributed cache and indexed once per JVM.
+ */
+@Description(
+        name = "lsh_knn",
+        value = "_FUNC_(ANY id, array<string> features, const string options)"
+                + " - Returns a relation <id, string neighbor, float similarity> of the top-k similar rows"
+                + " in the reference dataset")
+@UDFType(deterministic = true, stateful = false)
+public final class LshKnnUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(LshKnnUDTF.class);
+
+    private static final char FIELD_DELIMITER = DistributedCacheLoader.FIELD_DELIMITER;
+    /** Hive's default delimiter of array elements in text files */
+    private static final char COLLECTION_DELIMITER = '\002';
+    private static final long SEED = 31L;
+
+    /** Holds the reference dataset indexed last in the JVM */
+    private static final DistributedCacheLoader<Reference> REFERENCE_LOADER =
+            new DistributedCacheLoader<Reference>();
+
+    private ObjectInspector idOI;
+    private ListObjectInspector featureListOI;
+
+    private String referenceFile;
+    private boolean cosine;
+    private int k;
+    private int numTables;
+    private int numHashes;
+    private boolean excludeSelf;
+
+    @Nullable
+    private Reference reference;
+    @Nullable
+    private JaccardDistanceUDF jaccard;
+    @Nullable
+    private QueryVector query;
+    private int[] visited;
+    private int[] candidates;
+    private int stamp;
+    private long numQueries;
+    private long numCandidates;
+
+    public LshKnnUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("loadmodel", true,
+            "Reference dataset file name in the distributed cache, which has an id column"
+                    + " and an array<string> features column in order");
+        opts.addOption("k", true, "The number of neighbors to return [default: 10]");
+        opts.addOption("metric", true,
+            "Similarity measure; cosine by random hyperplanes or jaccard by minhash"
+                    + " [default: cosine]");
+        opts.addOption("tables", "num_tables", true,
+            "The number of hash tables of the LSH index [default: 16]");
+        opts.addOption("hashes", "num_hashes", true,
+            "The number of hashes combined into a bucket key [default: 8 for cosine,"
+                    + " 2 for jaccard]");
+        opts.addOption("exclude_self", false,
+            "Whether to skip neighbors having the same id as the query [default: false]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        String rawArgs = HiveUtils.getConstString(argOIs[2]);
+        CommandLine cl = parseOptions(rawArgs);
+
+        String file = cl.getOptionValue("loadmodel");
+        if (file == null) {
+            throw new UDFArgumentException("-loadmodel is required for _FUNC_");
+        }
+        String metric = cl.getOptionValue("metric", "cosine").toLowerCase();
+        final boolean cosine;
+        if ("cosine".equals(metric)) {
+            cosine = true;
+        } else if ("jaccard".equals(metric)) {
+            cosine = false;
+        } else {
+            throw new UDFArgumentException("Unsupported metric: " + metric);
+        }
+        int k = Primitives.parseInt(cl.getOptionValue("k"), 10);
+        if (k < 1) {
+            throw new UDFArgumentException("Invalid k: " + k);
+        }
+        int numTables = Primitives.parseInt(cl.getOptionValue("num_tables"), 16);
+        if (numTables < 1) {
+            throw new UDFArgumentException("Invalid number of tables: " + numTables);
+        }
+        int numHashes = Primitives.parseInt(cl.getOptionValue("num_hashes"), cosine ? 8 : 2);
+        if (numHashes < 1 || (cosine && numHashes > 32)) {
+            throw new UDFArgumentException("Invalid number of hashes: " + numHashes);
+        }
+
+        this.referenceFile = file;
+        this.cosine = cosine;
+        this.k = k;
+        this.numTables = numTables;
+        this.numHashes = numHashes;
+        this.excludeSelf = cl.hasOption("exclude_self");
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 3 arguments: ANY id, array<string> features, const string options");
+        }
+        this.idOI = argOIs[0];
+        this.featureListOI = HiveUtils.asListOI(argOIs[1]);
+
+        processOptions(argOIs);
+
+        this.reference = null;
+        this.jaccard = cosine ? null : new JaccardDistanceUDF();
+        this.query = cosine ? new QueryVector() : null;
+        this.numQueries = 0L;
+        this.numCandidates = 0L;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("id");
+        fieldOIs.add(ObjectInspectorUtils.getStandardObjectInspector(idOI,
+            ObjectInspectorCopyOption.DEFAULT));
+        fieldNames.add("neighbor");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+        fieldNames.add("similarity");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableFloatObjectInspector);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (args[1] == null) {
+            return;
+        }
+        Reference ref = reference;
+        if (ref == null) {
+            ref = getReference(referenceFile, cosine, numTables, numHashes, mapredContext);
+            this.reference = ref;
+            this.visited = new int[ref.index.numRows()];
+            this.candidates = new int[ref.index.numRows()];
+            this.stamp = 0;
+        }
+
+        final List<String> features = asStringList(args[1], featureListOI);
+        final String queryId = (args[0] == null) ? null
+                : ObjectInspectorUtils.copyToStandardJavaObject(args[0], idOI).toString();
+
+        int stamp = this.stamp + 1;
+        if (stamp == 0) {
+            // the stamp wrapped around
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+        this.stamp = stamp;
+        final int numCandidates = ref.index.candidates(features, visited, stamp, candidates);
+        this.numQueries++;
+        this.numCandidates += numCandidates;
+        if (cosine) {
+            query.set(features, ref.vectors.dictionary);
+        }
+
+        final PriorityQueue<Neighbor> topk = new PriorityQueue<Neighbor>(k + 1);
+        for (int i = 0; i < numCandidates; i++) {
+            final int row = candidates[i];
+            if (excludeSelf && ref.ids[row].equals(queryId)) {
+                continue;
+            }
+            final float similarity;
+            if (cosine) {
+                similarity = ref.vectors.cosineSimilarity(row, query);
+            } else {
+                similarity = 1.f - jaccard.evaluate(ref.features.get(row), features).get();
+            }
+            if (topk.size() < k) {
+                topk.add(new Neighbor(row, similarity));
+            } else if (topk.peek().compareTo(similarity, row) < 0) {
+                Neighbor min = topk.poll();
+                min.row = row;
+                min.similarity = similarity;
+                topk.add(min);
+            }
+        }
+
+        final Neighbor[] neighbors = topk.toArray(new Neighbor[topk.size()]);
+        Arrays.sort(neighbors);
+        final Object[] forwardObjs = new Object[3];
+        forwardObjs[0] = ObjectInspectorUtils.copyToStandardObject(args[0], idOI,
+            ObjectInspectorCopyOption.DEFAULT);
+        for (int i = neighbors.length - 1; i >= 0; i--) {
+            Neighbor n = neighbors[i];
+            forwardObjs[1] = new Text(ref.ids[n.row]);
+            forwardObjs[2] = new FloatWritable(n.similarity);
+            forward(forwardObjs);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        if (numQueries > 0L) {
+            logger.info("Compared " + (numCandidates / (double) numQueries)
+                    + " candidates per query on average for " + numQueries + " queries");
+        }
+        this.reference = null;
+        this.jaccard = null;
+        this.query = null;
+        this.visited = null;
+        this.candidates = null;
+    }
+
+    @Nonnull
+    private static List<String> asStringList(@Nonnull final Object arg,
+            @Nonnull final ListObjectInspector listOI) {
+        final List<?> list = listOI.getList(arg);
+        final List<String> result = new ArrayList<String>(list.size());
+        for (Object o : list) {
+            if (o != null) {
+                result.add(o.toString());
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    private static Reference getReference(@Nonnull final String referenceFile,
+            final boolean cosine, final int numTables, final int numHashes,
+            @Nullable final MapredContext context) throws HiveException {
+        final List<Object> options = Arrays.<Object>asList(cosine, numTables, numHashes);
+        try {
+            return REFERENCE_LOADER.get(new File(referenceFile), options,
+                new Loader<Reference>() {
+                    @Override
+                    public Reference load(File file) throws IOException, HiveException {
+                        return loadReference(file, cosine, numTables, numHashes, context);
+                    }
+                });
+        } catch (IOException e) {
+            throw new HiveException("Failed to load a reference dataset: " + referenceFile, e);
+        }
+    }
+
+    @Nonnull
+    private static Reference loadReference(@Nonnull final File file, final boolean cosine,
+            final int numTables, final int numHashes, @Nullable final MapredContext context)
+            throws IOException, HiveException {
+        final StopWatch elapsed = new StopWatch();
+        final LshIndex.Builder builder = cosine ? LshIndex.newSimHashBuilder(numTables,
+            numHashes, SEED) : LshIndex.newMinHashBuilder(numTables, numHashes, SEED);
+        final List<String> ids = new ArrayList<String>();
+        final List<List<String>> features = new ArrayList<List<String>>();
+        DistributedCacheLoader.readLines(file, context, new LineHandler() {
+            @Override
+            public void handle(String line) {
+                // id, features [, ...]
+                int i1 = line.indexOf(FIELD_DELIMITER);
+                if (i1 == -1) {
+                    return;
+                }
+                int i2 = line.indexOf(FIELD_DELIMITER, i1 + 1);
+                String id = line.substring(0, i1);
+                String s = (i2 == -1) ? line.substring(i1 + 1) : line.substring(i1 + 1, i2);
+                List<String> row = split(s, COLLECTION_DELIMITER);
+                builder.add(row);
+                ids.add(id);
+                features.add(row);
+            }
+        });
+        if (ids.isEmpty()) {
+            throw new HiveException("No row found in " + file.getPath());
+        }
+        final Reference ref;
+        if (cosine) {
+            ref = new Reference(builder.build(), ids.toArray(new String[ids.size()]), null,
+                new EncodedVectors(features));
+        } else {
+            ref = new Reference(builder.build(), ids.toArray(new String[ids.size()]), features,
+                null);
+        }
+        logger.info("Indexed " + ids.size() + " rows from distributed cache '" + file.getPath()
+                + "' into " + numTables + " tables in " + elapsed);
+        return ref;
+    }
+
+    @Nonnull
+    private static List<String> split(@Nonnull final String s, final char delim) {
+        final List<String> list = new ArrayList<String>();
+        if (s.isEmpty()) {
+            return list;
+        }
+        int from = 0;
+        for (int to; (to = s.indexOf(delim, from)) != -1; from = to + 1) {
+            list.add(s.substring(from, to));
+        }
+        list.add(s.substring(from));
+        return list;
+    }
+
+    private static final class Neighbor implements Comparable<Neighbor> {
+
+        int row;
+        float similarity;
+
+        Neighbor(int row, float similarity) {
+            this.row = row;
+            this.similarity = similarity;
+        }
+
+        /**
+         * Orders by similarity, and then prefers a smaller row for ties.
+         */
+        int compareTo(final float otherSimilarity, final int otherRow) {
+            int cmp = Float.compare(similarity, otherSimilarity);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return (row == otherRow) ? 0 : (row > otherRow ? -1 : 1);
+        }
+
+        @Override
+        public int compareTo(Neighbor other) {
+            return compareTo(other.similarity, other.row);
+        }
+
+    }
+
+    private static final class Reference {
+
+        @Nonnull
+        final LshIndex index;
+        @Nonnull
+        final String[] ids;
+        /** features for jaccard, indexed by row */
+        @Nullable
+        final List<List<String>> features;
+        /** features for cosine */
+        @Nullable
+        final EncodedVectors vectors;
+
+        Reference(@Nonnull LshIndex index, @Nonnull String[] ids,
+                @Nullable List<List<String>> features, @Nullable EncodedVectors vectors) {
+            this.index = index;
+            this.ids = ids;
+            this.features = features;
+            this.vectors = vectors;
+        }
+
+    }
+
+    /**
+     * Reference rows as sparse vectors whose indexes are the ids of features in a dictionary, so
+     * that a candidate is compared to a query by merging sorted indexes instead of looking up
+     * feature names.
+     */
+    private static final class EncodedVectors {
+
+        @Nonnull
+        final Map<String, Integer> dictionary;
+        @Nonnull
+        final int[][] indexes;
+        @Nonnull
+        final float[][] values;
+        @Nonnull
+        final float[] norms;
+
+        EncodedVectors(@Nonnull final List<List<String>> rows) {
+            final int numRows = rows.size();
+            this.dictionary = new HashMap<String, Integer>();
+            this.indexes = new int[numRows][];
+            this.values = new float[numRows][];
+            this.norms = new float[numRows];
+
+            final FeatureValue probe = new FeatureValue();
+            final SortedSparseVector vec = new SortedSparseVector();
+            int[] keys = new int[16];
+            float[] vals = new float[16];
+            for (int i = 0; i < numRows; i++) {
+                final List<String> row = rows.get(i);
+                final int size = row.size();
+                if (size > keys.length) {
+                    keys = new int[size];
+                    vals = new float[size];
+                }
+                int n = 0;
+                for (int j = 0; j < size; j++) {
+                    FeatureValue.parseFeatureAsString(row.get(j), probe);
+                    String f = probe.getFeature();
+                    Integer id = dictionary.get(f);
+                    if (id == null) {
+                        id = Integer.valueOf(dictionary.size());
+                        dictionary.put(f, id);
+                    }
+                    keys[n] = id.intValue();
+                    vals[n] = probe.getValueAsFloat();
+                    n++;
+                }
+                vec.set(keys, vals, n);
+                indexes[i] = Arrays.copyOf(vec.indexes(), vec.size());
+                values[i] = Arrays.copyOf(vec.values(), vec.size());
+                norms[i] = (float) Math.sqrt(vec.squaredNorm());
+            }
+        }
+
+        float cosineSimilarity(final int row, @Nonnull final QueryVector query) {
+            final double denom = norms[row] * query.norm;
+            if (denom <= 0.d) {
+                return 0.f;
+            }
+            final int[] rowIndexes = indexes[row];
+            final SortedSparseVector q = query.vector;
+            double dotp = VectorUtils.dot(rowIndexes, values[row], rowIndexes.length,
+                q.indexes(), q.values(), q.size());
+            return (float) (dotp / denom);
+        }
+
+    }
+
+    /**
+     * A query encoded by the dictionary of the reference rows. Features not in the dictionary only
+     * add to the norm.
+     */
+    private static final class QueryVector {
+
+        @Nonnull
+        final FeatureValue probe = new FeatureValue();
+        @Nonnull
+        final SortedSparseVector vector = new SortedSparseVector();
+        @Nonnull
+        int[] keys = new int[16];
+        @Nonnull
+        float[] vals = new float[16];
+        double norm;
+
+        void set(@Nonnull final List<String> features,
+                @Nonnull final Map<String, Integer> dictionary) {
+            final int size = features.size();
+            if (size > keys.length) {
+                this.keys = new int[size];
+                this.vals = new float[size];
+            }
+            double unknown = 0.d;
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                FeatureValue.parseFeatureAsString(features.get(i), probe);
+                float v = probe.getValueAsFloat();
+                Integer id = dictionary.get(probe.getFeature());
+                if (id == null) {
+                    unknown += v * v;
+                } else {
+                    keys[n] = id.intValue();
+                    vals[n] = v;
+                    n++;
+                }
+            }
+            vector.set(keys, vals, n);
+            this.norm = Math.sqrt(vector.squaredNorm() + unknown);
+        }
+
+    }
+
+}
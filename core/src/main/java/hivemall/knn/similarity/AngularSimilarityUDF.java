@@ -18,17 +18,18 @@
  */
 package hivemall.knn.similarity;
 
-import hivemall.utils.hadoop.HiveUtils;
+import hivemall.knn.distance.FeatureVectorPair;
 
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nonnull;
+
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.UDFType;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
-import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.FloatWritable;
@@ -41,29 +42,37 @@ import org.apache.hadoop.io.FloatWritable;
 @UDFType(deterministic = true, stateful = false)
 public final class AngularSimilarityUDF extends GenericUDF {
 
-    private ListObjectInspector arg0ListOI, arg1ListOI;
+    private FeatureVectorPair vectors;
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
         if (argOIs.length != 2) {
             throw new UDFArgumentException("angular_similarity takes 2 arguments");
         }
-        this.arg0ListOI = HiveUtils.asListOI(argOIs[0]);
-        this.arg1ListOI = HiveUtils.asListOI(argOIs[1]);
+        this.vectors = new FeatureVectorPair(argOIs[0], argOIs[1]);
 
         return PrimitiveObjectInspectorFactory.writableFloatObjectInspector;
     }
 
     @Override
     public FloatWritable evaluate(DeferredObject[] arguments) throws HiveException {
-        List<String> ftvec1 = HiveUtils.asStringList(arguments[0], arg0ListOI);
-        List<String> ftvec2 = HiveUtils.asStringList(arguments[1], arg1ListOI);
-        float similarity = angularSimilarity(ftvec1, ftvec2);
-        return new FloatWritable(similarity);
+        float cosineSim = CosineSimilarityUDF.cosineSimilarity(vectors, arguments[0],
+            arguments[1]);
+        return new FloatWritable(angularSimilarity(cosineSim));
     }
 
     public static float angularSimilarity(final List<String> ftvec1, final List<String> ftvec2) {
         float cosineSim = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+        return angularSimilarity(cosineSim);
+    }
+
+    public static float angularSimilarity(@Nonnull final float[] ftvec1,
+            @Nonnull final float[] ftvec2) {
+        float cosineSim = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+        return angularSimilarity(cosineSim);
+    }
+
+    public static float angularSimilarity(final float cosineSim) {
         return 1.0f - (float) (Math.acos(cosineSim) / Math.PI);
     }
 
@@ -20,6 +20,7 @@ package hivemall.mf;
 
 import hivemall.UDTFWithOptions;
 import hivemall.common.ConversionState;
+import hivemall.common.LearnerMetrics;
 import hivemall.common.EtaEstimator;
 import hivemall.mf.FactorizedModel.RankInitScheme;
 import hivemall.utils.hadoop.HiveUtils;
@@ -91,6 +92,9 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
 
     // Model itself
     protected FactorizedModel model;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    protected LearnerMetrics metrics;
 
     // Input OIs and Context
     protected PrimitiveObjectInspector userOI;
@@ -173,6 +177,11 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             "Whether to disable convergence check [default: enabled]");
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -221,6 +230,10 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         rankInit.setInitStdDev(initStdDev);
         this.etaEstimator = EtaEstimator.get(cl);
         this.cvState = new ConversionState(conversionCheck, convergenceRate);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this.metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
         return cl;
     }
 
@@ -289,7 +302,7 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
 
         beforeTrain(count, u, i, j);
         count++;
-        train(u, i, j);
+        measureTrain(u, i, j);
     }
 
     protected void beforeTrain(final long rowNum, final int u, final int i, final int j)
@@ -308,14 +321,34 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         }
     }
 
+    private void measureTrain(final int u, final int i, final int j) throws HiveException {
+        final LearnerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            train(u, i, j);
+            return;
+        }
+        final long start = metrics.startUpdate();
+        train(u, i, j);
+        metrics.endUpdate(start);
+        if (metrics.incrRows()) {
+            metrics.report(getReporter(), getModelSize());
+        }
+    }
+
+    private long getModelSize() {
+        return (long) model.getNumUsers() + model.getNumItems();
+    }
+
     protected void train(final int u, final int i, final int j) {
-        Rating[] user = model.getUserVector(u, true);
-        Rating[] itemI = model.getItemVector(i, true);
-        Rating[] itemJ = model.getItemVector(j, true);
+        final FactorTable users = model.getUserFactors();
+        final FactorTable items = model.getItemFactors();
+        final int userRow = model.getUserRow(u, true);
+        final int itemRowI = model.getItemRow(i, true);
+        final int itemRowJ = model.getItemRow(j, true);
 
-        copyToProbe(user, uProbe);
-        copyToProbe(itemI, iProbe);
-        copyToProbe(itemJ, jProbe);
+        users.copyTo(userRow, uProbe);
+        items.copyTo(itemRowI, iProbe);
+        items.copyTo(itemRowJ, jProbe);
 
         double x_uij = predict(u, i, uProbe, iProbe) - predict(u, j, uProbe, jProbe);
 
@@ -326,9 +359,9 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             float h_if = iProbe[k];
             float h_jf = jProbe[k];
 
-            updateUserRating(user[k], w_uf, h_if, h_jf, dloss, eta);
-            updateItemRating(itemI[k], w_uf, h_if, dloss, eta, regI); // positive item
-            updateItemRating(itemJ[k], w_uf, h_jf, -dloss, eta, regJ); // negative item
+            updateUserRating(users, userRow, k, w_uf, h_if, h_jf, dloss, eta);
+            updateItemRating(items, itemRowI, k, w_uf, h_if, dloss, eta, regI); // positive item
+            updateItemRating(items, itemRowJ, k, w_uf, h_jf, -dloss, eta, regJ); // negative item
         }
         if (useBiasClause) {
             updateBias(i, j, dloss, eta);
@@ -371,27 +404,29 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         return etaEstimator.eta(count);
     }
 
-    protected void updateUserRating(final Rating rating, final float w_uf, final float h_if,
-            final float h_jf, final double dloss, final float eta) {
+    protected void updateUserRating(@Nonnull final FactorTable users, final int row,
+            final int k, final float w_uf, final float h_if, final float h_jf, final double dloss,
+            final float eta) {
         double grad = dloss * (h_if - h_jf) - regU * w_uf;
         float delta = (float) (eta * grad);
         float newWeight = w_uf + delta;
         if (!NumberUtils.isFinite(newWeight)) {
             throw new IllegalStateException("Detected " + newWeight + " for w_uf");
         }
-        rating.setWeight(newWeight);
+        users.set(row, k, newWeight);
         cvState.incrLoss(regU * w_uf * w_uf);
     }
 
-    protected void updateItemRating(final Rating rating, final float w_uf, final float h_f,
-            final double dloss, final float eta, final float reg) {
+    protected void updateItemRating(@Nonnull final FactorTable items, final int row,
+            final int k, final float w_uf, final float h_f, final double dloss, final float eta,
+            final float reg) {
         double grad = dloss * w_uf - reg * h_f;
         float delta = (float) (eta * grad);
         float newWeight = h_f + delta;
         if (!NumberUtils.isFinite(newWeight)) {
             throw new IllegalStateException("Detected " + newWeight + " for h_f");
         }
-        rating.setWeight(newWeight);
+        items.set(row, k, newWeight);
         cvState.incrLoss(reg * h_f * h_f);
     }
 
@@ -425,6 +460,9 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             if (iterations > 1) {
                 runIterativeTraining(iterations);
             }
+            if (metrics != null) {
+                metrics.close(getReporter(), getModelSize());
+            }
 
             final IntWritable idx = new IntWritable();
             final FloatWritable[] Pu = HiveUtils.newFloatArray(factor, 0.f);
@@ -432,22 +470,24 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
             final FloatWritable Bi = useBiasClause ? new FloatWritable() : null;
             final Object[] forwardObj = new Object[] {idx, Pu, Qi, Bi};
 
+            final FactorTable users = model.getUserFactors();
+            final FactorTable items = model.getItemFactors();
             int numForwarded = 0;
             for (int i = model.getMinIndex(), maxIdx = model.getMaxIndex(); i <= maxIdx; i++) {
                 idx.set(i);
-                Rating[] userRatings = model.getUserVector(i);
-                if (userRatings == null) {
+                int userRow = users.getRow(i);
+                if (userRow == -1) {
                     forwardObj[1] = null;
                 } else {
                     forwardObj[1] = Pu;
-                    copyTo(userRatings, Pu);
+                    copyTo(users, userRow, Pu);
                 }
-                Rating[] itemRatings = model.getItemVector(i);
-                if (itemRatings == null) {
+                int itemRow = items.getRow(i);
+                if (itemRow == -1) {
                     forwardObj[2] = null;
                 } else {
                     forwardObj[2] = Qi;
-                    copyTo(itemRatings, Qi);
+                    copyTo(items, itemRow, Qi);
                 }
                 if (useBiasClause) {
                     Bi.set(model.getItemBias(i));
@@ -490,7 +530,7 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
                         int j = inputBuf.getInt();
                         // invoke train
                         count++;
-                        train(u, i, j);
+                        measureTrain(u, i, j);
                     }
                     cvState.multiplyLoss(0.5d);
                     cvState.logState(iter, eta());
@@ -564,7 +604,7 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
                             int j = inputBuf.getInt();
                             // invoke train
                             count++;
-                            train(u, i, j);
+                            measureTrain(u, i, j);
                         }
                         inputBuf.compact();
                     }
@@ -630,16 +670,10 @@ public final class BPRMatrixFactorizationUDTF extends UDTFWithOptions implements
         srcBuf.clear();
     }
 
-    @Nonnull
-    private final void copyToProbe(@Nonnull final Rating[] rating, @Nonnull float[] probe) {
-        for (int k = 0, size = factor; k < size; k++) {
-            probe[k] = rating[k].getWeight();
-        }
-    }
-
-    private static void copyTo(@Nonnull final Rating[] rating, @Nonnull final FloatWritable[] dst) {
-        for (int k = 0, size = rating.length; k < size; k++) {
-            float w = rating[k].getWeight();
+    private static void copyTo(@Nonnull final FactorTable table, final int row,
+            @Nonnull final FloatWritable[] dst) {
+        for (int k = 0, size = table.getFactor(); k < size; k++) {
+            float w = table.get(row, k);
             dst[k].set(w);
         }
     }
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mf;
+
+import hivemall.utils.collections.Int2IntOpenHashTable;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Latent factors of users or items stored in contiguous float slabs instead of an object per
+ * factor. Each id is mapped to a row through an {@link Int2IntOpenHashTable} and a row holds
+ * {@code factor} weights followed by a bias, i.e., the bias is column {@code factor}.
+ * <p>
+ * When the sums of squared gradients of AdaGrad are kept, each weight is immediately followed by
+ * its sum in the same slab. Slabs have a fixed number of rows, so rows never move once added and
+ * growing the table does not copy the existing rows.
+ */
+@NotThreadSafe
+public final class FactorTable {
+
+    private static final int SLAB_SHIFT = 10;
+    private static final int SLAB_ROWS = 1 << SLAB_SHIFT;
+    private static final int SLAB_MASK = SLAB_ROWS - 1;
+
+    @Nonnegative
+    private final int factor;
+    private final boolean sumOfSquaredGradients;
+    /** the number of floats per column */
+    private final int width;
+    /** the number of floats per row */
+    private final int stride;
+
+    @Nonnull
+    private final Int2IntOpenHashTable rows;
+    @Nonnull
+    private float[][] slabs;
+    private int size;
+
+    public FactorTable(@Nonnegative int factor, boolean sumOfSquaredGradients,
+            @Nonnegative int expectedSize) {
+        this.factor = factor;
+        this.sumOfSquaredGradients = sumOfSquaredGradients;
+        this.width = sumOfSquaredGradients ? 2 : 1;
+        this.stride = (factor + 1) * width;
+        this.rows = new Int2IntOpenHashTable(Math.max(expectedSize, 1));
+        rows.defaultReturnValue(-1);
+        this.slabs = new float[8][];
+        this.size = 0;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    public boolean hasSumOfSquaredGradients() {
+        return sumOfSquaredGradients;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the row of the given id, or -1 if not found
+     */
+    public int getRow(final int id) {
+        return rows.get(id);
+    }
+
+    /**
+     * Adds a row of zeros for an id that is not in this table.
+     * 
+     * @return the added row
+     */
+    public int addRow(final int id) {
+        final int row = size;
+        final int slab = row >>> SLAB_SHIFT;
+        if (slab == slabs.length) {
+            this.slabs = Arrays.copyOf(slabs, slabs.length * 2);
+        }
+        if (slabs[slab] == null) {
+            slabs[slab] = new float[SLAB_ROWS * stride];
+        }
+        rows.put(id, row);
+        this.size = row + 1;
+        return row;
+    }
+
+    /**
+     * @param k the column where {@code k == factor} is the bias
+     */
+    public float get(final int row, final int k) {
+        return slabs[row >>> SLAB_SHIFT][(row & SLAB_MASK) * stride + k * width];
+    }
+
+    public void set(final int row, final int k, final float value) {
+        slabs[row >>> SLAB_SHIFT][(row & SLAB_MASK) * stride + k * width] = value;
+    }
+
+    public float getBias(final int row) {
+        return get(row, factor);
+    }
+
+    public void setBias(final int row, final float value) {
+        set(row, factor, value);
+    }
+
+    public float getSumOfSquaredGradients(final int row, final int k) {
+        assert sumOfSquaredGradients;
+        return slabs[row >>> SLAB_SHIFT][(row & SLAB_MASK) * stride + k * width + 1];
+    }
+
+    public void setSumOfSquaredGradients(final int row, final int k, final float value) {
+        assert sumOfSquaredGradients;
+        slabs[row >>> SLAB_SHIFT][(row & SLAB_MASK) * stride + k * width + 1] = value;
+    }
+
+    /**
+     * Copies the weights of a row except the bias.
+     */
+    @Nonnull
+    public float[] copyTo(final int row, @Nonnull final float[] dst) {
+        final float[] slab = slabs[row >>> SLAB_SHIFT];
+        final int width = this.width;
+        for (int k = 0, i = (row & SLAB_MASK) * stride; k < factor; k++, i += width) {
+            dst[k] = slab[i];
+        }
+        return dst;
+    }
+
+}
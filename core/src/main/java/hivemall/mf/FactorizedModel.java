@@ -18,7 +18,7 @@
  */
 package hivemall.mf;
 
-import hivemall.utils.collections.IntOpenHashMap;
+import hivemall.mf.Rating.RatingWithSquaredGrad;
 import hivemall.utils.math.MathUtils;
 
 import java.util.Random;
@@ -28,11 +28,14 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+/**
+ * Latent factors and biases of users and items. Both are kept in {@link FactorTable}s, which also
+ * keep the sums of squared gradients of AdaGrad when the {@link RatingInitilizer} creates
+ * {@link RatingWithSquaredGrad}.
+ */
 @NotThreadSafe
 public final class FactorizedModel {
 
-    @Nonnull
-    private final RatingInitilizer ratingInitializer;
     @Nonnegative
     private final int factor;
 
@@ -42,10 +45,10 @@ public final class FactorizedModel {
     private int minIndex, maxIndex;
     @Nonnull
     private Rating meanRating;
-    private IntOpenHashMap<Rating[]> users;
-    private IntOpenHashMap<Rating[]> items;
-    private IntOpenHashMap<Rating> userBias;
-    private IntOpenHashMap<Rating> itemBias;
+    @Nonnull
+    private final FactorTable users;
+    @Nonnull
+    private final FactorTable items;
 
     private final Random[] randU, randI;
 
@@ -61,16 +64,14 @@ public final class FactorizedModel {
 
     public FactorizedModel(@Nonnull RatingInitilizer ratingInitializer, @Nonnegative int factor,
             float meanRating, @Nonnull RankInitScheme initScheme, int expectedSize) {
-        this.ratingInitializer = ratingInitializer;
         this.factor = factor;
         this.initScheme = initScheme;
         this.minIndex = 0;
         this.maxIndex = 0;
         this.meanRating = ratingInitializer.newRating(meanRating);
-        this.users = new IntOpenHashMap<Rating[]>(expectedSize);
-        this.items = new IntOpenHashMap<Rating[]>(expectedSize);
-        this.userBias = new IntOpenHashMap<Rating>(expectedSize);
-        this.itemBias = new IntOpenHashMap<Rating>(expectedSize);
+        boolean sumOfSquaredGradients = this.meanRating instanceof RatingWithSquaredGrad;
+        this.users = new FactorTable(factor, sumOfSquaredGradients, expectedSize);
+        this.items = new FactorTable(factor, sumOfSquaredGradients, expectedSize);
         this.randU = newRandoms(factor, 31L);
         this.randI = newRandoms(factor, 41L);
     }
@@ -121,6 +122,14 @@ public final class FactorizedModel {
         return maxIndex;
     }
 
+    public int getNumUsers() {
+        return users.size();
+    }
+
+    public int getNumItems() {
+        return items.size();
+    }
+
     @Nonnull
     public Rating meanRating() {
         return meanRating;
@@ -134,136 +143,111 @@ public final class FactorizedModel {
         meanRating.setWeight(rating);
     }
 
-    @Nullable
-    public Rating[] getUserVector(int u) {
-        return getUserVector(u, false);
+    @Nonnull
+    public FactorTable getUserFactors() {
+        return users;
     }
 
-    @Nullable
-    public Rating[] getUserVector(int u, boolean init) {
-        Rating[] v = users.get(u);
-        if (init && v == null) {
-            v = new Rating[factor];
-            switch (initScheme) {
-                case random:
-                    uniformFill(v, randU[0], initScheme.maxInitValue, ratingInitializer);
-                    break;
-                case gaussian:
-                    gaussianFill(v, randU, initScheme.initStdDev, ratingInitializer);
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported rank initialization scheme: "
-                            + initScheme);
+    @Nonnull
+    public FactorTable getItemFactors() {
+        return items;
+    }
 
-            }
-            users.put(u, v);
+    /**
+     * @return the row of the user in {@link #getUserFactors()}, or -1 if not found
+     */
+    public int getUserRow(int u) {
+        return users.getRow(u);
+    }
+
+    /**
+     * @param init initializes the factors of the user if not found
+     */
+    public int getUserRow(int u, boolean init) {
+        int row = users.getRow(u);
+        if (init && row == -1) {
+            row = users.addRow(u);
+            fill(users, row, randU);
             this.maxIndex = Math.max(maxIndex, u);
             this.minIndex = Math.min(minIndex, u);
         }
-        return v;
+        return row;
     }
 
-    @Nullable
-    public Rating[] getItemVector(int i) {
-        return getItemVector(i, false);
+    /**
+     * @return the row of the item in {@link #getItemFactors()}, or -1 if not found
+     */
+    public int getItemRow(int i) {
+        return items.getRow(i);
     }
 
-    @Nullable
-    public Rating[] getItemVector(int i, boolean init) {
-        Rating[] v = items.get(i);
-        if (init && v == null) {
-            v = new Rating[factor];
-            switch (initScheme) {
-                case random:
-                    uniformFill(v, randI[0], initScheme.maxInitValue, ratingInitializer);
-                    break;
-                case gaussian:
-                    gaussianFill(v, randI, initScheme.initStdDev, ratingInitializer);
-                    break;
-                default:
-                    throw new IllegalStateException("Unsupported rank initialization scheme: "
-                            + initScheme);
-
-            }
-            items.put(i, v);
+    /**
+     * @param init initializes the factors of the item if not found
+     */
+    public int getItemRow(int i, boolean init) {
+        int row = items.getRow(i);
+        if (init && row == -1) {
+            row = items.addRow(i);
+            fill(items, row, randI);
             this.maxIndex = Math.max(maxIndex, i);
             this.minIndex = Math.min(minIndex, i);
         }
-        return v;
-    }
-
-    @Nonnull
-    public Rating userBias(int u) {
-        Rating b = userBias.get(u);
-        if (b == null) {
-            b = ratingInitializer.newRating(0.f); // dummy
-            userBias.put(u, b);
-        }
-        return b;
+        return row;
     }
 
     public float getUserBias(int u) {
-        Rating b = userBias.get(u);
-        if (b == null) {
+        int row = users.getRow(u);
+        if (row == -1) {
             return 0.f;
         }
-        return b.getWeight();
+        return users.getBias(row);
     }
 
     public void setUserBias(int u, float value) {
-        Rating b = userBias.get(u);
-        if (b == null) {
-            b = ratingInitializer.newRating(value);
-            userBias.put(u, b);
-        }
-        b.setWeight(value);
-    }
-
-    @Nonnull
-    public Rating itemBias(int i) {
-        Rating b = itemBias.get(i);
-        if (b == null) {
-            b = ratingInitializer.newRating(0.f); // dummy
-            itemBias.put(i, b);
-        }
-        return b;
-    }
-
-    @Nullable
-    public Rating getItemBiasObject(int i) {
-        return itemBias.get(i);
+        int row = getUserRow(u, true);
+        users.setBias(row, value);
     }
 
     public float getItemBias(int i) {
-        Rating b = itemBias.get(i);
-        if (b == null) {
+        int row = items.getRow(i);
+        if (row == -1) {
             return 0.f;
         }
-        return b.getWeight();
+        return items.getBias(row);
     }
 
     public void setItemBias(int i, float value) {
-        Rating b = itemBias.get(i);
-        if (b == null) {
-            b = ratingInitializer.newRating(value);
-            itemBias.put(i, b);
+        int row = getItemRow(i, true);
+        items.setBias(row, value);
+    }
+
+    private void fill(@Nonnull final FactorTable table, final int row, @Nonnull final Random[] rand) {
+        switch (initScheme) {
+            case random:
+                uniformFill(table, row, rand[0], initScheme.maxInitValue);
+                break;
+            case gaussian:
+                gaussianFill(table, row, rand, initScheme.initStdDev);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported rank initialization scheme: "
+                        + initScheme);
         }
-        b.setWeight(value);
     }
 
-    private static void uniformFill(final Rating[] a, final Random rand, final float maxInitValue,
-            final RatingInitilizer init) {
-        for (int i = 0, len = a.length; i < len; i++) {
+    private static void uniformFill(final FactorTable table, final int row, final Random rand,
+            final float maxInitValue) {
+        for (int k = 0, len = table.getFactor(); k < len; k++) {
             float v = rand.nextFloat() * maxInitValue / len;
-            a[i] = init.newRating(v);
+            table.set(row, k, v);
         }
     }
 
-    private static void gaussianFill(final Rating[] a, final Random[] rand, final double stddev,
-            final RatingInitilizer init) {
-        for (int i = 0, len = a.length; i < len; i++) {
-            float v = (float) MathUtils.gaussian(0.d, stddev, rand[i]);
-            a[i] = init.newRating(v);
+    private static void gaussianFill(final FactorTable table, final int row, final Random[] rand,
+            final double stddev) {
+        for (int k = 0, len = table.getFactor(); k < len; k++) {
+            float v = (float) MathUtils.gaussian(0.d, stddev, rand[k]);
+            table.set(row, k, v);
         }
     }
 
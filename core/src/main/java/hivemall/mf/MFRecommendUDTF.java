@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mf;
+
+import hivemall.UDTFWithOptions;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.DistributedCacheLoader;
+import hivemall.utils.hadoop.DistributedCacheLoader.LineHandler;
+import hivemall.utils.hadoop.DistributedCacheLoader.Loader;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Returns the top-k items of each user by the score of {@code mf_predict}, instead of joining every
+ * user with every item. The item factors are loaded from a file in the distributed cache once per
+ * JVM into a contiguous matrix whose rows are sorted by descending norms.
+ * <p>
+ * Users are buffered and multiplied with blocks of items at once so that a block is reused from
+ * the CPU cache. Since a score of an item is bounded by {@code |Pu| |Qi| + max(Bi)}, scanning the
+ * items for a user stops once the bound of the next block falls below the k-th best score.
+ */
+@Description(
+        name = "mf_recommend",
+        value = "_FUNC_(ANY user, array<float> Pu [, float Bu [, array<int> exclude_items]], const string options)"
+                + " - Returns a relation <user, int item, double score> of the top-k items by mf_predict scores")
+@UDFType(deterministic = true, stateful = false)
+public final class MFRecommendUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(MFRecommendUDTF.class);
+
+    private static final char FIELD_DELIMITER = DistributedCacheLoader.FIELD_DELIMITER;
+    /** Hive's default delimiter of array elements in text files */
+    private static final char COLLECTION_DELIMITER = '\002';
+    /** The number of items multiplied with the buffered users at once */
+    private static final int ITEM_BLOCK_SIZE = 256;
+
+    /** Holds the item factors loaded last in the JVM */
+    private static final DistributedCacheLoader<ItemMatrix> ITEMS_LOADER =
+            new DistributedCacheLoader<ItemMatrix>();
+
+    private ObjectInspector userOI;
+    private ListObjectInspector PuOI;
+    private PrimitiveObjectInspector PuElemOI;
+    @Nullable
+    private PrimitiveObjectInspector BuOI;
+    @Nullable
+    private ListObjectInspector excludeOI;
+    @Nullable
+    private PrimitiveObjectInspector excludeElemOI;
+
+    private String itemFile;
+    private int k;
+    private float mu;
+    private int batchSize;
+
+    @Nullable
+    private ItemMatrix items;
+    // users buffered for the next multiplication
+    private Object[] users;
+    private float[] userFactors;
+    private double[] userNorms;
+    private double[] userBiases;
+    private int[][] excludeItems;
+    private boolean[] finished;
+    private TopK[] topk;
+    private int numUsers;
+
+    private long numQueries;
+    private long numScored;
+
+    public MFRecommendUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("loadmodel", true,
+            "Item factors file name in the distributed cache, which has an int item column,"
+                    + " an array<float> Qi column and an optional float Bi column in order");
+        opts.addOption("k", true, "The number of items to return for each user [default: 10]");
+        opts.addOption("mu", "mean_rating", true, "The mean rating added to scores [default: 0]");
+        opts.addOption("batch", "batch_size", true,
+            "The number of users multiplied with item factors at once [default: 64]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        String rawArgs = HiveUtils.getConstString(argOIs[argOIs.length - 1]);
+        CommandLine cl = parseOptions(rawArgs);
+
+        String file = cl.getOptionValue("loadmodel");
+        if (file == null) {
+            throw new UDFArgumentException("-loadmodel is required for _FUNC_");
+        }
+        int k = Primitives.parseInt(cl.getOptionValue("k"), 10);
+        if (k < 1) {
+            throw new UDFArgumentException("Invalid k: " + k);
+        }
+        int batchSize = Primitives.parseInt(cl.getOptionValue("batch_size"), 64);
+        if (batchSize < 1) {
+            throw new UDFArgumentException("Invalid batch size: " + batchSize);
+        }
+
+        this.itemFile = file;
+        this.k = k;
+        this.mu = Primitives.parseFloat(cl.getOptionValue("mean_rating"), 0.f);
+        this.batchSize = batchSize;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length < 3 || argOIs.length > 5) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 3-5 arguments: ANY user, array<float> Pu [, float Bu [, array<int> exclude_items]], const string options");
+        }
+        this.userOI = argOIs[0];
+        this.PuOI = HiveUtils.asListOI(argOIs[1]);
+        this.PuElemOI = HiveUtils.asDoubleCompatibleOI(PuOI.getListElementObjectInspector());
+        this.BuOI = (argOIs.length >= 4) ? HiveUtils.asDoubleCompatibleOI(argOIs[2]) : null;
+        if (argOIs.length == 5) {
+            this.excludeOI = HiveUtils.asListOI(argOIs[3]);
+            this.excludeElemOI = HiveUtils.asIntCompatibleOI(excludeOI.getListElementObjectInspector());
+        } else {
+            this.excludeOI = null;
+            this.excludeElemOI = null;
+        }
+
+        processOptions(argOIs);
+
+        this.items = null;
+        this.numUsers = 0;
+        this.numQueries = 0L;
+        this.numScored = 0L;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("user");
+        fieldOIs.add(ObjectInspectorUtils.getStandardObjectInspector(userOI,
+            ObjectInspectorCopyOption.DEFAULT));
+        fieldNames.add("item");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+        fieldNames.add("score");
+        fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (args[1] == null) {
+            return;
+        }
+        ItemMatrix items = this.items;
+        if (items == null) {
+            items = getItems(itemFile, mapredContext);
+            this.items = items;
+            final int n = batchSize;
+            this.users = new Object[n];
+            this.userFactors = new float[n * items.factor];
+            this.userNorms = new double[n];
+            this.userBiases = new double[n];
+            this.excludeItems = new int[n][];
+            this.finished = new boolean[n];
+            this.topk = new TopK[n];
+            for (int u = 0; u < n; u++) {
+                topk[u] = new TopK(k);
+            }
+        }
+
+        final List<?> Pu = PuOI.getList(args[1]);
+        final int factor = items.factor;
+        if (Pu.size() != factor) {
+            throw new HiveException("|Pu| " + Pu.size() + " was not equal to |Qi| " + factor);
+        }
+        final int u = numUsers;
+        double squaredNorm = 0.d;
+        for (int f = 0, offset = u * factor; f < factor; f++) {
+            Object o = Pu.get(f);
+            float v = (o == null) ? 0.f : (float) PrimitiveObjectInspectorUtils.getDouble(o,
+                PuElemOI);
+            userFactors[offset + f] = v;
+            squaredNorm += v * v;
+        }
+        userNorms[u] = Math.sqrt(squaredNorm);
+        double bias = mu;
+        if (BuOI != null && args[2] != null) {
+            bias += PrimitiveObjectInspectorUtils.getDouble(args[2], BuOI);
+        }
+        userBiases[u] = bias;
+        excludeItems[u] = (excludeOI == null) ? null : toSortedArray(args[3], excludeOI,
+            excludeElemOI);
+        users[u] = ObjectInspectorUtils.copyToStandardObject(args[0], userOI,
+            ObjectInspectorCopyOption.DEFAULT);
+
+        this.numUsers = u + 1;
+        if (numUsers == batchSize) {
+            recommend();
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        if (numUsers > 0) {
+            recommend();
+        }
+        if (numQueries > 0L && items != null) {
+            logger.info("Scored " + (numScored / (double) numQueries) + " of " + items.size()
+                    + " items per user on average for " + numQueries + " users");
+        }
+        this.items = null;
+        this.users = null;
+        this.userFactors = null;
+        this.userNorms = null;
+        this.userBiases = null;
+        this.excludeItems = null;
+        this.finished = null;
+        this.topk = null;
+    }
+
+    private void recommend() throws HiveException {
+        final ItemMatrix items = this.items;
+        assert (items != null);
+        final int factor = items.factor;
+        final float[] Q = items.factors;
+        final float[] B = items.biases;
+        final int numItems = items.size();
+        final int numUsers = this.numUsers;
+        final float[] P = userFactors;
+        final float[] blockScores = new float[ITEM_BLOCK_SIZE];
+
+        for (int u = 0; u < numUsers; u++) {
+            topk[u].clear();
+            finished[u] = false;
+        }
+        int remaining = numUsers;
+        for (int from = 0; from < numItems && remaining > 0; from += ITEM_BLOCK_SIZE) {
+            final int to = Math.min(from + ITEM_BLOCK_SIZE, numItems);
+            final double maxNorm = items.norms[from];
+            final double maxBias = items.maxBiases[from];
+            for (int u = 0; u < numUsers; u++) {
+                if (finished[u]) {
+                    continue;
+                }
+                final TopK heap = topk[u];
+                if (heap.isFull() && userNorms[u] * maxNorm + maxBias < heap.min()) {
+                    // no item in this and the following blocks can enter the top-k
+                    finished[u] = true;
+                    remaining--;
+                    continue;
+                }
+                final int[] excludes = excludeItems[u];
+                float threshold = heap.isFull() ? heap.min() : Float.NEGATIVE_INFINITY;
+                scores(P, u * factor, Q, B, from, to, factor, blockScores);
+                for (int i = from; i < to; i++) {
+                    final float score = blockScores[i - from];
+                    if (score <= threshold) {
+                        continue;
+                    }
+                    if (excludes != null && Arrays.binarySearch(excludes, items.ids[i]) >= 0) {
+                        continue;
+                    }
+                    heap.add(score, i);
+                    if (heap.isFull()) {
+                        threshold = heap.min();
+                    }
+                }
+                numScored += to - from;
+            }
+        }
+
+        final IntWritable item = new IntWritable();
+        final DoubleWritable score = new DoubleWritable();
+        final Object[] forwardObjs = new Object[] {null, item, score};
+        for (int u = 0; u < numUsers; u++) {
+            final TopK heap = topk[u];
+            heap.sortDescending();
+            forwardObjs[0] = users[u];
+            for (int j = 0, size = heap.size(); j < size; j++) {
+                item.set(items.ids[heap.rows[j]]);
+                score.set(heap.scores[j] + userBiases[u]);
+                forward(forwardObjs);
+            }
+            users[u] = null;
+            excludeItems[u] = null;
+        }
+        this.numQueries += numUsers;
+        this.numUsers = 0;
+    }
+
+    /**
+     * Computes {@code Bi + Pu Qi} for the items in [from, to), four items at a time so that the
+     * sums are independent of each other.
+     */
+    private static void scores(@Nonnull final float[] P, final int p, @Nonnull final float[] Q,
+            @Nonnull final float[] B, final int from, final int to, final int factor,
+            @Nonnull final float[] dst) {
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            final int q0 = i * factor, q1 = q0 + factor, q2 = q1 + factor, q3 = q2 + factor;
+            float s0 = B[i], s1 = B[i + 1], s2 = B[i + 2], s3 = B[i + 3];
+            for (int f = 0; f < factor; f++) {
+                final float pf = P[p + f];
+                s0 += pf * Q[q0 + f];
+                s1 += pf * Q[q1 + f];
+                s2 += pf * Q[q2 + f];
+                s3 += pf * Q[q3 + f];
+            }
+            final int j = i - from;
+            dst[j] = s0;
+            dst[j + 1] = s1;
+            dst[j + 2] = s2;
+            dst[j + 3] = s3;
+        }
+        for (; i < to; i++) {
+            float s = B[i];
+            for (int f = 0, q = i * factor; f < factor; f++) {
+                s += P[p + f] * Q[q + f];
+            }
+            dst[i - from] = s;
+        }
+    }
+
+    @Nullable
+    private static int[] toSortedArray(@Nullable final Object arg,
+            @Nonnull final ListObjectInspector listOI,
+            @Nonnull final PrimitiveObjectInspector elemOI) {
+        if (arg == null) {
+            return null;
+        }
+        final List<?> list = listOI.getList(arg);
+        final int[] a = new int[list.size()];
+        int n = 0;
+        for (Object o : list) {
+            if (o != null) {
+                a[n++] = PrimitiveObjectInspectorUtils.getInt(o, elemOI);
+            }
+        }
+        Arrays.sort(a, 0, n);
+        return (n == a.length) ? a : Arrays.copyOf(a, n);
+    }
+
+    @Nonnull
+    private static ItemMatrix getItems(@Nonnull final String itemFile,
+            @Nullable final MapredContext context) throws HiveException {
+        try {
+            return ITEMS_LOADER.get(new File(itemFile), null, new Loader<ItemMatrix>() {
+                @Override
+                public ItemMatrix load(File file) throws IOException, HiveException {
+                    return loadItems(file, context);
+                }
+            });
+        } catch (IOException e) {
+            throw new HiveException("Failed to load item factors: " + itemFile, e);
+        }
+    }
+
+    @Nonnull
+    private static ItemMatrix loadItems(@Nonnull final File file,
+            @Nullable final MapredContext context) throws IOException, HiveException {
+        final StopWatch elapsed = new StopWatch();
+        final ItemMatrix.Builder builder = new ItemMatrix.Builder();
+        DistributedCacheLoader.readLines(file, context, new LineHandler() {
+            @Override
+            public void handle(String line) throws HiveException {
+                // item, Qi [, Bi]
+                int i1 = line.indexOf(FIELD_DELIMITER);
+                if (i1 == -1) {
+                    return;
+                }
+                int i2 = line.indexOf(FIELD_DELIMITER, i1 + 1);
+                String Qi = (i2 == -1) ? line.substring(i1 + 1) : line.substring(i1 + 1, i2);
+                if (Qi.isEmpty() || "\\N".equals(Qi)) {
+                    return;
+                }
+                int item = Integer.parseInt(line.substring(0, i1));
+                float Bi = 0.f;
+                if (i2 != -1) {
+                    int i3 = line.indexOf(FIELD_DELIMITER, i2 + 1);
+                    String s = (i3 == -1) ? line.substring(i2 + 1) : line.substring(i2 + 1, i3);
+                    if (!s.isEmpty() && !"\\N".equals(s)) {
+                        Bi = Float.parseFloat(s);
+                    }
+                }
+                builder.add(item, Qi, Bi);
+            }
+        });
+        if (builder.size() == 0) {
+            throw new HiveException("No item found in " + file.getPath());
+        }
+        final ItemMatrix items = builder.build();
+        logger.info("Loaded factors of " + items.size() + " items from distributed cache '"
+                + file.getPath() + "' in " + elapsed);
+        return items;
+    }
+
+    /**
+     * Item factors of which rows are sorted by descending norms.
+     */
+    private static final class ItemMatrix {
+
+        @Nonnegative
+        final int factor;
+        @Nonnull
+        final int[] ids;
+        /** row-major factors */
+        @Nonnull
+        final float[] factors;
+        @Nonnull
+        final float[] biases;
+        /** upper bounds of the norms of the row and the following rows */
+        @Nonnull
+        final double[] norms;
+        /** the maximum bias of the row and the following rows */
+        @Nonnull
+        final double[] maxBiases;
+
+        ItemMatrix(int factor, @Nonnull int[] ids, @Nonnull float[] factors,
+                @Nonnull float[] biases, @Nonnull double[] norms) {
+            this.factor = factor;
+            this.ids = ids;
+            this.factors = factors;
+            this.biases = biases;
+            this.norms = norms;
+            final int n = ids.length;
+            this.maxBiases = new double[n];
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = n - 1; i >= 0; i--) {
+                max = Math.max(max, biases[i]);
+                maxBiases[i] = max;
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        static final class Builder {
+
+            private int factor;
+            private int size;
+            private int[] ids;
+            private float[] factors;
+            private float[] biases;
+
+            Builder() {
+                this.factor = -1;
+                this.size = 0;
+                this.ids = new int[1024];
+                this.factors = null;
+                this.biases = new float[1024];
+            }
+
+            int size() {
+                return size;
+            }
+
+            void add(final int item, @Nonnull final String Qi, final float Bi)
+                    throws HiveException {
+                int factor = this.factor;
+                if (factor == -1) {
+                    factor = 1;
+                    for (int i = 0; (i = Qi.indexOf(COLLECTION_DELIMITER, i) + 1) != 0;) {
+                        factor++;
+                    }
+                    this.factor = factor;
+                    this.factors = new float[ids.length * factor];
+                }
+                if (size == ids.length) {
+                    int newCapacity = size * 2;
+                    if ((long) newCapacity * factor > Integer.MAX_VALUE - 8) {
+                        newCapacity = (Integer.MAX_VALUE - 8) / factor;
+                        if (newCapacity <= size) {
+                            throw new HiveException("Too many items to load: " + size);
+                        }
+                    }
+                    this.ids = Arrays.copyOf(ids, newCapacity);
+                    this.biases = Arrays.copyOf(biases, newCapacity);
+                    this.factors = Arrays.copyOf(factors, newCapacity * factor);
+                }
+                int from = 0;
+                for (int f = 0, offset = size * factor; f < factor; f++) {
+                    int to = Qi.indexOf(COLLECTION_DELIMITER, from);
+                    if (to == -1) {
+                        if (f != factor - 1) {
+                            throw new HiveException("|Qi| of item " + item
+                                    + " was not equal to " + factor);
+                        }
+                        to = Qi.length();
+                    } else if (f == factor - 1) {
+                        throw new HiveException("|Qi| of item " + item + " was not equal to "
+                                + factor);
+                    }
+                    factors[offset + f] = Float.parseFloat(Qi.substring(from, to));
+                    from = to + 1;
+                }
+                ids[size] = item;
+                biases[size] = Bi;
+                size++;
+            }
+
+            @Nonnull
+            ItemMatrix build() {
+                final int n = size;
+                final int factor = this.factor;
+                // sort rows by norms packed with the row into longs
+                final long[] order = new long[n];
+                final double[] rowNorms = new double[n];
+                for (int i = 0; i < n; i++) {
+                    double squaredNorm = 0.d;
+                    for (int f = 0, offset = i * factor; f < factor; f++) {
+                        double v = factors[offset + f];
+                        squaredNorm += v * v;
+                    }
+                    rowNorms[i] = Math.sqrt(squaredNorm);
+                    order[i] = ((long) Float.floatToIntBits((float) rowNorms[i]) << 32) | i;
+                }
+                Arrays.sort(order);
+
+                final int[] sortedIds = new int[n];
+                final float[] sortedFactors = new float[n * factor];
+                final float[] sortedBiases = new float[n];
+                final double[] sortedNorms = new double[n];
+                for (int j = 0; j < n; j++) {
+                    final int i = (int) order[n - 1 - j];
+                    sortedIds[j] = ids[i];
+                    System.arraycopy(factors, i * factor, sortedFactors, j * factor, factor);
+                    sortedBiases[j] = biases[i];
+                    // round up so that the norm stays an upper bound of the row
+                    sortedNorms[j] = Math.nextUp(rowNorms[i]);
+                }
+                // keep the norms non-increasing so that a norm bounds the following rows
+                for (int j = n - 2; j >= 0; j--) {
+                    sortedNorms[j] = Math.max(sortedNorms[j], sortedNorms[j + 1]);
+                }
+                this.ids = null;
+                this.factors = null;
+                this.biases = null;
+                return new ItemMatrix(factor, sortedIds, sortedFactors, sortedBiases, sortedNorms);
+            }
+
+        }
+
+    }
+
+    /**
+     * A bounded min-heap of scores and rows.
+     */
+    private static final class TopK {
+
+        @Nonnull
+        final float[] scores;
+        @Nonnull
+        final int[] rows;
+        private int size;
+
+        TopK(@Nonnegative int k) {
+            this.scores = new float[k];
+            this.rows = new int[k];
+            this.size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isFull() {
+            return size == scores.length;
+        }
+
+        float min() {
+            return scores[0];
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        /**
+         * Adds an entry, replacing the minimum one when full.
+         */
+        void add(final float score, final int row) {
+            if (size < scores.length) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (scores[parent] <= score) {
+                        break;
+                    }
+                    scores[i] = scores[parent];
+                    rows[i] = rows[parent];
+                    i = parent;
+                }
+                scores[i] = score;
+                rows[i] = row;
+            } else {
+                siftDown(score, row, size);
+            }
+        }
+
+        private void siftDown(final float score, final int row, final int n) {
+            int i = 0;
+            for (int child; (child = 2 * i + 1) < n; i = child) {
+                if (child + 1 < n && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (score <= scores[child]) {
+                    break;
+                }
+                scores[i] = scores[child];
+                rows[i] = rows[child];
+            }
+            scores[i] = score;
+            rows[i] = row;
+        }
+
+        /**
+         * Sorts the entries in descending order of scores, which breaks the heap.
+         */
+        void sortDescending() {
+            for (int last = size - 1; last > 0; last--) {
+                float score = scores[last];
+                int row = rows[last];
+                scores[last] = scores[0];
+                rows[last] = rows[0];
+                siftDown(score, row, last);
+            }
+        }
+
+    }
+
+}
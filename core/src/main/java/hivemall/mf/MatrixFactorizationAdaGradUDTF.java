@@ -72,16 +72,18 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
     }
 
     @Override
-    protected void updateItemRating(Rating rating, float Pu, float Qi, double err, float eta) {
+    protected void updateItemRating(FactorTable items, int row, int k, float Pu, float Qi,
+            double err, float eta) {
         double gradient = err * Pu - lambda * Qi;
-        updateRating(rating, Qi, gradient);
+        updateRating(items, row, k, Qi, gradient);
         cvState.incrLoss(lambda * Qi * Qi);
     }
 
     @Override
-    protected void updateUserRating(Rating rating, float Pu, float Qi, double err, float eta) {
+    protected void updateUserRating(FactorTable users, int row, int k, float Pu, float Qi,
+            double err, float eta) {
         double gradient = err * Qi - lambda * Pu;
-        updateRating(rating, Pu, gradient);
+        updateRating(users, row, k, Pu, gradient);
         cvState.incrLoss(lambda * Pu * Pu);
     }
 
@@ -95,16 +97,19 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
 
     @Override
     protected void updateBias(int user, int item, double err, float eta) {
-        Rating ratingBu = model.userBias(user);
-        float Bu = ratingBu.getWeight();
+        // the bias is the column next to the latent factors
+        FactorTable users = model.getUserFactors();
+        int userRow = model.getUserRow(user, true);
+        float Bu = users.getBias(userRow);
         double Gu = err - lambda * Bu;
-        updateRating(ratingBu, Bu, Gu);
+        updateRating(users, userRow, factor, Bu, Gu);
         cvState.incrLoss(lambda * Bu * Bu);
 
-        Rating ratingBi = model.itemBias(item);
-        float Bi = ratingBi.getWeight();
+        FactorTable items = model.getItemFactors();
+        int itemRow = model.getItemRow(item, true);
+        float Bi = items.getBias(itemRow);
         double Gi = err - lambda * Bi;
-        updateRating(ratingBi, Bi, Gi);
+        updateRating(items, itemRow, factor, Bi, Gi);
         cvState.incrLoss(lambda * Bi * Bi);
     }
 
@@ -117,6 +122,16 @@ public final class MatrixFactorizationAdaGradUDTF extends OnlineMatrixFactorizat
         rating.setSumOfSquaredGradients(scaled_sum_gg);
     }
 
+    private void updateRating(final FactorTable table, final int row, final int k,
+            final float oldWeight, final double gradient) {
+        double gg = gradient * (gradient / scaling);
+        double scaled_sum_gg = table.getSumOfSquaredGradients(row, k) + gg;
+        float delta = (float) (eta(scaled_sum_gg) * gradient);
+        float newWeight = oldWeight + delta;
+        table.set(row, k, newWeight);
+        table.setSumOfSquaredGradients(row, k, (float) scaled_sum_gg);
+    }
+
     private float eta(final double scaledSumOfSquaredGradients) {
         double sumOfSquaredGradients = scaledSumOfSquaredGradients * scaling;
         return eta / (float) Math.sqrt(eps + sumOfSquaredGradients); // always less than eta0
@@ -20,6 +20,7 @@ package hivemall.mf;
 
 import hivemall.UDTFWithOptions;
 import hivemall.common.ConversionState;
+import hivemall.common.LearnerMetrics;
 import hivemall.mf.FactorizedModel.RankInitScheme;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.io.FileUtils;
@@ -34,6 +35,7 @@ import java.util.ArrayList;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
@@ -76,6 +78,9 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
 
     // Model itself
     protected FactorizedModel model;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    protected LearnerMetrics metrics;
 
     // Variable managing status of learning
     /** The number of processed training examples */
@@ -123,6 +128,11 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         opts.addOption("cv_rate", "convergence_rate", true,
             "Threshold to determine convergence [default: 0.005]");
         opts.addOption("disable_bias", "no_bias", false, "Turn off bias clause");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -163,6 +173,10 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         initStdDev = Math.max(initStdDev, 1.0d / factor);
         rankInit.setInitStdDev(initStdDev);
         this.cvState = new ConversionState(conversionCheck, convergenceRate);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this.metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
         return cl;
     }
 
@@ -245,32 +259,34 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
 
         beforeTrain(count, user, item, rating);
         count++;
-        train(user, item, rating);
+        measureTrain(user, item, rating);
     }
 
-    @Nonnull
-    protected final float[] copyToUserProbe(@Nonnull final Rating[] rating) {
-        for (int k = 0, size = factor; k < size; k++) {
-            userProbe[k] = rating[k].getWeight();
+    private void measureTrain(final int user, final int item, final double rating) throws HiveException {
+        final LearnerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            train(user, item, rating);
+            return;
+        }
+        final long start = metrics.startUpdate();
+        train(user, item, rating);
+        metrics.endUpdate(start);
+        if (metrics.incrRows()) {
+            metrics.report(getReporter(), getModelSize());
         }
-        return userProbe;
     }
 
-    @Nonnull
-    protected final float[] copyToItemProbe(@Nonnull final Rating[] rating) {
-        for (int k = 0, size = factor; k < size; k++) {
-            itemProbe[k] = rating[k].getWeight();
-        }
-        return itemProbe;
+    private long getModelSize() {
+        return (long) model.getNumUsers() + model.getNumItems();
     }
 
     protected void train(final int user, final int item, final double rating) throws HiveException {
-        final Rating[] users = model.getUserVector(user, true);
-        assert (users != null);
-        final Rating[] items = model.getItemVector(item, true);
-        assert (items != null);
-        final float[] userProbe = copyToUserProbe(users);
-        final float[] itemProbe = copyToItemProbe(items);
+        final FactorTable users = model.getUserFactors();
+        final FactorTable items = model.getItemFactors();
+        final int userRow = model.getUserRow(user, true);
+        final int itemRow = model.getItemRow(item, true);
+        final float[] userProbe = users.copyTo(userRow, this.userProbe);
+        final float[] itemProbe = items.copyTo(itemRow, this.itemProbe);
 
         final double err = rating - predict(user, item, userProbe, itemProbe);
         cvState.incrError(Math.abs(err));
@@ -280,8 +296,8 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         for (int k = 0, size = factor; k < size; k++) {
             float Pu = userProbe[k];
             float Qi = itemProbe[k];
-            updateItemRating(items[k], Pu, Qi, err, eta);
-            updateUserRating(users[k], Pu, Qi, err, eta);
+            updateItemRating(items, itemRow, k, Pu, Qi, err, eta);
+            updateUserRating(users, userRow, k, Pu, Qi, err, eta);
         }
         if (useBiasClause) {
             updateBias(user, item, err, eta);
@@ -290,7 +306,7 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
             }
         }
 
-        onUpdate(user, item, users, items, err);
+        onUpdate(user, item, userRow, itemRow, err);
     }
 
     protected void beforeTrain(final long rowNum, final int user, final int item,
@@ -309,8 +325,8 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         }
     }
 
-    protected void onUpdate(final int user, final int item, final Rating[] users,
-            final Rating[] items, final double err) throws HiveException {}
+    protected void onUpdate(final int user, final int item, final int userRow,
+            final int itemRow, final double err) throws HiveException {}
 
     protected double predict(final int user, final int item, final float[] userProbe,
             final float[] itemProbe) {
@@ -322,17 +338,19 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
     }
 
     protected double predict(final int user, final int item) throws HiveException {
-        final Rating[] users = model.getUserVector(user);
-        if (users == null) {
+        final int userRow = model.getUserRow(user);
+        if (userRow == -1) {
             throw new HiveException("User rating is not found: " + user);
         }
-        final Rating[] items = model.getItemVector(item);
-        if (items == null) {
+        final int itemRow = model.getItemRow(item);
+        if (itemRow == -1) {
             throw new HiveException("Item rating is not found: " + item);
         }
+        final FactorTable users = model.getUserFactors();
+        final FactorTable items = model.getItemFactors();
         double ret = bias(user, item);
         for (int k = 0, size = factor; k < size; k++) {
-            ret += users[k].getWeight() * items[k].getWeight();
+            ret += users.get(userRow, k) * items.get(itemRow, k);
         }
         return ret;
     }
@@ -348,19 +366,19 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         return 1.f; // dummy
     }
 
-    protected void updateItemRating(final Rating rating, final float Pu, final float Qi,
-            final double err, final float eta) {
+    protected void updateItemRating(@Nonnull final FactorTable items, final int row, final int k,
+            final float Pu, final float Qi, final double err, final float eta) {
         double grad = err * Pu - lambda * Qi;
         float newQi = Qi + (float) (eta * grad);
-        rating.setWeight(newQi);
+        items.set(row, k, newQi);
         cvState.incrLoss(lambda * Qi * Qi);
     }
 
-    protected void updateUserRating(final Rating rating, final float Pu, final float Qi,
-            final double err, final float eta) {
+    protected void updateUserRating(@Nonnull final FactorTable users, final int row, final int k,
+            final float Pu, final float Qi, final double err, final float eta) {
         double grad = err * Qi - lambda * Pu;
         float newPu = Pu + (float) (eta * grad);
-        rating.setWeight(newPu);
+        users.set(row, k, newPu);
         cvState.incrLoss(lambda * Pu * Pu);
     }
 
@@ -396,6 +414,9 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
             if (iterations > 1) {
                 runIterativeTraining(iterations);
             }
+            if (metrics != null) {
+                metrics.close(getReporter(), getModelSize());
+            }
             final IntWritable idx = new IntWritable();
             final FloatWritable[] Pu = HiveUtils.newFloatArray(factor, 0.f);
             final FloatWritable[] Qi = HiveUtils.newFloatArray(factor, 0.f);
@@ -414,22 +435,24 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
                     forwardObj = new Object[] {idx, Pu, Qi};
                 }
             }
+            final FactorTable users = model.getUserFactors();
+            final FactorTable items = model.getItemFactors();
             int numForwarded = 0;
             for (int i = model.getMinIndex(), maxIdx = model.getMaxIndex(); i <= maxIdx; i++) {
                 idx.set(i);
-                Rating[] userRatings = model.getUserVector(i);
-                if (userRatings == null) {
+                int userRow = users.getRow(i);
+                if (userRow == -1) {
                     forwardObj[1] = null;
                 } else {
                     forwardObj[1] = Pu;
-                    copyTo(userRatings, Pu);
+                    copyTo(users, userRow, Pu);
                 }
-                Rating[] itemRatings = model.getItemVector(i);
-                if (itemRatings == null) {
+                int itemRow = items.getRow(i);
+                if (itemRow == -1) {
                     forwardObj[2] = null;
                 } else {
                     forwardObj[2] = Qi;
-                    copyTo(itemRatings, Qi);
+                    copyTo(items, itemRow, Qi);
                 }
                 if (useBiasClause) {
                     Bu.set(model.getUserBias(i));
@@ -488,7 +511,7 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
                         double rating = inputBuf.getDouble();
                         // invoke train
                         count++;
-                        train(user, item, rating);
+                        measureTrain(user, item, rating);
                     }
                     cvState.multiplyLoss(0.5d);
                     if (cvState.isConverged(iter, numTrainingExamples)) {
@@ -556,7 +579,7 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
                             double rating = inputBuf.getDouble();
                             // invoke train
                             count++;
-                            train(user, item, rating);
+                            measureTrain(user, item, rating);
                         }
                         inputBuf.compact();
                     }
@@ -583,9 +606,10 @@ public abstract class OnlineMatrixFactorizationUDTF extends UDTFWithOptions impl
         }
     }
 
-    private static void copyTo(@Nonnull final Rating[] rating, @Nonnull final FloatWritable[] dst) {
-        for (int k = 0, size = rating.length; k < size; k++) {
-            float w = rating[k].getWeight();
+    private static void copyTo(@Nonnull final FactorTable table, final int row,
+            @Nonnull final FloatWritable[] dst) {
+        for (int k = 0, size = table.getFactor(); k < size; k++) {
+            float w = table.get(row, k);
             dst[k].set(w);
         }
     }
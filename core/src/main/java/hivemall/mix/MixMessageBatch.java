@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A batch of {@link MixMessage}s that is exchanged between a MIX client and a MIX server in a
+ * single frame. Messages in a batch share the event and the group ID.
+ */
+public final class MixMessageBatch {
+
+    @Nonnull
+    private final MixEventName event;
+    @Nullable
+    private final String groupID;
+    @Nonnull
+    private final List<MixMessage> messages;
+    private boolean flush = false;
+
+    public MixMessageBatch(@Nonnull MixEventName event, @Nullable String groupID) {
+        this(event, groupID, 16);
+    }
+
+    public MixMessageBatch(@Nonnull MixEventName event, @Nullable String groupID, int expectedSize) {
+        this.event = event;
+        this.groupID = groupID;
+        this.messages = new ArrayList<MixMessage>(expectedSize);
+    }
+
+    @Nonnull
+    public MixEventName getEvent() {
+        return event;
+    }
+
+    @Nullable
+    public String getGroupID() {
+        return groupID;
+    }
+
+    public void add(@Nonnull MixMessage msg) {
+        messages.add(msg);
+    }
+
+    @Nonnull
+    public List<MixMessage> getMessages() {
+        return messages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * @return true if this is the last batch of a client. A MIX server replies to every request
+     *         of a flush batch regardless of the clock difference, and always replies a flush
+     *         batch to it even if it is empty
+     */
+    public boolean isFlush() {
+        return flush;
+    }
+
+    public void setFlush(boolean flush) {
+        this.flush = flush;
+    }
+
+    @Override
+    public String toString() {
+        return "MixMessageBatch [event=" + event + ", groupID=" + groupID + ", size="
+                + messages.size() + ", flush=" + flush + "]";
+    }
+
+}
@@ -18,18 +18,35 @@
  */
 package hivemall.mix;
 
+import static hivemall.mix.MixMessageEncoder.BATCH_MARKER;
+import static hivemall.mix.MixMessageEncoder.COMPACT_BATCH_MARKER;
+import static hivemall.mix.MixMessageEncoder.DICT_REF_TYPE;
+import static hivemall.mix.MixMessageEncoder.DICT_STRING_TYPE;
+import static hivemall.mix.MixMessageEncoder.DICT_TEXT_TYPE;
+import static hivemall.mix.MixMessageEncoder.FLAG_FLUSH;
+import static hivemall.mix.MixMessageEncoder.FLAG_HALF_FLOAT;
+import static hivemall.mix.MixMessageEncoder.FLUSH_BATCH_MARKER;
 import static hivemall.mix.MixMessageEncoder.INTEGER_TYPE;
 import static hivemall.mix.MixMessageEncoder.INT_WRITABLE_TYPE;
 import static hivemall.mix.MixMessageEncoder.LONG_WRITABLE_TYPE;
+import static hivemall.mix.MixMessageEncoder.NULL_TYPE;
+import static hivemall.mix.MixMessageEncoder.PEER_COMPACT_FLAGS;
 import static hivemall.mix.MixMessageEncoder.STRING_TYPE;
 import static hivemall.mix.MixMessageEncoder.TEXT_TYPE;
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.codec.ZigZagLEB128Codec;
+import hivemall.utils.lang.HalfFloat;
 import hivemall.utils.lang.StringUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -37,18 +54,34 @@ import org.apache.hadoop.io.Text;
 
 public final class MixMessageDecoder extends LengthFieldBasedFrameDecoder {
 
+    /** String features sent by the peer in the compact format, indexed by their IDs */
+    private final List<Object> dictionary;
+
     public MixMessageDecoder() {
         super(1048576/* 1MiB */, 0, 4, 0, 4);
+        this.dictionary = new ArrayList<Object>();
     }
 
     @Override
-    protected MixMessage decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
         ByteBuf frame = (ByteBuf) super.decode(ctx, in);
         if (frame == null) {
             return null;
         }
 
         byte b = frame.readByte();
+        if (b == BATCH_MARKER || b == FLUSH_BATCH_MARKER) {
+            MixMessageBatch batch = decodeBatch(frame);
+            batch.setFlush(b == FLUSH_BATCH_MARKER);
+            return batch;
+        } else if (b == COMPACT_BATCH_MARKER) {
+            byte flags = frame.readByte();
+            byte peerFlags = (byte) (flags & ~FLAG_FLUSH); // replies are not flush batches
+            ctx.channel().attr(PEER_COMPACT_FLAGS).set(Byte.valueOf(peerFlags));
+            MixMessageBatch batch = decodeCompactBatch(frame, flags);
+            batch.setFlush((flags & FLAG_FLUSH) != 0);
+            return batch;
+        }
         MixEventName event = MixEventName.resolve(b);
         Object feature = decodeObject(frame);
         float weight = frame.readFloat();
@@ -64,6 +97,104 @@ public final class MixMessageDecoder extends LengthFieldBasedFrameDecoder {
         return msg;
     }
 
+    private static MixMessageBatch decodeBatch(final ByteBuf frame) throws IOException {
+        MixEventName event = MixEventName.resolve(frame.readByte());
+        String groupID = readString(frame);
+        int size = frame.readInt();
+
+        final MixMessageBatch batch = new MixMessageBatch(event, groupID, size);
+        for (int i = 0; i < size; i++) {
+            Object feature = decodeObject(frame);
+            float weight = frame.readFloat();
+            float covariance = frame.readFloat();
+            short clock = frame.readShort();
+            int deltaUpdates = frame.readByte();
+            boolean cancelRequest = frame.readBoolean();
+
+            MixMessage msg = new MixMessage(event, feature, weight, covariance, clock,
+                deltaUpdates, cancelRequest);
+            msg.setGroupID(groupID);
+            batch.add(msg);
+        }
+        return batch;
+    }
+
+    private MixMessageBatch decodeCompactBatch(final ByteBuf frame, final byte flags)
+            throws IOException {
+        final boolean half = (flags & FLAG_HALF_FLOAT) != 0;
+        final ByteBufInputStream din = new ByteBufInputStream(frame);
+
+        MixEventName event = MixEventName.resolve(frame.readByte());
+        String groupID = (String) decodeCompactObject(din);
+        int size = ZigZagLEB128Codec.readUnsignedInt(din);
+
+        final MixMessageBatch batch = new MixMessageBatch(event, groupID, size);
+        for (int i = 0; i < size; i++) {
+            Object feature = decodeCompactObject(din);
+            final float weight, covariance;
+            if (half) {
+                weight = HalfFloat.halfFloatToFloat(frame.readShort());
+                covariance = HalfFloat.halfFloatToFloat(frame.readShort());
+            } else {
+                weight = frame.readFloat();
+                covariance = frame.readFloat();
+            }
+            short clock = (short) ZigZagLEB128Codec.readSignedInt(din);
+            int b = frame.readUnsignedByte();
+            int deltaUpdates = b >>> 1;
+            boolean cancelRequest = (b & 1) != 0;
+
+            MixMessage msg = new MixMessage(event, feature, weight, covariance, clock,
+                deltaUpdates, cancelRequest);
+            msg.setGroupID(groupID);
+            batch.add(msg);
+        }
+        return batch;
+    }
+
+    @Nullable
+    private Object decodeCompactObject(final ByteBufInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL_TYPE:
+                return null;
+            case INTEGER_TYPE:
+                return Integer.valueOf(ZigZagLEB128Codec.readSignedInt(in));
+            case INT_WRITABLE_TYPE:
+                return new IntWritable(ZigZagLEB128Codec.readSignedInt(in));
+            case LONG_WRITABLE_TYPE:
+                return new LongWritable(ZigZagLEB128Codec.readSignedLong(in));
+            case DICT_REF_TYPE: {
+                int id = ZigZagLEB128Codec.readUnsignedInt(in);
+                if (id >= dictionary.size()) {
+                    throw new IllegalStateException("Unknown dictionary ID: " + id);
+                }
+                return dictionary.get(id);
+            }
+            case TEXT_TYPE:
+            case DICT_TEXT_TYPE:
+            case STRING_TYPE:
+            case DICT_STRING_TYPE: {
+                int length = ZigZagLEB128Codec.readUnsignedInt(in);
+                byte[] b = new byte[length];
+                in.readFully(b, 0, length);
+                final Object obj;
+                if (type == TEXT_TYPE || type == DICT_TEXT_TYPE) {
+                    obj = new Text(b);
+                } else {
+                    obj = StringUtils.toString(b);
+                }
+                if (type == DICT_TEXT_TYPE || type == DICT_STRING_TYPE) {
+                    dictionary.add(obj);
+                }
+                return obj;
+            }
+            default:
+                break;
+        }
+        throw new IllegalStateException("Illegal type: " + type);
+    }
+
     private static Object decodeObject(final ByteBuf in) throws IOException {
         final byte type = in.readByte();
         switch (type) {
@@ -19,18 +19,25 @@
 package hivemall.mix;
 
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.codec.ZigZagLEB128Codec;
+import hivemall.utils.lang.HalfFloat;
 import hivemall.utils.lang.StringUtils;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.AttributeKey;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 
-public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
+public final class MixMessageEncoder extends MessageToByteEncoder<Object> {
     private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
 
     static final byte INTEGER_TYPE = 1;
@@ -39,15 +46,88 @@ public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
     static final byte INT_WRITABLE_TYPE = 4;
     static final byte LONG_WRITABLE_TYPE = 5;
 
+    // types only used in the compact format
+    static final byte NULL_TYPE = 0;
+    static final byte DICT_REF_TYPE = 6;
+    static final byte DICT_TEXT_TYPE = 7;
+    static final byte DICT_STRING_TYPE = 8;
+
+    /** The first byte of a batch frame, which never collides with the ID of a MixEventName */
+    static final byte BATCH_MARKER = -1;
+    /** The first byte of a batch frame in the compact format */
+    static final byte COMPACT_BATCH_MARKER = -2;
+    /** The first byte of a flush batch frame, see {@link MixMessageBatch#isFlush()} */
+    static final byte FLUSH_BATCH_MARKER = -3;
+
+    static final byte FLAG_HALF_FLOAT = 1;
+    /** Marks a flush batch in the compact format. Not kept in {@link #PEER_COMPACT_FLAGS} */
+    static final byte FLAG_FLUSH = 2;
+
+    /** The max number of string features registered to the dictionary of a connection */
+    static final int MAX_DICTIONARY_SIZE = 262144;
+
+    /**
+     * Flags of the compact format the peer talks in, set by {@link MixMessageDecoder} so that
+     * responses are sent in the format of requests
+     */
+    static final AttributeKey<Byte> PEER_COMPACT_FLAGS = AttributeKey.valueOf("hivemall.mix.compact");
+
+    private final boolean compact;
+    private final boolean halfFloat;
+
+    /** String features that the peer already knows, mapped to their IDs */
+    private final Map<Object, Integer> dictionary;
+
     public MixMessageEncoder() {
-        super(MixMessage.class, true);
+        this(false, false);
+    }
+
+    /**
+     * @param compact encode messages in the compact format, i.e., variable-length integers and a
+     *        per-connection dictionary of string features
+     * @param halfFloat encode weights and covariances in half-floats. Only applied to the compact
+     *        format
+     */
+    public MixMessageEncoder(boolean compact, boolean halfFloat) {
+        super(true);
+        this.compact = compact;
+        this.halfFloat = halfFloat;
+        this.dictionary = new HashMap<Object, Integer>();
     }
 
     @Override
-    protected void encode(ChannelHandlerContext ctx, MixMessage msg, ByteBuf out) throws Exception {
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof MixMessage || msg instanceof MixMessageBatch;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
         int startIdx = out.writerIndex();
         out.writeBytes(LENGTH_PLACEHOLDER);
 
+        final Byte peerFlags = ctx.channel().attr(PEER_COMPACT_FLAGS).get();
+        if (compact || peerFlags != null) {
+            byte flags = compact ? (halfFloat ? FLAG_HALF_FLOAT : 0) : peerFlags.byteValue();
+            final MixMessageBatch batch;
+            if (msg instanceof MixMessageBatch) {
+                batch = (MixMessageBatch) msg;
+            } else {
+                MixMessage m = (MixMessage) msg;
+                batch = new MixMessageBatch(m.getEvent(), m.getGroupID(), 1);
+                batch.add(m);
+            }
+            encodeCompactBatch(batch, flags, out);
+        } else if (msg instanceof MixMessageBatch) {
+            encodeBatch((MixMessageBatch) msg, out);
+        } else {
+            encodeMessage((MixMessage) msg, out);
+        }
+
+        int endIdx = out.writerIndex();
+        out.setInt(startIdx, endIdx - startIdx - 4);
+    }
+
+    private static void encodeMessage(final MixMessage msg, final ByteBuf out) throws IOException {
         MixEventName event = msg.getEvent();
         byte b = event.getID();
         out.writeByte(b);
@@ -72,9 +152,116 @@ public final class MixMessageEncoder extends MessageToByteEncoder<MixMessage> {
 
         String groupId = msg.getGroupID();
         writeString(groupId, out);
+    }
 
-        int endIdx = out.writerIndex();
-        out.setInt(startIdx, endIdx - startIdx - 4);
+    /**
+     * Encodes a batch as <code>[BATCH_MARKER|FLUSH_BATCH_MARKER][event][groupID][n]{[feature][weight][covariance][clock][deltaUpdates][cancelRequest]}*</code>
+     * where deltaUpdates is written in a byte since it is in range [0,127].
+     */
+    private static void encodeBatch(final MixMessageBatch batch, final ByteBuf out)
+            throws IOException {
+        out.writeByte(batch.isFlush() ? FLUSH_BATCH_MARKER : BATCH_MARKER);
+        out.writeByte(batch.getEvent().getID());
+        writeString(batch.getGroupID(), out);
+
+        final List<MixMessage> messages = batch.getMessages();
+        final int size = messages.size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            MixMessage msg = messages.get(i);
+            encodeObject(msg.getFeature(), out);
+            out.writeFloat(msg.getWeight());
+            out.writeFloat(msg.getCovariance());
+            out.writeShort(msg.getClock());
+            out.writeByte(msg.getDeltaUpdates());
+            out.writeBoolean(msg.isCancelRequest());
+        }
+    }
+
+    /**
+     * Encodes a batch as <code>[COMPACT_BATCH_MARKER][flags][event][groupID][n]{[feature][weight][covariance][clock][deltaUpdates << 1 | cancelRequest]}*</code>
+     * where integers are written in ZigZag LEB128 and weights are written in half-floats if
+     * {@link #FLAG_HALF_FLOAT} is set. {@link #FLAG_FLUSH} is added to the flags of a flush batch.
+     */
+    private void encodeCompactBatch(final MixMessageBatch batch, final byte flags,
+            final ByteBuf out) throws IOException {
+        final boolean half = (flags & FLAG_HALF_FLOAT) != 0;
+        final ByteBufOutputStream dout = new ByteBufOutputStream(out);
+
+        out.writeByte(COMPACT_BATCH_MARKER);
+        out.writeByte(batch.isFlush() ? (flags | FLAG_FLUSH) : flags);
+        out.writeByte(batch.getEvent().getID());
+        String groupID = batch.getGroupID();
+        if (groupID == null) {
+            out.writeByte(NULL_TYPE);
+        } else {
+            encodeCompactObject(groupID, dout);
+        }
+
+        final List<MixMessage> messages = batch.getMessages();
+        final int size = messages.size();
+        ZigZagLEB128Codec.writeUnsignedInt(size, dout);
+        for (int i = 0; i < size; i++) {
+            MixMessage msg = messages.get(i);
+            encodeCompactObject(msg.getFeature(), dout);
+            if (half) {
+                out.writeShort(HalfFloat.floatToSaturatedHalfFloat(msg.getWeight()));
+                // a covariance of zero would be a divisor of zero on the server
+                out.writeShort(HalfFloat.floatToNonZeroHalfFloat(msg.getCovariance()));
+            } else {
+                out.writeFloat(msg.getWeight());
+                out.writeFloat(msg.getCovariance());
+            }
+            ZigZagLEB128Codec.writeSignedInt(msg.getClock(), dout);
+            out.writeByte((msg.getDeltaUpdates() << 1) | (msg.isCancelRequest() ? 1 : 0));
+        }
+    }
+
+    private void encodeCompactObject(final Object obj, final ByteBufOutputStream out)
+            throws IOException {
+        assert (obj != null);
+        if (obj instanceof Integer) {
+            out.writeByte(INTEGER_TYPE);
+            ZigZagLEB128Codec.writeSignedInt(((Integer) obj).intValue(), out);
+        } else if (obj instanceof Text || obj instanceof String) {
+            final boolean isText = (obj instanceof Text);
+            Integer id = dictionary.get(obj);
+            if (id != null) {
+                out.writeByte(DICT_REF_TYPE);
+                ZigZagLEB128Codec.writeUnsignedInt(id.intValue(), out);
+                return;
+            }
+
+            final byte[] b;
+            final int length;
+            if (isText) {
+                Text t = (Text) obj;
+                b = t.getBytes();
+                length = t.getLength();
+            } else {
+                b = StringUtils.getBytes((String) obj);
+                length = b.length;
+            }
+            final int size = dictionary.size();
+            if (size < MAX_DICTIONARY_SIZE) {
+                // copy a Text key since the caller may reuse it
+                Object key = isText ? new Text((Text) obj) : obj;
+                dictionary.put(key, Integer.valueOf(size));
+                out.writeByte(isText ? DICT_TEXT_TYPE : DICT_STRING_TYPE);
+            } else {
+                out.writeByte(isText ? TEXT_TYPE : STRING_TYPE);
+            }
+            ZigZagLEB128Codec.writeUnsignedInt(length, out);
+            out.write(b, 0, length);
+        } else if (obj instanceof IntWritable) {
+            out.writeByte(INT_WRITABLE_TYPE);
+            ZigZagLEB128Codec.writeSignedInt(((IntWritable) obj).get(), out);
+        } else if (obj instanceof LongWritable) {
+            out.writeByte(LONG_WRITABLE_TYPE);
+            ZigZagLEB128Codec.writeSignedLong(((LongWritable) obj).get(), out);
+        } else {
+            throw new IllegalStateException("Unexpected type: " + obj.getClass().getName());
+        }
     }
 
     private static void encodeObject(final Object obj, final ByteBuf buf) throws IOException {
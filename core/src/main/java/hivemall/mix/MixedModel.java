@@ -24,4 +24,10 @@ public interface MixedModel {
 
     void set(@Nonnull Object feature, float weight, float covar, short clock);
 
+    /**
+     * Passes the local updates that are not sent to the update handler yet, e.g., for being fewer
+     * than the mix threshold, to the update handler.
+     */
+    void flushUpdates();
+
 }
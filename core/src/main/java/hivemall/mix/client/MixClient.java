@@ -21,6 +21,7 @@ package hivemall.mix.client;
 import hivemall.model.ModelUpdateHandler;
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
+import hivemall.mix.MixMessageBatch;
 import hivemall.mix.MixedModel;
 import hivemall.mix.MixedWeight;
 import hivemall.mix.NodeInfo;
@@ -28,6 +29,7 @@ import hivemall.utils.hadoop.HadoopUtils;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -37,58 +39,172 @@ import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.SocketAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.net.ssl.SSLException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 public final class MixClient implements ModelUpdateHandler, Closeable {
+    private static final Log logger = LogFactory.getLog(MixClient.class);
     public static final String DUMMY_JOB_ID = "__DUMMY_JOB_ID__";
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    /**
+     * The max time in msec that {@link #close()} waits for the replies to the last batches
+     * without receiving any reply
+     */
+    private static final long FLUSH_TIMEOUT_MILLIS = 5000L;
 
     private final MixEventName event;
     private String groupID;
     private final boolean ssl;
     private final int mixThreshold;
     private final MixRequestRouter router;
+    private final MixedModel model;
     private final MixClientHandler msgHandler;
-    private final Map<NodeInfo, Channel> channelMap;
+    /** Connections to the MIX servers in the order of {@link MixRequestRouter#getAllNodes()} */
+    private MixConnection[] connections;
+    /** The max number of requests coalesced into a batch, or 0 when batching is disabled */
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private MixRequestBuffer[] buffers;
+    /**
+     * The last requests sent in batches but not replied by feature. The MIX server replies to a
+     * request only when the global weight is updated enough, so these are sent again on close.
+     */
+    private ConcurrentMap<Object, MixMessage> unreplied;
+    private boolean compact = false;
+    private boolean halfFloat = false;
+    /** The number of successor MIX servers tried when the primary one is down */
+    private int numReplicas = 0;
+
+    private final AtomicLong numSent = new AtomicLong(0L);
 
-    private boolean initialized = false;
+    private volatile boolean initialized = false;
+    /** Set on close to send the last updates even if they are fewer than the mix threshold */
+    private volatile boolean closing = false;
     private EventLoopGroup workers;
 
     public MixClient(@Nonnull MixEventName event, @CheckForNull String groupID,
             @Nonnull String connectURIs, boolean ssl, int mixThreshold, @Nonnull MixedModel model) {
+        this(event, groupID, connectURIs, ssl, mixThreshold, model, 0, 0L);
+    }
+
+    /**
+     * @param batchSize the max number of requests sent to a MIX server in a batch. Batching is
+     *        disabled if 0
+     * @param flushIntervalMillis the max time in msec that a request can be pending in a batch
+     */
+    public MixClient(@Nonnull MixEventName event, @CheckForNull String groupID,
+            @Nonnull String connectURIs, boolean ssl, int mixThreshold, @Nonnull MixedModel model,
+            int batchSize, long flushIntervalMillis) {
         if (groupID == null) {
             throw new IllegalArgumentException("groupID is null");
         }
         if (mixThreshold < 1 || mixThreshold > Byte.MAX_VALUE) {
             throw new IllegalArgumentException("Invalid mixThreshold: " + mixThreshold);
         }
+        if (batchSize < 0) {
+            throw new IllegalArgumentException("Invalid batchSize: " + batchSize);
+        }
+        if (batchSize > 0 && flushIntervalMillis <= 0L) {
+            throw new IllegalArgumentException("Invalid flushIntervalMillis: "
+                    + flushIntervalMillis);
+        }
         this.event = event;
         this.groupID = groupID;
         this.router = new MixRequestRouter(connectURIs);
         this.ssl = ssl;
         this.mixThreshold = mixThreshold;
-        this.msgHandler = new MixClientHandler(model);
-        this.channelMap = new HashMap<NodeInfo, Channel>();
+        this.model = model;
+        this.msgHandler = new MixClientHandler((batchSize > 0) ? new ReplyTracker(model) : model);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Sends requests in the compact wire format. Must be called before the first request.
+     * 
+     * @param halfFloat send weights and covariances in half-floats
+     */
+    public void setCompactFormat(boolean halfFloat) {
+        if (initialized) {
+            throw new IllegalStateException("MixClient is already initialized");
+        }
+        this.compact = true;
+        this.halfFloat = halfFloat;
+    }
+
+    /**
+     * Routes requests to the next MIX servers on the hash ring while the primary one is down.
+     * Must be called before the first request.
+     * 
+     * @param numReplicas the number of successor MIX servers to try
+     */
+    public void setNumReplicas(@Nonnegative int numReplicas) {
+        if (initialized) {
+            throw new IllegalStateException("MixClient is already initialized");
+        }
+        if (numReplicas < 0) {
+            throw new IllegalArgumentException("Invalid numReplicas: " + numReplicas);
+        }
+        this.numReplicas = numReplicas;
     }
 
     private void initialize() throws Exception {
         EventLoopGroup workerGroup = new NioEventLoopGroup();
-        NodeInfo[] serverNodes = router.getAllNodes();
-        for (NodeInfo node : serverNodes) {
-            Bootstrap b = new Bootstrap();
-            configureBootstrap(b, workerGroup, node);
+        Bootstrap b = new Bootstrap();
+        configureBootstrap(b, workerGroup);
+
+        final NodeInfo[] serverNodes = router.getAllNodes();
+        final int numNodes = serverNodes.length;
+        final MixConnection[] conns = new MixConnection[numNodes];
+        final ChannelFuture[] futures = new ChannelFuture[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            conns[i] = new MixConnection(serverNodes[i], b, workerGroup);
+            futures[i] = conns[i].connect();
         }
+        // wait for the connections but proceed while some MIX servers are down
+        int numConnected = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (conns[i].await(futures[i], CONNECT_TIMEOUT_MILLIS + 1000L)) {
+                numConnected++;
+            }
+        }
+        if (numConnected == 0) {
+            for (MixConnection conn : conns) {
+                conn.close();
+            }
+            workerGroup.shutdownGracefully();
+            throw new IOException("Failed to connect to any MIX server: "
+                    + Arrays.toString(serverNodes));
+        }
+        if (numConnected < numNodes) {
+            logger.warn("Connected to " + numConnected + " of " + numNodes + " MIX servers");
+        }
+
+        if (batchSize > 0) {
+            MixRequestBuffer[] bufs = new MixRequestBuffer[numNodes];
+            for (int i = 0; i < numNodes; i++) {
+                bufs[i] = new MixRequestBuffer(event, groupID, batchSize);
+            }
+            this.buffers = bufs;
+            this.unreplied = new ConcurrentHashMap<Object, MixMessage>();
+        }
+        this.connections = conns;
         this.workers = workerGroup;
         this.initialized = true;
     }
 
-    private void configureBootstrap(Bootstrap b, EventLoopGroup workerGroup, NodeInfo server)
-            throws SSLException, InterruptedException {
+    private void configureBootstrap(Bootstrap b, EventLoopGroup workerGroup) throws SSLException {
         // Configure SSL.
         final SslContext sslCtx;
         if (ssl) {
@@ -100,14 +216,9 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
         b.group(workerGroup);
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.TCP_NODELAY, true);
+        b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS);
         b.channel(NioSocketChannel.class);
-        b.handler(new MixClientInitializer(msgHandler, sslCtx));
-
-        SocketAddress remoteAddr = server.getSocketAddress();
-        ChannelFuture channelFuture = b.connect(remoteAddr).sync();
-        Channel channel = channelFuture.channel();
-
-        channelMap.put(server, channel);
+        b.handler(new MixClientInitializer(msgHandler, sslCtx, compact, halfFloat));
     }
 
     /**
@@ -117,30 +228,159 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
     public boolean onUpdate(Object feature, float weight, float covar, short clock, int deltaUpdates)
             throws Exception {
         assert (deltaUpdates > 0) : deltaUpdates;
-        if (deltaUpdates < mixThreshold) {
+        if (deltaUpdates < mixThreshold && !closing) {
             return false; // avoid mixing
         }
 
         if (!initialized) {
-            replaceGroupIDIfRequired();
-            initialize(); // initialize connections to mix servers
+            synchronized (this) {// onUpdate can be called from multiple trainer threads
+                if (!initialized) {
+                    replaceGroupIDIfRequired();
+                    initialize(); // initialize connections to mix servers
+                }
+            }
+        }
+
+        final int server = selectServer(feature);
+        if (server == -1) {
+            // keep accumulating updates while no MIX server is available, but drop them before
+            // deltaUpdates overflows
+            return deltaUpdates >= Byte.MAX_VALUE;
         }
 
         MixMessage msg = new MixMessage(event, feature, weight, covar, clock, deltaUpdates);
         msg.setGroupID(groupID);
 
-        NodeInfo server = router.selectNode(msg);
-        Channel ch = channelMap.get(server);
-        if (!ch.isActive()) {// reconnect
-            SocketAddress remoteAddr = server.getSocketAddress();
-            ch.connect(remoteAddr).sync();
+        if (batchSize > 0) {
+            MixRequestBuffer buf = buffers[server];
+            int pending = buf.add(msg);
+            numSent.incrementAndGet();
+            if (pending >= batchSize) {
+                flush(server, false);
+            } else if (pending == 1) {
+                scheduleFlush(server);
+            }
+            return true;
         }
 
+        Channel ch = connections[server].getChannel();
+        if (ch == null) {
+            return deltaUpdates >= Byte.MAX_VALUE; // lost the connection just now
+        }
         //ch.writeAndFlush(msg).sync();
         ch.writeAndFlush(msg); // send asynchronously in the background
+        numSent.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the index of an available MIX server for the feature, or -1 if no server is
+     *         available
+     */
+    private int selectServer(@Nonnull final Object feature) {
+        for (int replica = 0; replica <= numReplicas; replica++) {
+            int i = router.selectNodeIndex(feature, replica);
+            if (i == -1) {
+                break;
+            }
+            if (connections[i].isAvailable()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sends the pending requests. While closing, they are sent as a flush batch so that the MIX
+     * server replies to all of them, since the last updates of a feature get no reply otherwise.
+     * 
+     * @param last send a flush batch even if no request is pending so that the reply tells all
+     *        the previous replies are received
+     * @return true if a batch is sent
+     */
+    private boolean flush(final int server, final boolean last) {
+        final MixRequestBuffer[] bufs = buffers;
+        if (bufs == null) {
+            return false; // already closed
+        }
+        MixMessageBatch batch = bufs[server].drain();
+        if (batch == null) {
+            if (!last) {
+                return false;
+            }
+            batch = new MixMessageBatch(event, groupID, 0);
+        }
+        final boolean flush = last || closing;
+        batch.setFlush(flush);
+        Channel ch = connections[server].getChannel();
+        if (ch == null) {
+            if (!batch.isEmpty() && logger.isDebugEnabled()) {
+                logger.debug("Dropped " + batch.size() + " mix requests to "
+                        + connections[server].getNode());
+            }
+            return false;
+        }
+        if (flush) {
+            msgHandler.expectFlushed(ch);
+            ch.writeAndFlush(batch).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    if (!future.isSuccess()) {// no reply comes
+                        msgHandler.cancelFlushed(future.channel());
+                    }
+                }
+            });
+            return true;
+        }
+        final ConcurrentMap<Object, MixMessage> unreplied = this.unreplied;
+        if (unreplied != null) {
+            for (MixMessage msg : batch.getMessages()) {
+                unreplied.put(msg.getFeature(), msg);
+            }
+        }
+        ch.writeAndFlush(batch); // send asynchronously in the background
         return true;
     }
 
+    /**
+     * Sends the pending requests and the requests not replied yet as flush batches and waits for
+     * the replies, so that the last updates are synced with the global weights before the
+     * connections are closed.
+     */
+    private void flushAndAwait() {
+        this.closing = true;
+        model.flushUpdates(); // the updates held back by the mix threshold
+        for (MixMessage msg : unreplied.values()) {
+            final int server = selectServer(msg.getFeature());
+            if (server != -1 && buffers[server].addIfAbsent(msg) >= batchSize) {
+                flush(server, false);
+            }
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            flush(i, true);
+        }
+        try {
+            if (!msgHandler.awaitFlushed(FLUSH_TIMEOUT_MILLIS)) {
+                logger.warn("Timed out waiting for the replies to the last mix requests");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Schedules a flush after the flush interval so that requests are not held for long when a
+     * batch is not filled up.
+     */
+    private void scheduleFlush(final int server) {
+        workers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(server, false);
+            }
+        }, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void sendCancelRequest(@Nonnull Object feature, @Nonnull MixedWeight mixed)
             throws Exception {
@@ -154,15 +394,32 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
         assert (groupID != null);
         msg.setGroupID(groupID);
 
-        // TODO REVIEWME consider mix server faults (what if mix server dead? Do not send cancel request?)
-        NodeInfo server = router.selectNode(msg);
-        Channel ch = channelMap.get(server);
-        if (!ch.isActive()) {// reconnect
-            SocketAddress remoteAddr = server.getSocketAddress();
-            ch.connect(remoteAddr).sync();
+        final int server = selectServer(feature);
+        if (server == -1) {
+            return; // the MIX server is down and its partial result might be lost
         }
+        if (batchSize > 0) {// the cancel request must follow the pending request of the feature
+            flush(server, false);
+        }
+        Channel ch = connections[server].getChannel();
+        if (ch != null) {
+            ch.writeAndFlush(msg); // send asynchronously in the background
+            numSent.incrementAndGet();
+        }
+    }
 
-        ch.writeAndFlush(msg); // send asynchronously in the background
+    /**
+     * @return the number of mix and cancel requests sent or queued in batches
+     */
+    public long getNumSentRequests() {
+        return numSent.get();
+    }
+
+    /**
+     * @return the number of mixed weights received from MIX servers
+     */
+    public long getNumReceivedUpdates() {
+        return msgHandler.getNumReceived();
     }
 
     private void replaceGroupIDIfRequired() {
@@ -175,13 +432,46 @@ public final class MixClient implements ModelUpdateHandler, Closeable {
     @Override
     public void close() throws IOException {
         if (workers != null) {
-            for (Channel ch : channelMap.values()) {
-                ch.close();
+            if (buffers != null) {
+                flushAndAwait();
+                this.buffers = null;
+                this.unreplied = null;
+            }
+            for (MixConnection conn : connections) {
+                conn.close();
             }
-            channelMap.clear();
+            this.connections = null;
             workers.shutdownGracefully();
             this.workers = null;
         }
     }
 
+    /**
+     * Forgets the unreplied requests of the features of replies.
+     */
+    private final class ReplyTracker implements MixedModel {
+
+        @Nonnull
+        private final MixedModel model;
+
+        ReplyTracker(@Nonnull MixedModel model) {
+            this.model = model;
+        }
+
+        @Override
+        public void set(@Nonnull Object feature, float weight, float covar, short clock) {
+            final ConcurrentMap<Object, MixMessage> unreplied = MixClient.this.unreplied;
+            if (unreplied != null) {
+                unreplied.remove(feature);
+            }
+            model.set(feature, weight, covar, clock);
+        }
+
+        @Override
+        public void flushUpdates() {
+            model.flushUpdates();
+        }
+
+    }
+
 }
@@ -19,15 +19,37 @@
 package hivemall.mix.client;
 
 import hivemall.mix.MixMessage;
+import hivemall.mix.MixMessageBatch;
 import hivemall.mix.MixedModel;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
 @Sharable
-public final class MixClientHandler extends SimpleChannelInboundHandler<MixMessage> {
+public final class MixClientHandler extends SimpleChannelInboundHandler<Object> {
 
     private final MixedModel model;
+    private final AtomicLong numReceived;
+    /**
+     * Latches of the flush batches in the order of sending, by channel. Each latch is counted
+     * down by the reply to its batch or by a lost connection. Replies on a channel come in the
+     * order of requests, so the reply to a flush batch follows the replies to all the previous
+     * batches on the channel.
+     */
+    private final ConcurrentMap<Channel, Queue<CountDownLatch>> flushes;
 
     public MixClientHandler(MixedModel model) {
         super();
@@ -35,10 +57,111 @@ public final class MixClientHandler extends SimpleChannelInboundHandler<MixMessa
             throw new IllegalArgumentException("model is null");
         }
         this.model = model;
+        this.numReceived = new AtomicLong(0L);
+        this.flushes = new ConcurrentHashMap<Channel, Queue<CountDownLatch>>();
+    }
+
+    public long getNumReceived() {
+        return numReceived.get();
+    }
+
+    /**
+     * Registers a flush batch to be sent on the channel. Must be called before sending it, in
+     * the order of sending.
+     */
+    void expectFlushed(@Nonnull final Channel ch) {
+        Queue<CountDownLatch> latches = flushes.get(ch);
+        if (latches == null) {
+            latches = new ConcurrentLinkedQueue<CountDownLatch>();
+            Queue<CountDownLatch> prev = flushes.putIfAbsent(ch, latches);
+            if (prev != null) {
+                latches = prev;
+            }
+        }
+        latches.add(new CountDownLatch(1));
+    }
+
+    /**
+     * Waits for the replies to the registered flush batches. The wait lasts as long as any reply
+     * is received within the timeout, since a busy MIX server may take long to reply to all the
+     * previous batches.
+     * 
+     * @return true if all the replies are received before no reply is received for the timeout
+     */
+    boolean awaitFlushed(@Nonnegative final long timeoutMillis) throws InterruptedException {
+        long lastReceived = numReceived.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Queue<CountDownLatch> latches : flushes.values()) {
+            for (CountDownLatch latch : latches) {
+                while (!latch.await(Math.min(timeoutMillis, 100L), TimeUnit.MILLISECONDS)) {
+                    final long received = numReceived.get();
+                    final long now = System.currentTimeMillis();
+                    if (received != lastReceived) {// the server is still replying
+                        lastReceived = received;
+                        deadline = now + timeoutMillis;
+                    } else if (now >= deadline) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MixMessageBatch) {
+            MixMessageBatch batch = (MixMessageBatch) msg;
+            List<MixMessage> messages = batch.getMessages();
+            final int size = messages.size();
+            for (int i = 0; i < size; i++) {
+                update(messages.get(i));
+            }
+            numReceived.addAndGet(size);
+            if (batch.isFlush()) {
+                flushed(ctx.channel());
+            }
+        } else {
+            update((MixMessage) msg);
+            numReceived.incrementAndGet();
+        }
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, MixMessage msg) throws Exception {
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cancelFlushed(ctx.channel()); // no reply comes anymore
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Marks the oldest flush batch on the channel as replied.
+     */
+    private void flushed(@Nonnull final Channel ch) {
+        Queue<CountDownLatch> latches = flushes.get(ch);
+        if (latches == null) {
+            return;
+        }
+        CountDownLatch latch = latches.poll();
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Stops waiting for the replies to the flush batches on the channel, which are lost.
+     */
+    void cancelFlushed(@Nonnull final Channel ch) {
+        Queue<CountDownLatch> latches = flushes.remove(ch);
+        if (latches == null) {
+            return;
+        }
+        CountDownLatch latch;
+        while ((latch = latches.poll()) != null) {
+            latch.countDown();
+        }
+    }
+
+    private void update(MixMessage msg) {
         Object feature = msg.getFeature();
         float weight = msg.getWeight();
         short clock = msg.getClock();
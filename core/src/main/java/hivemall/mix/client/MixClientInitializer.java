@@ -29,13 +29,22 @@ public final class MixClientInitializer extends ChannelInitializer<SocketChannel
 
     private final MixClientHandler responseHandler;
     private final SslContext sslCtx;
+    private final boolean compact;
+    private final boolean halfFloat;
 
     public MixClientInitializer(MixClientHandler msgHandler, SslContext sslCtx) {
+        this(msgHandler, sslCtx, false, false);
+    }
+
+    public MixClientInitializer(MixClientHandler msgHandler, SslContext sslCtx, boolean compact,
+            boolean halfFloat) {
         if (msgHandler == null) {
             throw new IllegalArgumentException();
         }
         this.responseHandler = msgHandler;
         this.sslCtx = sslCtx;
+        this.compact = compact;
+        this.halfFloat = halfFloat;
     }
 
     @Override
@@ -45,7 +54,7 @@ public final class MixClientInitializer extends ChannelInitializer<SocketChannel
             pipeline.addLast(sslCtx.newHandler(ch.alloc()));
         }
 
-        MixMessageEncoder encoder = new MixMessageEncoder();
+        MixMessageEncoder encoder = new MixMessageEncoder(compact, halfFloat);
         MixMessageDecoder decoder = new MixMessageDecoder();
         pipeline.addLast(encoder, decoder, responseHandler);
     }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.client;
+
+import hivemall.mix.NodeInfo;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A connection to a MIX server. A lost connection is reestablished in the event loop with an
+ * exponential backoff so that training threads never wait for a dead MIX server.
+ */
+@ThreadSafe
+final class MixConnection {
+    private static final Log logger = LogFactory.getLog(MixConnection.class);
+
+    static final long INITIAL_BACKOFF_MILLIS = 100L;
+    static final long MAX_BACKOFF_MILLIS = 10000L;
+
+    @Nonnull
+    private final NodeInfo node;
+    @Nonnull
+    private final Bootstrap bootstrap;
+    @Nonnull
+    private final EventLoopGroup workers;
+
+    @CheckForNull
+    private volatile Channel channel;
+    private volatile boolean closed;
+    @GuardedBy("this")
+    private long backoffMillis;
+
+    MixConnection(@Nonnull NodeInfo node, @Nonnull Bootstrap bootstrap,
+            @Nonnull EventLoopGroup workers) {
+        this.node = node;
+        this.bootstrap = bootstrap;
+        this.workers = workers;
+        this.channel = null;
+        this.closed = false;
+        this.backoffMillis = INITIAL_BACKOFF_MILLIS;
+    }
+
+    @Nonnull
+    NodeInfo getNode() {
+        return node;
+    }
+
+    /**
+     * Starts connecting to the MIX server. Reconnection is tried in the background on failure.
+     */
+    @Nonnull
+    ChannelFuture connect() {
+        ChannelFuture future = bootstrap.connect(node.getSocketAddress());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    onConnected(future.channel());
+                } else {
+                    scheduleReconnect(future.cause());
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for the connection started by {@link #connect()}.
+     * 
+     * @return true if connected
+     */
+    boolean await(@Nonnull ChannelFuture future, long timeoutMillis) {
+        future.awaitUninterruptibly(timeoutMillis);
+        if (!future.isSuccess()) {
+            return false;
+        }
+        this.channel = future.channel(); // the listener might not be notified yet
+        return true;
+    }
+
+    private void onConnected(@Nonnull Channel ch) {
+        if (closed) {
+            ch.close();
+            return;
+        }
+        synchronized (this) {
+            this.backoffMillis = INITIAL_BACKOFF_MILLIS;
+        }
+        this.channel = ch;
+        if (logger.isInfoEnabled()) {
+            logger.info("Connected to a MIX server: " + node);
+        }
+        ch.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                scheduleReconnect(null);
+            }
+        });
+    }
+
+    private void scheduleReconnect(@CheckForNull Throwable cause) {
+        if (closed) {
+            return;
+        }
+        final long delay;
+        synchronized (this) {
+            delay = backoffMillis;
+            this.backoffMillis = Math.min(backoffMillis * 2L, MAX_BACKOFF_MILLIS);
+        }
+        if (logger.isWarnEnabled()) {
+            logger.warn("Lost the connection to a MIX server " + node + ". Reconnect in "
+                    + delay + " msec" + ((cause == null) ? "" : ": " + cause.getMessage()));
+        }
+        workers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!closed) {
+                    connect();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the channel if it is connected, otherwise null
+     */
+    @CheckForNull
+    Channel getChannel() {
+        Channel ch = channel;
+        if (ch == null || !ch.isActive()) {
+            return null;
+        }
+        return ch;
+    }
+
+    boolean isAvailable() {
+        return getChannel() != null;
+    }
+
+    void close() {
+        this.closed = true;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.client;
+
+import hivemall.mix.MixMessage;
+import hivemall.mix.MixMessage.MixEventName;
+import hivemall.mix.MixMessageBatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Pending mix requests to a MIX server. Requests for the same feature are coalesced into one
+ * carrying the latest weight and the sum of delta updates.
+ */
+@ThreadSafe
+final class MixRequestBuffer {
+
+    @Nonnull
+    private final MixEventName event;
+    @Nonnull
+    private final String groupID;
+
+    @Nonnull
+    private final Map<Object, MixMessage> pending;
+
+    MixRequestBuffer(@Nonnull MixEventName event, @Nonnull String groupID, int capacity) {
+        this.event = event;
+        this.groupID = groupID;
+        this.pending = new LinkedHashMap<Object, MixMessage>(capacity * 2);
+    }
+
+    /**
+     * @return the number of pending requests after the addition
+     */
+    synchronized int add(@Nonnull final MixMessage msg) {
+        final Object feature = msg.getFeature();
+        final MixMessage prev = pending.put(feature, msg);
+        if (prev != null) {
+            int deltaUpdates = Math.min(prev.getDeltaUpdates() + msg.getDeltaUpdates(),
+                Byte.MAX_VALUE);
+            pending.put(feature, new MixMessage(event, feature, msg.getWeight(),
+                msg.getCovariance(), msg.getClock(), deltaUpdates));
+        }
+        return pending.size();
+    }
+
+    /**
+     * Adds a request unless a request for the same feature is pending, which is newer.
+     * 
+     * @return the number of pending requests after the addition
+     */
+    synchronized int addIfAbsent(@Nonnull final MixMessage msg) {
+        final Object feature = msg.getFeature();
+        if (!pending.containsKey(feature)) {
+            pending.put(feature, msg);
+        }
+        return pending.size();
+    }
+
+    /**
+     * @return pending requests as a batch, or null if there is no pending request
+     */
+    @CheckForNull
+    synchronized MixMessageBatch drain() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        final MixMessageBatch batch = new MixMessageBatch(event, groupID, pending.size());
+        for (MixMessage msg : pending.values()) {
+            batch.add(msg);
+        }
+        pending.clear();
+        return batch;
+    }
+
+}
@@ -21,25 +21,45 @@ package hivemall.mix.client;
 import hivemall.mix.MixEnv;
 import hivemall.mix.MixMessage;
 import hivemall.mix.NodeInfo;
+import hivemall.utils.hashing.MurmurHash3;
+import hivemall.utils.lang.ArrayUtils;
 import hivemall.utils.net.NetUtils;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Routes mix requests to MIX servers by consistent hashing with virtual nodes so that adding or
+ * removing a MIX server moves only the features of the server.
+ */
 public final class MixRequestRouter {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
 
-    private final int numNodes;
     private final NodeInfo[] nodes;
+    /** Sorted hash values of virtual nodes */
+    private final int[] ring;
+    /** Indexes of the nodes of virtual nodes */
+    private final int[] ringNodes;
 
     public MixRequestRouter(String connectInfo) {
+        this(connectInfo, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public MixRequestRouter(String connectInfo, @Nonnegative int numVirtualNodes) {
         if (connectInfo == null) {
             throw new IllegalArgumentException();
         }
+        if (numVirtualNodes < 1) {
+            throw new IllegalArgumentException("Invalid numVirtualNodes: " + numVirtualNodes);
+        }
         String[] endpoints = connectInfo.split("\\s*,\\s*");
         final int numEndpoints = endpoints.length;
         if (numEndpoints < 1) {
             throw new IllegalArgumentException("Invalid connectInfo: " + connectInfo);
         }
-        this.numNodes = numEndpoints;
         NodeInfo[] nodes = new NodeInfo[numEndpoints];
         for (int i = 0; i < numEndpoints; i++) {
             InetSocketAddress addr = NetUtils.getInetSocketAddress(endpoints[i],
@@ -47,6 +67,25 @@ public final class MixRequestRouter {
             nodes[i] = new NodeInfo(addr);
         }
         this.nodes = nodes;
+
+        final int ringSize = numEndpoints * numVirtualNodes;
+        final long[] points = new long[ringSize];
+        for (int i = 0, k = 0; i < numEndpoints; i++) {
+            // hash by IP address so that every client makes the same ring
+            NodeInfo node = nodes[i];
+            String key = node.getAddress().getHostAddress() + ':' + node.getPort() + '#';
+            for (int v = 0; v < numVirtualNodes; v++) {
+                long hash = MurmurHash3.murmurhash3_x86_32(key + v);
+                points[k++] = (hash << 32) | i; // sort by hash and then by node index
+            }
+        }
+        Arrays.sort(points);
+        this.ring = new int[ringSize];
+        this.ringNodes = new int[ringSize];
+        for (int k = 0; k < ringSize; k++) {
+            ring[k] = (int) (points[k] >> 32);
+            ringNodes[k] = (int) points[k];
+        }
     }
 
     public NodeInfo[] getAllNodes() {
@@ -56,9 +95,48 @@ public final class MixRequestRouter {
     public NodeInfo selectNode(MixMessage msg) {
         assert (msg != null);
         Object feature = msg.getFeature();
-        int hashcode = feature.hashCode();
-        int index = (hashcode & Integer.MAX_VALUE) % numNodes;
-        return nodes[index];
+        return nodes[selectNodeIndex(feature, 0)];
+    }
+
+    /**
+     * @param replica 0 for the primary node, 1 for the secondary one, and so on
+     * @return the index of the node in {@link #getAllNodes()}, or -1 if replica is not less than
+     *         the number of nodes
+     */
+    public int selectNodeIndex(@Nonnull final Object feature, @Nonnegative final int replica) {
+        if (replica >= nodes.length) {
+            return -1;
+        }
+        // spread hash codes of sequential integer features
+        final int hash = MurmurHash3.fmix32(feature.hashCode());
+        int k = Arrays.binarySearch(ring, hash);
+        if (k < 0) {
+            k = -k - 1; // insertion point
+        }
+        final int ringSize = ring.length;
+        if (k == ringSize) {
+            k = 0;
+        }
+        int node = ringNodes[k];
+        if (replica == 0) {
+            return node;
+        }
+
+        // walk the ring clockwise to find the n-th distinct node
+        final int[] found = new int[replica + 1];
+        found[0] = node;
+        int numFound = 1;
+        for (int i = 1; i < ringSize; i++) {
+            int next = ringNodes[(k + i) % ringSize];
+            if (ArrayUtils.indexOf(found, next, 0, numFound) != ArrayUtils.INDEX_NOT_FOUND) {
+                continue;
+            }
+            if (numFound == replica) {
+                return next;
+            }
+            found[numFound++] = next;
+        }
+        return -1;
     }
 
 }
@@ -36,7 +36,8 @@ import org.apache.commons.logging.LogFactory;
 public final class DenseModel extends AbstractPredictionModel {
     private static final Log logger = LogFactory.getLog(DenseModel.class);
 
-    private int size;
+    /** updated after the arrays are expanded so that concurrent trainers see arrays large enough */
+    private volatile int size;
     private float[] weights;
     private float[] covars;
 
@@ -118,12 +119,17 @@ public final class DenseModel extends AbstractPredictionModel {
 
     private void ensureCapacity(final int index) {
         if (index >= size) {
+            expand(index);
+        }
+    }
+
+    private synchronized void expand(final int index) {
+        if (index >= size) {// may be expanded by another thread
             int bits = MathUtils.bitsRequired(index);
             int newSize = (1 << bits) + 1;
             int oldSize = size;
             logger.info("Expands internal array size from " + oldSize + " to " + newSize + " ("
                     + bits + " bits)");
-            this.size = newSize;
             this.weights = Arrays.copyOf(weights, newSize);
             if (covars != null) {
                 this.covars = Arrays.copyOf(covars, newSize);
@@ -142,6 +148,7 @@ public final class DenseModel extends AbstractPredictionModel {
                 this.clocks = Arrays.copyOf(clocks, newSize);
                 this.deltaUpdates = Arrays.copyOf(deltaUpdates, newSize);
             }
+            this.size = newSize;
         }
     }
 
@@ -262,6 +269,21 @@ public final class DenseModel extends AbstractPredictionModel {
         deltaUpdates[i] = 0;
     }
 
+    @Override
+    public void flushUpdates() {
+        if (handler == null || clocks == null) {
+            return;
+        }
+        final boolean hasCovar = (covars != null);
+        for (int i = 0; i < size; i++) {
+            int delta = deltaUpdates[i];
+            if (delta > 0) {
+                float covar = hasCovar ? covars[i] : 1.f;
+                onUpdate(i, weights[i], covar, clocks[i], delta, hasCovar);
+            }
+        }
+    }
+
     @Override
     public int size() {
         return size;
@@ -18,6 +18,9 @@
  */
 package hivemall.model;
 
+import hivemall.utils.hadoop.TextInterner;
+import hivemall.utils.lang.NumberUtils;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -45,6 +48,10 @@ public final class FeatureValue {
         return (T) feature;
     }
 
+    public void setFeature(Object f) {
+        this.feature = f;
+    }
+
     public double getValue() {
         return value;
     }
@@ -92,6 +99,57 @@ public final class FeatureValue {
         return new FeatureValue(feature, weight);
     }
 
+    /**
+     * Parses a "feature:value" representation by scanning the UTF-8 bytes of the given Text. The
+     * feature is set to the canonical {@link Text} instance returned by the interner.
+     */
+    public static void parse(@Nonnull final Text t, @Nonnull final FeatureValue probe,
+            @Nonnull final TextInterner interner) throws IllegalArgumentException {
+        final byte[] b = t.getBytes();
+        final int len = t.getLength();
+        final int pos = indexOfColon(b, len);
+        if (pos == 0) {
+            throw new IllegalArgumentException("Invalid feature value representation: " + t);
+        }
+        if (pos > 0) {
+            probe.feature = interner.intern(b, 0, pos);
+            probe.value = NumberUtils.parseDouble(b, pos + 1, len);
+        } else {
+            probe.feature = interner.intern(b, 0, len);
+            probe.value = 1.d;
+        }
+    }
+
+    /**
+     * Parses a "feature:value" representation of an integer feature by scanning the UTF-8 bytes of
+     * the given Text. The feature is set as an {@link Integer}.
+     */
+    public static void parseFeatureAsInt(@Nonnull final Text t, @Nonnull final FeatureValue probe)
+            throws IllegalArgumentException {
+        final byte[] b = t.getBytes();
+        final int len = t.getLength();
+        final int pos = indexOfColon(b, len);
+        if (pos == 0) {
+            throw new IllegalArgumentException("Invalid feature value representation: " + t);
+        }
+        if (pos > 0) {
+            probe.feature = Integer.valueOf(NumberUtils.parseInt(b, 0, pos));
+            probe.value = NumberUtils.parseDouble(b, pos + 1, len);
+        } else {
+            probe.feature = Integer.valueOf(NumberUtils.parseInt(b, 0, len));
+            probe.value = 1.d;
+        }
+    }
+
+    private static int indexOfColon(@Nonnull final byte[] b, final int len) {
+        for (int i = 0; i < len; i++) {
+            if (b[i] == ':') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Nonnull
     public static FeatureValue parseFeatureAsString(@Nonnull final Text t) {
         String s = t.toString();
@@ -0,0 +1,664 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.Copyable;
+import hivemall.utils.math.Primes;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A sparse prediction model for integer features that keeps weights and optional parameters in
+ * parallel primitive arrays of an open-addressing hash table (double hashing) instead of holding
+ * an {@link IWeightValue} object per feature.
+ *
+ * Note that {@link #get(Object)} returns a probe object that is reused among invocations.
+ */
+public final class IntSparseModel extends AbstractPredictionModel {
+    private static final Log logger = LogFactory.getLog(IntSparseModel.class);
+
+    private static final byte FREE = 0;
+    private static final byte REMOVED = 1;
+    private static final byte UNTOUCHED = 2;
+    private static final byte TOUCHED = 3;
+
+    private static final float DEFAULT_LOAD_FACTOR = 0.7f;
+    private static final float DEFAULT_GROW_FACTOR = 2.0f;
+
+    private int used;
+    private int removed;
+    private int threshold;
+
+    private int[] keys;
+    private byte[] states;
+    private float[] weights;
+    private float[] covars;
+
+    // optional values for adagrad
+    private float[] sum_of_squared_gradients;
+    // optional value for adadelta
+    private float[] sum_of_squared_delta_x;
+    // optional value for adagrad+rda
+    private float[] sum_of_gradients;
+
+    // optional value for MIX
+    private short[] clocks;
+    private byte[] deltaUpdates;
+
+    @Nonnull
+    private final Probe probe;
+
+    public IntSparseModel(int size) {
+        this(size, false);
+    }
+
+    public IntSparseModel(int size, boolean withCovar) {
+        super();
+        if (size < 1) {
+            throw new IllegalArgumentException("Illegal size: " + size);
+        }
+        int actualSize = Primes.findLeastPrimeNumber(size);
+        this.used = 0;
+        this.removed = 0;
+        this.threshold = Math.round(actualSize * DEFAULT_LOAD_FACTOR);
+        this.keys = new int[actualSize];
+        this.states = new byte[actualSize];
+        this.weights = new float[actualSize];
+        if (withCovar) {
+            float[] covars = new float[actualSize];
+            Arrays.fill(covars, 1.f);
+            this.covars = covars;
+        } else {
+            this.covars = null;
+        }
+        this.sum_of_squared_gradients = null;
+        this.sum_of_squared_delta_x = null;
+        this.sum_of_gradients = null;
+        this.clocks = null;
+        this.deltaUpdates = null;
+        this.probe = new Probe();
+    }
+
+    @Override
+    protected boolean isDenseModel() {
+        return true; // features are passed to the update handler as int like dense models
+    }
+
+    @Override
+    public boolean hasCovariance() {
+        return covars != null;
+    }
+
+    @Override
+    public void configureParams(boolean sum_of_squared_gradients, boolean sum_of_squared_delta_x,
+            boolean sum_of_gradients) {
+        final int capacity = keys.length;
+        if (sum_of_squared_gradients) {
+            this.sum_of_squared_gradients = new float[capacity];
+        }
+        if (sum_of_squared_delta_x) {
+            this.sum_of_squared_delta_x = new float[capacity];
+        }
+        if (sum_of_gradients) {
+            this.sum_of_gradients = new float[capacity];
+        }
+    }
+
+    @Override
+    public void configureClock() {
+        if (clocks == null) {
+            final int capacity = keys.length;
+            this.clocks = new short[capacity];
+            this.deltaUpdates = new byte[capacity];
+        }
+    }
+
+    @Override
+    public boolean hasClock() {
+        return clocks != null;
+    }
+
+    @Override
+    public void resetDeltaUpdates(final int feature) {
+        final int i = findKey(feature);
+        if (i >= 0) {
+            deltaUpdates[i] = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends IWeightValue> T get(@Nonnull final Object feature) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        if (i < 0) {
+            return null;
+        }
+        probe.load(i);
+        return (T) probe;
+    }
+
+    @Override
+    public <T extends IWeightValue> void set(@Nonnull final Object feature, @Nonnull final T value) {
+        final int k = HiveUtils.parseInt(feature);
+        final int i = findOrAllocate(k);
+
+        final float weight = value.get();
+        weights[i] = weight;
+        float covar = 1.f;
+        final boolean hasCovar = value.hasCovariance();
+        if (hasCovar) {
+            covar = value.getCovariance();
+            covars[i] = covar;
+        }
+        if (sum_of_squared_gradients != null) {
+            sum_of_squared_gradients[i] = value.getSumOfSquaredGradients();
+        }
+        if (sum_of_squared_delta_x != null) {
+            sum_of_squared_delta_x[i] = value.getSumOfSquaredDeltaX();
+        }
+        if (sum_of_gradients != null) {
+            sum_of_gradients[i] = value.getSumOfGradients();
+        }
+
+        short clock = 0;
+        int delta = 0;
+        if (value.isTouched()) {
+            states[i] = TOUCHED;
+            if (clocks != null) {
+                clock = (short) (clocks[i] + 1);
+                delta = deltaUpdates[i] + 1;
+                assert (delta > 0) : delta;
+            }
+        } else {
+            states[i] = UNTOUCHED;
+        }
+        if (clocks != null) {
+            clocks[i] = clock;
+            deltaUpdates[i] = (byte) delta;
+        }
+
+        onUpdate(k, weight, covar, clock, delta, hasCovar);
+    }
+
+    @Override
+    public void delete(@Nonnull final Object feature) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        if (i < 0) {
+            return;
+        }
+        states[i] = REMOVED;
+        --used;
+        ++removed;
+    }
+
+    @Override
+    public float getWeight(@Nonnull final Object feature) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        return i < 0 ? 0.f : weights[i];
+    }
+
+    @Override
+    public float getCovariance(@Nonnull final Object feature) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        return i < 0 ? 1.f : covars[i];
+    }
+
+    @Override
+    protected void _set(@Nonnull final Object feature, final float weight, final short clock) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        if (i < 0) {
+            logger.warn("Previous weight not found: " + feature);
+            throw new IllegalStateException("Previous weight not found: " + feature);
+        }
+        weights[i] = weight;
+        clocks[i] = clock;
+        deltaUpdates[i] = BYTE0;
+    }
+
+    @Override
+    protected void _set(@Nonnull final Object feature, final float weight, final float covar,
+            final short clock) {
+        final int i = findKey(HiveUtils.parseInt(feature));
+        if (i < 0) {
+            logger.warn("Previous weight not found: " + feature);
+            throw new IllegalStateException("Previous weight not found: " + feature);
+        }
+        weights[i] = weight;
+        covars[i] = covar;
+        clocks[i] = clock;
+        deltaUpdates[i] = BYTE0;
+    }
+
+    @Override
+    public void flushUpdates() {
+        if (handler == null || clocks == null) {
+            return;
+        }
+        final boolean hasCovar = (covars != null);
+        for (int i = 0; i < keys.length; i++) {
+            int delta = deltaUpdates[i];
+            if (delta > 0 && states[i] == TOUCHED) {
+                float covar = hasCovar ? covars[i] : 1.f;
+                onUpdate(keys[i], weights[i], covar, clocks[i], delta, hasCovar);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return used;
+    }
+
+    @Override
+    public boolean contains(@Nonnull final Object feature) {
+        return findKey(HiveUtils.parseInt(feature)) >= 0;
+    }
+
+    private static boolean isFull(final byte state) {
+        return state >= UNTOUCHED;
+    }
+
+    private static int keyHash(final int key) {
+        return key & 0x7fffffff;
+    }
+
+    /**
+     * @return -1 if not found
+     */
+    private int findKey(final int key) {
+        final int[] keys = this.keys;
+        final byte[] states = this.states;
+        final int keyLength = keys.length;
+
+        final int hash = keyHash(key);
+        int keyIdx = hash % keyLength;
+        byte state = states[keyIdx];
+        if (state == FREE) {
+            return -1;
+        }
+        if (isFull(state) && keys[keyIdx] == key) {
+            return keyIdx;
+        }
+        // try second hash
+        final int decr = 1 + (hash % (keyLength - 2));
+        for (;;) {
+            keyIdx -= decr;
+            if (keyIdx < 0) {
+                keyIdx += keyLength;
+            }
+            state = states[keyIdx];
+            if (state == FREE) {
+                return -1;
+            }
+            if (isFull(state) && keys[keyIdx] == key) {
+                return keyIdx;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the slot for the given key. A new slot is initialized if absent.
+     */
+    private int findOrAllocate(final int key) {
+        int i = findKey(key);
+        if (i >= 0) {
+            return i;
+        }
+        if ((used + removed + 1) >= threshold) {
+            int newCapacity = Math.round(keys.length * DEFAULT_GROW_FACTOR);
+            rehash(Primes.findLeastPrimeNumber(newCapacity));
+        }
+        i = findFreeSlot(keys, states, key);
+        if (states[i] == REMOVED) {
+            --removed;
+        }
+        keys[i] = key;
+        states[i] = UNTOUCHED;
+        weights[i] = 0.f;
+        if (covars != null) {
+            covars[i] = 1.f;
+        }
+        if (sum_of_squared_gradients != null) {
+            sum_of_squared_gradients[i] = 0.f;
+        }
+        if (sum_of_squared_delta_x != null) {
+            sum_of_squared_delta_x[i] = 0.f;
+        }
+        if (sum_of_gradients != null) {
+            sum_of_gradients[i] = 0.f;
+        }
+        if (clocks != null) {
+            clocks[i] = 0;
+            deltaUpdates[i] = 0;
+        }
+        ++used;
+        return i;
+    }
+
+    private static int findFreeSlot(@Nonnull final int[] keys, @Nonnull final byte[] states,
+            final int key) {
+        final int keyLength = keys.length;
+        final int hash = keyHash(key);
+        int keyIdx = hash % keyLength;
+        if (isFull(states[keyIdx])) {
+            final int decr = 1 + (hash % (keyLength - 2));
+            do {
+                keyIdx -= decr;
+                if (keyIdx < 0) {
+                    keyIdx += keyLength;
+                }
+            } while (isFull(states[keyIdx]));
+        }
+        return keyIdx;
+    }
+
+    private void rehash(final int newCapacity) {
+        final int oldCapacity = keys.length;
+        if (newCapacity <= oldCapacity) {
+            throw new IllegalArgumentException("new: " + newCapacity + ", old: " + oldCapacity);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Expands internal table size from " + oldCapacity + " to "
+                    + newCapacity);
+        }
+        final int[] newKeys = new int[newCapacity];
+        final byte[] newStates = new byte[newCapacity];
+        final float[] newWeights = new float[newCapacity];
+        final float[] newCovars = (covars == null) ? null : new float[newCapacity];
+        final float[] newSumOfSquaredGradients = (sum_of_squared_gradients == null) ? null
+                : new float[newCapacity];
+        final float[] newSumOfSquaredDeltaX = (sum_of_squared_delta_x == null) ? null
+                : new float[newCapacity];
+        final float[] newSumOfGradients = (sum_of_gradients == null) ? null
+                : new float[newCapacity];
+        final short[] newClocks = (clocks == null) ? null : new short[newCapacity];
+        final byte[] newDeltaUpdates = (deltaUpdates == null) ? null : new byte[newCapacity];
+
+        for (int i = 0; i < oldCapacity; i++) {
+            final byte state = states[i];
+            if (!isFull(state)) {
+                continue;
+            }
+            final int k = keys[i];
+            final int j = findFreeSlot(newKeys, newStates, k);
+            newKeys[j] = k;
+            newStates[j] = state;
+            newWeights[j] = weights[i];
+            if (newCovars != null) {
+                newCovars[j] = covars[i];
+            }
+            if (newSumOfSquaredGradients != null) {
+                newSumOfSquaredGradients[j] = sum_of_squared_gradients[i];
+            }
+            if (newSumOfSquaredDeltaX != null) {
+                newSumOfSquaredDeltaX[j] = sum_of_squared_delta_x[i];
+            }
+            if (newSumOfGradients != null) {
+                newSumOfGradients[j] = sum_of_gradients[i];
+            }
+            if (newClocks != null) {
+                newClocks[j] = clocks[i];
+                newDeltaUpdates[j] = deltaUpdates[i];
+            }
+        }
+
+        this.keys = newKeys;
+        this.states = newStates;
+        this.weights = newWeights;
+        this.covars = newCovars;
+        this.sum_of_squared_gradients = newSumOfSquaredGradients;
+        this.sum_of_squared_delta_x = newSumOfSquaredDeltaX;
+        this.sum_of_gradients = newSumOfGradients;
+        this.clocks = newClocks;
+        this.deltaUpdates = newDeltaUpdates;
+        this.removed = 0;
+        this.threshold = Math.round(newCapacity * DEFAULT_LOAD_FACTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, V extends IWeightValue> IMapIterator<K, V> entries() {
+        return (IMapIterator<K, V>) new Itr();
+    }
+
+    private final class Itr implements IMapIterator<Number, IWeightValue> {
+
+        private int nextEntry;
+        private int lastEntry;
+        private final Probe tmpWeight;
+
+        private Itr() {
+            this.nextEntry = nextEntry(0);
+            this.lastEntry = -1;
+            this.tmpWeight = new Probe();
+        }
+
+        private int nextEntry(int index) {
+            final byte[] states = IntSparseModel.this.states;
+            while (index < states.length && !isFull(states[index])) {
+                index++;
+            }
+            return index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextEntry < keys.length;
+        }
+
+        @Override
+        public int next() {
+            if (!hasNext()) {
+                return -1;
+            }
+            int curEntry = nextEntry;
+            this.lastEntry = curEntry;
+            this.nextEntry = nextEntry(curEntry + 1);
+            return curEntry;
+        }
+
+        @Override
+        public Integer getKey() {
+            if (lastEntry == -1) {
+                throw new IllegalStateException();
+            }
+            return keys[lastEntry];
+        }
+
+        @Override
+        public IWeightValue getValue() {
+            if (lastEntry == -1) {
+                throw new IllegalStateException();
+            }
+            final float w = weights[lastEntry];
+            final boolean touched = states[lastEntry] == TOUCHED;
+            if (covars == null) {
+                return new WeightValue(w, touched);
+            } else {
+                return new WeightValueWithCovar(w, covars[lastEntry], touched);
+            }
+        }
+
+        @Override
+        public <T extends Copyable<IWeightValue>> void getValue(T probe) {
+            if (lastEntry == -1) {
+                throw new IllegalStateException();
+            }
+            tmpWeight.load(lastEntry);
+            probe.copyFrom(tmpWeight);
+        }
+
+    }
+
+    /**
+     * A mutable view of a slot that is reused to avoid allocating a weight object for each
+     * lookup.
+     */
+    private final class Probe implements IWeightValue {
+
+        private float value;
+        private float covar;
+        private float f1;
+        private float f2;
+        private float f3;
+        private short clock;
+        private byte deltaUpdates;
+        private boolean touched;
+
+        Probe() {}
+
+        void load(final int i) {
+            this.value = weights[i];
+            this.covar = (covars == null) ? 1.f : covars[i];
+            this.f1 = (sum_of_squared_gradients == null) ? 0.f : sum_of_squared_gradients[i];
+            this.f2 = (sum_of_squared_delta_x == null) ? 0.f : sum_of_squared_delta_x[i];
+            this.f3 = (sum_of_gradients == null) ? 0.f : sum_of_gradients[i];
+            if (clocks == null) {
+                this.clock = 0;
+                this.deltaUpdates = 0;
+            } else {
+                this.clock = clocks[i];
+                this.deltaUpdates = IntSparseModel.this.deltaUpdates[i];
+            }
+            this.touched = states[i] == TOUCHED;
+        }
+
+        @Override
+        public WeightValueType getType() {
+            if (sum_of_squared_gradients != null) {
+                if (sum_of_squared_delta_x != null || sum_of_gradients != null) {
+                    return WeightValueType.ParamsF2;
+                }
+                return WeightValueType.ParamsF1;
+            } else if (covars != null) {
+                return WeightValueType.ParamsCovar;
+            }
+            return WeightValueType.NoParams;
+        }
+
+        @Override
+        public float getFloatParams(@Nonnegative final int i) {
+            if (i == 1) {
+                return f1;
+            } else if (i == 2) {
+                return (sum_of_squared_delta_x != null) ? f2 : f3;
+            }
+            throw new IllegalArgumentException("getFloatParams(" + i + ") should not be called");
+        }
+
+        @Override
+        public float get() {
+            return value;
+        }
+
+        @Override
+        public void set(final float weight) {
+            this.value = weight;
+        }
+
+        @Override
+        public boolean hasCovariance() {
+            return covars != null;
+        }
+
+        @Override
+        public float getCovariance() {
+            return covar;
+        }
+
+        @Override
+        public void setCovariance(final float cov) {
+            this.covar = cov;
+        }
+
+        @Override
+        public float getSumOfSquaredGradients() {
+            return f1;
+        }
+
+        @Override
+        public float getSumOfSquaredDeltaX() {
+            return f2;
+        }
+
+        @Override
+        public float getSumOfGradients() {
+            return f3;
+        }
+
+        @Override
+        public boolean isTouched() {
+            return touched;
+        }
+
+        @Override
+        public void setTouched(final boolean touched) {
+            this.touched = touched;
+        }
+
+        @Override
+        public short getClock() {
+            return clock;
+        }
+
+        @Override
+        public void setClock(final short clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public byte getDeltaUpdates() {
+            return deltaUpdates;
+        }
+
+        @Override
+        public void setDeltaUpdates(final byte deltaUpdates) {
+            this.deltaUpdates = deltaUpdates;
+        }
+
+        @Override
+        public void copyTo(final IWeightValue another) {
+            another.set(value);
+            if (covars != null && another.hasCovariance()) {
+                another.setCovariance(covar);
+            }
+            another.setTouched(touched);
+        }
+
+        @Override
+        public void copyFrom(final IWeightValue another) {
+            this.value = another.get();
+            if (covars != null && another.hasCovariance()) {
+                this.covar = another.getCovariance();
+            }
+            this.touched = another.isTouched();
+        }
+
+    }
+
+}
@@ -0,0 +1,599 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.codec.VariableByteCodec;
+import hivemall.utils.codec.ZigZagLEB128Codec;
+import hivemall.utils.io.FastByteArrayInputStream;
+import hivemall.utils.io.FastByteArrayOutputStream;
+import hivemall.utils.lang.HalfFloat;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A compact binary block of model weights sorted by features.
+ * <p>
+ * A block consists of a flag byte, the number of entries as a variable-length integer and a
+ * {@link DeflateCodec} compressed payload. Each entry of the payload has a feature, a weight, an
+ * optional covariance and the number of models averaged into the entry. Integer features are
+ * encoded as zigzag variable-length deltas from the previous feature and string features as the
+ * length of the prefix shared with the previous feature followed by the rest of UTF-8 bytes.
+ * Weights are written in single or half-precision floats.
+ */
+public final class ModelBlock {
+
+    private static final int FLAG_STRING_KEY = 1;
+    private static final int FLAG_COVARIANCE = 1 << 1;
+    private static final int FLAG_HALF_FLOAT = 1 << 2;
+
+    /** the number of blocks merged at once */
+    public static final int MERGE_FANIN = 64;
+
+    private ModelBlock() {}
+
+    /**
+     * @return the partition of a feature in [0, numPartitions)
+     */
+    public static int partition(@Nonnull final Object feature, @Nonnegative final int numPartitions) {
+        final int h;
+        if (isIntegerFeature(feature)) {
+            long k = longValue(feature) * 0x9E3779B97F4A7C15L;
+            h = (int) (k >>> 32);
+        } else {
+            final Text t = (feature instanceof Text) ? (Text) feature : new Text(feature.toString());
+            h = WritableComparator.hashBytes(t.getBytes(), t.getLength());
+        }
+        return (h & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    static boolean isIntegerFeature(@Nonnull final Object feature) {
+        return feature instanceof Integer || feature instanceof Long
+                || feature instanceof IntWritable || feature instanceof LongWritable;
+    }
+
+    static long longValue(@Nonnull final Object feature) {
+        if (feature instanceof IntWritable) {
+            return ((IntWritable) feature).get();
+        } else if (feature instanceof LongWritable) {
+            return ((LongWritable) feature).get();
+        } else {
+            return ((Number) feature).longValue();
+        }
+    }
+
+    /**
+     * Merges blocks by a k-way merge of their sorted features. Weights of a feature are averaged
+     * by the number of models, or by the inverse of covariances (i.e., argmin_kld) when the blocks
+     * have covariances.
+     * 
+     * @throws IOException when the blocks are broken or of different kinds
+     */
+    @Nonnull
+    public static byte[] merge(@Nonnull final List<byte[]> blocks) throws IOException {
+        if (blocks.isEmpty()) {
+            throw new IllegalArgumentException("No block to merge");
+        }
+        final Reader first = new Reader(blocks.get(0));
+        final boolean stringKey = first.isStringKey();
+        final boolean covar = first.hasCovariance();
+
+        final PriorityQueue<Reader> queue = new PriorityQueue<Reader>(blocks.size(),
+            new Comparator<Reader>() {
+                @Override
+                public int compare(Reader r1, Reader r2) {
+                    return r1.compareKey(r2);
+                }
+            });
+        for (int i = 0, size = blocks.size(); i < size; i++) {
+            Reader r = (i == 0) ? first : new Reader(blocks.get(i));
+            if (r.isStringKey() != stringKey || r.hasCovariance() != covar) {
+                throw new IOException("Cannot merge blocks of different kinds");
+            }
+            if (r.next()) {
+                queue.add(r);
+            }
+        }
+
+        final Writer writer = new Writer(stringKey, covar, false);
+        while (!queue.isEmpty()) {
+            Reader r = queue.poll();
+            final long key = r.getKey();
+            final byte[] keyBytes = stringKey ? Arrays.copyOf(r.getKeyBytes(), r.getKeyLength())
+                    : null;
+            // sums of w * n and n, or of w / c and 1 / c with covariances
+            double sumWeight, sumNorm;
+            int count = r.getCount();
+            if (covar) {
+                double invCovar = inverse(r.getCovariance());
+                sumWeight = r.getWeight() * invCovar;
+                sumNorm = invCovar;
+            } else {
+                sumWeight = (double) r.getWeight() * r.getCount();
+                sumNorm = r.getCount();
+            }
+            if (r.next()) {
+                queue.add(r);
+            }
+            while (!queue.isEmpty() && queue.peek().equalsKey(key, keyBytes)) {
+                r = queue.poll();
+                count += r.getCount();
+                if (covar) {
+                    double invCovar = inverse(r.getCovariance());
+                    sumWeight += r.getWeight() * invCovar;
+                    sumNorm += invCovar;
+                } else {
+                    sumWeight += (double) r.getWeight() * r.getCount();
+                    sumNorm += r.getCount();
+                }
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            final float weight = (float) (sumWeight / sumNorm);
+            final float covariance = covar ? (float) (1.d / sumNorm) : 1.f;
+            if (stringKey) {
+                writer.add(keyBytes, keyBytes.length, weight, covariance, count);
+            } else {
+                writer.add(key, weight, covariance, count);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the inverse of a covariance where a covariance of zero, e.g., one underflowed in
+     *         another exporter, is taken as the smallest positive float to get a finite weight
+     */
+    private static double inverse(final float covar) {
+        return 1.d / Math.max(covar, Float.MIN_VALUE);
+    }
+
+    /**
+     * Collects weights of features in an arbitrary order and builds a block of them.
+     */
+    public static final class Builder {
+
+        private static final Comparator<byte[]> BYTES_COMPARATOR = new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] b1, byte[] b2) {
+                return WritableComparator.compareBytes(b1, 0, b1.length, b2, 0, b2.length);
+            }
+        };
+
+        private final boolean covariance;
+        private final boolean halfFloat;
+
+        // either of keys is used depending on the first feature
+        private long[] longKeys;
+        private byte[][] stringKeys;
+        private float[] weights;
+        private float[] covars;
+        private int size;
+
+        public Builder(boolean covariance, boolean halfFloat) {
+            this.covariance = covariance;
+            this.halfFloat = halfFloat;
+            this.weights = new float[1024];
+            this.covars = covariance ? new float[1024] : null;
+            this.size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param feature an integer or a string feature
+         */
+        public void add(@Nonnull final Object feature, final float weight, final float covar) {
+            if (size == weights.length) {
+                int newCapacity = size * 2;
+                this.weights = Arrays.copyOf(weights, newCapacity);
+                if (covariance) {
+                    this.covars = Arrays.copyOf(covars, newCapacity);
+                }
+                if (longKeys != null) {
+                    this.longKeys = Arrays.copyOf(longKeys, newCapacity);
+                } else {
+                    this.stringKeys = Arrays.copyOf(stringKeys, newCapacity);
+                }
+            }
+            if (isIntegerFeature(feature)) {
+                if (longKeys == null) {
+                    if (stringKeys != null) {
+                        throw new IllegalArgumentException("Expected a string feature: "
+                                + feature);
+                    }
+                    this.longKeys = new long[weights.length];
+                }
+                longKeys[size] = longValue(feature);
+            } else {
+                if (stringKeys == null) {
+                    if (longKeys != null) {
+                        throw new IllegalArgumentException("Expected an integer feature: "
+                                + feature);
+                    }
+                    this.stringKeys = new byte[weights.length][];
+                }
+                if (feature instanceof Text) {
+                    Text t = (Text) feature;
+                    stringKeys[size] = Arrays.copyOf(t.getBytes(), t.getLength());
+                } else {
+                    Text t = new Text(feature.toString());
+                    stringKeys[size] = Arrays.copyOf(t.getBytes(), t.getLength());
+                }
+            }
+            weights[size] = weight;
+            if (covariance) {
+                covars[size] = covar;
+            }
+            size++;
+        }
+
+        /**
+         * @return a block of the features sorted in the ascending order
+         * @throws IllegalArgumentException when a feature is added twice
+         */
+        @Nonnull
+        public byte[] build() throws IOException {
+            final int n = size;
+            final float[] sortedWeights = new float[n];
+            final float[] sortedCovars = covariance ? new float[n] : null;
+            // features are unique, so the position of a feature is found in the sorted features
+            if (stringKeys != null) {
+                final byte[][] sorted = Arrays.copyOf(stringKeys, n);
+                Arrays.sort(sorted, BYTES_COMPARATOR);
+                for (int i = 0; i < n; i++) {
+                    int pos = Arrays.binarySearch(sorted, stringKeys[i], BYTES_COMPARATOR);
+                    sortedWeights[pos] = weights[i];
+                    if (covariance) {
+                        sortedCovars[pos] = covars[i];
+                    }
+                }
+                final Writer writer = new Writer(true, covariance, halfFloat);
+                for (int i = 0; i < n; i++) {
+                    writer.add(sorted[i], sorted[i].length, sortedWeights[i],
+                        covariance ? sortedCovars[i] : 1.f, 1);
+                }
+                return writer.toByteArray();
+            } else {
+                final long[] sorted = (longKeys == null) ? new long[0] : Arrays.copyOf(longKeys, n);
+                Arrays.sort(sorted);
+                for (int i = 0; i < n; i++) {
+                    int pos = Arrays.binarySearch(sorted, longKeys[i]);
+                    sortedWeights[pos] = weights[i];
+                    if (covariance) {
+                        sortedCovars[pos] = covars[i];
+                    }
+                }
+                final Writer writer = new Writer(false, covariance, halfFloat);
+                for (int i = 0; i < n; i++) {
+                    writer.add(sorted[i], sortedWeights[i], covariance ? sortedCovars[i] : 1.f, 1);
+                }
+                return writer.toByteArray();
+            }
+        }
+
+    }
+
+    /**
+     * Writes entries in the ascending order of features.
+     */
+    public static final class Writer {
+
+        private final boolean stringKey;
+        private final boolean covariance;
+        private final boolean halfFloat;
+
+        @Nonnull
+        private final FastByteArrayOutputStream bos;
+        @Nonnull
+        private final DataOutput out;
+        private int size;
+
+        private long prevKey;
+        @Nonnull
+        private byte[] prevKeyBytes;
+        private int prevKeyLength;
+
+        public Writer(boolean stringKey, boolean covariance, boolean halfFloat) {
+            this.stringKey = stringKey;
+            this.covariance = covariance;
+            this.halfFloat = halfFloat;
+            this.bos = new FastByteArrayOutputStream(8192);
+            this.out = new DataOutputStream(bos);
+            this.size = 0;
+            this.prevKey = 0L;
+            this.prevKeyBytes = new byte[32];
+            this.prevKeyLength = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @throws IllegalArgumentException when the feature is not greater than the previous one
+         */
+        public void add(final long key, final float weight, final float covar, final int count)
+                throws IOException {
+            if (stringKey) {
+                throw new IllegalStateException("Expected a string feature: " + key);
+            }
+            if (size > 0 && key <= prevKey) {
+                throw new IllegalArgumentException("Features must be added in ascending order: "
+                        + key + " after " + prevKey);
+            }
+            ZigZagLEB128Codec.writeSignedLong(key - prevKey, out);
+            this.prevKey = key;
+            writeValues(weight, covar, count);
+        }
+
+        /**
+         * @param key UTF-8 bytes of a feature
+         * @throws IllegalArgumentException when the feature is not greater than the previous one
+         */
+        public void add(@Nonnull final byte[] key, final int length, final float weight,
+                final float covar, final int count) throws IOException {
+            if (!stringKey) {
+                throw new IllegalStateException("Expected an integer feature");
+            }
+            final byte[] prev = prevKeyBytes;
+            final int prevLength = prevKeyLength;
+            if (size > 0
+                    && WritableComparator.compareBytes(key, 0, length, prev, 0, prevLength) <= 0) {
+                throw new IllegalArgumentException("Features must be added in ascending order: "
+                        + Text.decode(key, 0, length) + " after "
+                        + Text.decode(prev, 0, prevLength));
+            }
+            int shared = 0;
+            final int limit = Math.min(length, prevLength);
+            while (shared < limit && key[shared] == prev[shared]) {
+                shared++;
+            }
+            VariableByteCodec.encodeUnsignedInt(shared, out);
+            VariableByteCodec.encodeUnsignedInt(length - shared, out);
+            out.write(key, shared, length - shared);
+
+            if (prev.length < length) {
+                this.prevKeyBytes = Arrays.copyOf(key, Math.max(length, prev.length * 2));
+            } else {
+                System.arraycopy(key, shared, prev, shared, length - shared);
+            }
+            this.prevKeyLength = length;
+            writeValues(weight, covar, count);
+        }
+
+        private void writeValues(final float weight, final float covar, final int count)
+                throws IOException {
+            if (halfFloat) {
+                out.writeShort(HalfFloat.floatToSaturatedHalfFloat(weight));
+                if (covariance) {
+                    // a covariance of zero would be a divisor of zero on merge
+                    out.writeShort(HalfFloat.floatToNonZeroHalfFloat(covar));
+                }
+            } else {
+                out.writeFloat(weight);
+                if (covariance) {
+                    out.writeFloat(covar);
+                }
+            }
+            VariableByteCodec.encodeUnsignedInt(count, out);
+            size++;
+        }
+
+        @Nonnull
+        public byte[] toByteArray() throws IOException {
+            final byte[] payload;
+            final DeflateCodec codec = new DeflateCodec(true, false);
+            try {
+                payload = codec.compress(bos.getInternalArray(), 0, bos.size());
+            } finally {
+                codec.close();
+            }
+            int flags = 0;
+            if (stringKey) {
+                flags |= FLAG_STRING_KEY;
+            }
+            if (covariance) {
+                flags |= FLAG_COVARIANCE;
+            }
+            if (halfFloat) {
+                flags |= FLAG_HALF_FLOAT;
+            }
+            final byte[] block = new byte[1 + VariableByteCodec.requiredBytes(size)
+                    + payload.length];
+            block[0] = (byte) flags;
+            VariableByteCodec.encodeUnsignedLong(size, block, 1);
+            System.arraycopy(payload, 0, block, block.length - payload.length, payload.length);
+            return block;
+        }
+
+    }
+
+    /**
+     * Reads entries of a block in the ascending order of features.
+     */
+    public static final class Reader {
+
+        private final boolean stringKey;
+        private final boolean covariance;
+        private final boolean halfFloat;
+        private final int size;
+
+        @Nonnull
+        private final DataInput in;
+        private int read;
+
+        private long key;
+        @Nonnull
+        private byte[] keyBytes;
+        private int keyLength;
+        private float weight;
+        private float covar;
+        private int count;
+
+        public Reader(@Nonnull final byte[] block) throws IOException {
+            this(block, 0, block.length);
+        }
+
+        public Reader(@Nonnull final byte[] block, final int offset, final int length)
+                throws IOException {
+            if (length < 2) {
+                throw new IOException("Broken model block of " + length + " bytes");
+            }
+            final int flags = block[offset];
+            this.stringKey = (flags & FLAG_STRING_KEY) != 0;
+            this.covariance = (flags & FLAG_COVARIANCE) != 0;
+            this.halfFloat = (flags & FLAG_HALF_FLOAT) != 0;
+            final long n = VariableByteCodec.decodeUnsignedLong(block, offset + 1);
+            if (n < 0L || n > Integer.MAX_VALUE) {
+                throw new IOException("Broken model block of " + n + " entries");
+            }
+            this.size = (int) n;
+            final int headerSize = 1 + VariableByteCodec.requiredBytes(size);
+            final byte[] payload;
+            final DeflateCodec codec = new DeflateCodec(false, true);
+            try {
+                payload = codec.decompress(block, offset + headerSize, length - headerSize);
+            } finally {
+                codec.close();
+            }
+            this.in = new DataInputStream(new FastByteArrayInputStream(payload));
+            this.read = 0;
+            this.key = 0L;
+            this.keyBytes = new byte[32];
+            this.keyLength = 0;
+        }
+
+        public boolean isStringKey() {
+            return stringKey;
+        }
+
+        public boolean hasCovariance() {
+            return covariance;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return false if no entry is left
+         */
+        public boolean next() throws IOException {
+            if (read >= size) {
+                return false;
+            }
+            if (stringKey) {
+                final int shared = VariableByteCodec.decodeUnsignedInt(in);
+                final int rest = VariableByteCodec.decodeUnsignedInt(in);
+                final int length = shared + rest;
+                if (length > keyBytes.length) {
+                    this.keyBytes = Arrays.copyOf(keyBytes, Math.max(length, keyBytes.length * 2));
+                }
+                in.readFully(keyBytes, shared, rest);
+                this.keyLength = length;
+            } else {
+                this.key += ZigZagLEB128Codec.readSignedLong(in);
+            }
+            this.weight = readFloat();
+            this.covar = covariance ? readFloat() : 1.f;
+            this.count = VariableByteCodec.decodeUnsignedInt(in);
+            read++;
+            return true;
+        }
+
+        private float readFloat() throws IOException {
+            return halfFloat ? HalfFloat.halfFloatToFloat(in.readShort()) : in.readFloat();
+        }
+
+        /**
+         * @return the current integer feature
+         */
+        public long getKey() {
+            return key;
+        }
+
+        /**
+         * @return UTF-8 bytes of the current string feature, valid until the next call of
+         *         {@link #next()}
+         */
+        @Nonnull
+        public byte[] getKeyBytes() {
+            return keyBytes;
+        }
+
+        public int getKeyLength() {
+            return keyLength;
+        }
+
+        public float getWeight() {
+            return weight;
+        }
+
+        public float getCovariance() {
+            return covar;
+        }
+
+        /**
+         * @return the number of models averaged into the current entry
+         */
+        public int getCount() {
+            return count;
+        }
+
+        int compareKey(@Nonnull final Reader other) {
+            if (stringKey) {
+                return WritableComparator.compareBytes(keyBytes, 0, keyLength, other.keyBytes, 0,
+                    other.keyLength);
+            } else {
+                return (key < other.key) ? -1 : ((key == other.key) ? 0 : 1);
+            }
+        }
+
+        boolean equalsKey(final long otherKey, final byte[] otherKeyBytes) {
+            if (stringKey) {
+                return WritableComparator.compareBytes(keyBytes, 0, keyLength, otherKeyBytes, 0,
+                    otherKeyBytes.length) == 0;
+            } else {
+                return key == otherKey;
+            }
+        }
+
+    }
+
+}
@@ -37,7 +37,8 @@ import org.apache.commons.logging.LogFactory;
 public final class SpaceEfficientDenseModel extends AbstractPredictionModel {
     private static final Log logger = LogFactory.getLog(SpaceEfficientDenseModel.class);
 
-    private int size;
+    /** updated after the arrays are expanded so that concurrent trainers see arrays large enough */
+    private volatile int size;
     private short[] weights;
     private short[] covars;
 
@@ -138,12 +139,17 @@ public final class SpaceEfficientDenseModel extends AbstractPredictionModel {
 
     private void ensureCapacity(final int index) {
         if (index >= size) {
+            expand(index);
+        }
+    }
+
+    private synchronized void expand(final int index) {
+        if (index >= size) {// may be expanded by another thread
             int bits = MathUtils.bitsRequired(index);
             int newSize = (1 << bits) + 1;
             int oldSize = size;
             logger.info("Expands internal array size from " + oldSize + " to " + newSize + " ("
                     + bits + " bits)");
-            this.size = newSize;
             this.weights = Arrays.copyOf(weights, newSize);
             if (covars != null) {
                 this.covars = Arrays.copyOf(covars, newSize);
@@ -162,6 +168,7 @@ public final class SpaceEfficientDenseModel extends AbstractPredictionModel {
                 this.clocks = Arrays.copyOf(clocks, newSize);
                 this.deltaUpdates = Arrays.copyOf(deltaUpdates, newSize);
             }
+            this.size = newSize;
         }
     }
 
@@ -282,6 +289,21 @@ public final class SpaceEfficientDenseModel extends AbstractPredictionModel {
         deltaUpdates[i] = 0;
     }
 
+    @Override
+    public void flushUpdates() {
+        if (handler == null || clocks == null) {
+            return;
+        }
+        final boolean hasCovar = (covars != null);
+        for (int i = 0; i < size; i++) {
+            int delta = deltaUpdates[i];
+            if (delta > 0) {
+                float covar = hasCovar ? getCovar(i) : 1.f;
+                onUpdate(i, getWeight(i), covar, clocks[i], delta, hasCovar);
+            }
+        }
+    }
+
     @Override
     public int size() {
         return size;
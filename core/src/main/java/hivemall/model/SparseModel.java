@@ -162,6 +162,20 @@ public final class SparseModel extends AbstractPredictionModel {
         w.setDeltaUpdates(BYTE0);
     }
 
+    @Override
+    public void flushUpdates() {
+        if (handler == null || !clockEnabled) {
+            return;
+        }
+        final IMapIterator<Object, IWeightValue> itor = weights.entries(false);
+        while (itor.next() != -1) {
+            IWeightValue value = itor.getValue();
+            if (value.getDeltaUpdates() > 0) {
+                onUpdate(itor.getKey(), value);
+            }
+        }
+    }
+
     @Override
     public int size() {
         return weights.size();
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.lang.Copyable;
+import hivemall.utils.math.MathUtils;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A sparse model that partitions features into {@link SparseModel} stripes, each guarded by its
+ * own lock, so that multiple trainer threads can update the model concurrently.
+ */
+@ThreadSafe
+public final class StripedSparseModel implements PredictionModel {
+
+    private final SparseModel[] stripes;
+    private final Lock[] locks;
+    private final int shift;
+
+    public StripedSparseModel(int numStripes, int size, boolean hasCovar) {
+        if (numStripes < 2) {
+            throw new IllegalArgumentException("numStripes must be greater than 1: " + numStripes);
+        }
+        int bits = MathUtils.bitsRequired(numStripes - 1);
+        int n = 1 << bits;
+        int stripeSize = Math.max(size / n, 16);
+        this.stripes = new SparseModel[n];
+        this.locks = new Lock[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new SparseModel(stripeSize, hasCovar);
+            locks[i] = new ReentrantLock();
+        }
+        this.shift = 32 - bits;
+    }
+
+    public int getNumStripes() {
+        return stripes.length;
+    }
+
+    private int stripeIndex(@Nonnull final Object feature) {
+        // use the upper bits of Fibonacci hashing because SparseModel uses the lower bits
+        return (feature.hashCode() * 0x9E3779B9) >>> shift;
+    }
+
+    @Override
+    public ModelUpdateHandler getUpdateHandler() {
+        return stripes[0].getUpdateHandler();
+    }
+
+    @Override
+    public void configureMix(ModelUpdateHandler handler, boolean cancelMixRequest) {
+        for (SparseModel stripe : stripes) {
+            stripe.configureMix(handler, cancelMixRequest);
+        }
+    }
+
+    @Override
+    public long getNumMixed() {
+        long numMixed = 0L;
+        for (SparseModel stripe : stripes) {
+            numMixed += stripe.getNumMixed();
+        }
+        return numMixed;
+    }
+
+    @Override
+    public boolean hasCovariance() {
+        return stripes[0].hasCovariance();
+    }
+
+    @Override
+    public void configureParams(boolean sum_of_squared_gradients, boolean sum_of_squared_delta_x,
+            boolean sum_of_gradients) {
+        for (SparseModel stripe : stripes) {
+            stripe.configureParams(sum_of_squared_gradients, sum_of_squared_delta_x,
+                sum_of_gradients);
+        }
+    }
+
+    @Override
+    public void configureClock() {
+        for (SparseModel stripe : stripes) {
+            stripe.configureClock();
+        }
+    }
+
+    @Override
+    public boolean hasClock() {
+        return stripes[0].hasClock();
+    }
+
+    @Override
+    public void resetDeltaUpdates(int feature) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            final Lock lock = locks[i];
+            try {
+                lock.lock();
+                size += stripes[i].size();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean contains(@Nonnull Object feature) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            return stripes[i].contains(feature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(@Nonnull Object feature) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            stripes[i].delete(feature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T extends IWeightValue> T get(@Nonnull Object feature) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            return stripes[i].get(feature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T extends IWeightValue> void set(@Nonnull Object feature, @Nonnull T value) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            stripes[i].set(feature, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public float getWeight(@Nonnull Object feature) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            return stripes[i].getWeight(feature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public float getCovariance(@Nonnull Object feature) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            return stripes[i].getCovariance(feature);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void set(@Nonnull Object feature, float weight, float covar, short clock) {
+        final int i = stripeIndex(feature);
+        final Lock lock = locks[i];
+        try {
+            lock.lock();
+            stripes[i].set(feature, weight, covar, clock);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flushUpdates() {
+        for (int i = 0; i < stripes.length; i++) {
+            final Lock lock = locks[i];
+            try {
+                lock.lock();
+                stripes[i].flushUpdates();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Note that the returned iterator is not thread-safe and expected to be used after training.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <K, V extends IWeightValue> IMapIterator<K, V> entries() {
+        return (IMapIterator<K, V>) new Itr();
+    }
+
+    private final class Itr implements IMapIterator<Object, IWeightValue> {
+
+        private int stripe;
+        private IMapIterator<Object, IWeightValue> itor;
+
+        Itr() {
+            this.stripe = 0;
+            this.itor = stripes[0].entries();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (itor.hasNext()) {
+                return true;
+            }
+            for (int i = stripe + 1; i < stripes.length; i++) {
+                if (stripes[i].size() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int next() {
+            while (true) {
+                int idx = itor.next();
+                if (idx != -1) {
+                    return idx;
+                }
+                if (++stripe >= stripes.length) {
+                    return -1;
+                }
+                this.itor = stripes[stripe].entries();
+            }
+        }
+
+        @Override
+        public Object getKey() {
+            return itor.getKey();
+        }
+
+        @Override
+        public IWeightValue getValue() {
+            return itor.getValue();
+        }
+
+        @Override
+        public <T extends Copyable<IWeightValue>> void getValue(T probe) {
+            itor.getValue(probe);
+        }
+
+    }
+
+}
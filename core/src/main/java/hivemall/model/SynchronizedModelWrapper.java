@@ -176,4 +176,14 @@ public final class SynchronizedModelWrapper implements PredictionModel {
         }
     }
 
+    @Override
+    public void flushUpdates() {
+        try {
+            lock.lock();
+            model.flushUpdates();
+        } finally {
+            lock.unlock();
+        }
+    }
+
 }
@@ -215,6 +215,11 @@ public class AROWRegressionUDTF extends RegressionBaseUDTF {
             return super.initialize(argOIs);
         }
 
+        @Override
+        protected boolean isConcurrentTrainingSupported() {
+            return false; // targetStdDev is updated by each example
+        }
+
         @Override
         protected void preTrain(float target) {
             targetStdDev.handle(target);
@@ -92,6 +92,11 @@ public final class AdaGradUDTF extends RegressionBaseUDTF {
         }
     }
 
+    @Override
+    protected float computeLoss(final float target, final float predicted) {
+        return LossFunctions.crossEntropyLoss(predicted, target);
+    }
+
     @Override
     protected void update(@Nonnull final FeatureValue[] features, float target, float predicted) {
         float gradient = LossFunctions.logisticLoss(target, predicted);
@@ -72,6 +72,11 @@ public final class LogressUDTF extends RegressionBaseUDTF {
         }
     }
 
+    @Override
+    protected float computeLoss(final float target, final float predicted) {
+        return LossFunctions.crossEntropyLoss(predicted, target);
+    }
+
     @Override
     protected float computeUpdate(final float target, final float predicted) {
         float eta = etaEstimator.eta(count);
@@ -146,6 +146,11 @@ public class PassiveAggressiveRegressionUDTF extends RegressionBaseUDTF {
             return super.initialize(argOIs);
         }
 
+        @Override
+        protected boolean isConcurrentTrainingSupported() {
+            return false; // targetStdDev is updated by each example
+        }
+
         @Override
         protected void preTrain(float target) {
             targetStdDev.handle(target);
@@ -195,6 +200,11 @@ public class PassiveAggressiveRegressionUDTF extends RegressionBaseUDTF {
             return super.initialize(argOIs);
         }
 
+        @Override
+        protected boolean isConcurrentTrainingSupported() {
+            return false; // targetStdDev is updated by each example
+        }
+
         @Override
         protected void preTrain(float target) {
             targetStdDev.handle(target);
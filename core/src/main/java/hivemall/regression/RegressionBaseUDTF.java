@@ -19,6 +19,7 @@
 package hivemall.regression;
 
 import hivemall.LearnerBaseUDTF;
+import hivemall.common.LossFunctions;
 import hivemall.model.FeatureValue;
 import hivemall.model.IWeightValue;
 import hivemall.model.PredictionModel;
@@ -64,7 +65,6 @@ public abstract class RegressionBaseUDTF extends LearnerBaseUDTF {
     private boolean parseFeature;
 
     protected PredictionModel model;
-    protected int count;
 
     // The accumulated delta of each weight values.
     protected transient Map<Object, FloatAccumulator> accumulated;
@@ -81,7 +81,7 @@ public abstract class RegressionBaseUDTF extends LearnerBaseUDTF {
 
         processOptions(argOIs);
 
-        PrimitiveObjectInspector featureOutputOI = dense_model ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
+        PrimitiveObjectInspector featureOutputOI = useIntFeature() ? PrimitiveObjectInspectorFactory.javaIntObjectInspector
                 : featureInputOI;
         this.model = createModel();
         if (preloadedModelFile != null) {
@@ -103,6 +103,9 @@ public abstract class RegressionBaseUDTF extends LearnerBaseUDTF {
     }
 
     protected StructObjectInspector getReturnOI(ObjectInspector featureOutputOI) {
+        if (compactModel) {
+            return getCompactModelReturnOI();
+        }
         ArrayList<String> fieldNames = new ArrayList<String>();
         ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
 
@@ -133,35 +136,43 @@ public abstract class RegressionBaseUDTF extends LearnerBaseUDTF {
         float target = PrimitiveObjectInspectorUtils.getFloat(args[1], targetOI);
         checkTargetValue(target);
 
-        count++;
+        processExample(featureVector, target, null);
+    }
+
+    @Override
+    protected float trainExample(@Nonnull final FeatureValue[] features, final double target,
+            @Nullable final Object label) {
+        final float y = (float) target;
+        float loss = 0.f;
+        if (cvState != null) {
+            float p = predict(features);
+            loss = computeLoss(y, p);
+        }
+        train(features, y);
+        return loss;
+    }
+
+    @Override
+    protected boolean isConcurrentTrainingSupported() {
+        return true;
+    }
+
+    @Override
+    protected long getModelSize() {
+        return (model == null) ? -1L : model.size();
+    }
 
-        train(featureVector, target);
+    /**
+     * Computes the loss used for the convergence check of iterative training.
+     */
+    protected float computeLoss(final float target, final float predicted) {
+        return LossFunctions.squaredLoss(predicted, target);
     }
 
     @Nullable
     protected final FeatureValue[] parseFeatures(@Nonnull final List<?> features) {
-        final int size = features.size();
-        if (size == 0) {
-            return null;
-        }
-
-        final ObjectInspector featureInspector = featureListOI.getListElementObjectInspector();
-        final FeatureValue[] featureVector = new FeatureValue[size];
-        for (int i = 0; i < size; i++) {
-            Object f = features.get(i);
-            if (f == null) {
-                continue;
-            }
-            final FeatureValue fv;
-            if (parseFeature) {
-                fv = FeatureValue.parse(f);
-            } else {
-                Object k = ObjectInspectorUtils.copyToStandardObject(f, featureInspector);
-                fv = new FeatureValue(k, 1.f);
-            }
-            featureVector[i] = fv;
-        }
-        return featureVector;
+        return parseFeatureVector(features, featureListOI.getListElementObjectInspector(),
+            parseFeature);
     }
 
     protected void checkTargetValue(float target) throws UDFArgumentException {}
@@ -320,7 +331,9 @@ public abstract class RegressionBaseUDTF extends LearnerBaseUDTF {
                 this.accumulated = null;
             }
             int numForwarded = 0;
-            if (useCovariance()) {
+            if (compactModel) {
+                numForwarded = forwardCompactModel(model);
+            } else if (useCovariance()) {
                 final WeightValueWithCovar probe = new WeightValueWithCovar();
                 final Object[] forwardMapObj = new Object[3];
                 final FloatWritable fv = new FloatWritable();
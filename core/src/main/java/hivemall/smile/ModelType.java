@@ -21,10 +21,10 @@ package hivemall.smile;
 public enum ModelType {
 
     // not compressed
-    opscode(1, false), javascript(2, false), serialization(3, false),
+    opscode(1, false), javascript(2, false), serialization(3, false), flat(4, false),
     // compressed
     opscode_compressed(-1, true), javascript_compressed(-2, true),
-    serialization_compressed(-3, true);
+    serialization_compressed(-3, true), flat_compressed(-4, true);
 
     private final int id;
     private final boolean compressed;
@@ -50,6 +50,8 @@ public enum ModelType {
             return compressed ? javascript_compressed : javascript;
         } else if ("serialization".equals(name) || "ser".equals(name)) {
             return compressed ? serialization_compressed : serialization;
+        } else if ("flat".equals(name)) {
+            return compressed ? flat_compressed : flat;
         } else {
             throw new IllegalStateException("Unexpected output type: " + name);
         }
@@ -76,6 +78,12 @@ public enum ModelType {
             case -3:
                 type = serialization_compressed;
                 break;
+            case 4:
+                type = flat;
+                break;
+            case -4:
+                type = flat_compressed;
+                break;
             default:
                 throw new IllegalStateException("Unexpected ID for ModelType: " + id);
         }
@@ -35,8 +35,15 @@ package hivemall.smile.classification;
 
 import hivemall.smile.data.Attribute;
 import hivemall.smile.data.Attribute.AttributeType;
+import hivemall.smile.data.ColumnMajorMatrix.SortedSparseColumn;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.vm.FlatTree;
+import hivemall.utils.codec.DeflateCodec;
 import hivemall.utils.collections.IntArrayList;
+import hivemall.utils.io.IOUtils;
 import hivemall.utils.lang.ObjectUtils;
 import hivemall.utils.lang.StringUtils;
 
@@ -48,6 +55,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -156,9 +167,33 @@ public final class DecisionTree implements Classifier<double[]> {
      * The index of training values in ascending order. Note that only numeric attributes will be
      * sorted.
      */
+    @Nullable
     private final int[][] _order;
+    /**
+     * The sorted values of sparse columns, by which the values of {@link #_order} are read, or
+     * null if no column is sparse.
+     */
+    @Nullable
+    private final SortedSparseColumn[] _sortedColumns;
+    /**
+     * Quantized numeric attributes for histogram-based split finding, or null to find exact splits
+     * on {@link #_order}.
+     */
+    @Nullable
+    private final FeatureBins _bins;
 
     private final Random _rnd;
+    /**
+     * The pool to find splits in parallel, or null to build the tree in the caller thread.
+     */
+    @Nullable
+    private final ForkJoinPool _pool;
+
+    /**
+     * The minimum number of examples to scan for an attribute to evaluate attributes or child nodes
+     * of a node in parallel.
+     */
+    private static final int MIN_PARALLEL_WORK = 8192;
 
     /**
      * The criterion to choose variable to split instances.
@@ -298,6 +333,25 @@ public final class DecisionTree implements Classifier<double[]> {
             }
         }
 
+        public void flatten(@Nonnull final FlatTree.Builder builder) {
+            if (trueChild == null && falseChild == null) {
+                builder.addLeaf(output);
+            } else {
+                final int node;
+                if (splitFeatureType == AttributeType.NOMINAL) {
+                    node = builder.addNominalSplit(splitFeature, splitValue);
+                } else if (splitFeatureType == AttributeType.NUMERIC) {
+                    node = builder.addNumericSplit(splitFeature, splitValue);
+                } else {
+                    throw new IllegalStateException("Unsupported attribute type: "
+                            + splitFeatureType);
+                }
+                trueChild.flatten(builder);
+                builder.setFalseChild(node);
+                falseChild.flatten(builder);
+            }
+        }
+
         public int opCodegen(final List<String> scripts, int depth) {
             int selfDepth = 0;
             final StringBuilder buf = new StringBuilder();
@@ -413,7 +467,7 @@ public final class DecisionTree implements Classifier<double[]> {
         /**
          * Training dataset.
          */
-        final double[][] x;
+        final Matrix x;
         /**
          * class labels.
          */
@@ -422,16 +476,36 @@ public final class DecisionTree implements Classifier<double[]> {
         int[] bags;
 
         final int depth;
+        /**
+         * The random number generator to choose the attributes of this node, which is derived from
+         * the parent's one when the tree is built in parallel.
+         */
+        final Random rnd;
+
+        /**
+         * Class histograms of numeric attributes over bins, computed on demand in histogram mode.
+         */
+        @Nullable
+        int[][] hists;
+        /**
+         * Histograms of the parent and the sibling from which the histograms of a larger child are
+         * derived by subtraction.
+         */
+        @Nullable
+        int[][] parentHists;
+        @Nullable
+        TrainNode sibling;
 
         /**
          * Constructor.
          */
-        public TrainNode(Node node, double[][] x, int[] y, int[] bags, int depth) {
+        public TrainNode(Node node, Matrix x, int[] y, int[] bags, int depth, Random rnd) {
             this.node = node;
             this.x = x;
             this.y = y;
             this.bags = bags;
             this.depth = depth;
+            this.rnd = rnd;
         }
 
         @Override
@@ -472,28 +546,55 @@ public final class DecisionTree implements Classifier<double[]> {
                 variableIndex[i] = i;
             }
             if (_numVars < p) {
-                SmileExtUtils.shuffle(variableIndex, _rnd);
-            }
-
-            final int[] samples = _hasNumericType ? SmileExtUtils.bagsToSamples(bags, x.length)
-                    : null;
-            final int[] falseCount = new int[_k];
-            for (int j = 0; j < _numVars; j++) {
-                Node split = findBestSplit(numSamples, count, falseCount, impurity,
-                    variableIndex[j], samples);
-                if (split.splitScore > node.splitScore) {
-                    node.splitFeature = split.splitFeature;
-                    node.splitFeatureType = split.splitFeatureType;
-                    node.splitValue = split.splitValue;
-                    node.splitScore = split.splitScore;
-                    node.trueChildOutput = split.trueChildOutput;
-                    node.falseChildOutput = split.falseChildOutput;
+                SmileExtUtils.shuffle(variableIndex, rnd);
+            }
+
+            final int[] samples = (_hasNumericType && _bins == null) ? SmileExtUtils.bagsToSamples(
+                bags, x.numRows()) : null;
+            if (_pool != null && _numVars > 1 && scanSize() >= MIN_PARALLEL_WORK) {
+                if (_bins != null && hists == null) {
+                    this.hists = new int[p][];
+                }
+                final List<AttributeSplitTask> tasks = new ArrayList<AttributeSplitTask>(_numVars);
+                for (int j = 0; j < _numVars; j++) {
+                    tasks.add(new AttributeSplitTask(this, numSamples, count, impurity,
+                        variableIndex[j], samples));
+                }
+                ForkJoinTask.invokeAll(tasks);
+                // merge in the order of attributes to choose the same split as the serial one
+                for (AttributeSplitTask task : tasks) {
+                    updateSplit(task.join());
+                }
+            } else {
+                final int[] falseCount = new int[_k];
+                for (int j = 0; j < _numVars; j++) {
+                    Node split = findBestSplit(numSamples, count, falseCount, impurity,
+                        variableIndex[j], samples);
+                    updateSplit(split);
                 }
             }
 
             return (node.splitFeature != -1);
         }
 
+        private void updateSplit(@Nonnull final Node split) {
+            if (split.splitScore > node.splitScore) {
+                node.splitFeature = split.splitFeature;
+                node.splitFeatureType = split.splitFeatureType;
+                node.splitValue = split.splitValue;
+                node.splitScore = split.splitScore;
+                node.trueChildOutput = split.trueChildOutput;
+                node.falseChildOutput = split.falseChildOutput;
+            }
+        }
+
+        /**
+         * @return the number of examples to scan for finding a split on a numeric attribute
+         */
+        private int scanSize() {
+            return (_bins == null) ? x.numRows() : bags.length;
+        }
+
         private boolean sampleCount(@Nonnull final int[] count) {
             int label = -1;
             boolean pure = true;
@@ -530,7 +631,7 @@ public final class DecisionTree implements Classifier<double[]> {
 
                 for (int i = 0, size = bags.length; i < size; i++) {
                     int index = bags[i];
-                    int x_ij = (int) x[index][j];
+                    int x_ij = (int) x.get(index, j);
                     trueCount[x_ij][y[index]]++;
                 }
 
@@ -561,16 +662,65 @@ public final class DecisionTree implements Classifier<double[]> {
                         splitNode.falseChildOutput = Math.whichMax(falseCount);
                     }
                 }
+            } else if (_attributes[j].type == AttributeType.NUMERIC && _bins != null) {
+                final int[] hist = histogram(j);
+                final int numBins = _bins.getNumBins(j);
+                final int[] trueCount = new int[_k];
+                int tc = 0;
+                for (int b = 0; b < numBins - 1; b++) {
+                    final int offset = b * _k;
+                    int binCount = 0;
+                    for (int q = 0; q < _k; q++) {
+                        int c = hist[offset + q];
+                        trueCount[q] += c;
+                        binCount += c;
+                    }
+                    if (binCount == 0) {
+                        continue;
+                    }
+                    tc += binCount;
+                    final int fc = n - tc;
+                    if (fc == 0) {
+                        break;
+                    }
+
+                    // skip splitting this feature.
+                    if (tc < _minSplit || fc < _minSplit) {
+                        continue;
+                    }
+
+                    for (int q = 0; q < _k; q++) {
+                        falseCount[q] = count[q] - trueCount[q];
+                    }
+
+                    final double gain = impurity - (double) tc / n
+                            * impurity(trueCount, tc, _rule) - (double) fc / n
+                            * impurity(falseCount, fc, _rule);
+
+                    if (gain > splitNode.splitScore) {
+                        // new best split
+                        splitNode.splitFeature = j;
+                        splitNode.splitFeatureType = AttributeType.NUMERIC;
+                        splitNode.splitValue = _bins.getSplitValue(j, b);
+                        splitNode.splitScore = gain;
+                        splitNode.trueChildOutput = Math.whichMax(trueCount);
+                        splitNode.falseChildOutput = Math.whichMax(falseCount);
+                    }
+                }
             } else if (_attributes[j].type == AttributeType.NUMERIC) {
                 final int[] trueCount = new int[_k];
                 double prevx = Double.NaN;
                 int prevy = -1;
 
                 assert (samples != null);
-                for (final int i : _order[j]) {
+                final int[] order = _order[j];
+                final SortedSparseColumn sorted = (_sortedColumns == null) ? null
+                        : _sortedColumns[j];
+                for (int k = 0; k < order.length; k++) {
+                    final int i = order[k];
                     final int sample = samples[i];
                     if (sample > 0) {
-                        final double x_ij = x[i][j];
+                        final double x_ij = (sorted == null) ? x.get(i, j) : sorted.get(k);
                         final int y_i = y[i];
 
                         if (Double.isNaN(prevx) || x_ij == prevx || y_i == prevy) {
@@ -622,6 +772,40 @@ public final class DecisionTree implements Classifier<double[]> {
             return splitNode;
         }
 
+        /**
+         * Returns the class counts of attribute j for each bin, flattened as
+         * <code>hist[bin * k + class]</code>. The histogram of the larger child is the one of its
+         * parent minus the one of its sibling when both are available.
+         */
+        @Nonnull
+        private int[] histogram(final int j) {
+            if (hists == null) {
+                this.hists = new int[_attributes.length][];
+            }
+            int[] hist = hists[j];
+            if (hist != null) {
+                return hist;
+            }
+
+            final int[] parentHist = (parentHists == null) ? null : parentHists[j];
+            final int[] siblingHist = (sibling == null || sibling.hists == null) ? null
+                    : sibling.hists[j];
+            if (parentHist != null && siblingHist != null) {
+                hist = new int[parentHist.length];
+                for (int i = 0; i < hist.length; i++) {
+                    hist[i] = parentHist[i] - siblingHist[i];
+                }
+            } else {
+                hist = new int[_bins.getNumBins(j) * _k];
+                for (int i = 0, size = bags.length; i < size; i++) {
+                    final int index = bags[i];
+                    hist[_bins.getBin(index, j) * _k + y[index]]++;
+                }
+            }
+            hists[j] = hist;
+            return hist;
+        }
+
         /**
          * Split the node into two children nodes. Returns true if split success.
          */
@@ -648,33 +832,102 @@ public final class DecisionTree implements Classifier<double[]> {
             }
 
             node.trueChild = new Node(node.trueChildOutput);
-            TrainNode trueChild = new TrainNode(node.trueChild, x, y, trueBags.toArray(), depth + 1);
+            TrainNode trueChild = new TrainNode(node.trueChild, x, y, trueBags.toArray(),
+                depth + 1, childRandom());
             trueBags = null; // help GC for recursive call
-            if (tc >= _minSplit && trueChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(trueChild);
-                } else {
-                    trueChild.split(null);
-                }
-            }
-
             node.falseChild = new Node(node.falseChildOutput);
             TrainNode falseChild = new TrainNode(node.falseChild, x, y, falseBags.toArray(),
-                depth + 1);
+                depth + 1, childRandom());
             falseBags = null; // help GC for recursive call
-            if (fc >= _minSplit && falseChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(falseChild);
+
+            if (_bins == null && _pool == null) {
+                if (tc >= _minSplit && trueChild.findBestSplit()) {
+                    if (nextSplits != null) {
+                        nextSplits.add(trueChild);
+                    } else {
+                        trueChild.split(null);
+                    }
+                }
+                if (fc >= _minSplit && falseChild.findBestSplit()) {
+                    if (nextSplits != null) {
+                        nextSplits.add(falseChild);
+                    } else {
+                        falseChild.split(null);
+                    }
+                }
+            } else if (_bins == null) {
+                final boolean trueSplit = tc >= _minSplit && trueChild.findBestSplit();
+                final boolean falseSplit = fc >= _minSplit && falseChild.findBestSplit();
+                splitChildren(trueChild, trueSplit, falseChild, falseSplit, nextSplits);
+            } else {
+                // find splits of the smaller child first so that the larger one derives its
+                // histograms by subtraction
+                trueChild.parentHists = hists;
+                trueChild.sibling = falseChild;
+                falseChild.parentHists = hists;
+                falseChild.sibling = trueChild;
+                this.hists = null;
+                final boolean trueSplit, falseSplit;
+                if (tc <= fc) {
+                    trueSplit = tc >= _minSplit && trueChild.findBestSplit();
+                    falseSplit = fc >= _minSplit && falseChild.findBestSplit();
                 } else {
-                    falseChild.split(null);
+                    falseSplit = fc >= _minSplit && falseChild.findBestSplit();
+                    trueSplit = tc >= _minSplit && trueChild.findBestSplit();
                 }
+                trueChild.parentHists = null;
+                trueChild.sibling = null;
+                falseChild.parentHists = null;
+                falseChild.sibling = null;
+                if (!trueSplit) {
+                    trueChild.hists = null;
+                }
+                if (!falseSplit) {
+                    falseChild.hists = null;
+                }
+                splitChildren(trueChild, trueSplit, falseChild, falseSplit, nextSplits);
             }
 
-            _importance[node.splitFeature] += node.splitScore;
+            synchronized (_importance) {
+                _importance[node.splitFeature] += node.splitScore;
+            }
 
             return true;
         }
 
+        @Nonnull
+        private Random childRandom() {
+            return (_pool == null) ? rnd : new Random(rnd.nextLong());
+        }
+
+        /**
+         * Queues children nodes for best-first growing or splits them recursively, where the two
+         * children are split in parallel when the tree is built in parallel.
+         */
+        private void splitChildren(@Nonnull final TrainNode trueChild, final boolean trueSplit,
+                @Nonnull final TrainNode falseChild, final boolean falseSplit,
+                @Nullable final PriorityQueue<TrainNode> nextSplits) {
+            if (nextSplits != null) {
+                if (trueSplit) {
+                    nextSplits.add(trueChild);
+                }
+                if (falseSplit) {
+                    nextSplits.add(falseChild);
+                }
+            } else if (trueSplit && falseSplit && _pool != null
+                    && _numVars * (long) Math.min(trueChild.scanSize(), falseChild.scanSize())
+                    >= MIN_PARALLEL_WORK) {
+                ForkJoinTask.invokeAll(new NodeSplitTask(trueChild), new NodeSplitTask(falseChild));
+            } else {
+                if (trueSplit) {
+                    trueChild.split(null);
+                }
+                if (falseSplit) {
+                    falseChild.split(null);
+                }
+            }
+        }
+
         /**
          * @return the number of true samples
          */
@@ -686,7 +939,7 @@ public final class DecisionTree implements Classifier<double[]> {
                 final double splitValue = node.splitValue;
                 for (int i = 0, size = bags.length; i < size; i++) {
                     final int index = bags[i];
-                    if (x[index][splitFeature] == splitValue) {
+                    if (x.get(index, splitFeature) == splitValue) {
                         trueBags.add(index);
                         tc++;
                     } else {
@@ -698,7 +951,7 @@ public final class DecisionTree implements Classifier<double[]> {
                 final double splitValue = node.splitValue;
                 for (int i = 0, size = bags.length; i < size; i++) {
                     final int index = bags[i];
-                    if (x[index][splitFeature] <= splitValue) {
+                    if (x.get(index, splitFeature) <= splitValue) {
                         trueBags.add(index);
                         tc++;
                     } else {
@@ -715,6 +968,54 @@ public final class DecisionTree implements Classifier<double[]> {
     }
 
 
+    /**
+     * Finds the best split of a node on an attribute.
+     */
+    private final class AttributeSplitTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = -1460433405427404627L;
+
+        private final TrainNode trainNode;
+        private final int n;
+        private final int[] count;
+        private final double impurity;
+        private final int j;
+        @Nullable
+        private final int[] samples;
+
+        AttributeSplitTask(TrainNode trainNode, int n, int[] count, double impurity, int j,
+                @Nullable int[] samples) {
+            this.trainNode = trainNode;
+            this.n = n;
+            this.count = count;
+            this.impurity = impurity;
+            this.j = j;
+            this.samples = samples;
+        }
+
+        @Override
+        protected Node compute() {
+            return trainNode.findBestSplit(n, count, new int[_k], impurity, j, samples);
+        }
+    }
+
+    /**
+     * Splits a node recursively.
+     */
+    private static final class NodeSplitTask extends RecursiveAction {
+        private static final long serialVersionUID = 4151399757370423154L;
+
+        private final TrainNode trainNode;
+
+        NodeSplitTask(TrainNode trainNode) {
+            this.trainNode = trainNode;
+        }
+
+        @Override
+        protected void compute() {
+            trainNode.split(null);
+        }
+    }
+
     /**
      * Returns the impurity of a node.
      * 
@@ -793,6 +1094,59 @@ public final class DecisionTree implements Classifier<double[]> {
             int numVars, int maxDepth, int maxLeafs, int minSplits, int minLeafSize,
             @Nullable int[] bags, @Nullable int[][] order, @Nonnull SplitRule rule,
             @Nullable smile.math.Random rand) {
+        this(attributes, x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize, bags, order,
+            null, rule, rand);
+    }
+
+    /**
+     * Constructor. Learns a classification tree for random forest.
+     *
+     * @param order the index of training values in ascending order, or null to sort numeric
+     *        attributes. Not used when <code>bins</code> is given.
+     * @param bins quantized numeric attributes to find splits on histograms of bins, or null to
+     *        find exact splits
+     * @see #DecisionTree(Attribute[], double[][], int[], int, int, int, int, int, int[], int[][],
+     *      SplitRule, smile.math.Random)
+     */
+    public DecisionTree(@Nullable Attribute[] attributes, @Nonnull double[][] x, @Nonnull int[] y,
+            int numVars, int maxDepth, int maxLeafs, int minSplits, int minLeafSize,
+            @Nullable int[] bags, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nonnull SplitRule rule, @Nullable smile.math.Random rand) {
+        this(attributes, new RowMajorDenseMatrix(x), y, numVars, maxDepth, maxLeafs, minSplits,
+            minLeafSize, bags, order, bins, rule, rand);
+    }
+
+    /**
+     * Constructor. Learns a classification tree for random forest from training instances that are
+     * read through {@link Matrix}.
+     * 
+     * @see #DecisionTree(Attribute[], double[][], int[], int, int, int, int, int, int[], int[][],
+     *      FeatureBins, SplitRule, smile.math.Random)
+     */
+    public DecisionTree(@Nullable Attribute[] attributes, @Nonnull Matrix x, @Nonnull int[] y,
+            int numVars, int maxDepth, int maxLeafs, int minSplits, int minLeafSize,
+            @Nullable int[] bags, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nonnull SplitRule rule, @Nullable smile.math.Random rand) {
+        this(attributes, x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize, bags, order,
+            bins, rule, rand, null);
+    }
+
+    /**
+     * Constructor. Learns a classification tree for random forest, where candidate attributes of a
+     * node and children nodes are evaluated in parallel on <code>pool</code>.
+     * <p>
+     * A tree built in parallel does not depend on the parallelism of <code>pool</code>, but it
+     * differs from the one built serially with the same seed because attributes of each node are
+     * chosen by a random number generator derived from the parent's one.
+     *
+     * @param pool the pool to find splits in parallel, or null to build the tree in the caller
+     *        thread
+     */
+    public DecisionTree(@Nullable Attribute[] attributes, @Nonnull Matrix x, @Nonnull int[] y,
+            int numVars, int maxDepth, int maxLeafs, int minSplits, int minLeafSize,
+            @Nullable int[] bags, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nonnull SplitRule rule, @Nullable smile.math.Random rand,
+            @Nullable ForkJoinPool pool) {
         checkArgument(x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize);
 
         this._k = Math.max(y) + 1;
@@ -801,7 +1155,7 @@ public final class DecisionTree implements Classifier<double[]> {
         }
 
         this._attributes = SmileExtUtils.attributeTypes(attributes, x);
-        if (attributes.length != x[0].length) {
+        if (attributes.length != x.numColumns()) {
             throw new IllegalArgumentException("-attrs option is invliad: "
                     + Arrays.toString(attributes));
         }
@@ -812,9 +1166,17 @@ public final class DecisionTree implements Classifier<double[]> {
         this._minSplit = minSplits;
         this._minLeafSize = minLeafSize;
         this._rule = rule;
-        this._order = (order == null) ? SmileExtUtils.sort(_attributes, x) : order;
+        this._bins = bins;
+        if (bins == null) {
+            this._order = (order == null) ? SmileExtUtils.sort(_attributes, x) : order;
+            this._sortedColumns = SmileExtUtils.sortedSparseColumns(_attributes, x);
+        } else {
+            this._order = null;
+            this._sortedColumns = null;
+        }
         this._importance = new double[_attributes.length];
         this._rnd = (rand == null) ? new smile.math.Random() : rand;
+        this._pool = pool;
 
         final int n = y.length;
         final int[] count = new int[_k];
@@ -833,7 +1195,23 @@ public final class DecisionTree implements Classifier<double[]> {
 
         this._root = new Node(Math.whichMax(count));
 
-        final TrainNode trainRoot = new TrainNode(_root, x, y, bags, 1);
+        final TrainNode trainRoot = new TrainNode(_root, x, y, bags, 1, _rnd);
+        if (pool == null || ForkJoinTask.getPool() == pool) { // already in a worker of the pool
+            grow(trainRoot, maxLeafs);
+        } else {
+            final int leafs = maxLeafs;
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 7505433325612349475L;
+
+                @Override
+                protected void compute() {
+                    grow(trainRoot, leafs);
+                }
+            });
+        }
+    }
+
+    private static void grow(@Nonnull final TrainNode trainRoot, final int maxLeafs) {
         if (maxLeafs == Integer.MAX_VALUE) {
             if (trainRoot.findBestSplit()) {
                 trainRoot.split(null);
@@ -858,13 +1236,13 @@ public final class DecisionTree implements Classifier<double[]> {
         }
     }
 
-    private static void checkArgument(@Nonnull double[][] x, @Nonnull int[] y, int numVars,
+    private static void checkArgument(@Nonnull Matrix x, @Nonnull int[] y, int numVars,
             int maxDepth, int maxLeafs, int minSplits, int minLeafSize) {
-        if (x.length != y.length) {
+        if (x.numRows() != y.length) {
             throw new IllegalArgumentException(String.format(
-                "The sizes of X and Y don't match: %d != %d", x.length, y.length));
+                "The sizes of X and Y don't match: %d != %d", x.numRows(), y.length));
         }
-        if (numVars <= 0 || numVars > x[0].length) {
+        if (numVars <= 0 || numVars > x.numColumns()) {
             throw new IllegalArgumentException(
                 "Invalid number of variables to split on at a node of the tree: " + numVars);
         }
@@ -939,6 +1317,24 @@ public final class DecisionTree implements Classifier<double[]> {
         }
     }
 
+    @Nonnull
+    public byte[] predictFlatCodegen(boolean compress) throws HiveException {
+        final FlatTree.Builder builder = new FlatTree.Builder();
+        _root.flatten(builder);
+        final byte[] b = builder.build().serialize();
+        if (!compress) {
+            return b;
+        }
+        final DeflateCodec codec = new DeflateCodec(true, false);
+        try {
+            return codec.compress(b);
+        } catch (IOException ioe) {
+            throw new HiveException("IOException cause while compressing DecisionTree object", ioe);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+    }
+
     public static Node deserializeNode(final byte[] serializedObj, final int length,
             final boolean compressed) throws HiveException {
         final Node root = new Node();
@@ -19,10 +19,15 @@
 package hivemall.smile.classification;
 
 import hivemall.UDTFWithOptions;
+import hivemall.common.LearnerMetrics;
 import hivemall.smile.ModelType;
 import hivemall.smile.data.Attribute;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
 import hivemall.smile.regression.RegressionTree;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.smile.vm.StackMachine;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.codec.DeflateCodec;
@@ -37,6 +42,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,6 +52,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContextAccessor;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.serde2.io.DoubleWritable;
@@ -102,9 +109,16 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     private int _maxLeafNodes;
     private int _minSamplesSplit;
     private int _minSamplesLeaf;
+    /**
+     * The maximum number of bins for histogram-based split finding, or 0 for exact split finding
+     */
+    private int _maxBins;
     private long _seed;
     private Attribute[] _attributes;
     private ModelType _outputType;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    private LearnerMetrics _metrics;
 
     @Nullable
     private Reporter _progressReporter;
@@ -131,13 +145,21 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
             "A node that has greater than or equals to `min_split` examples will split [default: 5]");
         opts.addOption("min_samples_leaf", true,
             "The minimum number of samples in a leaf node [default: 1]");
+        opts.addOption("bins", "max_bins", true,
+            "The maximum number of bins of a numeric attribute for histogram-based split finding"
+                    + " in range [2,65536] [default: 0 (exact split finding)]");
         opts.addOption("seed", true, "seed value in long [default: -1 (random)]");
         opts.addOption("attrs", "attribute_types", true, "Comma separated attribute types "
                 + "(Q for quantitative variable and C for categorical variable. e.g., [Q,C,Q,C])");
         opts.addOption("output", "output_type", true,
-            "The output type (serialization/ser or opscode/vm or javascript/js) [default: serialization]");
+            "The output type (serialization/ser, flat, opscode/vm or javascript/js) [default: serialization]");
         opts.addOption("disable_compression", false,
             "Whether to disable compression of the output script [default: false]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -145,6 +167,7 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
         int trees = 500, maxDepth = 8;
         int maxLeafs = Integer.MAX_VALUE, minSplit = 5, minSamplesLeaf = 1;
+        int maxBins = 0;
         float numVars = -1.f;
         double eta = 0.05d, subsample = 0.7d;
         Attribute[] attrs = null;
@@ -169,6 +192,11 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
             minSplit = Primitives.parseInt(cl.getOptionValue("min_split"), minSplit);
             minSamplesLeaf = Primitives.parseInt(cl.getOptionValue("min_samples_leaf"),
                 minSamplesLeaf);
+            maxBins = Primitives.parseInt(cl.getOptionValue("max_bins"), maxBins);
+            if (maxBins != 0 && (maxBins < 2 || maxBins > FeatureBins.MAX_BINS)) {
+                throw new UDFArgumentException("-max_bins must be in range [2,"
+                        + FeatureBins.MAX_BINS + "]: " + maxBins);
+            }
             seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
             attrs = SmileExtUtils.resolveAttributes(cl.getOptionValue("attribute_types"));
             output = cl.getOptionValue("output", output);
@@ -185,9 +213,14 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         this._maxLeafNodes = maxLeafs;
         this._minSamplesSplit = minSplit;
         this._minSamplesLeaf = minSamplesLeaf;
+        this._maxBins = maxBins;
         this._seed = seed;
         this._attributes = attrs;
         this._outputType = ModelType.resolve(output, compress);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this._metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
 
         return cl;
     }
@@ -238,11 +271,19 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         if (args[0] == null) {
             throw new HiveException("array<double> features was null");
         }
+        final LearnerMetrics metrics = _metrics;
+        final long parseStart = (metrics == null) ? 0L : metrics.startParse();
         double[] features = HiveUtils.asDoubleArray(args[0], featureListOI, featureElemOI);
         int label = PrimitiveObjectInspectorUtils.getInt(args[1], labelOI);
 
         featuresList.add(features);
         labels.add(label);
+        if (metrics != null) {
+            metrics.endParse(parseStart);
+            if (metrics.incrRows()) {
+                metrics.report(getReporter(), -1L);
+            }
+        }
     }
 
     @Override
@@ -259,7 +300,12 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         this.labels = null;
 
         // run training
+        final long trainStart = System.nanoTime();
         train(x, y);
+        if (_metrics != null) {
+            _metrics.addTrainingTime(System.nanoTime() - trainStart);
+            _metrics.close(_progressReporter, _numTrees);
+        }
 
         // clean up
         this.featureListOI = null;
@@ -302,23 +348,33 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         if (k < 2) {
             throw new UDFArgumentException("Only one class or negative class labels.");
         }
-        if (k == 2) {
-            int n = x.length;
-            final int[] y2 = new int[n];
-            for (int i = 0; i < n; i++) {
-                if (y[i] == 1) {
-                    y2[i] = 1;
-                } else {
-                    y2[i] = -1;
+        // trees are built one by one, so each tree is built in parallel instead
+        final int threads = SmileTaskExecutor.getNumThreads(MapredContextAccessor.get());
+        final ForkJoinPool pool = SmileTaskExecutor.newForkJoinPool(threads);
+        try {
+            if (k == 2) {
+                int n = x.length;
+                final int[] y2 = new int[n];
+                for (int i = 0; i < n; i++) {
+                    if (y[i] == 1) {
+                        y2[i] = 1;
+                    } else {
+                        y2[i] = -1;
+                    }
                 }
+                train2(x, y2, pool);
+            } else {
+                traink(x, y, k, pool);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
             }
-            train2(x, y2);
-        } else {
-            traink(x, y, k);
         }
     }
 
-    private void train2(@Nonnull final double[][] x, @Nonnull final int[] y) throws HiveException {
+    private void train2(@Nonnull final double[][] x, @Nonnull final int[] y,
+            @Nullable final ForkJoinPool pool) throws HiveException {
         final int numVars = SmileExtUtils.computeNumInputVars(_numVars, x);
         if (logger.isInfoEnabled()) {
             logger.info("k: " + 2 + ", numTrees: " + _numTrees + ", shirinkage: " + _eta
@@ -340,7 +396,10 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
             h[i] = intercept;
         }
 
-        final int[][] order = SmileExtUtils.sort(_attributes, x);
+        final Matrix matrix = new RowMajorDenseMatrix(x);
+        final int[][] order = (_maxBins == 0) ? SmileExtUtils.sort(_attributes, matrix) : null;
+        final FeatureBins bins = (_maxBins == 0) ? null : FeatureBins.build(_attributes, x,
+            _maxBins);
         final RegressionTree.NodeOutput output = new L2NodeOutput(response);
 
         final BitSet sampled = new BitSet(numInstances);
@@ -369,8 +428,9 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                 response[i] = 2.0d * y[i] / (1.d + Math.exp(2.d * y[i] * h[i]));
             }
 
-            RegressionTree tree = new RegressionTree(_attributes, x, response, numVars, _maxDepth,
-                _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, order, bag, output, rnd2);
+            RegressionTree tree = new RegressionTree(_attributes, matrix, response, numVars,
+                _maxDepth, _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, order, bins, bag,
+                output, rnd2, pool);
 
             for (int i = 0; i < numInstances; i++) {
                 h[i] += _eta * tree.predict(x[i]);
@@ -398,7 +458,8 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
     /**
      * Train L-k tree boost.
      */
-    private void traink(final double[][] x, final int[] y, final int k) throws HiveException {
+    private void traink(final double[][] x, final int[] y, final int k,
+            @Nullable final ForkJoinPool pool) throws HiveException {
         final int numVars = SmileExtUtils.computeNumInputVars(_numVars, x);
         if (logger.isInfoEnabled()) {
             logger.info("k: " + k + ", numTrees: " + _numTrees + ", shirinkage: " + _eta
@@ -414,7 +475,10 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
         final double[][] p = new double[k][numInstances]; // posteriori probabilities.
         final double[][] response = new double[k][numInstances]; // pseudo response.
 
-        final int[][] order = SmileExtUtils.sort(_attributes, x);
+        final Matrix matrix = new RowMajorDenseMatrix(x);
+        final int[][] order = (_maxBins == 0) ? SmileExtUtils.sort(_attributes, matrix) : null;
+        final FeatureBins bins = (_maxBins == 0) ? null : FeatureBins.build(_attributes, x,
+            _maxBins);
         final RegressionTree.NodeOutput[] output = new LKNodeOutput[k];
         for (int i = 0; i < k; i++) {
             output[i] = new LKNodeOutput(response[i], k);
@@ -484,9 +548,9 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                     sampled.set(i);
                 }
 
-                RegressionTree tree = new RegressionTree(_attributes, x, response[j], numVars,
-                    _maxDepth, _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, order, bag,
-                    output[j], rnd2);
+                RegressionTree tree = new RegressionTree(_attributes, matrix, response[j],
+                    numVars, _maxDepth, _maxLeafNodes, _minSamplesSplit, _minSamplesLeaf, order,
+                    bins, bag, output[j], rnd2, pool);
                 trees[j] = tree;
 
                 for (int i = 0; i < numInstances; i++) {
@@ -565,6 +629,15 @@ public final class GradientTreeBoostingClassifierUDTF extends UDTFWithOptions {
                 }
                 break;
             }
+            case flat:
+            case flat_compressed: {
+                for (int i = 0; i < m; i++) {
+                    byte[] b = trees[i].predictFlatCodegen(outputType.isCompressed());
+                    b = Base91.encode(b);
+                    models[i] = new Text(b);
+                }
+                break;
+            }
             case opscode:
             case opscode_compressed: {
                 for (int i = 0; i < m; i++) {
@@ -19,9 +19,13 @@
 package hivemall.smile.classification;
 
 import hivemall.UDTFWithOptions;
+import hivemall.common.LearnerMetrics;
 import hivemall.smile.ModelType;
 import hivemall.smile.classification.DecisionTree.SplitRule;
 import hivemall.smile.data.Attribute;
+import hivemall.smile.data.ColumnMajorMatrix;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.smile.vm.StackMachine;
@@ -31,6 +35,7 @@ import hivemall.utils.collections.IntArrayList;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
 import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 import hivemall.utils.lang.RandomUtils;
 
@@ -39,6 +44,7 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
@@ -77,7 +83,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
     private PrimitiveObjectInspector featureElemOI;
     private PrimitiveObjectInspector labelOI;
 
-    private List<double[]> featuresList;
+    private ColumnMajorMatrix.Builder matrixBuilder;
     private IntArrayList labels;
     /**
      * The number of trees for each task
@@ -97,9 +103,16 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
     private int _maxLeafNodes;
     private int _minSamplesSplit;
     private int _minSamplesLeaf;
+    /**
+     * The maximum number of bins for histogram-based split finding, or 0 for exact split finding
+     */
+    private int _maxBins;
     private long _seed;
     private Attribute[] _attributes;
     private ModelType _outputType;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    private LearnerMetrics _metrics;
     private SplitRule _splitRule;
 
     @Nullable
@@ -123,14 +136,22 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
             "A node that has greater than or equals to `min_split` examples will split [default: 2]");
         opts.addOption("min_samples_leaf", true,
             "The minimum number of samples in a leaf node [default: 1]");
+        opts.addOption("bins", "max_bins", true,
+            "The maximum number of bins of a numeric attribute for histogram-based split finding"
+                    + " in range [2,65536] [default: 0 (exact split finding)]");
         opts.addOption("seed", true, "seed value in long [default: -1 (random)]");
         opts.addOption("attrs", "attribute_types", true, "Comma separated attribute types "
                 + "(Q for quantitative variable and C for categorical variable. e.g., [Q,C,Q,C])");
         opts.addOption("output", "output_type", true,
-            "The output type (serialization/ser or opscode/vm or javascript/js) [default: serialization]");
+            "The output type (serialization/ser, flat, opscode/vm or javascript/js) [default: serialization]");
         opts.addOption("rule", "split_rule", true, "Split algorithm [default: GINI, ENTROPY]");
         opts.addOption("disable_compression", false,
             "Whether to disable compression of the output script [default: false]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -138,6 +159,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
     protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
         int trees = 50, maxDepth = Integer.MAX_VALUE;
         int numLeafs = Integer.MAX_VALUE, minSplits = 2, minSamplesLeaf = 1;
+        int maxBins = 0;
         float numVars = -1.f;
         Attribute[] attrs = null;
         long seed = -1L;
@@ -160,6 +182,11 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
             minSplits = Primitives.parseInt(cl.getOptionValue("min_split"), minSplits);
             minSamplesLeaf = Primitives.parseInt(cl.getOptionValue("min_samples_leaf"),
                 minSamplesLeaf);
+            maxBins = Primitives.parseInt(cl.getOptionValue("max_bins"), maxBins);
+            if (maxBins != 0 && (maxBins < 2 || maxBins > FeatureBins.MAX_BINS)) {
+                throw new UDFArgumentException("-max_bins must be in range [2,"
+                        + FeatureBins.MAX_BINS + "]: " + maxBins);
+            }
             seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
             attrs = SmileExtUtils.resolveAttributes(cl.getOptionValue("attribute_types"));
             output = cl.getOptionValue("output", output);
@@ -175,9 +202,14 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         this._maxLeafNodes = numLeafs;
         this._minSamplesSplit = minSplits;
         this._minSamplesLeaf = minSamplesLeaf;
+        this._maxBins = maxBins;
         this._seed = seed;
         this._attributes = attrs;
         this._outputType = ModelType.resolve(output, compress);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this._metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
         this._splitRule = splitRule;
 
         return cl;
@@ -200,7 +232,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
 
         processOptions(argOIs);
 
-        this.featuresList = new ArrayList<double[]>(1024);
+        this.matrixBuilder = new ColumnMajorMatrix.Builder();
         this.labels = new IntArrayList(1024);
 
         ArrayList<String> fieldNames = new ArrayList<String>(6);
@@ -227,11 +259,23 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         if (args[0] == null) {
             throw new HiveException("array<double> features was null");
         }
+        final LearnerMetrics metrics = _metrics;
+        final long parseStart = (metrics == null) ? 0L : metrics.startParse();
         double[] features = HiveUtils.asDoubleArray(args[0], featureListOI, featureElemOI);
         int label = PrimitiveObjectInspectorUtils.getInt(args[1], labelOI);
 
-        featuresList.add(features);
+        try {
+            matrixBuilder.addRow(features);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
         labels.add(label);
+        if (metrics != null) {
+            metrics.endParse(parseStart);
+            if (metrics.incrRows()) {
+                metrics.report(getReporter(), -1L);
+            }
+        }
     }
 
     @Override
@@ -242,15 +286,27 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                     "finishedTreeBuildTasks");
         reportProgress(_progressReporter);
 
-        int numExamples = featuresList.size();
+        int numExamples = matrixBuilder.numRows();
         if (numExamples > 0) {
-            double[][] x = featuresList.toArray(new double[numExamples][]);
-            this.featuresList = null;
+            ColumnMajorMatrix x = matrixBuilder.build();
+            this.matrixBuilder = null;
+            if (logger.isInfoEnabled()) {
+                logger.info("Built a " + numExamples + " x " + x.numColumns()
+                        + " training matrix of " + NumberUtils.prettySize(x.estimateMemoryUsage()));
+            }
             int[] y = labels.toArray();
             this.labels = null;
 
             // run training
+            final long trainStart = System.nanoTime();
             train(x, y);
+            if (_metrics != null) {
+                _metrics.addTrainingTime(System.nanoTime() - trainStart);
+            }
+        }
+
+        if (_metrics != null) {
+            _metrics.close(_progressReporter, _numTrees);
         }
 
         // clean up
@@ -277,10 +333,10 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
      * @param numVars The number of variables to pick up in each node.
      * @param seed The seed number for Random Forest
      */
-    private void train(@Nonnull final double[][] x, @Nonnull final int[] y) throws HiveException {
-        if (x.length != y.length) {
+    private void train(@Nonnull final Matrix x, @Nonnull final int[] y) throws HiveException {
+        if (x.numRows() != y.length) {
             throw new HiveException(String.format("The sizes of X and Y don't match: %d != %d",
-                x.length, y.length));
+                x.numRows(), y.length));
         }
         checkOptions();
 
@@ -297,19 +353,31 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                     + _maxLeafNodes + ", splitRule: " + _splitRule + ", seed: " + _seed);
         }
 
-        final int numExamples = x.length;
+        final int numExamples = x.numRows();
         int[][] prediction = new int[numExamples][labels.length]; // placeholder for out-of-bag prediction
-        int[][] order = SmileExtUtils.sort(attributes, x);
+        int[][] order = null;
+        FeatureBins bins = null;
+        if (_maxBins == 0) {
+            order = SmileExtUtils.sort(attributes, x);
+        } else {
+            bins = FeatureBins.build(attributes, x, _maxBins);
+        }
+        MapredContext mapredContext = MapredContextAccessor.get();
+        final int threads = SmileTaskExecutor.getNumThreads(mapredContext);
+        // build each tree in parallel as well when there are fewer trees than threads
+        final ForkJoinPool pool = (_numTrees < threads) ? SmileTaskExecutor.newForkJoinPool(threads)
+                : null;
         AtomicInteger remainingTasks = new AtomicInteger(_numTrees);
         List<TrainingTask> tasks = new ArrayList<TrainingTask>();
         for (int i = 0; i < _numTrees; i++) {
             long s = (_seed == -1L) ? -1L : _seed + i;
-            tasks.add(new TrainingTask(this, i, attributes, x, y, numInputVars, order, prediction,
-                s, remainingTasks));
+            tasks.add(new TrainingTask(this, i, attributes, x, y, numInputVars, order, bins,
+                prediction, s, remainingTasks, pool));
         }
 
-        MapredContext mapredContext = MapredContextAccessor.get();
-        final SmileTaskExecutor executor = new SmileTaskExecutor(mapredContext);
+        // build the trees on the pool for split finding if any, not on another thread pool
+        final SmileTaskExecutor executor = (pool == null) ? new SmileTaskExecutor(mapredContext)
+                : new SmileTaskExecutor(pool);
         try {
             executor.run(tasks);
         } catch (Exception ex) {
@@ -367,7 +435,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         /**
          * Training instances.
          */
-        private final double[][] _x;
+        private final Matrix _x;
         /**
          * Training sample labels.
          */
@@ -376,7 +444,13 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
          * The index of training values in ascending order. Note that only numeric attributes will
          * be sorted.
          */
+        @Nullable
         private final int[][] _order;
+        /**
+         * Quantized numeric attributes for histogram-based split finding.
+         */
+        @Nullable
+        private final FeatureBins _bins;
         /**
          * The number of variables to pick up in each node.
          */
@@ -390,20 +464,28 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
         private final int _taskId;
         private final long _seed;
         private final AtomicInteger _remainingTasks;
+        /**
+         * The pool to find splits of a tree in parallel.
+         */
+        @Nullable
+        private final ForkJoinPool _pool;
 
         TrainingTask(RandomForestClassifierUDTF udtf, int taskId, Attribute[] attributes,
-                double[][] x, int[] y, int numVars, int[][] order, int[][] prediction, long seed,
-                AtomicInteger remainingTasks) {
+                Matrix x, int[] y, int numVars, @Nullable int[][] order,
+                @Nullable FeatureBins bins, int[][] prediction, long seed,
+                AtomicInteger remainingTasks, @Nullable ForkJoinPool pool) {
             this._udtf = udtf;
             this._taskId = taskId;
             this._attributes = attributes;
             this._x = x;
             this._y = y;
             this._order = order;
+            this._bins = bins;
             this._numVars = numVars;
             this._prediction = prediction;
             this._seed = seed;
             this._remainingTasks = remainingTasks;
+            this._pool = pool;
         }
 
         @Override
@@ -412,7 +494,7 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                 _seed).nextLong();
             final smile.math.Random rnd1 = new smile.math.Random(s);
             final smile.math.Random rnd2 = new smile.math.Random(rnd1.nextLong());
-            final int N = _x.length;
+            final int N = _x.numRows();
 
             // Training samples draw with replacement.
             final int[] bags = new int[N];
@@ -425,11 +507,12 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
 
             DecisionTree tree = new DecisionTree(_attributes, _x, _y, _numVars, _udtf._maxDepth,
                 _udtf._maxLeafNodes, _udtf._minSamplesSplit, _udtf._minSamplesLeaf, bags, _order,
-                _udtf._splitRule, rnd2);
+                _bins, _udtf._splitRule, rnd2, _pool);
 
             // out-of-bag prediction
+            final double[] xi = new double[_x.numColumns()];
             for (int i = sampled.nextClearBit(0); i < N; i = sampled.nextClearBit(i + 1)) {
-                final int p = tree.predict(_x[i]);
+                final int p = tree.predict(_x.getRow(i, xi));
                 synchronized (_prediction[i]) {
                     _prediction[i][p]++;
                 }
@@ -455,6 +538,13 @@ public final class RandomForestClassifierUDTF extends UDTFWithOptions {
                     model = new Text(b);
                     break;
                 }
+                case flat:
+                case flat_compressed: {
+                    byte[] b = tree.predictFlatCodegen(outputType.isCompressed());
+                    b = Base91.encode(b);
+                    model = new Text(b);
+                    break;
+                }
                 case opscode:
                 case opscode_compressed: {
                     String s = tree.predictOpCodegen(StackMachine.SEP);
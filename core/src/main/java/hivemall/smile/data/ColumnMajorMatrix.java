@@ -0,0 +1,739 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Matrix} of float values stored per attribute. Each column is kept either as a dense
+ * array or as sorted (row, value) pairs of its non-zero elements, whichever is smaller. A column
+ * having a value that a float cannot represent exactly, e.g., an integer above 2^24, is kept in
+ * double values instead.
+ * <p>
+ * Rows are appended through {@link Builder}, which buffers columns in fixed-size chunks so that the
+ * footprint while buffering stays close to that of the built matrix.
+ */
+public final class ColumnMajorMatrix extends Matrix {
+
+    private final int _numRows;
+    @Nonnull
+    private final Column[] _columns;
+    /** Sorted values of sparse columns, built on demand */
+    @Nonnull
+    private final SortedSparseColumn[] _sortedColumns;
+
+    private ColumnMajorMatrix(int numRows, @Nonnull Column[] columns) {
+        this._numRows = numRows;
+        this._columns = columns;
+        this._sortedColumns = new SortedSparseColumn[columns.length];
+    }
+
+    @Override
+    public int numRows() {
+        return _numRows;
+    }
+
+    @Override
+    public int numColumns() {
+        return _columns.length;
+    }
+
+    @Override
+    public double get(final int i, final int j) {
+        return _columns[j].get(i);
+    }
+
+    @Override
+    public double[] getColumn(final int j, @Nonnull final double[] dst) {
+        _columns[j].copyTo(dst, _numRows);
+        return dst;
+    }
+
+    public boolean isSparse(final int j) {
+        return _columns[j].isSparse();
+    }
+
+    /**
+     * Returns the values of a sparse column in ascending order, which are the values of the rows
+     * visited in the order of the column, without a search for each row.
+     * 
+     * @return null if the column is dense
+     */
+    @Nullable
+    public synchronized SortedSparseColumn getSortedColumn(final int j) {
+        SortedSparseColumn sorted = _sortedColumns[j];
+        if (sorted == null) {
+            final Column c = _columns[j];
+            final double[] nonZeros;
+            if (c instanceof SparseColumn) {
+                final float[] values = ((SparseColumn) c).values;
+                nonZeros = new double[values.length];
+                for (int k = 0; k < values.length; k++) {
+                    nonZeros[k] = values[k];
+                }
+            } else if (c instanceof DoubleSparseColumn) {
+                nonZeros = ((DoubleSparseColumn) c).values.clone();
+            } else {
+                return null;
+            }
+            Arrays.sort(nonZeros);
+            sorted = new SortedSparseColumn(nonZeros, _numRows);
+            _sortedColumns[j] = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return true if the column is stored in double values
+     */
+    public boolean isDouble(final int j) {
+        final Column c = _columns[j];
+        return c instanceof DoubleDenseColumn || c instanceof DoubleSparseColumn;
+    }
+
+    /**
+     * @return the estimated number of bytes of values and row indexes
+     */
+    public long estimateMemoryUsage() {
+        long bytes = 0L;
+        for (Column c : _columns) {
+            bytes += c.memoryUsage();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void permuteRows(@Nonnull final int[] perm) {
+        if (perm.length != _numRows) {
+            throw new IllegalArgumentException("perm.length (" + perm.length + ") != numRows ("
+                    + _numRows + ')');
+        }
+        int[] inverse = null;
+        for (int j = 0; j < _columns.length; j++) {
+            final Column c = _columns[j];
+            if (c.isSparse()) {
+                if (inverse == null) {
+                    inverse = new int[_numRows];
+                    for (int k = 0; k < _numRows; k++) {
+                        inverse[perm[k]] = k;
+                    }
+                }
+                _columns[j] = c.permute(inverse);
+            } else {
+                _columns[j] = c.permute(perm);
+            }
+        }
+    }
+
+    /**
+     * The values of a sparse column in ascending order, that is, its negative values, zeros and
+     * then its positive values.
+     */
+    public static final class SortedSparseColumn {
+
+        /** non-zero values in ascending order */
+        @Nonnull
+        private final double[] nonZeros;
+        private final int numNegatives;
+        /** the position after the last zero */
+        private final int zerosEnd;
+
+        SortedSparseColumn(@Nonnull double[] nonZeros, int numRows) {
+            int negatives = 0;
+            while (negatives < nonZeros.length && nonZeros[negatives] < 0.d) {
+                negatives++;
+            }
+            this.nonZeros = nonZeros;
+            this.numNegatives = negatives;
+            this.zerosEnd = numRows - (nonZeros.length - negatives);
+        }
+
+        /**
+         * @return the k-th smallest value of the column
+         */
+        public double get(final int k) {
+            if (k < numNegatives) {
+                return nonZeros[k];
+            } else if (k < zerosEnd) {
+                return 0.d;
+            } else {
+                return nonZeros[k - zerosEnd + numNegatives];
+            }
+        }
+
+    }
+
+    private static abstract class Column {
+
+        abstract double get(int i);
+
+        abstract void copyTo(@Nonnull double[] dst, int numRows);
+
+        abstract long memoryUsage();
+
+        abstract boolean isSparse();
+
+        /**
+         * @param index the permutation for a dense column, or its inverse for a sparse column
+         */
+        @Nonnull
+        abstract Column permute(@Nonnull int[] index);
+
+    }
+
+    private static final class DenseColumn extends Column {
+
+        @Nonnull
+        final float[] values;
+
+        DenseColumn(@Nonnull float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        double get(final int i) {
+            return values[i];
+        }
+
+        @Override
+        void copyTo(@Nonnull final double[] dst, final int numRows) {
+            for (int i = 0; i < numRows; i++) {
+                dst[i] = values[i];
+            }
+        }
+
+        @Override
+        long memoryUsage() {
+            return 4L * values.length;
+        }
+
+        @Override
+        boolean isSparse() {
+            return false;
+        }
+
+        @Override
+        DenseColumn permute(@Nonnull final int[] perm) {
+            final float[] permuted = new float[values.length];
+            for (int k = 0; k < perm.length; k++) {
+                permuted[k] = values[perm[k]];
+            }
+            return new DenseColumn(permuted);
+        }
+
+    }
+
+    private static final class DoubleDenseColumn extends Column {
+
+        @Nonnull
+        final double[] values;
+
+        DoubleDenseColumn(@Nonnull double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        double get(final int i) {
+            return values[i];
+        }
+
+        @Override
+        void copyTo(@Nonnull final double[] dst, final int numRows) {
+            System.arraycopy(values, 0, dst, 0, numRows);
+        }
+
+        @Override
+        long memoryUsage() {
+            return 8L * values.length;
+        }
+
+        @Override
+        boolean isSparse() {
+            return false;
+        }
+
+        @Override
+        DoubleDenseColumn permute(@Nonnull final int[] perm) {
+            final double[] permuted = new double[values.length];
+            for (int k = 0; k < perm.length; k++) {
+                permuted[k] = values[perm[k]];
+            }
+            return new DoubleDenseColumn(permuted);
+        }
+
+    }
+
+    private static final class SparseColumn extends Column {
+
+        /** row indexes in ascending order */
+        @Nonnull
+        final int[] rows;
+        @Nonnull
+        final float[] values;
+
+        SparseColumn(@Nonnull int[] rows, @Nonnull float[] values) {
+            this.rows = rows;
+            this.values = values;
+        }
+
+        @Override
+        double get(final int i) {
+            final int k = Arrays.binarySearch(rows, i);
+            return (k >= 0) ? values[k] : 0.d;
+        }
+
+        @Override
+        void copyTo(@Nonnull final double[] dst, final int numRows) {
+            Arrays.fill(dst, 0, numRows, 0.d);
+            for (int k = 0; k < rows.length; k++) {
+                dst[rows[k]] = values[k];
+            }
+        }
+
+        @Override
+        long memoryUsage() {
+            return 8L * rows.length;
+        }
+
+        @Override
+        boolean isSparse() {
+            return true;
+        }
+
+        @Override
+        SparseColumn permute(@Nonnull final int[] inverse) {
+            final int nnz = rows.length;
+            // sort (new row, value) pairs packed into longs by the new rows
+            final long[] entries = new long[nnz];
+            for (int k = 0; k < nnz; k++) {
+                entries[k] = ((long) inverse[rows[k]] << 32)
+                        | (Float.floatToRawIntBits(values[k]) & 0xFFFFFFFFL);
+            }
+            Arrays.sort(entries);
+            final int[] newRows = new int[nnz];
+            final float[] newValues = new float[nnz];
+            for (int k = 0; k < nnz; k++) {
+                long e = entries[k];
+                newRows[k] = (int) (e >>> 32);
+                newValues[k] = Float.intBitsToFloat((int) e);
+            }
+            return new SparseColumn(newRows, newValues);
+        }
+
+    }
+
+    private static final class DoubleSparseColumn extends Column {
+
+        /** row indexes in ascending order */
+        @Nonnull
+        final int[] rows;
+        @Nonnull
+        final double[] values;
+
+        DoubleSparseColumn(@Nonnull int[] rows, @Nonnull double[] values) {
+            this.rows = rows;
+            this.values = values;
+        }
+
+        @Override
+        double get(final int i) {
+            final int k = Arrays.binarySearch(rows, i);
+            return (k >= 0) ? values[k] : 0.d;
+        }
+
+        @Override
+        void copyTo(@Nonnull final double[] dst, final int numRows) {
+            Arrays.fill(dst, 0, numRows, 0.d);
+            for (int k = 0; k < rows.length; k++) {
+                dst[rows[k]] = values[k];
+            }
+        }
+
+        @Override
+        long memoryUsage() {
+            return 12L * rows.length;
+        }
+
+        @Override
+        boolean isSparse() {
+            return true;
+        }
+
+        @Override
+        DoubleSparseColumn permute(@Nonnull final int[] inverse) {
+            final int nnz = rows.length;
+            // sort (new row, old position) pairs packed into longs by the new rows
+            final long[] entries = new long[nnz];
+            for (int k = 0; k < nnz; k++) {
+                entries[k] = ((long) inverse[rows[k]] << 32) | k;
+            }
+            Arrays.sort(entries);
+            final int[] newRows = new int[nnz];
+            final double[] newValues = new double[nnz];
+            for (int k = 0; k < nnz; k++) {
+                long e = entries[k];
+                newRows[k] = (int) (e >>> 32);
+                newValues[k] = values[(int) e];
+            }
+            return new DoubleSparseColumn(newRows, newValues);
+        }
+
+    }
+
+    /**
+     * Appends rows to columns. A column is buffered as non-zero elements until it turns out to be
+     * dense, and then as chunks of {@link #CHUNK_SIZE} values. A column is buffered in floats
+     * until a value loses precision as a float.
+     */
+    public static final class Builder {
+
+        private static final int CHUNK_SHIFT = 13;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+        /** the number of rows before which a column is not switched to dense */
+        private static final int MIN_DENSE_ROWS = 1024;
+
+        private int _numRows;
+        @Nullable
+        private ColumnBuffer[] _buffers;
+
+        public Builder() {
+            this._numRows = 0;
+            this._buffers = null;
+        }
+
+        public int numRows() {
+            return _numRows;
+        }
+
+        /**
+         * @return the number of columns, or -1 if no row has been added
+         */
+        public int numColumns() {
+            return (_buffers == null) ? -1 : _buffers.length;
+        }
+
+        /**
+         * @throws IllegalArgumentException when the row length differs from the previous rows
+         */
+        @Nonnull
+        public Builder addRow(@Nonnull final double[] row) {
+            ColumnBuffer[] buffers = _buffers;
+            if (buffers == null) {
+                buffers = new ColumnBuffer[row.length];
+                for (int j = 0; j < row.length; j++) {
+                    buffers[j] = new FloatColumnBuffer();
+                }
+                this._buffers = buffers;
+            } else if (row.length != buffers.length) {
+                throw new IllegalArgumentException("Expected a row of " + buffers.length
+                        + " columns but got " + row.length + " columns at row " + _numRows);
+            }
+            final int i = _numRows;
+            for (int j = 0; j < row.length; j++) {
+                final double v = row[j];
+                if (!buffers[j].add(i, v)) {// v loses precision as a float
+                    buffers[j] = new DoubleColumnBuffer((FloatColumnBuffer) buffers[j]);
+                    buffers[j].add(i, v);
+                }
+            }
+            this._numRows = i + 1;
+            return this;
+        }
+
+        /**
+         * Builds a matrix, releasing the buffers column by column.
+         */
+        @Nonnull
+        public ColumnMajorMatrix build() {
+            final ColumnBuffer[] buffers = _buffers;
+            if (buffers == null) {
+                throw new IllegalStateException("No row has been added");
+            }
+            final int n = _numRows;
+            final Column[] columns = new Column[buffers.length];
+            for (int j = 0; j < buffers.length; j++) {
+                columns[j] = buffers[j].toColumn(n);
+                buffers[j] = null;
+            }
+            this._buffers = null;
+            this._numRows = 0;
+            return new ColumnMajorMatrix(n, columns);
+        }
+
+        private static abstract class ColumnBuffer {
+
+            /**
+             * @return false if the value is not added since it loses precision in this buffer
+             */
+            abstract boolean add(int i, double v);
+
+            @Nonnull
+            abstract Column toColumn(int numRows);
+
+        }
+
+        private static final class FloatColumnBuffer extends ColumnBuffer {
+
+            // non-zero elements while the column is sparse
+            @Nullable
+            int[] rows;
+            @Nullable
+            float[] values;
+            // chunks of all elements once the column is dense
+            @Nullable
+            List<float[]> chunks;
+            int nnz;
+
+            FloatColumnBuffer() {
+                this.rows = new int[8];
+                this.values = new float[8];
+                this.chunks = null;
+                this.nnz = 0;
+            }
+
+            @Override
+            boolean add(final int i, final double d) {
+                final float v = (float) d;
+                if (v != d && !Double.isNaN(d)) {
+                    return false;
+                }
+                if (chunks != null) {
+                    final int c = i >>> CHUNK_SHIFT;
+                    if (c == chunks.size()) {
+                        chunks.add(new float[CHUNK_SIZE]);
+                    }
+                    if (v != 0.f) {
+                        chunks.get(c)[i & CHUNK_MASK] = v;
+                        nnz++;
+                    }
+                    return true;
+                }
+                if (v == 0.f) {
+                    return true;
+                }
+                if (nnz == rows.length) {
+                    if (i >= MIN_DENSE_ROWS && nnz * 2 > i) {
+                        toDense(i);
+                        return add(i, d);
+                    }
+                    int newCapacity = nnz * 2;
+                    this.rows = Arrays.copyOf(rows, newCapacity);
+                    this.values = Arrays.copyOf(values, newCapacity);
+                }
+                rows[nnz] = i;
+                values[nnz] = v;
+                nnz++;
+                return true;
+            }
+
+            private void toDense(final int numRows) {
+                final List<float[]> list = new ArrayList<float[]>();
+                for (int c = 0, size = (numRows + CHUNK_MASK) >>> CHUNK_SHIFT; c < size; c++) {
+                    list.add(new float[CHUNK_SIZE]);
+                }
+                for (int k = 0; k < nnz; k++) {
+                    int i = rows[k];
+                    list.get(i >>> CHUNK_SHIFT)[i & CHUNK_MASK] = values[k];
+                }
+                this.chunks = list;
+                this.rows = null;
+                this.values = null;
+            }
+
+            @Override
+            Column toColumn(final int numRows) {
+                if (chunks == null) {
+                    if (nnz * 2L <= numRows) {
+                        return new SparseColumn(Arrays.copyOf(rows, nnz), Arrays.copyOf(values,
+                            nnz));
+                    }
+                    final float[] dense = new float[numRows];
+                    for (int k = 0; k < nnz; k++) {
+                        dense[rows[k]] = values[k];
+                    }
+                    this.rows = null;
+                    this.values = null;
+                    return new DenseColumn(dense);
+                }
+                if (nnz * 2L <= numRows) {
+                    final int[] r = new int[nnz];
+                    final float[] v = new float[nnz];
+                    int k = 0;
+                    for (int i = 0; i < numRows; i++) {
+                        float x = chunks.get(i >>> CHUNK_SHIFT)[i & CHUNK_MASK];
+                        if (x != 0.f) {
+                            r[k] = i;
+                            v[k] = x;
+                            k++;
+                        }
+                    }
+                    this.chunks = null;
+                    return new SparseColumn(r, v);
+                }
+                final float[] dense = new float[numRows];
+                for (int c = 0, size = chunks.size(); c < size; c++) {
+                    int from = c << CHUNK_SHIFT;
+                    System.arraycopy(chunks.get(c), 0, dense, from,
+                        Math.min(CHUNK_SIZE, numRows - from));
+                    chunks.set(c, null);
+                }
+                this.chunks = null;
+                return new DenseColumn(dense);
+            }
+
+        }
+
+        private static final class DoubleColumnBuffer extends ColumnBuffer {
+
+            // non-zero elements while the column is sparse
+            @Nullable
+            int[] rows;
+            @Nullable
+            double[] values;
+            // chunks of all elements once the column is dense
+            @Nullable
+            List<double[]> chunks;
+            int nnz;
+
+            /**
+             * Takes over the elements of a float buffer.
+             */
+            DoubleColumnBuffer(@Nonnull FloatColumnBuffer src) {
+                this.nnz = src.nnz;
+                if (src.chunks == null) {
+                    this.rows = src.rows;
+                    this.values = new double[src.values.length];
+                    for (int k = 0; k < nnz; k++) {
+                        values[k] = src.values[k];
+                    }
+                    this.chunks = null;
+                } else {
+                    this.rows = null;
+                    this.values = null;
+                    this.chunks = new ArrayList<double[]>(src.chunks.size());
+                    for (float[] chunk : src.chunks) {
+                        final double[] dchunk = new double[CHUNK_SIZE];
+                        for (int k = 0; k < CHUNK_SIZE; k++) {
+                            dchunk[k] = chunk[k];
+                        }
+                        chunks.add(dchunk);
+                    }
+                }
+                src.rows = null;
+                src.values = null;
+                src.chunks = null;
+            }
+
+            @Override
+            boolean add(final int i, final double v) {
+                if (chunks != null) {
+                    final int c = i >>> CHUNK_SHIFT;
+                    if (c == chunks.size()) {
+                        chunks.add(new double[CHUNK_SIZE]);
+                    }
+                    if (v != 0.d) {
+                        chunks.get(c)[i & CHUNK_MASK] = v;
+                        nnz++;
+                    }
+                    return true;
+                }
+                if (v == 0.d) {
+                    return true;
+                }
+                if (nnz == rows.length) {
+                    if (i >= MIN_DENSE_ROWS && nnz * 2 > i) {
+                        toDense(i);
+                        return add(i, v);
+                    }
+                    int newCapacity = nnz * 2;
+                    this.rows = Arrays.copyOf(rows, newCapacity);
+                    this.values = Arrays.copyOf(values, newCapacity);
+                }
+                rows[nnz] = i;
+                values[nnz] = v;
+                nnz++;
+                return true;
+            }
+
+            private void toDense(final int numRows) {
+                final List<double[]> list = new ArrayList<double[]>();
+                for (int c = 0, size = (numRows + CHUNK_MASK) >>> CHUNK_SHIFT; c < size; c++) {
+                    list.add(new double[CHUNK_SIZE]);
+                }
+                for (int k = 0; k < nnz; k++) {
+                    int i = rows[k];
+                    list.get(i >>> CHUNK_SHIFT)[i & CHUNK_MASK] = values[k];
+                }
+                this.chunks = list;
+                this.rows = null;
+                this.values = null;
+            }
+
+            @Override
+            Column toColumn(final int numRows) {
+                if (chunks == null) {
+                    if (nnz * 2L <= numRows) {
+                        return new DoubleSparseColumn(Arrays.copyOf(rows, nnz), Arrays.copyOf(
+                            values, nnz));
+                    }
+                    final double[] dense = new double[numRows];
+                    for (int k = 0; k < nnz; k++) {
+                        dense[rows[k]] = values[k];
+                    }
+                    this.rows = null;
+                    this.values = null;
+                    return new DoubleDenseColumn(dense);
+                }
+                if (nnz * 2L <= numRows) {
+                    final int[] r = new int[nnz];
+                    final double[] v = new double[nnz];
+                    int k = 0;
+                    for (int i = 0; i < numRows; i++) {
+                        double x = chunks.get(i >>> CHUNK_SHIFT)[i & CHUNK_MASK];
+                        if (x != 0.d) {
+                            r[k] = i;
+                            v[k] = x;
+                            k++;
+                        }
+                    }
+                    this.chunks = null;
+                    return new DoubleSparseColumn(r, v);
+                }
+                final double[] dense = new double[numRows];
+                for (int c = 0, size = chunks.size(); c < size; c++) {
+                    int from = c << CHUNK_SHIFT;
+                    System.arraycopy(chunks.get(c), 0, dense, from,
+                        Math.min(CHUNK_SIZE, numRows - from));
+                    chunks.set(c, null);
+                }
+                this.chunks = null;
+                return new DoubleDenseColumn(dense);
+            }
+
+        }
+
+    }
+
+}
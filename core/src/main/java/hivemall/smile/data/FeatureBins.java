@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import hivemall.smile.data.Attribute.AttributeType;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Numeric attributes quantized into bins of about the same frequency. Bins of attribute j are
+ * coded in one byte when there are up to 256 bins and in two bytes otherwise, so that split finding
+ * works on per-node histograms of bin codes instead of pre-sorted indexes of all the examples.
+ * <p>
+ * An example falls into the first bin <code>b</code> where <code>x &lt;= splitValue(j, b)</code>
+ * holds, which is the same test as the one of numeric tree nodes. When an attribute has no more
+ * distinct values than bins, each distinct value has its own bin and splits are the same as the
+ * exact split finding.
+ */
+public final class FeatureBins {
+
+    public static final int MAX_BINS = 65536;
+
+    /** upper bounds of bins for each numeric attribute, null for nominal ones */
+    @Nonnull
+    private final double[][] _splitValues;
+    @Nullable
+    private final byte[][] _byteCodes;
+    @Nullable
+    private final short[][] _shortCodes;
+
+    private FeatureBins(@Nonnull double[][] splitValues, @Nullable byte[][] byteCodes,
+            @Nullable short[][] shortCodes) {
+        this._splitValues = splitValues;
+        this._byteCodes = byteCodes;
+        this._shortCodes = shortCodes;
+    }
+
+    @Nonnull
+    public static FeatureBins build(@Nonnull final Attribute[] attributes,
+            @Nonnull final double[][] x, final int maxBins) {
+        return build(attributes, new RowMajorDenseMatrix(x), maxBins);
+    }
+
+    @Nonnull
+    public static FeatureBins build(@Nonnull final Attribute[] attributes,
+            @Nonnull final Matrix x, final int maxBins) {
+        if (maxBins < 2 || maxBins > MAX_BINS) {
+            throw new IllegalArgumentException("maxBins must be in range [2," + MAX_BINS + "]: "
+                    + maxBins);
+        }
+        final int n = x.numRows();
+        final int p = attributes.length;
+        final boolean useBytes = maxBins <= 256;
+
+        final double[][] splitValues = new double[p][];
+        final byte[][] byteCodes = useBytes ? new byte[p][] : null;
+        final short[][] shortCodes = useBytes ? null : new short[p][];
+        final double[] column = new double[n];
+        final double[] a = new double[n];
+        for (int j = 0; j < p; j++) {
+            if (attributes[j].type != AttributeType.NUMERIC) {
+                continue;
+            }
+            x.getColumn(j, column);
+            System.arraycopy(column, 0, a, 0, n);
+            Arrays.sort(a);
+            final double[] splits = computeSplitValues(a, maxBins);
+            splitValues[j] = splits;
+
+            if (useBytes) {
+                final byte[] codes = new byte[n];
+                for (int i = 0; i < n; i++) {
+                    codes[i] = (byte) findBin(splits, column[i]);
+                }
+                byteCodes[j] = codes;
+            } else {
+                final short[] codes = new short[n];
+                for (int i = 0; i < n; i++) {
+                    codes[i] = (short) findBin(splits, column[i]);
+                }
+                shortCodes[j] = codes;
+            }
+        }
+        return new FeatureBins(splitValues, byteCodes, shortCodes);
+    }
+
+    /**
+     * @param sorted attribute values in ascending order
+     * @return the upper bounds of bins where the last one is positive infinity
+     */
+    @Nonnull
+    static double[] computeSplitValues(@Nonnull final double[] sorted, final int maxBins) {
+        final int n = sorted.length;
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+
+        final double[] splits = new double[Math.min(distinct, maxBins)];
+        int numBins = 0;
+        if (distinct <= maxBins) {
+            for (int i = 1; i < n; i++) {
+                if (sorted[i] != sorted[i - 1]) {
+                    splits[numBins++] = (sorted[i - 1] + sorted[i]) / 2.d;
+                }
+            }
+        } else {
+            // close a bin at the first distinct value after each quantile
+            final double binSize = (double) n / maxBins;
+            double nextCut = binSize;
+            for (int i = 1; i < n && numBins < maxBins - 1; i++) {
+                if (i >= nextCut && sorted[i] != sorted[i - 1]) {
+                    splits[numBins++] = (sorted[i - 1] + sorted[i]) / 2.d;
+                    nextCut = i + binSize;
+                }
+            }
+        }
+        splits[numBins++] = Double.POSITIVE_INFINITY;
+        return (numBins == splits.length) ? splits : Arrays.copyOf(splits, numBins);
+    }
+
+    private static int findBin(@Nonnull final double[] splits, final double value) {
+        int low = 0;
+        int high = splits.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (value <= splits[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of bins of attribute j, or 0 if j is not a numeric attribute
+     */
+    public int getNumBins(final int j) {
+        final double[] splits = _splitValues[j];
+        return (splits == null) ? 0 : splits.length;
+    }
+
+    /**
+     * @return the bin of the i-th example on attribute j
+     */
+    public int getBin(final int i, final int j) {
+        if (_byteCodes != null) {
+            return _byteCodes[j][i] & 0xff;
+        } else {
+            return _shortCodes[j][i] & 0xffff;
+        }
+    }
+
+    /**
+     * @return the split value that separates bins up to <code>bin</code> from the rest
+     */
+    public double getSplitValue(final int j, final int bin) {
+        return _splitValues[j][bin];
+    }
+
+}
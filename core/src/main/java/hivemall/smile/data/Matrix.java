@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A read-only view of training instances for tree learners, where element (i, j) is the value of
+ * attribute j of instance i.
+ */
+public abstract class Matrix {
+
+    public abstract int numRows();
+
+    public abstract int numColumns();
+
+    public abstract double get(int i, int j);
+
+    /**
+     * Copies instance i into <code>dst</code>.
+     */
+    @Nonnull
+    public double[] getRow(final int i, @Nonnull final double[] dst) {
+        for (int j = 0, p = numColumns(); j < p; j++) {
+            dst[j] = get(i, j);
+        }
+        return dst;
+    }
+
+    /**
+     * Copies attribute j of all the instances into <code>dst</code>.
+     */
+    @Nonnull
+    public double[] getColumn(final int j, @Nonnull final double[] dst) {
+        for (int i = 0, n = numRows(); i < n; i++) {
+            dst[i] = get(i, j);
+        }
+        return dst;
+    }
+
+    /**
+     * Reorders instances so that the k-th instance becomes the <code>perm[k]</code>-th instance
+     * of this matrix.
+     */
+    public abstract void permuteRows(@Nonnull int[] perm);
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link Matrix} backed by an array of rows, which is not copied.
+ */
+public final class RowMajorDenseMatrix extends Matrix {
+
+    @Nonnull
+    private double[][] _data;
+    private final int _numColumns;
+
+    public RowMajorDenseMatrix(@Nonnull double[][] data) {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Empty matrix");
+        }
+        this._data = data;
+        this._numColumns = data[0].length;
+    }
+
+    @Override
+    public int numRows() {
+        return _data.length;
+    }
+
+    @Override
+    public int numColumns() {
+        return _numColumns;
+    }
+
+    @Override
+    public double get(final int i, final int j) {
+        return _data[i][j];
+    }
+
+    @Override
+    public double[] getRow(final int i, @Nonnull final double[] dst) {
+        System.arraycopy(_data[i], 0, dst, 0, _numColumns);
+        return dst;
+    }
+
+    @Override
+    public void permuteRows(@Nonnull final int[] perm) {
+        final double[][] data = _data;
+        final double[][] permuted = new double[data.length][];
+        for (int k = 0; k < perm.length; k++) {
+            permuted[k] = data[perm[k]];
+        }
+        this._data = permuted;
+    }
+
+}
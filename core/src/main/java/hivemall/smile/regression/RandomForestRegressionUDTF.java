@@ -19,8 +19,12 @@
 package hivemall.smile.regression;
 
 import hivemall.UDTFWithOptions;
+import hivemall.common.LearnerMetrics;
 import hivemall.smile.ModelType;
 import hivemall.smile.data.Attribute;
+import hivemall.smile.data.ColumnMajorMatrix;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.utils.SmileTaskExecutor;
 import hivemall.smile.vm.StackMachine;
@@ -31,6 +35,7 @@ import hivemall.utils.datetime.StopWatch;
 import hivemall.utils.hadoop.HiveUtils;
 import hivemall.utils.hadoop.WritableUtils;
 import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
 import hivemall.utils.lang.Primitives;
 import hivemall.utils.lang.RandomUtils;
 
@@ -39,6 +44,7 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -79,7 +85,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
     private PrimitiveObjectInspector featureElemOI;
     private PrimitiveObjectInspector targetOI;
 
-    private List<double[]> featuresList;
+    private ColumnMajorMatrix.Builder matrixBuilder;
     private DoubleArrayList targets;
     /**
      * The number of trees for each task
@@ -99,9 +105,16 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
     private int _maxLeafNodes;
     private int _minSamplesSplit;
     private int _minSamplesLeaf;
+    /**
+     * The maximum number of bins for histogram-based split finding, or 0 for exact split finding
+     */
+    private int _maxBins;
     private long _seed;
     private Attribute[] _attributes;
     private ModelType _outputType;
+    /** Training metrics. Null unless -metrics is specified */
+    @Nullable
+    private LearnerMetrics _metrics;
 
     @Nullable
     private Reporter _progressReporter;
@@ -128,13 +141,21 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             "A node that has greater than or equals to `min_split` examples will split [default: 5]");
         opts.addOption("min_samples_leaf", true,
             "The minimum number of samples in a leaf node [default: 1]");
+        opts.addOption("bins", "max_bins", true,
+            "The maximum number of bins of a numeric attribute for histogram-based split finding"
+                    + " in range [2,65536] [default: 0 (exact split finding)]");
         opts.addOption("seed", true, "seed value in long [default: -1 (random)]");
         opts.addOption("attrs", "attribute_types", true, "Comma separated attribute types "
                 + "(Q for quantitative variable and C for categorical variable. e.g., [Q,C,Q,C])");
         opts.addOption("output", "output_type", true,
-            "The output type (serialization/ser or opscode/vm or javascript/js) [default: serialization]");
+            "The output type (serialization/ser, flat, opscode/vm or javascript/js) [default: serialization]");
         opts.addOption("disable_compression", false,
             "Whether to disable compression of the output script [default: false]");
+        // metrics
+        opts.addOption("metrics", false,
+            "Publish training metrics through Hadoop counters [default: OFF]");
+        opts.addOption("metrics_jmx", false,
+            "Publish training metrics also through JMX (implies -metrics) [default: OFF]");
         return opts;
     }
 
@@ -142,6 +163,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
     protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
         int trees = 50, maxDepth = Integer.MAX_VALUE;
         int maxLeafs = Integer.MAX_VALUE, minSplit = 5, minSamplesLeaf = 1;
+        int maxBins = 0;
         float numVars = -1.f;
         Attribute[] attrs = null;
         long seed = -1L;
@@ -163,6 +185,11 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             minSplit = Primitives.parseInt(cl.getOptionValue("min_split"), minSplit);
             minSamplesLeaf = Primitives.parseInt(cl.getOptionValue("min_samples_leaf"),
                 minSamplesLeaf);
+            maxBins = Primitives.parseInt(cl.getOptionValue("max_bins"), maxBins);
+            if (maxBins != 0 && (maxBins < 2 || maxBins > FeatureBins.MAX_BINS)) {
+                throw new UDFArgumentException("-max_bins must be in range [2,"
+                        + FeatureBins.MAX_BINS + "]: " + maxBins);
+            }
             seed = Primitives.parseLong(cl.getOptionValue("seed"), seed);
             attrs = SmileExtUtils.resolveAttributes(cl.getOptionValue("attribute_types"));
             output = cl.getOptionValue("output", output);
@@ -177,9 +204,14 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         this._maxLeafNodes = maxLeafs;
         this._minSamplesSplit = minSplit;
         this._minSamplesLeaf = minSamplesLeaf;
+        this._maxBins = maxBins;
         this._seed = seed;
         this._attributes = attrs;
         this._outputType = ModelType.resolve(output, compress);
+        final boolean metricsJmx = cl != null && cl.hasOption("metrics_jmx");
+        if (metricsJmx || (cl != null && cl.hasOption("metrics"))) {
+            this._metrics = new LearnerMetrics(getClass().getSimpleName(), metricsJmx);
+        }
 
         return cl;
     }
@@ -201,7 +233,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
 
         processOptions(argOIs);
 
-        this.featuresList = new ArrayList<double[]>(1024);
+        this.matrixBuilder = new ColumnMajorMatrix.Builder();
         this.targets = new DoubleArrayList(1024);
 
         ArrayList<String> fieldNames = new ArrayList<String>(5);
@@ -228,11 +260,23 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         if (args[0] == null) {
             throw new HiveException("array<double> features was null");
         }
+        final LearnerMetrics metrics = _metrics;
+        final long parseStart = (metrics == null) ? 0L : metrics.startParse();
         double[] features = HiveUtils.asDoubleArray(args[0], featureListOI, featureElemOI);
         double target = PrimitiveObjectInspectorUtils.getDouble(args[1], targetOI);
 
-        featuresList.add(features);
+        try {
+            matrixBuilder.addRow(features);
+        } catch (IllegalArgumentException e) {
+            throw new HiveException(e.getMessage(), e);
+        }
         targets.add(target);
+        if (metrics != null) {
+            metrics.endParse(parseStart);
+            if (metrics.incrRows()) {
+                metrics.report(getReporter(), -1L);
+            }
+        }
     }
 
     @Override
@@ -250,15 +294,27 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
 
         reportProgress(_progressReporter);
 
-        int numExamples = featuresList.size();
+        int numExamples = matrixBuilder.numRows();
         if (numExamples > 0) {
-            double[][] x = featuresList.toArray(new double[numExamples][]);
-            this.featuresList = null;
+            ColumnMajorMatrix x = matrixBuilder.build();
+            this.matrixBuilder = null;
+            if (logger.isInfoEnabled()) {
+                logger.info("Built a " + numExamples + " x " + x.numColumns()
+                        + " training matrix of " + NumberUtils.prettySize(x.estimateMemoryUsage()));
+            }
             double[] y = targets.toArray();
             this.targets = null;
 
             // run training
+            final long trainStart = System.nanoTime();
             train(x, y);
+            if (_metrics != null) {
+                _metrics.addTrainingTime(System.nanoTime() - trainStart);
+            }
+        }
+
+        if (_metrics != null) {
+            _metrics.close(_progressReporter, _numTrees);
         }
 
         // clean up
@@ -285,10 +341,10 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
      * @param _numVars The number of variables to pick up in each node.
      * @param _seed The seed number for Random Forest
      */
-    private void train(@Nonnull final double[][] x, @Nonnull final double[] y) throws HiveException {
-        if (x.length != y.length) {
+    private void train(@Nonnull final Matrix x, @Nonnull final double[] y) throws HiveException {
+        if (x.numRows() != y.length) {
             throw new HiveException(String.format("The sizes of X and Y don't match: %d != %d",
-                x.length, y.length));
+                x.numRows(), y.length));
         }
         checkOptions();
 
@@ -305,20 +361,32 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
                     + ", seed: " + _seed);
         }
 
-        int numExamples = x.length;
+        int numExamples = x.numRows();
         double[] prediction = new double[numExamples]; // placeholder for out-of-bag prediction
         int[] oob = new int[numExamples];
-        int[][] order = SmileExtUtils.sort(attributes, x);
+        int[][] order = null;
+        FeatureBins bins = null;
+        if (_maxBins == 0) {
+            order = SmileExtUtils.sort(attributes, x);
+        } else {
+            bins = FeatureBins.build(attributes, x, _maxBins);
+        }
+        MapredContext mapredContext = MapredContextAccessor.get();
+        final int threads = SmileTaskExecutor.getNumThreads(mapredContext);
+        // build each tree in parallel as well when there are fewer trees than threads
+        final ForkJoinPool pool = (_numTrees < threads) ? SmileTaskExecutor.newForkJoinPool(threads)
+                : null;
         AtomicInteger remainingTasks = new AtomicInteger(_numTrees);
         List<TrainingTask> tasks = new ArrayList<TrainingTask>();
         for (int i = 0; i < _numTrees; i++) {
             long s = (_seed == -1L) ? -1L : _seed + i;
-            tasks.add(new TrainingTask(this, i, attributes, x, y, numInputVars, order, prediction,
-                oob, s, remainingTasks));
+            tasks.add(new TrainingTask(this, i, attributes, x, y, numInputVars, order, bins,
+                prediction, oob, s, remainingTasks, pool));
         }
 
-        MapredContext mapredContext = MapredContextAccessor.get();
-        final SmileTaskExecutor executor = new SmileTaskExecutor(mapredContext);
+        // build the trees on the pool for split finding if any, not on another thread pool
+        final SmileTaskExecutor executor = (pool == null) ? new SmileTaskExecutor(mapredContext)
+                : new SmileTaskExecutor(pool);
         try {
             executor.run(tasks);
         } catch (Exception ex) {
@@ -373,7 +441,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         /**
          * Training instances.
          */
-        private final double[][] _x;
+        private final Matrix _x;
         /**
          * Training sample labels.
          */
@@ -382,7 +450,13 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
          * The index of training values in ascending order. Note that only numeric attributes will
          * be sorted.
          */
+        @Nullable
         private final int[][] _order;
+        /**
+         * Quantized numeric attributes for histogram-based split finding.
+         */
+        @Nullable
+        private final FeatureBins _bins;
         /**
          * The number of variables to pick up in each node.
          */
@@ -400,21 +474,29 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
         private final int _taskId;
         private final long _seed;
         private final AtomicInteger _remainingTasks;
+        /**
+         * The pool to find splits of a tree in parallel.
+         */
+        @Nullable
+        private final ForkJoinPool _pool;
 
         TrainingTask(RandomForestRegressionUDTF udtf, int taskId, Attribute[] attributes,
-                double[][] x, double[] y, int numVars, int[][] order, double[] prediction,
-                int[] oob, long seed, AtomicInteger remainingTasks) {
+                Matrix x, double[] y, int numVars, @Nullable int[][] order,
+                @Nullable FeatureBins bins, double[] prediction, int[] oob, long seed,
+                AtomicInteger remainingTasks, @Nullable ForkJoinPool pool) {
             this._udtf = udtf;
             this._taskId = taskId;
             this._attributes = attributes;
             this._x = x;
             this._y = y;
             this._order = order;
+            this._bins = bins;
             this._numVars = numVars;
             this._prediction = prediction;
             this._oob = oob;
             this._seed = seed;
             this._remainingTasks = remainingTasks;
+            this._pool = pool;
         }
 
         @Override
@@ -423,7 +505,7 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
                 _seed).nextLong();
             final smile.math.Random rnd1 = new smile.math.Random(s);
             final smile.math.Random rnd2 = new smile.math.Random(rnd1.nextLong());
-            final int N = _x.length;
+            final int N = _x.numRows();
 
             // Training samples draw with replacement.
             final int[] bags = new int[N];
@@ -437,13 +519,14 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
             StopWatch stopwatch = new StopWatch();
             RegressionTree tree = new RegressionTree(_attributes, _x, _y, _numVars,
                 _udtf._maxDepth, _udtf._maxLeafNodes, _udtf._minSamplesSplit,
-                _udtf._minSamplesLeaf, _order, bags, rnd2);
+                _udtf._minSamplesLeaf, _order, _bins, bags, null, rnd2, _pool);
             incrCounter(_udtf._treeConstuctionTimeCounter, stopwatch.elapsed(TimeUnit.SECONDS));
 
             // out-of-bag prediction
+            final double[] xi = new double[_x.numColumns()];
             for (int i = sampled.nextClearBit(0); i < N; i = sampled.nextClearBit(i + 1)) {
-                double pred = tree.predict(_x[i]);
-                synchronized (_x[i]) {
+                double pred = tree.predict(_x.getRow(i, xi));
+                synchronized (_oob) {
                     _prediction[i] += pred;
                     _oob[i]++;
                 }
@@ -472,6 +555,13 @@ public final class RandomForestRegressionUDTF extends UDTFWithOptions {
                     model = new Text(b);
                     break;
                 }
+                case flat:
+                case flat_compressed: {
+                    byte[] b = tree.predictFlatCodegen(outputType.isCompressed());
+                    b = Base91.encode(b);
+                    model = new Text(b);
+                    break;
+                }
                 case opscode:
                 case opscode_compressed: {
                     String s = tree.predictOpCodegen(StackMachine.SEP);
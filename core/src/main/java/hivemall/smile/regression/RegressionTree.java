@@ -35,8 +35,15 @@ package hivemall.smile.regression;
 
 import hivemall.smile.data.Attribute;
 import hivemall.smile.data.Attribute.AttributeType;
+import hivemall.smile.data.ColumnMajorMatrix.SortedSparseColumn;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.vm.FlatTree;
+import hivemall.utils.codec.DeflateCodec;
 import hivemall.utils.collections.IntArrayList;
+import hivemall.utils.io.IOUtils;
 import hivemall.utils.lang.ObjectUtils;
 import hivemall.utils.lang.StringUtils;
 
@@ -48,6 +55,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -136,11 +147,35 @@ public final class RegressionTree implements Regression<double[]> {
      * The index of training values in ascending order. Note that only numeric attributes will be
      * sorted.
      */
+    @Nullable
     private final int[][] _order;
+    /**
+     * The sorted values of sparse columns, by which the values of {@link #_order} are read, or
+     * null if no column is sparse.
+     */
+    @Nullable
+    private final SortedSparseColumn[] _sortedColumns;
+    /**
+     * Quantized numeric attributes for histogram-based split finding, or null to find exact splits
+     * on {@link #_order}.
+     */
+    @Nullable
+    private final FeatureBins _bins;
 
     private final Random _rnd;
 
     private final NodeOutput _nodeOutput;
+    /**
+     * The pool to find splits in parallel, or null to build the tree in the caller thread.
+     */
+    @Nullable
+    private final ForkJoinPool _pool;
+
+    /**
+     * The minimum number of examples to scan for an attribute to evaluate attributes or child nodes
+     * of a node in parallel.
+     */
+    private static final int MIN_PARALLEL_WORK = 8192;
 
     /**
      * An interface to calculate node output. Note that samples[i] is the number of sampling of
@@ -283,6 +318,25 @@ public final class RegressionTree implements Regression<double[]> {
             }
         }
 
+        public void flatten(@Nonnull final FlatTree.Builder builder) {
+            if (trueChild == null && falseChild == null) {
+                builder.addLeaf(output);
+            } else {
+                final int node;
+                if (splitFeatureType == AttributeType.NOMINAL) {
+                    node = builder.addNominalSplit(splitFeature, splitValue);
+                } else if (splitFeatureType == AttributeType.NUMERIC) {
+                    node = builder.addNumericSplit(splitFeature, splitValue);
+                } else {
+                    throw new IllegalStateException("Unsupported attribute type: "
+                            + splitFeatureType);
+                }
+                trueChild.flatten(builder);
+                builder.setFalseChild(node);
+                falseChild.flatten(builder);
+            }
+        }
+
         public int opCodegen(final List<String> scripts, int depth) {
             int selfDepth = 0;
             final StringBuilder buf = new StringBuilder();
@@ -406,7 +460,7 @@ public final class RegressionTree implements Regression<double[]> {
         /**
          * Training dataset.
          */
-        final double[][] x;
+        final Matrix x;
         /**
          * Training data response value.
          */
@@ -415,16 +469,37 @@ public final class RegressionTree implements Regression<double[]> {
         int[] bags;
 
         final int depth;
+        /**
+         * The random number generator to choose the attributes of this node, which is derived from
+         * the parent's one when the tree is built in parallel.
+         */
+        final Random rnd;
+
+        /**
+         * Sums of responses and counts of numeric attributes over bins, computed on demand in
+         * histogram mode.
+         */
+        @Nullable
+        double[][] histSums;
+        @Nullable
+        int[][] histCounts;
+        /**
+         * The parent from which the histograms of a larger child are derived by subtracting the
+         * ones of its sibling.
+         */
+        @Nullable
+        TrainNode parent;
 
         /**
          * Constructor.
          */
-        public TrainNode(Node node, double[][] x, double[] y, int[] bags, int depth) {
+        public TrainNode(Node node, Matrix x, double[] y, int[] bags, int depth, Random rnd) {
             this.node = node;
             this.x = x;
             this.y = y;
             this.bags = bags;
             this.depth = depth;
+            this.rnd = rnd;
         }
 
         @Override
@@ -441,6 +516,10 @@ public final class RegressionTree implements Regression<double[]> {
             if (node.trueChild == null && node.falseChild == null) {
                 int[] samples = SmileExtUtils.bagsToSamples(bags);
                 node.output = output.calculate(samples);
+            } else if (_pool != null && trueChild != null && falseChild != null
+                    && x.numRows() >= MIN_PARALLEL_WORK) {
+                ForkJoinTask.invokeAll(new OutputTask(trueChild, output), new OutputTask(
+                    falseChild, output));
             } else {
                 if (trueChild != null) {
                     trueChild.calculateOutput(output);
@@ -474,28 +553,55 @@ public final class RegressionTree implements Regression<double[]> {
             }
 
             if (_numVars < p) {
-                SmileExtUtils.shuffle(variables, _rnd);
+                SmileExtUtils.shuffle(variables, rnd);
             }
 
             // Loop through features and compute the reduction of squared error,
             // which is trueCount * trueMean^2 + falseCount * falseMean^2 - count * parentMean^2      
-            final int[] samples = _hasNumericType ? SmileExtUtils.bagsToSamples(bags, x.length)
-                    : null;
-            for (int j = 0; j < _numVars; j++) {
-                Node split = findBestSplit(numSamples, sum, variables[j], samples);
-                if (split.splitScore > node.splitScore) {
-                    node.splitFeature = split.splitFeature;
-                    node.splitFeatureType = split.splitFeatureType;
-                    node.splitValue = split.splitValue;
-                    node.splitScore = split.splitScore;
-                    node.trueChildOutput = split.trueChildOutput;
-                    node.falseChildOutput = split.falseChildOutput;
+            final int[] samples = (_hasNumericType && _bins == null) ? SmileExtUtils.bagsToSamples(
+                bags, x.numRows()) : null;
+            if (_pool != null && _numVars > 1 && scanSize() >= MIN_PARALLEL_WORK) {
+                if (_bins != null && histSums == null) {
+                    this.histSums = new double[p][];
+                    this.histCounts = new int[p][];
+                }
+                final List<AttributeSplitTask> tasks = new ArrayList<AttributeSplitTask>(_numVars);
+                for (int j = 0; j < _numVars; j++) {
+                    tasks.add(new AttributeSplitTask(this, numSamples, sum, variables[j], samples));
+                }
+                ForkJoinTask.invokeAll(tasks);
+                // merge in the order of attributes to choose the same split as the serial one
+                for (AttributeSplitTask task : tasks) {
+                    updateSplit(task.join());
+                }
+            } else {
+                for (int j = 0; j < _numVars; j++) {
+                    Node split = findBestSplit(numSamples, sum, variables[j], samples);
+                    updateSplit(split);
                 }
             }
 
             return node.splitFeature != -1;
         }
 
+        private void updateSplit(@Nonnull final Node split) {
+            if (split.splitScore > node.splitScore) {
+                node.splitFeature = split.splitFeature;
+                node.splitFeatureType = split.splitFeatureType;
+                node.splitValue = split.splitValue;
+                node.splitScore = split.splitScore;
+                node.trueChildOutput = split.trueChildOutput;
+                node.falseChildOutput = split.falseChildOutput;
+            }
+        }
+
+        /**
+         * @return the number of examples to scan for finding a split on a numeric attribute
+         */
+        private int scanSize() {
+            return (_bins == null) ? x.numRows() : bags.length;
+        }
+
         /**
          * Finds the best split cutoff for attribute j at the current node.
          * 
@@ -517,7 +623,7 @@ public final class RegressionTree implements Regression<double[]> {
                     // For each true feature of this datum increment the
                     // sufficient statistics for the "true" branch to evaluate
                     // splitting on this feature.
-                    int index = (int) x[i][j];
+                    int index = (int) x.get(i, j);
                     trueSum[index] += y[i];
                     ++trueCount[index];
                 }
@@ -547,16 +653,61 @@ public final class RegressionTree implements Regression<double[]> {
                         split.falseChildOutput = falseMean;
                     }
                 }
+            } else if (_attributes[j].type == AttributeType.NUMERIC && _bins != null) {
+                histogram(j);
+                final double[] sums = histSums[j];
+                final int[] counts = histCounts[j];
+                final int numBins = _bins.getNumBins(j);
+                double trueSum = 0.0;
+                int trueCount = 0;
+                for (int b = 0; b < numBins - 1; b++) {
+                    if (counts[b] == 0) {
+                        continue;
+                    }
+                    trueSum += sums[b];
+                    trueCount += counts[b];
+                    final double falseCount = n - trueCount;
+                    if (falseCount == 0) {
+                        break;
+                    }
+
+                    // If either side is empty, skip this feature.
+                    if (trueCount < _minSplit || falseCount < _minSplit) {
+                        continue;
+                    }
+
+                    // compute penalized means
+                    final double trueMean = trueSum / trueCount;
+                    final double falseMean = (sum - trueSum) / falseCount;
+
+                    final double gain = (trueCount * trueMean * trueMean + falseCount * falseMean
+                            * falseMean)
+                            - n * split.output * split.output;
+                    if (gain > split.splitScore) {
+                        // new best split
+                        split.splitFeature = j;
+                        split.splitFeatureType = AttributeType.NUMERIC;
+                        split.splitValue = _bins.getSplitValue(j, b);
+                        split.splitScore = gain;
+                        split.trueChildOutput = trueMean;
+                        split.falseChildOutput = falseMean;
+                    }
+                }
             } else if (_attributes[j].type == AttributeType.NUMERIC) {
                 double trueSum = 0.0;
                 int trueCount = 0;
                 double prevx = Double.NaN;
 
-                for (int i : _order[j]) {
+                final int[] order = _order[j];
+                final SortedSparseColumn sorted = (_sortedColumns == null) ? null
+                        : _sortedColumns[j];
+                for (int k = 0; k < order.length; k++) {
+                    final int i = order[k];
                     final int sample = samples[i];
                     if (sample > 0) {
-                        if (Double.isNaN(prevx) || x[i][j] == prevx) {
-                            prevx = x[i][j];
+                        final double x_ij = (sorted == null) ? x.get(i, j) : sorted.get(k);
+                        if (Double.isNaN(prevx) || x_ij == prevx) {
+                            prevx = x_ij;
                             trueSum += sample * y[i];
                             trueCount += sample;
                             continue;
@@ -566,7 +717,7 @@ public final class RegressionTree implements Regression<double[]> {
 
                         // If either side is empty, skip this feature.
                         if (trueCount < _minSplit || falseCount < _minSplit) {
-                            prevx = x[i][j];
+                            prevx = x_ij;
                             trueSum += sample * y[i];
                             trueCount += sample;
                             continue;
@@ -586,13 +737,13 @@ public final class RegressionTree implements Regression<double[]> {
                             // new best split
                             split.splitFeature = j;
                             split.splitFeatureType = AttributeType.NUMERIC;
-                            split.splitValue = (x[i][j] + prevx) / 2;
+                            split.splitValue = (x_ij + prevx) / 2;
                             split.splitScore = gain;
                             split.trueChildOutput = trueMean;
                             split.falseChildOutput = falseMean;
                         }
 
-                        prevx = x[i][j];
+                        prevx = x_ij;
                         trueSum += sample * y[i];
                         trueCount += sample;
                     }
@@ -605,6 +756,52 @@ public final class RegressionTree implements Regression<double[]> {
             return split;
         }
 
+        /**
+         * Builds the sums of responses and counts of attribute j for each bin. The histograms of
+         * the larger child are the ones of its parent minus the ones of its sibling when both are
+         * available.
+         */
+        private void histogram(final int j) {
+            if (histSums == null) {
+                this.histSums = new double[_attributes.length][];
+                this.histCounts = new int[_attributes.length][];
+            } else if (histSums[j] != null) {
+                return;
+            }
+
+            final TrainNode sibling = (parent == null) ? null
+                    : (parent.trueChild == this ? parent.falseChild : parent.trueChild);
+            final double[] sums;
+            final int[] counts;
+            if (parent != null && parent.histSums != null && parent.histSums[j] != null
+                    && sibling != null && sibling.histSums != null
+                    && sibling.histSums[j] != null) {
+                final double[] parentSums = parent.histSums[j];
+                final int[] parentCounts = parent.histCounts[j];
+                final double[] siblingSums = sibling.histSums[j];
+                final int[] siblingCounts = sibling.histCounts[j];
+                final int numBins = parentSums.length;
+                sums = new double[numBins];
+                counts = new int[numBins];
+                for (int b = 0; b < numBins; b++) {
+                    sums[b] = parentSums[b] - siblingSums[b];
+                    counts[b] = parentCounts[b] - siblingCounts[b];
+                }
+            } else {
+                final int numBins = _bins.getNumBins(j);
+                sums = new double[numBins];
+                counts = new int[numBins];
+                for (int i = 0, size = bags.length; i < size; i++) {
+                    final int index = bags[i];
+                    final int b = _bins.getBin(index, j);
+                    sums[b] += y[index];
+                    counts[b]++;
+                }
+            }
+            histSums[j] = sums;
+            histCounts[j] = counts;
+        }
+
         /**
          * Split the node into two children nodes. Returns true if split success.
          */
@@ -635,32 +832,100 @@ public final class RegressionTree implements Regression<double[]> {
             this.bags = null; // help GC for recursive call
 
             node.trueChild = new Node(node.trueChildOutput);
-            this.trueChild = new TrainNode(node.trueChild, x, y, trueBags.toArray(), depth + 1);
+            this.trueChild = new TrainNode(node.trueChild, x, y, trueBags.toArray(), depth + 1,
+                childRandom());
             trueBags = null; // help GC for recursive call
-            if (tc >= _minSplit && trueChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(trueChild);
-                } else {
-                    trueChild.split(null);
-                }
-            }
-
             node.falseChild = new Node(node.falseChildOutput);
-            this.falseChild = new TrainNode(node.falseChild, x, y, falseBags.toArray(), depth + 1);
+            this.falseChild = new TrainNode(node.falseChild, x, y, falseBags.toArray(),
+                depth + 1, childRandom());
             falseBags = null; // help GC for recursive call
-            if (fc >= _minSplit && falseChild.findBestSplit()) {
-                if (nextSplits != null) {
-                    nextSplits.add(falseChild);
+
+            if (_bins == null && _pool == null) {
+                if (tc >= _minSplit && trueChild.findBestSplit()) {
+                    if (nextSplits != null) {
+                        nextSplits.add(trueChild);
+                    } else {
+                        trueChild.split(null);
+                    }
+                }
+                if (fc >= _minSplit && falseChild.findBestSplit()) {
+                    if (nextSplits != null) {
+                        nextSplits.add(falseChild);
+                    } else {
+                        falseChild.split(null);
+                    }
+                }
+            } else if (_bins == null) {
+                final boolean trueSplit = tc >= _minSplit && trueChild.findBestSplit();
+                final boolean falseSplit = fc >= _minSplit && falseChild.findBestSplit();
+                splitChildren(trueSplit, falseSplit, nextSplits);
+            } else {
+                // find splits of the smaller child first so that the larger one derives its
+                // histograms by subtraction
+                trueChild.parent = this;
+                falseChild.parent = this;
+                final boolean trueSplit, falseSplit;
+                if (tc <= fc) {
+                    trueSplit = tc >= _minSplit && trueChild.findBestSplit();
+                    falseSplit = fc >= _minSplit && falseChild.findBestSplit();
                 } else {
-                    falseChild.split(null);
+                    falseSplit = fc >= _minSplit && falseChild.findBestSplit();
+                    trueSplit = tc >= _minSplit && trueChild.findBestSplit();
+                }
+                trueChild.parent = null;
+                falseChild.parent = null;
+                this.histSums = null;
+                this.histCounts = null;
+                if (!trueSplit) {
+                    trueChild.histSums = null;
+                    trueChild.histCounts = null;
+                }
+                if (!falseSplit) {
+                    falseChild.histSums = null;
+                    falseChild.histCounts = null;
                 }
+                splitChildren(trueSplit, falseSplit, nextSplits);
             }
 
-            _importance[node.splitFeature] += node.splitScore;
+            synchronized (_importance) {
+                _importance[node.splitFeature] += node.splitScore;
+            }
 
             return true;
         }
 
+        @Nonnull
+        private Random childRandom() {
+            return (_pool == null) ? rnd : new Random(rnd.nextLong());
+        }
+
+        /**
+         * Queues children nodes for best-first growing or splits them recursively, where the two
+         * children are split in parallel when the tree is built in parallel.
+         */
+        private void splitChildren(final boolean trueSplit, final boolean falseSplit,
+                @Nullable final PriorityQueue<TrainNode> nextSplits) {
+            if (nextSplits != null) {
+                if (trueSplit) {
+                    nextSplits.add(trueChild);
+                }
+                if (falseSplit) {
+                    nextSplits.add(falseChild);
+                }
+            } else if (trueSplit && falseSplit && _pool != null
+                    && _numVars * (long) Math.min(trueChild.scanSize(), falseChild.scanSize())
+                    >= MIN_PARALLEL_WORK) {
+                ForkJoinTask.invokeAll(new NodeSplitTask(trueChild), new NodeSplitTask(falseChild));
+            } else {
+                if (trueSplit) {
+                    trueChild.split(null);
+                }
+                if (falseSplit) {
+                    falseChild.split(null);
+                }
+            }
+        }
+
         /**
          * @return the number of true samples
          */
@@ -672,7 +937,7 @@ public final class RegressionTree implements Regression<double[]> {
                 final double splitValue = node.splitValue;
                 for (int i = 0, size = bags.length; i < size; i++) {
                     final int index = bags[i];
-                    if (x[index][splitFeature] == splitValue) {
+                    if (x.get(index, splitFeature) == splitValue) {
                         trueBags.add(index);
                         tc++;
                     } else {
@@ -684,7 +949,7 @@ public final class RegressionTree implements Regression<double[]> {
                 final double splitValue = node.splitValue;
                 for (int i = 0, size = bags.length; i < size; i++) {
                     final int index = bags[i];
-                    if (x[index][splitFeature] <= splitValue) {
+                    if (x.get(index, splitFeature) <= splitValue) {
                         trueBags.add(index);
                         tc++;
                     } else {
@@ -737,10 +1002,61 @@ public final class RegressionTree implements Regression<double[]> {
             @Nonnull double[] y, int numVars, int maxDepth, int maxLeafs, int minSplits,
             int minLeafSize, @Nullable int[][] order, @Nullable int[] bags,
             @Nullable NodeOutput output, @Nullable smile.math.Random rand) {
+        this(attributes, x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize, order, null,
+            bags, output, rand);
+    }
+
+    /**
+     * Constructor. Learns a regression tree for gradient tree boosting.
+     * 
+     * @param order the index of training values in ascending order, or null to sort numeric
+     *        attributes. Not used when <code>bins</code> is given.
+     * @param bins quantized numeric attributes to find splits on histograms of bins, or null to
+     *        find exact splits
+     */
+    public RegressionTree(@Nullable Attribute[] attributes, @Nonnull double[][] x,
+            @Nonnull double[] y, int numVars, int maxDepth, int maxLeafs, int minSplits,
+            int minLeafSize, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nullable int[] bags, @Nullable NodeOutput output, @Nullable smile.math.Random rand) {
+        this(attributes, new RowMajorDenseMatrix(x), y, numVars, maxDepth, maxLeafs, minSplits,
+            minLeafSize, order, bins, bags, output, rand);
+    }
+
+    /**
+     * Constructor. Learns a regression tree from training instances that are read through
+     * {@link Matrix}.
+     * 
+     * @see #RegressionTree(Attribute[], double[][], double[], int, int, int, int, int, int[][],
+     *      FeatureBins, int[], NodeOutput, smile.math.Random)
+     */
+    public RegressionTree(@Nullable Attribute[] attributes, @Nonnull Matrix x,
+            @Nonnull double[] y, int numVars, int maxDepth, int maxLeafs, int minSplits,
+            int minLeafSize, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nullable int[] bags, @Nullable NodeOutput output, @Nullable smile.math.Random rand) {
+        this(attributes, x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize, order, bins,
+            bags, output, rand, null);
+    }
+
+    /**
+     * Constructor. Learns a regression tree, where candidate attributes of a node, children nodes
+     * and outputs of leaves are evaluated in parallel on <code>pool</code>.
+     * <p>
+     * A tree built in parallel does not depend on the parallelism of <code>pool</code>, but it
+     * differs from the one built serially with the same seed because attributes of each node are
+     * chosen by a random number generator derived from the parent's one.
+     * 
+     * @param pool the pool to find splits in parallel, or null to build the tree in the caller
+     *        thread
+     */
+    public RegressionTree(@Nullable Attribute[] attributes, @Nonnull Matrix x,
+            @Nonnull double[] y, int numVars, int maxDepth, int maxLeafs, int minSplits,
+            int minLeafSize, @Nullable int[][] order, @Nullable FeatureBins bins,
+            @Nullable int[] bags, @Nullable NodeOutput output, @Nullable smile.math.Random rand,
+            @Nullable ForkJoinPool pool) {
         checkArgument(x, y, numVars, maxDepth, maxLeafs, minSplits, minLeafSize);
 
         this._attributes = SmileExtUtils.attributeTypes(attributes, x);
-        if (_attributes.length != x[0].length) {
+        if (_attributes.length != x.numColumns()) {
             throw new IllegalArgumentException("-attrs option is invliad: "
                     + Arrays.toString(attributes));
         }
@@ -750,10 +1066,18 @@ public final class RegressionTree implements Regression<double[]> {
         this._maxDepth = maxDepth;
         this._minSplit = minSplits;
         this._minLeafSize = minLeafSize;
-        this._order = (order == null) ? SmileExtUtils.sort(_attributes, x) : order;
+        this._bins = bins;
+        if (bins == null) {
+            this._order = (order == null) ? SmileExtUtils.sort(_attributes, x) : order;
+            this._sortedColumns = SmileExtUtils.sortedSparseColumns(_attributes, x);
+        } else {
+            this._order = null;
+            this._sortedColumns = null;
+        }
         this._importance = new double[_attributes.length];
         this._rnd = (rand == null) ? new smile.math.Random() : rand;
         this._nodeOutput = output;
+        this._pool = pool;
 
         int n = 0;
         double sum = 0.0;
@@ -774,7 +1098,25 @@ public final class RegressionTree implements Regression<double[]> {
 
         this._root = new Node(sum / n);
 
-        TrainNode trainRoot = new TrainNode(_root, x, y, bags, 1);
+        final TrainNode trainRoot = new TrainNode(_root, x, y, bags, 1, _rnd);
+        if (pool == null || ForkJoinTask.getPool() == pool) { // already in a worker of the pool
+            grow(trainRoot, maxLeafs, output);
+        } else {
+            final int leafs = maxLeafs;
+            final NodeOutput nodeOutput = output;
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = -2944931727946165826L;
+
+                @Override
+                protected void compute() {
+                    grow(trainRoot, leafs, nodeOutput);
+                }
+            });
+        }
+    }
+
+    private static void grow(@Nonnull final TrainNode trainRoot, final int maxLeafs,
+            @Nullable final NodeOutput output) {
         if (maxLeafs == Integer.MAX_VALUE) {
             if (trainRoot.findBestSplit()) {
                 trainRoot.split(null);
@@ -803,13 +1145,78 @@ public final class RegressionTree implements Regression<double[]> {
         }
     }
 
-    private static void checkArgument(@Nonnull double[][] x, @Nonnull double[] y, int numVars,
+    /**
+     * Finds the best split of a node on an attribute.
+     */
+    private static final class AttributeSplitTask extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 3424497283451036539L;
+
+        private final TrainNode trainNode;
+        private final int n;
+        private final double sum;
+        private final int j;
+        @Nullable
+        private final int[] samples;
+
+        AttributeSplitTask(TrainNode trainNode, int n, double sum, int j, @Nullable int[] samples) {
+            this.trainNode = trainNode;
+            this.n = n;
+            this.sum = sum;
+            this.j = j;
+            this.samples = samples;
+        }
+
+        @Override
+        protected Node compute() {
+            return trainNode.findBestSplit(n, sum, j, samples);
+        }
+    }
+
+    /**
+     * Splits a node recursively.
+     */
+    private static final class NodeSplitTask extends RecursiveAction {
+        private static final long serialVersionUID = -5637916001498410283L;
+
+        private final TrainNode trainNode;
+
+        NodeSplitTask(TrainNode trainNode) {
+            this.trainNode = trainNode;
+        }
+
+        @Override
+        protected void compute() {
+            trainNode.split(null);
+        }
+    }
+
+    /**
+     * Calculates the outputs of leaves under a node.
+     */
+    private static final class OutputTask extends RecursiveAction {
+        private static final long serialVersionUID = 8253174213390452317L;
+
+        private final TrainNode trainNode;
+        private final NodeOutput output;
+
+        OutputTask(TrainNode trainNode, NodeOutput output) {
+            this.trainNode = trainNode;
+            this.output = output;
+        }
+
+        @Override
+        protected void compute() {
+            trainNode.calculateOutput(output);
+        }
+    }
+
+    private static void checkArgument(@Nonnull Matrix x, @Nonnull double[] y, int numVars,
             int maxDepth, int maxLeafs, int minSplits, int minLeafSize) {
-        if (x.length != y.length) {
+        if (x.numRows() != y.length) {
             throw new IllegalArgumentException(String.format(
-                "The sizes of X and Y don't match: %d != %d", x.length, y.length));
+                "The sizes of X and Y don't match: %d != %d", x.numRows(), y.length));
         }
-        if (numVars <= 0 || numVars > x[0].length) {
+        if (numVars <= 0 || numVars > x.numColumns()) {
             throw new IllegalArgumentException(
                 "Invalid number of variables to split on at a node of the tree: " + numVars);
         }
@@ -875,6 +1282,24 @@ public final class RegressionTree implements Regression<double[]> {
         }
     }
 
+    @Nonnull
+    public byte[] predictFlatCodegen(boolean compress) throws HiveException {
+        final FlatTree.Builder builder = new FlatTree.Builder();
+        _root.flatten(builder);
+        final byte[] b = builder.build().serialize();
+        if (!compress) {
+            return b;
+        }
+        final DeflateCodec codec = new DeflateCodec(true, false);
+        try {
+            return codec.compress(b);
+        } catch (IOException ioe) {
+            throw new HiveException("IOException cause while compressing RegressionTree object", ioe);
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+    }
+
     public static Node deserializeNode(final byte[] serializedObj, final int length,
             final boolean compressed) throws HiveException {
         final Node root = new Node();
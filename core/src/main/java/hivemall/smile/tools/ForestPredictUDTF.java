@@ -0,0 +1,384 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.tools;
+
+import hivemall.UDTFWithOptions;
+import hivemall.smile.ModelType;
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.regression.RegressionTree;
+import hivemall.smile.vm.FlatTree;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.codec.DeflateCodec;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.DistributedCacheLoader;
+import hivemall.utils.hadoop.DistributedCacheLoader.LineHandler;
+import hivemall.utils.hadoop.DistributedCacheLoader.Loader;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hadoop.WritableUtils;
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.Primitives;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+
+/**
+ * Predicts by all the trees of a forest at once, instead of joining every row with every tree for
+ * tree_predict and aggregating the results by rf_ensemble. The trees are loaded from a model file
+ * in the distributed cache once per JVM, and input rows are buffered so that each tree is
+ * evaluated over a batch of rows in turn.
+ */
+@Description(
+        name = "forest_predict",
+        value = "_FUNC_(ANY rowid, array<double> features, const string options)"
+                + " - Returns a relation <rowid, int label, double probability, array<double> probabilities>"
+                + " for classification or <rowid, double predicted> for regression")
+@UDFType(deterministic = true, stateful = false)
+public final class ForestPredictUDTF extends UDTFWithOptions {
+    private static final Log logger = LogFactory.getLog(ForestPredictUDTF.class);
+
+    private static final char FIELD_DELIMITER = DistributedCacheLoader.FIELD_DELIMITER;
+
+    /** Holds the forest loaded last in the JVM */
+    private static final DistributedCacheLoader<Forest> FOREST_LOADER =
+            new DistributedCacheLoader<Forest>();
+
+    private ObjectInspector rowIdOI;
+    private ListObjectInspector featureListOI;
+    private PrimitiveObjectInspector featureElemOI;
+
+    private String modelFile;
+    private boolean classification;
+    private int batchSize;
+
+    @Nullable
+    private Forest forest;
+    @Nullable
+    private Object[] rowIds;
+    @Nullable
+    private double[][] rows;
+    private int numBuffered;
+
+    public ForestPredictUDTF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("loadmodel", true,
+            "Model file name in the distributed cache, which has model_id, model_type and"
+                    + " pred_model columns of train_randomforest_classifier/regressor in order");
+        opts.addOption("classification", false,
+            "Predict class labels by majority vote [default: false (regression)]");
+        opts.addOption("batch", "batch_size", true,
+            "The number of rows evaluated by each tree at a time [default: 128]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(ObjectInspector[] argOIs) throws UDFArgumentException {
+        String rawArgs = HiveUtils.getConstString(argOIs[2]);
+        CommandLine cl = parseOptions(rawArgs);
+
+        String modelFile = cl.getOptionValue("loadmodel");
+        if (modelFile == null) {
+            throw new UDFArgumentException("-loadmodel is required for _FUNC_");
+        }
+        int batchSize = Primitives.parseInt(cl.getOptionValue("batch_size"), 128);
+        if (batchSize < 1) {
+            throw new UDFArgumentException("Invalid batch size: " + batchSize);
+        }
+
+        this.modelFile = modelFile;
+        this.classification = cl.hasOption("classification");
+        this.batchSize = batchSize;
+        return cl;
+    }
+
+    @Override
+    public StructObjectInspector initialize(ObjectInspector[] argOIs) throws UDFArgumentException {
+        if (argOIs.length != 3) {
+            throw new UDFArgumentException(
+                "_FUNC_ takes 3 arguments: ANY rowid, array<double> features, const string options");
+        }
+        this.rowIdOI = argOIs[0];
+        this.featureListOI = HiveUtils.asListOI(argOIs[1]);
+        this.featureElemOI = HiveUtils.asDoubleCompatibleOI(featureListOI.getListElementObjectInspector());
+
+        processOptions(argOIs);
+
+        this.forest = null;
+        this.rowIds = new Object[batchSize];
+        this.rows = new double[batchSize][];
+        this.numBuffered = 0;
+
+        ArrayList<String> fieldNames = new ArrayList<String>();
+        ArrayList<ObjectInspector> fieldOIs = new ArrayList<ObjectInspector>();
+        fieldNames.add("rowid");
+        fieldOIs.add(ObjectInspectorUtils.getStandardObjectInspector(rowIdOI,
+            ObjectInspectorCopyOption.DEFAULT));
+        if (classification) {
+            fieldNames.add("label");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableIntObjectInspector);
+            fieldNames.add("probability");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+            fieldNames.add("probabilities");
+            fieldOIs.add(ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector));
+        } else {
+            fieldNames.add("predicted");
+            fieldOIs.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+        }
+        return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldOIs);
+    }
+
+    @Override
+    public void process(Object[] args) throws HiveException {
+        if (args[1] == null) {
+            return;
+        }
+        if (forest == null) {
+            this.forest = getForest(modelFile, classification, mapredContext);
+        }
+        int i = numBuffered;
+        rowIds[i] = ObjectInspectorUtils.copyToStandardObject(args[0], rowIdOI,
+            ObjectInspectorCopyOption.DEFAULT);
+        rows[i] = HiveUtils.asDoubleArray(args[1], featureListOI, featureElemOI);
+        this.numBuffered = ++i;
+        if (i == batchSize) {
+            predictAndForward();
+        }
+    }
+
+    private void predictAndForward() throws HiveException {
+        final int n = numBuffered;
+        if (n == 0) {
+            return;
+        }
+        assert (forest != null);
+        final FlatTree[] trees = forest.trees;
+        final double[][] rows = this.rows;
+
+        try {
+            if (classification) {
+                final int numClasses = forest.numClasses;
+                final int[] votes = new int[n * numClasses];
+                for (FlatTree tree : trees) {
+                    for (int i = 0; i < n; i++) {
+                        int label = (int) tree.predict(rows[i]);
+                        votes[i * numClasses + label]++;
+                    }
+                }
+                forwardClassification(votes, numClasses, trees.length);
+            } else {
+                final double[] sums = new double[n];
+                for (FlatTree tree : trees) {
+                    for (int i = 0; i < n; i++) {
+                        sums[i] += tree.predict(rows[i]);
+                    }
+                }
+                final Object[] forwardObjs = new Object[2];
+                for (int i = 0; i < n; i++) {
+                    forwardObjs[0] = rowIds[i];
+                    forwardObjs[1] = new DoubleWritable(sums[i] / trees.length);
+                    forward(forwardObjs);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new HiveException("Features do not match the model: " + modelFile, e);
+        }
+
+        Arrays.fill(rowIds, 0, n, null);
+        Arrays.fill(rows, 0, n, null);
+        this.numBuffered = 0;
+    }
+
+    private void forwardClassification(@Nonnull final int[] votes, final int numClasses,
+            final int numTrees) throws HiveException {
+        final Object[] forwardObjs = new Object[4];
+        final double[] probabilities = new double[numClasses];
+        for (int i = 0, n = numBuffered; i < n; i++) {
+            int label = 0;
+            int maxVotes = -1;
+            for (int k = 0; k < numClasses; k++) {
+                int v = votes[i * numClasses + k];
+                if (v > maxVotes) {
+                    maxVotes = v;
+                    label = k;
+                }
+                probabilities[k] = v / (double) numTrees;
+            }
+            forwardObjs[0] = rowIds[i];
+            forwardObjs[1] = new IntWritable(label);
+            forwardObjs[2] = new DoubleWritable(probabilities[label]);
+            forwardObjs[3] = WritableUtils.toWritableList(probabilities);
+            forward(forwardObjs);
+        }
+    }
+
+    @Override
+    public void close() throws HiveException {
+        predictAndForward();
+        this.forest = null;
+        this.rowIds = null;
+        this.rows = null;
+    }
+
+    @Nonnull
+    private static Forest getForest(@Nonnull final String modelFile,
+            final boolean classification, @Nullable final MapredContext context)
+            throws HiveException {
+        try {
+            return FOREST_LOADER.get(new File(modelFile), classification, new Loader<Forest>() {
+                @Override
+                public Forest load(File file) throws IOException, HiveException {
+                    return loadForest(file, classification, context);
+                }
+            });
+        } catch (IOException e) {
+            throw new HiveException("Failed to load a model: " + modelFile, e);
+        }
+    }
+
+    @Nonnull
+    private static Forest loadForest(@Nonnull final File file, final boolean classification,
+            @Nullable final MapredContext context) throws IOException, HiveException {
+        final StopWatch elapsed = new StopWatch();
+        final List<FlatTree> trees = new ArrayList<FlatTree>();
+        final DeflateCodec codec = new DeflateCodec(false, true);
+        try {
+            DistributedCacheLoader.readLines(file, context, new LineHandler() {
+                @Override
+                public void handle(String line) throws HiveException {
+                    // model_id, model_type, pred_model [, ...]
+                    int i1 = line.indexOf(FIELD_DELIMITER);
+                    int i2 = (i1 == -1) ? -1 : line.indexOf(FIELD_DELIMITER, i1 + 1);
+                    if (i2 == -1) {
+                        return;
+                    }
+                    int i3 = line.indexOf(FIELD_DELIMITER, i2 + 1);
+                    String modelId = line.substring(0, i1);
+                    final ModelType type;
+                    try {
+                        type = ModelType.resolve(Integer.parseInt(line.substring(i1 + 1, i2)));
+                    } catch (NumberFormatException e) {
+                        throw new HiveException("Illegal model_type of model " + modelId, e);
+                    }
+                    String model = (i3 == -1) ? line.substring(i2 + 1) : line.substring(i2 + 1,
+                        i3);
+                    trees.add(toFlatTree(modelId, type, model, classification, codec));
+                }
+            });
+        } finally {
+            IOUtils.closeQuietly(codec);
+        }
+        if (trees.isEmpty()) {
+            throw new HiveException("No tree found in " + file.getPath());
+        }
+        int numClasses = 0;
+        if (classification) {
+            double maxLabel = 0.d;
+            for (FlatTree tree : trees) {
+                maxLabel = Math.max(maxLabel, tree.maxOutput());
+            }
+            numClasses = Math.max(2, (int) maxLabel + 1);
+        }
+        logger.info("Loaded " + trees.size() + " trees from distributed cache '" + file.getPath()
+                + "' in " + elapsed);
+        return new Forest(trees.toArray(new FlatTree[0]), numClasses);
+    }
+
+    @Nonnull
+    private static FlatTree toFlatTree(@Nonnull final String modelId,
+            @Nonnull final ModelType type, @Nonnull final String model,
+            final boolean classification, @Nonnull final DeflateCodec codec) throws HiveException {
+        final byte[] b = Base91.decode(model.getBytes());
+        switch (type) {
+            case serialization:
+            case serialization_compressed: {
+                final FlatTree.Builder builder = new FlatTree.Builder();
+                if (classification) {
+                    DecisionTree.deserializeNode(b, b.length, type.isCompressed()).flatten(
+                        builder);
+                } else {
+                    RegressionTree.deserializeNode(b, b.length, type.isCompressed()).flatten(
+                        builder);
+                }
+                return builder.build();
+            }
+            case flat:
+            case flat_compressed: {
+                byte[] flat = b;
+                if (type.isCompressed()) {
+                    try {
+                        flat = codec.decompress(b);
+                    } catch (IOException e) {
+                        throw new HiveException("decompression failed: " + modelId, e);
+                    }
+                }
+                try {
+                    return FlatTree.deserialize(flat, 0, flat.length);
+                } catch (IllegalArgumentException e) {
+                    throw new HiveException("Failed to read a flat tree of model " + modelId, e);
+                }
+            }
+            default:
+                throw new HiveException("Unsupported model type for forest_predict: " + type
+                        + ". Use -output serialization or flat for training");
+        }
+    }
+
+    private static final class Forest {
+
+        @Nonnull
+        final FlatTree[] trees;
+        /** the number of classes, or 0 for regression */
+        final int numClasses;
+
+        Forest(@Nonnull FlatTree[] trees, int numClasses) {
+            this.trees = trees;
+            this.numClasses = numClasses;
+        }
+
+    }
+
+}
@@ -21,16 +21,20 @@ package hivemall.smile.tools;
 import hivemall.smile.ModelType;
 import hivemall.smile.classification.DecisionTree;
 import hivemall.smile.regression.RegressionTree;
+import hivemall.smile.vm.FlatTree;
 import hivemall.smile.vm.StackMachine;
 import hivemall.smile.vm.VMRuntimeException;
 import hivemall.utils.codec.Base91;
 import hivemall.utils.codec.DeflateCodec;
 import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.hashing.MurmurHash3;
 import hivemall.utils.io.IOUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -76,6 +80,12 @@ public final class TreePredictUDF extends GenericUDF {
     private transient Evaluator evaluator;
     private boolean support_javascript_eval = true;
 
+    /**
+     * Flat trees shared across the UDF instances in a JVM
+     */
+    private static final FlatTreeCache flatTreeCache = new FlatTreeCache(
+        FlatTreeCache.DEFAULT_MAX_NODES);
+
     @Override
     public void configure(MapredContext context) {
         super.configure(context);
@@ -86,6 +96,10 @@ public final class TreePredictUDF extends GenericUDF {
             if (tdJarVersion != null) {
                 this.support_javascript_eval = false;
             }
+            long maxNodes = conf.getLong("hivemall.smile.tree_cache_nodes", -1L);
+            if (maxNodes > 0L) {
+                flatTreeCache.setMaxNodes(maxNodes);
+            }
         }
     }
 
@@ -159,6 +173,11 @@ public final class TreePredictUDF extends GenericUDF {
                 evaluator = new JavaSerializationEvaluator();
                 break;
             }
+            case flat:
+            case flat_compressed: {
+                evaluator = new FlatTreeEvaluator(flatTreeCache);
+                break;
+            }
             case opscode:
             case opscode_compressed: {
                 evaluator = new StackmachineEvaluator();
@@ -255,6 +274,167 @@ public final class TreePredictUDF extends GenericUDF {
 
     }
 
+    static final class FlatTreeEvaluator implements Evaluator {
+
+        @Nonnull
+        private final FlatTreeCache cache;
+
+        @Nullable
+        private String prevModelId = null;
+        @Nullable
+        private FlatTree prevTree = null;
+        @Nullable
+        private DeflateCodec codec = null;
+
+        FlatTreeEvaluator(@Nonnull FlatTreeCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public Writable evaluate(@Nonnull String modelId, boolean compressed, @Nonnull Text script,
+                double[] features, boolean classification) throws HiveException {
+            final FlatTree tree;
+            if (modelId.equals(prevModelId)) {
+                tree = prevTree;
+            } else {
+                tree = getTree(modelId, compressed, script);
+                this.prevModelId = modelId;
+                this.prevTree = tree;
+            }
+            assert (tree != null);
+
+            final double result;
+            try {
+                result = tree.predict(features);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new HiveException("Illegal number of features: " + features.length, e);
+            }
+            if (classification) {
+                return new IntWritable((int) result);
+            } else {
+                return new DoubleWritable(result);
+            }
+        }
+
+        @Nonnull
+        private FlatTree getTree(@Nonnull final String modelId, final boolean compressed,
+                @Nonnull final Text script) throws HiveException {
+            final int length = script.getLength();
+            final int fingerprint = FlatTreeCache.fingerprint(script.getBytes(), length);
+            FlatTree tree = cache.get(modelId, length, fingerprint);
+            if (tree != null) {
+                return tree;
+            }
+
+            byte[] b = Base91.decode(script.getBytes(), 0, length);
+            if (compressed) {
+                if (codec == null) {
+                    this.codec = new DeflateCodec(false, true);
+                }
+                try {
+                    b = codec.decompress(b);
+                } catch (IOException e) {
+                    throw new HiveException("decompression failed", e);
+                }
+            }
+            try {
+                tree = FlatTree.deserialize(b, 0, b.length);
+            } catch (IllegalArgumentException e) {
+                throw new HiveException("Failed to read a flat tree of model " + modelId, e);
+            }
+            cache.put(modelId, length, fingerprint, tree);
+            return tree;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOUtils.closeQuietly(codec);
+        }
+
+    }
+
+    /**
+     * An LRU cache of flat trees bounded by the total number of nodes. A cached tree is identified
+     * by its model id together with the length and a hash of its whole script, because model ids
+     * are not unique across models (e.g., boosting iterations or a retrained model).
+     */
+    static final class FlatTreeCache {
+
+        /** about 64MB of flat trees */
+        static final long DEFAULT_MAX_NODES = 1L << 22;
+
+        @Nonnull
+        private final LinkedHashMap<String, Entry> map;
+        private long maxNodes;
+        private long numNodes;
+
+        FlatTreeCache(long maxNodes) {
+            this.map = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+            this.maxNodes = maxNodes;
+            this.numNodes = 0L;
+        }
+
+        synchronized void setMaxNodes(long maxNodes) {
+            this.maxNodes = maxNodes;
+            evict();
+        }
+
+        synchronized long numNodes() {
+            return numNodes;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        @Nullable
+        synchronized FlatTree get(@Nonnull String modelId, int length, int fingerprint) {
+            final Entry e = map.get(modelId);
+            if (e == null || e.length != length || e.fingerprint != fingerprint) {
+                return null;
+            }
+            return e.tree;
+        }
+
+        synchronized void put(@Nonnull String modelId, int length, int fingerprint,
+                @Nonnull FlatTree tree) {
+            final Entry prev = map.put(modelId, new Entry(length, fingerprint, tree));
+            if (prev != null) {
+                numNodes -= prev.tree.numNodes();
+            }
+            numNodes += tree.numNodes();
+            evict();
+        }
+
+        private void evict() {
+            // keep at least the most recently used tree
+            final Iterator<Entry> itor = map.values().iterator();
+            while (numNodes > maxNodes && map.size() > 1) {
+                Entry eldest = itor.next();
+                numNodes -= eldest.tree.numNodes();
+                itor.remove();
+            }
+        }
+
+        static int fingerprint(@Nonnull final byte[] b, final int length) {
+            return MurmurHash3.murmurhash3_x86_32(b, 0, length, 0x9747b28c);
+        }
+
+        private static final class Entry {
+            final int length;
+            final int fingerprint;
+            @Nonnull
+            final FlatTree tree;
+
+            Entry(int length, int fingerprint, @Nonnull FlatTree tree) {
+                this.length = length;
+                this.fingerprint = fingerprint;
+                this.tree = tree;
+            }
+        }
+
+    }
+
     static final class StackmachineEvaluator implements Evaluator {
 
         private String prevModelId = null;
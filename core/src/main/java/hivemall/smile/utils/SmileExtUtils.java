@@ -23,6 +23,10 @@ import hivemall.smile.data.Attribute;
 import hivemall.smile.data.Attribute.AttributeType;
 import hivemall.smile.data.Attribute.NominalAttribute;
 import hivemall.smile.data.Attribute.NumericAttribute;
+import hivemall.smile.data.ColumnMajorMatrix;
+import hivemall.smile.data.ColumnMajorMatrix.SortedSparseColumn;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
 
 import java.util.Arrays;
 
@@ -66,8 +70,14 @@ public final class SmileExtUtils {
     @Nonnull
     public static Attribute[] attributeTypes(@Nullable Attribute[] attributes,
             @Nonnull final double[][] x) {
+        return attributeTypes(attributes, new RowMajorDenseMatrix(x));
+    }
+
+    @Nonnull
+    public static Attribute[] attributeTypes(@Nullable Attribute[] attributes,
+            @Nonnull final Matrix x) {
         if (attributes == null) {
-            int p = x[0].length;
+            int p = x.numColumns();
             attributes = new Attribute[p];
             for (int i = 0; i < p; i++) {
                 attributes[i] = new NumericAttribute(i);
@@ -81,8 +91,8 @@ public final class SmileExtUtils {
                         continue;
                     }
                     int max_x = 0;
-                    for (int i = 0; i < x.length; i++) {
-                        int x_ij = (int) x[i][j];
+                    for (int i = 0, n = x.numRows(); i < n; i++) {
+                        int x_ij = (int) x.get(i, j);
                         if (x_ij > max_x) {
                             max_x = x_ij;
                         }
@@ -118,17 +128,20 @@ public final class SmileExtUtils {
 
     @Nonnull
     public static int[][] sort(@Nonnull final Attribute[] attributes, @Nonnull final double[][] x) {
-        final int n = x.length;
-        final int p = x[0].length;
+        return sort(attributes, new RowMajorDenseMatrix(x));
+    }
+
+    @Nonnull
+    public static int[][] sort(@Nonnull final Attribute[] attributes, @Nonnull final Matrix x) {
+        final int n = x.numRows();
+        final int p = x.numColumns();
 
         final double[] a = new double[n];
         final int[][] index = new int[p][];
 
         for (int j = 0; j < p; j++) {
             if (attributes[j].type == AttributeType.NUMERIC) {
-                for (int i = 0; i < n; i++) {
-                    a[i] = x[i][j];
-                }
+                x.getColumn(j, a);
                 index[j] = QuickSort.sort(a);
             }
         }
@@ -136,6 +149,32 @@ public final class SmileExtUtils {
         return index;
     }
 
+    /**
+     * Returns the sorted values of the sparse numeric columns, by which the rows in the order of
+     * {@link #sort(Attribute[], Matrix)} are read without a search for each row.
+     * 
+     * @return the sorted values by column, which are null for dense columns, or null if x has no
+     *         sparse column
+     */
+    @Nullable
+    public static SortedSparseColumn[] sortedSparseColumns(@Nonnull final Attribute[] attributes,
+            @Nonnull final Matrix x) {
+        if (!(x instanceof ColumnMajorMatrix)) {
+            return null;
+        }
+        final ColumnMajorMatrix m = (ColumnMajorMatrix) x;
+        final int p = m.numColumns();
+        final SortedSparseColumn[] columns = new SortedSparseColumn[p];
+        boolean sparse = false;
+        for (int j = 0; j < p; j++) {
+            if (attributes[j].type == AttributeType.NUMERIC && m.isSparse(j)) {
+                columns[j] = m.getSortedColumn(j);
+                sparse = true;
+            }
+        }
+        return sparse ? columns : null;
+    }
+
     @Nonnull
     public static int[] classLables(@Nonnull final int[] y) throws HiveException {
         final int[] labels = smile.math.Math.unique(y);
@@ -170,12 +209,19 @@ public final class SmileExtUtils {
     }
 
     public static int computeNumInputVars(final float numVars, final double[][] x) {
+        return computeNumInputVars(numVars, x[0].length);
+    }
+
+    public static int computeNumInputVars(final float numVars, final Matrix x) {
+        return computeNumInputVars(numVars, x.numColumns());
+    }
+
+    private static int computeNumInputVars(final float numVars, final int dims) {
         final int numInputVars;
         if (numVars <= 0.f) {
-            int dims = x[0].length;
             numInputVars = (int) Math.ceil(Math.sqrt(dims));
         } else if (numVars > 0.f && numVars <= 1.f) {
-            numInputVars = (int) (numVars * x[0].length);
+            numInputVars = (int) (numVars * dims);
         } else {
             numInputVars = (int) numVars;
         }
@@ -225,6 +271,53 @@ public final class SmileExtUtils {
         }
     }
 
+    public static void shuffle(@Nonnull final Matrix x, final int[] y, @Nonnull long seed) {
+        final int n = x.numRows();
+        if (n != y.length) {
+            throw new IllegalArgumentException("x.numRows() (" + n + ") != y.length ("
+                    + y.length + ')');
+        }
+        if (seed == -1L) {
+            seed = generateSeed();
+        }
+        final int[] perm = identity(n);
+        final smile.math.Random rnd = new smile.math.Random(seed);
+        for (int i = n; i > 1; i--) {
+            int j = rnd.nextInt(i);
+            swap(perm, i - 1, j);
+            swap(y, i - 1, j);
+        }
+        x.permuteRows(perm);
+    }
+
+    public static void shuffle(@Nonnull final Matrix x, final double[] y, @Nonnull long seed) {
+        final int n = x.numRows();
+        if (n != y.length) {
+            throw new IllegalArgumentException("x.numRows() (" + n + ") != y.length ("
+                    + y.length + ')');
+        }
+        if (seed == -1L) {
+            seed = generateSeed();
+        }
+        final int[] perm = identity(n);
+        final smile.math.Random rnd = new smile.math.Random(seed);
+        for (int i = n; i > 1; i--) {
+            int j = rnd.nextInt(i);
+            swap(perm, i - 1, j);
+            swap(y, i - 1, j);
+        }
+        x.permuteRows(perm);
+    }
+
+    @Nonnull
+    private static int[] identity(final int n) {
+        final int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        return a;
+    }
+
     /**
      * Swap two elements of an array.
      */
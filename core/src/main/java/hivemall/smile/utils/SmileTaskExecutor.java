@@ -26,8 +26,10 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.commons.logging.Log;
@@ -42,6 +44,30 @@ public final class SmileTaskExecutor {
     private final ExecutorService exec;
 
     public SmileTaskExecutor(@Nullable MapredContext mapredContext) {
+        int threads = getNumThreads(mapredContext);
+        if (threads > 1) {
+            logger.info("Initialized FixedThreadPool of " + threads + " threads");
+            this.exec = ExecutorFactory.newFixedThreadPool(threads, "Hivemall-SMILE", true);
+        } else {
+            logger.info("Direct execution in a caller thread is selected");
+            this.exec = null;
+        }
+    }
+
+    /**
+     * Runs tasks on the given pool, which also finds the splits of the trees built by the tasks,
+     * so that the pool bounds the number of threads.
+     */
+    public SmileTaskExecutor(@Nonnull ForkJoinPool pool) {
+        logger.info("Build trees on the ForkJoinPool of " + pool.getParallelism() + " threads");
+        this.exec = pool;
+    }
+
+    /**
+     * Returns the number of threads to build trees, which is configured by
+     * <code>hivemall.smile.nprocs</code>.
+     */
+    public static int getNumThreads(@Nullable MapredContext mapredContext) {
         int nprocs = Runtime.getRuntime().availableProcessors();
         int threads = Math.max(1, nprocs - 1);
 
@@ -59,14 +85,20 @@ public final class SmileTaskExecutor {
                 }
             }
         }
+        return threads;
+    }
 
-        if (threads > 1) {
-            logger.info("Initialized FixedThreadPool of " + threads + " threads");
-            this.exec = ExecutorFactory.newFixedThreadPool(threads, "Hivemall-SMILE", true);
-        } else {
-            logger.info("Direct execution in a caller thread is selected");
-            this.exec = null;
+    /**
+     * Returns a fork-join pool of the given number of threads to find splits of a tree in parallel,
+     * or null if a single thread is given.
+     */
+    @Nullable
+    public static ForkJoinPool newForkJoinPool(final int threads) {
+        if (threads <= 1) {
+            return null;
         }
+        logger.info("Initialized ForkJoinPool of " + threads + " threads for split finding");
+        return new ForkJoinPool(threads);
     }
 
     public <T> List<T> run(Collection<? extends Callable<T>> tasks) throws Exception {
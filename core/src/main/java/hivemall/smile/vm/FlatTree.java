@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.vm;
+
+import hivemall.utils.collections.DoubleArrayList;
+import hivemall.utils.collections.IntArrayList;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A decision tree laid out in primitive arrays in pre-order. The true child of a split node is the
+ * node next to it and the false child is pointed by {@link #_falseChildren}, so that a prediction
+ * is a loop over array indexes without any object dereference.
+ */
+public final class FlatTree {
+
+    private static final int LEAF = -1;
+
+    /**
+     * The split feature of each node; the feature index for a numeric split, -2 - the feature
+     * index for a nominal split, or {@link #LEAF}.
+     */
+    @Nonnull
+    private final int[] _features;
+    /**
+     * The split value of a split node or the output of a leaf.
+     */
+    @Nonnull
+    private final double[] _values;
+    /**
+     * The index of the false child of a split node.
+     */
+    @Nonnull
+    private final int[] _falseChildren;
+
+    private FlatTree(@Nonnull int[] features, @Nonnull double[] values,
+            @Nonnull int[] falseChildren) {
+        this._features = features;
+        this._values = values;
+        this._falseChildren = falseChildren;
+    }
+
+    public int numNodes() {
+        return _features.length;
+    }
+
+    /**
+     * @return the largest output of the leaves, e.g., to find the number of classes
+     */
+    public double maxOutput() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < _features.length; i++) {
+            if (_features[i] == LEAF && _values[i] > max) {
+                max = _values[i];
+            }
+        }
+        return max;
+    }
+
+    public double predict(@Nonnull final double[] x) {
+        final int[] features = _features;
+        final double[] values = _values;
+        int i = 0;
+        while (true) {
+            final int f = features[i];
+            if (f >= 0) {
+                i = (x[f] <= values[i]) ? i + 1 : _falseChildren[i];
+            } else if (f == LEAF) {
+                return values[i];
+            } else {
+                i = (x[-2 - f] == values[i]) ? i + 1 : _falseChildren[i];
+            }
+        }
+    }
+
+    @Nonnull
+    public byte[] serialize() {
+        final int n = _features.length;
+        final ByteBuffer buf = ByteBuffer.allocate(4 + 16 * n);
+        buf.putInt(n);
+        for (int i = 0; i < n; i++) {
+            buf.putInt(_features[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            buf.putDouble(_values[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            buf.putInt(_falseChildren[i]);
+        }
+        return buf.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the given bytes are not a serialized {@link FlatTree}
+     */
+    @Nonnull
+    public static FlatTree deserialize(@Nonnull final byte[] b, final int off, final int len) {
+        final ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+        final int n;
+        final int[] features;
+        final double[] values;
+        final int[] falseChildren;
+        try {
+            n = buf.getInt();
+            if (n <= 0 || 16L * n != len - 4) {
+                throw new IllegalArgumentException("Illegal number of nodes " + n
+                        + " for a flat tree of " + len + " bytes");
+            }
+            features = new int[n];
+            for (int i = 0; i < n; i++) {
+                features[i] = buf.getInt();
+            }
+            values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = buf.getDouble();
+            }
+            falseChildren = new int[n];
+            for (int i = 0; i < n; i++) {
+                falseChildren[i] = buf.getInt();
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated flat tree of " + len + " bytes", e);
+        }
+        // reject links that would loop or run out of the arrays while predicting
+        for (int i = 0; i < n; i++) {
+            if (features[i] == LEAF) {
+                continue;
+            }
+            int falseChild = falseChildren[i];
+            if (i + 1 >= n || falseChild <= i + 1 || falseChild >= n) {
+                throw new IllegalArgumentException("Illegal children of node " + i + ": "
+                        + falseChild);
+            }
+        }
+        return new FlatTree(features, values, falseChildren);
+    }
+
+    /**
+     * Adds nodes in pre-order; a split node is followed by the nodes of its true child, then
+     * {@link #setFalseChild(int)} is called for it before the nodes of its false child are added.
+     */
+    public static final class Builder {
+
+        @Nonnull
+        private final IntArrayList features;
+        @Nonnull
+        private final DoubleArrayList values;
+        @Nonnull
+        private final IntArrayList falseChildren;
+
+        public Builder() {
+            this.features = new IntArrayList(64);
+            this.values = new DoubleArrayList(64);
+            this.falseChildren = new IntArrayList(64);
+        }
+
+        public void addLeaf(final double output) {
+            add(LEAF, output);
+        }
+
+        /**
+         * @return the index of the added node
+         */
+        public int addNumericSplit(final int feature, final double splitValue) {
+            if (feature < 0) {
+                throw new IllegalArgumentException("Illegal split feature: " + feature);
+            }
+            return add(feature, splitValue);
+        }
+
+        /**
+         * @return the index of the added node
+         */
+        public int addNominalSplit(final int feature, final double splitValue) {
+            if (feature < 0) {
+                throw new IllegalArgumentException("Illegal split feature: " + feature);
+            }
+            return add(-2 - feature, splitValue);
+        }
+
+        /**
+         * Points the false child of the given split node to the node added next.
+         */
+        public void setFalseChild(final int node) {
+            falseChildren.set(node, features.size());
+        }
+
+        private int add(final int feature, final double value) {
+            final int i = features.size();
+            features.add(feature);
+            values.add(value);
+            falseChildren.add(0);
+            return i;
+        }
+
+        @Nonnull
+        public FlatTree build() {
+            if (features.isEmpty()) {
+                throw new IllegalStateException("No node has been added");
+            }
+            return new FlatTree(features.toArray(), values.toArray(), falseChildren.toArray());
+        }
+
+    }
+
+}
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools;
+
+import hivemall.LearnerBaseUDTF;
+import hivemall.UDFWithOptions;
+import hivemall.model.IWeightValue;
+import hivemall.model.ModelBlock;
+import hivemall.model.PredictionModel;
+import hivemall.model.SparseModel;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.collections.Bytes2FloatOpenHashTable;
+import hivemall.utils.collections.IMapIterator;
+import hivemall.utils.collections.Int2FloatOpenHashTable;
+import hivemall.utils.datetime.StopWatch;
+import hivemall.utils.hadoop.DistributedCacheLoader;
+import hivemall.utils.hadoop.DistributedCacheLoader.LineHandler;
+import hivemall.utils.hadoop.DistributedCacheLoader.Loader;
+import hivemall.utils.hadoop.HiveUtils;
+import hivemall.utils.lang.NumberUtils;
+import hivemall.utils.math.MathUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.exec.Description;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.UDFArgumentLengthException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.UDFType;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Scores rows by a linear model held in memory, instead of exploding rows into features, joining
+ * them with the model table and summing the products per row. The model is loaded from a file in
+ * the distributed cache once per JVM into a hash table of primitive keys.
+ */
+@Description(
+        name = "linear_predict",
+        value = "_FUNC_(array<string|int|bigint> features, const string options)"
+                + " - Returns the margin of a linear model, or its sigmoid with -sigmoid")
+@UDFType(deterministic = true, stateful = false)
+public final class LinearPredictUDF extends UDFWithOptions {
+    private static final Log logger = LogFactory.getLog(LinearPredictUDF.class);
+
+    private static final char FIELD_DELIMITER = DistributedCacheLoader.FIELD_DELIMITER;
+
+    /** Holds the model loaded last in the JVM */
+    private static final DistributedCacheLoader<LinearModel> MODEL_LOADER =
+            new DistributedCacheLoader<LinearModel>();
+
+    private ListObjectInspector featureListOI;
+    private PrimitiveObjectInspector featureElemOI;
+    private boolean stringFeature;
+
+    private String modelFile;
+    private boolean modelBlocks;
+    private boolean intFeature;
+    private boolean sigmoid;
+
+    @Nullable
+    private LinearModel model;
+    @Nullable
+    private DoubleWritable result;
+
+    public LinearPredictUDF() {}
+
+    @Override
+    protected Options getOptions() {
+        Options opts = new Options();
+        opts.addOption("loadmodel", true,
+            "Model file name in the distributed cache, which has feature and weight columns"
+                    + " in order");
+        opts.addOption("model_blocks", false,
+            "The model file has base91 encoded blocks of merge_model_blocks in the last column"
+                    + " [default: OFF]");
+        opts.addOption("int_feature", false,
+            "Features of the model file are integers [default: OFF]");
+        opts.addOption("sigmoid", false,
+            "Returns sigmoid(w * x) instead of the margin w * x [default: OFF]");
+        return opts;
+    }
+
+    @Override
+    protected CommandLine processOptions(@Nonnull String optionValue) throws UDFArgumentException {
+        CommandLine cl = parseOptions(optionValue);
+
+        String modelFile = cl.getOptionValue("loadmodel");
+        if (modelFile == null) {
+            throw new UDFArgumentException("-loadmodel is required for _FUNC_");
+        }
+        this.modelFile = modelFile;
+        this.modelBlocks = cl.hasOption("model_blocks");
+        this.intFeature = cl.hasOption("int_feature");
+        this.sigmoid = cl.hasOption("sigmoid");
+        return cl;
+    }
+
+    @Override
+    public ObjectInspector initialize(@Nonnull ObjectInspector[] argOIs)
+            throws UDFArgumentException {
+        if (argOIs.length != 2) {
+            throw new UDFArgumentLengthException(
+                "linear_predict takes 2 arguments: array<string|int|bigint> features, const string options");
+        }
+        this.featureListOI = HiveUtils.asListOI(argOIs[0]);
+        ObjectInspector elemOI = featureListOI.getListElementObjectInspector();
+        HiveUtils.validateFeatureOI(elemOI);
+        this.featureElemOI = HiveUtils.asPrimitiveObjectInspector(elemOI);
+        this.stringFeature = HiveUtils.isStringOI(elemOI);
+
+        processOptions(HiveUtils.getConstString(argOIs[1]));
+
+        this.model = null;
+        this.result = new DoubleWritable();
+        return PrimitiveObjectInspectorFactory.writableDoubleObjectInspector;
+    }
+
+    @Override
+    public DoubleWritable evaluate(@Nonnull DeferredObject[] arguments) throws HiveException {
+        final Object arg0 = arguments[0].get();
+        if (arg0 == null) {
+            return null;
+        }
+        LinearModel model = this.model;
+        if (model == null) {
+            model = getModel(modelFile, modelBlocks, intFeature, mapredContext);
+            this.model = model;
+        }
+
+        final ListObjectInspector listOI = featureListOI;
+        double margin = 0.d;
+        for (int i = 0, size = listOI.getListLength(arg0); i < size; i++) {
+            Object f = listOI.getListElement(arg0, i);
+            if (f == null) {
+                continue;
+            }
+            if (stringFeature) {
+                Text t = ((StringObjectInspector) featureElemOI).getPrimitiveWritableObject(f);
+                margin += model.score(t.getBytes(), t.getLength());
+            } else {
+                margin += model.weight(PrimitiveObjectInspectorUtils.getLong(f, featureElemOI));
+            }
+        }
+
+        final DoubleWritable result = this.result;
+        result.set(sigmoid ? MathUtils.sigmoid(margin) : margin);
+        return result;
+    }
+
+    @Override
+    public String getDisplayString(String[] children) {
+        return "linear_predict(" + Arrays.toString(children) + ')';
+    }
+
+    @Nonnull
+    private static LinearModel getModel(@Nonnull final String modelFile,
+            final boolean modelBlocks, final boolean intFeature,
+            @Nullable final MapredContext context) throws HiveException {
+        final List<Boolean> options = Arrays.asList(modelBlocks, intFeature);
+        try {
+            return MODEL_LOADER.get(new File(modelFile), options, new Loader<LinearModel>() {
+                @Override
+                public LinearModel load(File file) throws IOException, HiveException {
+                    return loadModel(file, modelBlocks, intFeature, context);
+                }
+            });
+        } catch (IOException e) {
+            throw new HiveException("Failed to load a model: " + modelFile, e);
+        }
+    }
+
+    @Nonnull
+    private static LinearModel loadModel(@Nonnull final File file, final boolean modelBlocks,
+            final boolean intFeature, @Nullable final MapredContext context)
+            throws IOException, HiveException {
+        final StopWatch elapsed = new StopWatch();
+        final LinearModel model = new LinearModel(modelBlocks, intFeature);
+        if (modelBlocks) {
+            DistributedCacheLoader.readLines(file, context, new LineHandler() {
+                @Override
+                public void handle(String line) throws IOException, HiveException {
+                    // [part, ...] block
+                    String block = line.substring(line.lastIndexOf(FIELD_DELIMITER) + 1);
+                    if (block.isEmpty() || "\\N".equals(block)) {
+                        return;
+                    }
+                    model.putBlock(Base91.decode(block.getBytes("UTF-8")));
+                }
+            });
+        } else {
+            if (!file.exists()) {
+                throw new FileNotFoundException("File not found: " + file.getAbsolutePath());
+            }
+            // feature, weight [, covar]
+            final PredictionModel weights = new SparseModel(16384, false);
+            final PrimitiveObjectInspector keyOI;
+            if (intFeature) {
+                keyOI = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+            } else {
+                keyOI = PrimitiveObjectInspectorFactory.writableStringObjectInspector;
+            }
+            try {
+                LearnerBaseUDTF.loadPredictionModel(weights, file, keyOI,
+                    PrimitiveObjectInspectorFactory.writableFloatObjectInspector, context);
+            } catch (SerDeException e) {
+                throw new HiveException("Failed to load a model: " + file, e);
+            }
+            model.putAll(weights);
+        }
+        logger.info("Loaded " + model.size() + " features from distributed cache '"
+                + file.getPath() + "' in " + elapsed);
+        return model;
+    }
+
+    static final class LinearModel {
+
+        // either of tables is used
+        @Nullable
+        private Int2FloatOpenHashTable intWeights;
+        @Nullable
+        private Bytes2FloatOpenHashTable stringWeights;
+
+        LinearModel(boolean modelBlocks, boolean intFeature) {
+            if (!modelBlocks) {// the table of blocks depends on the kind of blocks
+                if (intFeature) {
+                    initIntWeights();
+                } else {
+                    initStringWeights();
+                }
+            }
+        }
+
+        private void initIntWeights() {
+            Int2FloatOpenHashTable table = new Int2FloatOpenHashTable(16384);
+            table.defaultReturnValue(0.f);
+            this.intWeights = table;
+        }
+
+        private void initStringWeights() {
+            Bytes2FloatOpenHashTable table = new Bytes2FloatOpenHashTable(16384);
+            table.defaultReturnValue(0.f);
+            this.stringWeights = table;
+        }
+
+        int size() {
+            if (intWeights != null) {
+                return intWeights.size();
+            } else if (stringWeights != null) {
+                return stringWeights.size();
+            } else {
+                return 0;
+            }
+        }
+
+        /**
+         * Moves the weights of a model of which keys are {@link IntWritable} or {@link Text}.
+         */
+        void putAll(@Nonnull final PredictionModel model) {
+            final IMapIterator<Object, IWeightValue> itor = model.entries();
+            while (itor.next() != -1) {
+                Object k = itor.getKey();
+                float weight = itor.getValue().get();
+                if (intWeights != null) {
+                    intWeights.put(((IntWritable) k).get(), weight);
+                } else {
+                    Text t = (Text) k;
+                    stringWeights.put(t.getBytes(), 0, t.getLength(), weight);
+                }
+            }
+        }
+
+        void putBlock(@Nonnull final byte[] block) throws IOException, HiveException {
+            final ModelBlock.Reader reader = new ModelBlock.Reader(block);
+            if (intWeights == null && stringWeights == null) {
+                if (reader.isStringKey()) {
+                    initStringWeights();
+                } else {
+                    initIntWeights();
+                }
+            }
+            if (reader.isStringKey() != (stringWeights != null)) {
+                throw new HiveException("The model has blocks of both integer and string features");
+            }
+            while (reader.next()) {
+                if (stringWeights != null) {
+                    stringWeights.put(reader.getKeyBytes(), 0, reader.getKeyLength(),
+                        reader.getWeight());
+                } else {
+                    long k = reader.getKey();
+                    if (k < Integer.MIN_VALUE || k > Integer.MAX_VALUE) {
+                        throw new HiveException("Feature out of the integer range: " + k);
+                    }
+                    intWeights.put((int) k, reader.getWeight());
+                }
+            }
+        }
+
+        /**
+         * @return the weight of an integer feature
+         */
+        float weight(final long feature) {
+            if (intWeights != null) {
+                if (feature < Integer.MIN_VALUE || feature > Integer.MAX_VALUE) {
+                    return 0.f;
+                }
+                return intWeights.get((int) feature);
+            } else if (stringWeights != null) {
+                byte[] b = Long.toString(feature).getBytes();
+                return stringWeights.get(b, 0, b.length);
+            } else {
+                return 0.f;
+            }
+        }
+
+        /**
+         * @return the product of the weight and the value of a "feature:value" representation
+         */
+        double score(@Nonnull final byte[] b, final int len) throws HiveException {
+            int pos = -1;
+            for (int i = 0; i < len; i++) {
+                if (b[i] == ':') {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos == 0) {
+                Text t = new Text();
+                t.set(b, 0, len);
+                throw new HiveException("Invalid feature value representation: " + t);
+            }
+            final int end = (pos == -1) ? len : pos;
+            final float w;
+            if (intWeights != null) {
+                w = intWeights.get(NumberUtils.parseInt(b, 0, end));
+            } else if (stringWeights != null) {
+                w = stringWeights.get(b, 0, end);
+            } else {
+                return 0.d;
+            }
+            if (w == 0.f) {
+                return 0.d;
+            }
+            return (pos == -1) ? w : w * NumberUtils.parseDouble(b, pos + 1, len);
+        }
+
+    }
+
+}
@@ -94,7 +94,7 @@ public final class DeflateCodec extends CompressionCodec {
                 + ((in[off + 2] & 0xff) << 8) + (in[off + 3] & 0xff));
         if (originalSize == 0) {
             byte[] dest = new byte[len - 4];
-            System.arraycopy(in, 4, dest, 0, len - 4);
+            System.arraycopy(in, off + 4, dest, 0, len - 4);
             return dest;
         }
         // Create an expandable byte array to hold the decompressed data
@@ -102,7 +102,7 @@ public final class DeflateCodec extends CompressionCodec {
         try {
             // Decompress the data
             decompressor.reset();
-            decompressor.setInput(in, 4, len - 4);
+            decompressor.setInput(in, off + 4, len - 4);
             decompressor.inflate(result);
         } catch (DataFormatException dfe) {
             throw new IOException(dfe);
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections;
+
+import hivemall.utils.math.MathUtils;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * An open-addressing hash table with linear probing from byte sequences to float values. Keys are
+ * copied into a single byte array, so that no object is allocated per entry and a key is looked up
+ * directly from a slice of a byte array such as the bytes of a Text.
+ */
+public final class Bytes2FloatOpenHashTable {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // slots
+    private int[] offsets;
+    private int[] lengths;
+    private int[] hashes;
+    private float[] values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    // copied keys
+    private byte[] pool;
+    private int poolSize;
+
+    private float defaultReturnValue = -1.f;
+
+    public Bytes2FloatOpenHashTable() {
+        this(1024);
+    }
+
+    public Bytes2FloatOpenHashTable(@Nonnegative int initialCapacity) {
+        int capacity = 1 << MathUtils.bitsRequired(Math.max(initialCapacity, 16) - 1);
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.hashes = new int[capacity];
+        this.values = new float[capacity];
+        Arrays.fill(lengths, -1);
+        this.mask = capacity - 1;
+        this.size = 0;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+        this.pool = new byte[capacity * 8];
+        this.poolSize = 0;
+    }
+
+    public void defaultReturnValue(float v) {
+        this.defaultReturnValue = v;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of the key, or the default return value if not found
+     */
+    public float get(@Nonnull final byte[] b, final int offset, final int length) {
+        final int hash = hash(b, offset, length);
+        final int[] lengths = this.lengths;
+        int i = hash & mask;
+        int len;
+        while ((len = lengths[i]) != -1) {
+            if (len == length && hashes[i] == hash && equals(offsets[i], b, offset, length)) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultReturnValue;
+    }
+
+    /**
+     * Puts a value, replacing the previous value of the key if any.
+     */
+    public void put(@Nonnull final byte[] b, final int offset, final int length, final float value) {
+        final int hash = hash(b, offset, length);
+        int i = hash & mask;
+        int len;
+        while ((len = lengths[i]) != -1) {
+            if (len == length && hashes[i] == hash && equals(offsets[i], b, offset, length)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (poolSize + length > pool.length) {
+            long newSize = Math.max(pool.length * 2L, (long) poolSize + length);
+            if (newSize > Integer.MAX_VALUE - 8) {
+                newSize = Integer.MAX_VALUE - 8;
+                if (poolSize + length > newSize) {
+                    throw new IllegalStateException("Too large keys: " + size + " entries");
+                }
+            }
+            this.pool = Arrays.copyOf(pool, (int) newSize);
+        }
+        System.arraycopy(b, offset, pool, poolSize, length);
+        offsets[i] = poolSize;
+        lengths[i] = length;
+        hashes[i] = hash;
+        values[i] = value;
+        this.poolSize += length;
+        if (++size >= threshold) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        final int[] oldOffsets = offsets;
+        final int[] oldLengths = lengths;
+        final int[] oldHashes = hashes;
+        final float[] oldValues = values;
+        final int newCapacity = oldOffsets.length << 1;
+        final int[] newOffsets = new int[newCapacity];
+        final int[] newLengths = new int[newCapacity];
+        final int[] newHashes = new int[newCapacity];
+        final float[] newValues = new float[newCapacity];
+        Arrays.fill(newLengths, -1);
+        final int newMask = newCapacity - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldLengths[i] == -1) {
+                continue;
+            }
+            final int hash = oldHashes[i];
+            int j = hash & newMask;
+            while (newLengths[j] != -1) {
+                j = (j + 1) & newMask;
+            }
+            newOffsets[j] = oldOffsets[i];
+            newLengths[j] = oldLengths[i];
+            newHashes[j] = hash;
+            newValues[j] = oldValues[i];
+        }
+        this.offsets = newOffsets;
+        this.lengths = newLengths;
+        this.hashes = newHashes;
+        this.values = newValues;
+        this.mask = newMask;
+        this.threshold = (int) (newCapacity * LOAD_FACTOR);
+    }
+
+    private static int hash(@Nonnull final byte[] b, final int offset, final int length) {
+        int h = 1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + b[i];
+        }
+        // spread higher bits to lower ones as java.util.HashMap does
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equals(final int poolOffset, @Nonnull final byte[] b, final int offset,
+            final int length) {
+        final byte[] pool = this.pool;
+        for (int i = 0; i < length; i++) {
+            if (pool[poolOffset + i] != b[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -286,16 +286,28 @@ public final class OpenHashMap<K, V> implements Map<K, V>, Externalizable {
         return v1 == v2 || v1.equals(v2);
     }
 
+    /**
+     * Note that the returned iterator releases the entries that it passed over.
+     */
     public IMapIterator<K, V> entries() {
-        return new MapIterator();
+        return entries(true);
+    }
+
+    /**
+     * @param releaseSeen release the entries that the iterator passed over
+     */
+    public IMapIterator<K, V> entries(boolean releaseSeen) {
+        return new MapIterator(releaseSeen);
     }
 
     private final class MapIterator implements IMapIterator<K, V> {
 
+        final boolean releaseSeen;
         int nextEntry;
         int lastEntry = -1;
 
-        MapIterator() {
+        MapIterator(boolean releaseSeen) {
+            this.releaseSeen = releaseSeen;
             this.nextEntry = nextEntry(0);
         }
 
@@ -314,7 +326,9 @@ public final class OpenHashMap<K, V> implements Map<K, V>, Externalizable {
 
         @Override
         public int next() {
-            free(lastEntry);
+            if (releaseSeen) {
+                free(lastEntry);
+            }
             if (!hasNext()) {
                 return -1;
             }
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.hadoop;
+
+import hivemall.utils.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+/**
+ * Loads an object from a file of a Hive table in the distributed cache, and keeps the object
+ * loaded last so that tasks run in a reused JVM do not load the same file again.
+ *
+ * @param <T> the type of the loaded object
+ */
+public final class DistributedCacheLoader<T> {
+
+    /** Hive's default field delimiter of text files */
+    public static final char FIELD_DELIMITER = '\001';
+
+    @GuardedBy("this")
+    @Nullable
+    private T loaded;
+    // the file and the options that the object is loaded from
+    @GuardedBy("this")
+    private String path;
+    @GuardedBy("this")
+    private long length;
+    @GuardedBy("this")
+    private long lastModified;
+    @GuardedBy("this")
+    @Nullable
+    private Object options;
+
+    public DistributedCacheLoader() {}
+
+    /**
+     * @param options the options that the object is loaded with, compared by equals
+     * @return the object loaded last if it is loaded from the same file with the same options and
+     *         the file is unchanged, otherwise the object loaded by the given loader
+     */
+    @Nonnull
+    public synchronized T get(@Nonnull final File file, @Nullable final Object options,
+            @Nonnull final Loader<T> loader) throws IOException, HiveException {
+        final T cached = loaded;
+        if (cached != null && isLoadedFrom(file, options)) {
+            return cached;
+        }
+        this.loaded = null; // release the previous object before loading
+
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final T obj = loader.load(file);
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.options = options;
+        this.loaded = obj;
+        return obj;
+    }
+
+    @GuardedBy("this")
+    private boolean isLoadedFrom(@Nonnull final File file, @Nullable final Object options) {
+        if (!path.equals(file.getAbsolutePath()) || length != file.length()
+                || lastModified != file.lastModified()) {
+            return false;
+        }
+        return (options == null) ? this.options == null : options.equals(this.options);
+    }
+
+    /**
+     * Reads the lines of a file, or of the files in a directory recursively except checksum
+     * files.
+     *
+     * @param context the context to decompress files by the codecs of the job, or null to read
+     *        text files as they are
+     * @return the number of lines read
+     */
+    public static long readLines(@Nonnull final File file, @Nullable final MapredContext context,
+            @Nonnull final LineHandler handler) throws IOException, HiveException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("File not found: " + file.getAbsolutePath());
+        }
+        return readLinesRecursively(file, context, handler);
+    }
+
+    private static long readLinesRecursively(@Nonnull final File file,
+            @Nullable final MapredContext context, @Nonnull final LineHandler handler)
+            throws IOException, HiveException {
+        if (file.getName().endsWith(".crc")) {
+            return 0L;
+        }
+        if (file.isDirectory()) {
+            long count = 0L;
+            for (File f : file.listFiles()) {
+                count += readLinesRecursively(f, context, handler);
+            }
+            return count;
+        }
+
+        long count = 0L;
+        BufferedReader reader = null;
+        try {
+            if (context == null) {
+                reader = new BufferedReader(new FileReader(file));
+            } else {
+                reader = HadoopUtils.getBufferedReader(file, context);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                count++;
+                handler.handle(line);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        return count;
+    }
+
+    public interface Loader<T> {
+
+        @Nonnull
+        T load(@Nonnull File file) throws IOException, HiveException;
+
+    }
+
+    public interface LineHandler {
+
+        void handle(@Nonnull String line) throws IOException, HiveException;
+
+    }
+
+}
@@ -236,6 +236,20 @@ public final class HiveUtils {
         }
     }
 
+    public static boolean isFloatingPointOI(@Nonnull final ObjectInspector argOI) {
+        if (argOI.getCategory() != Category.PRIMITIVE) {
+            return false;
+        }
+        final PrimitiveObjectInspector oi = (PrimitiveObjectInspector) argOI;
+        switch (oi.getPrimitiveCategory()) {
+            case FLOAT:
+            case DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Nonnull
     public static boolean isListOI(@Nonnull final ObjectInspector oi) {
         Category category = oi.getCategory();
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.hadoop;
+
+import hivemall.utils.math.MathUtils;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Returns a canonical {@link Text} instance for a given byte sequence so that repeated values are
+ * looked up without allocating a new object. Returned instances MUST NOT be modified.
+ * 
+ * Interning stops once the number of entries reaches the given limit, and then a new {@link Text}
+ * is created for each unknown byte sequence.
+ */
+public final class TextInterner {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int maxEntries;
+
+    private Text[] table;
+    private int[] hashes;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    public TextInterner() {
+        this(1024, 1 << 24);
+    }
+
+    public TextInterner(@Nonnegative int initialCapacity, @Nonnegative int maxEntries) {
+        int capacity = 1 << MathUtils.bitsRequired(Math.max(initialCapacity, 16) - 1);
+        this.table = new Text[capacity];
+        this.hashes = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+        this.maxEntries = maxEntries;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Nonnull
+    public Text intern(@Nonnull final Text t) {
+        return intern(t.getBytes(), 0, t.getLength());
+    }
+
+    @Nonnull
+    public Text intern(@Nonnull final byte[] b, final int offset, final int length) {
+        final int hash = hash(b, offset, length);
+        final Text[] table = this.table;
+        final int[] hashes = this.hashes;
+        int i = hash & mask;
+        for (;;) {
+            final Text t = table[i];
+            if (t == null) {
+                break;
+            }
+            if (hashes[i] == hash && equals(t, b, offset, length)) {
+                return t;
+            }
+            i = (i + 1) & mask;
+        }
+
+        final Text t = new Text();
+        t.set(b, offset, length);
+        if (size < maxEntries) {
+            table[i] = t;
+            hashes[i] = hash;
+            if (++size >= threshold) {
+                grow();
+            }
+        }
+        return t;
+    }
+
+    public void clear() {
+        Arrays.fill(table, null);
+        this.size = 0;
+    }
+
+    private void grow() {
+        final Text[] oldTable = table;
+        final int[] oldHashes = hashes;
+        final int newCapacity = oldTable.length << 1;
+        final Text[] newTable = new Text[newCapacity];
+        final int[] newHashes = new int[newCapacity];
+        final int newMask = newCapacity - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            final Text t = oldTable[i];
+            if (t == null) {
+                continue;
+            }
+            final int hash = oldHashes[i];
+            int j = hash & newMask;
+            while (newTable[j] != null) {
+                j = (j + 1) & newMask;
+            }
+            newTable[j] = t;
+            newHashes[j] = hash;
+        }
+        this.table = newTable;
+        this.hashes = newHashes;
+        this.mask = newMask;
+        this.threshold = (int) (newCapacity * LOAD_FACTOR);
+    }
+
+    private static int hash(@Nonnull final byte[] b, final int offset, final int length) {
+        int h = 1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + b[i];
+        }
+        // spread higher bits to lower ones as java.util.HashMap does
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(@Nonnull final Text t, @Nonnull final byte[] b,
+            final int offset, final int length) {
+        if (t.getLength() != length) {
+            return false;
+        }
+        final byte[] tb = t.getBytes();
+        for (int i = 0; i < length; i++) {
+            if (tb[i] != b[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
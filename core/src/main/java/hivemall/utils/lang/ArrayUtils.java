@@ -141,7 +141,12 @@ public final class ArrayUtils {
     }
 
     public static void shuffle(@Nonnull final int[] array, @Nonnull final Random rnd) {
-        for (int i = array.length; i > 1; i--) {
+        shuffle(array, array.length, rnd);
+    }
+
+    public static void shuffle(@Nonnull final int[] array, final int size,
+            @Nonnull final Random rnd) {
+        for (int i = size; i > 1; i--) {
             int randomPosition = rnd.nextInt(i);
             swap(array, i - 1, randomPosition);
         }
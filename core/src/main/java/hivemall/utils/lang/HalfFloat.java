@@ -39,6 +39,8 @@ public final class HalfFloat {
     public static final float MAX_FLOAT_INTEGER = 65520f;
     /** (2-2^-10) * 2^15 */
     public static final float MAX_FLOAT = 65504f;
+    /** 2^-24, the smallest positive subnormal */
+    public static final float MIN_FLOAT = 5.9604645E-8f;
 
     /**
      * Smallest positive e for which HalfFloat (1.0 + e) != HalfFloat (1.0)
@@ -75,6 +77,32 @@ public final class HalfFloat {
         return (short) (basetable[i] + ((bits & 0x007FFFFF) >> shifttable[i]));
     }
 
+    /**
+     * Converts a float into a half float where values beyond +-{@link #MAX_FLOAT} are saturated
+     * instead of becoming infinity.
+     */
+    public static short floatToSaturatedHalfFloat(final float f32) {
+        if (f32 > MAX_FLOAT) {
+            return floatToHalfFloat(MAX_FLOAT);
+        } else if (f32 < -MAX_FLOAT) {
+            return floatToHalfFloat(-MAX_FLOAT);
+        }
+        return floatToHalfFloat(f32);
+    }
+
+    /**
+     * Converts a float into a saturated half float where non-zero values are kept non-zero, e.g.,
+     * for covariances that are divisors.
+     */
+    public static short floatToNonZeroHalfFloat(final float f32) {
+        if (f32 > 0.f && f32 < MIN_FLOAT) {
+            return floatToHalfFloat(MIN_FLOAT);
+        } else if (f32 < 0.f && f32 > -MIN_FLOAT) {
+            return floatToHalfFloat(-MIN_FLOAT);
+        }
+        return floatToSaturatedHalfFloat(f32);
+    }
+
     public static int halfFloatToFloatBits(final short f16) {
         int i = f16 >> 10;
         int j = offsettable[i] + (f16 & 0x3FF);
@@ -18,10 +18,16 @@
  */
 package hivemall.utils.lang;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 
+import javax.annotation.Nonnull;
+
 public final class NumberUtils {
 
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
     private NumberUtils() {}
 
     public static int parseInt(String s) {
@@ -59,6 +65,138 @@ public final class NumberUtils {
         return parseInt(s);
     }
 
+    /**
+     * Parses a decimal integer in the given ASCII/UTF-8 byte range without creating a String.
+     */
+    public static int parseInt(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        int i = start;
+        if (i >= end) {
+            throw new NumberFormatException("Empty string");
+        }
+        boolean negative = false;
+        final byte first = b[i];
+        if (first == '-' || first == '+') {
+            negative = (first == '-');
+            i++;
+            if (i >= end) {
+                throw new NumberFormatException("Invalid number format: "
+                        + new String(b, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+        long result = 0L; // accumulate negatively to handle Integer.MIN_VALUE
+        final long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        for (; i < end; i++) {
+            final int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number format: "
+                        + new String(b, start, end - start, StandardCharsets.UTF_8));
+            }
+            result = result * 10 - digit;
+            if (result < limit) {
+                throw new NumberFormatException("Integer overflow: "
+                        + new String(b, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+        return negative ? (int) result : (int) -result;
+    }
+
+    /**
+     * Parses a decimal floating-point number in the given ASCII/UTF-8 byte range.
+     * 
+     * The result is exactly the same as {@link Double#parseDouble(String)}. Numbers having at most
+     * 15 significant digits and a decimal exponent in [-22, 22] are converted in place (Clinger's
+     * fast path) and the others fall back to {@link Double#parseDouble(String)}.
+     */
+    public static double parseDouble(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = (b[i] == '-');
+            i++;
+        }
+
+        long mantissa = 0L;
+        int numDigits = 0;
+        int exp10 = 0;
+        boolean sawDigit = false;
+        for (; i < end; i++) {
+            final int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            sawDigit = true;
+            if (numDigits > 0 || digit != 0) {
+                mantissa = mantissa * 10 + digit;
+                numDigits++;
+            }
+        }
+        if (i < end && b[i] == '.') {
+            i++;
+            for (; i < end; i++) {
+                final int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                sawDigit = true;
+                if (numDigits > 0 || digit != 0) {
+                    mantissa = mantissa * 10 + digit;
+                    numDigits++;
+                }
+                exp10--;
+            }
+        }
+        if (sawDigit && i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExp = (b[i] == '-');
+                i++;
+            }
+            int exp = 0;
+            boolean sawExpDigit = false;
+            for (; i < end; i++) {
+                final int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                sawExpDigit = true;
+                if (exp < 10000) {
+                    exp = exp * 10 + digit;
+                }
+            }
+            if (!sawExpDigit) {
+                return parseDoubleSlow(b, start, end);
+            }
+            exp10 += negativeExp ? -exp : exp;
+        }
+
+        if (!sawDigit || i != end || numDigits > 15) {
+            return parseDoubleSlow(b, start, end);
+        }
+        if (mantissa == 0L) {
+            return negative ? -0.d : 0.d;
+        }
+        final double v;
+        if (exp10 == 0) {
+            v = mantissa;
+        } else if (exp10 > 0 && exp10 <= 22) {
+            v = mantissa * POW10[exp10];
+        } else if (exp10 < 0 && exp10 >= -22) {
+            v = mantissa / POW10[-exp10];
+        } else {
+            return parseDoubleSlow(b, start, end);
+        }
+        return negative ? -v : v;
+    }
+
+    private static double parseDoubleSlow(@Nonnull final byte[] b, final int start, final int end)
+            throws NumberFormatException {
+        String s = new String(b, start, end - start, StandardCharsets.UTF_8);
+        return Double.parseDouble(s);
+    }
+
     public static String formatNumber(final long number) {
         DecimalFormat f = new DecimalFormat("#,###");
         return f.format(number);
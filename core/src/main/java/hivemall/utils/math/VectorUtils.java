@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.math;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Kernels for distances and similarities of float vectors.
+ * <p>
+ * Dense kernels sum into four independent accumulators so that the JIT can overlap the
+ * iterations instead of waiting on a single running sum. Sparse kernels take the non-zero
+ * elements of each vector as indexes in ascending order and parallel values, and merge the two
+ * index arrays without hashing.
+ */
+public final class VectorUtils {
+
+    private VectorUtils() {}
+
+    public static double dot(@Nonnull final float[] x, @Nonnull final float[] y, final int size) {
+        double s0 = 0.d, s1 = 0.d, s2 = 0.d, s3 = 0.d;
+        int i = 0;
+        for (final int end = size - 3; i < end; i += 4) {
+            s0 += x[i] * y[i];
+            s1 += x[i + 1] * y[i + 1];
+            s2 += x[i + 2] * y[i + 2];
+            s3 += x[i + 3] * y[i + 3];
+        }
+        for (; i < size; i++) {
+            s0 += x[i] * y[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return sum(x^2)
+     */
+    public static double squaredNorm(@Nonnull final float[] x, final int size) {
+        double s0 = 0.d, s1 = 0.d, s2 = 0.d, s3 = 0.d;
+        int i = 0;
+        for (final int end = size - 3; i < end; i += 4) {
+            s0 += x[i] * x[i];
+            s1 += x[i + 1] * x[i + 1];
+            s2 += x[i + 2] * x[i + 2];
+            s3 += x[i + 3] * x[i + 3];
+        }
+        for (; i < size; i++) {
+            s0 += x[i] * x[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return the cosine similarity, or 0 when either vector is a zero vector
+     */
+    public static double cosineSimilarity(@Nonnull final float[] x, @Nonnull final float[] y,
+            final int size) {
+        double xy0 = 0.d, xy1 = 0.d, xy2 = 0.d, xy3 = 0.d;
+        double xx0 = 0.d, xx1 = 0.d, xx2 = 0.d, xx3 = 0.d;
+        double yy0 = 0.d, yy1 = 0.d, yy2 = 0.d, yy3 = 0.d;
+        int i = 0;
+        for (final int end = size - 3; i < end; i += 4) {
+            final float x0 = x[i], x1 = x[i + 1], x2 = x[i + 2], x3 = x[i + 3];
+            final float y0 = y[i], y1 = y[i + 1], y2 = y[i + 2], y3 = y[i + 3];
+            xy0 += x0 * y0;
+            xy1 += x1 * y1;
+            xy2 += x2 * y2;
+            xy3 += x3 * y3;
+            xx0 += x0 * x0;
+            xx1 += x1 * x1;
+            xx2 += x2 * x2;
+            xx3 += x3 * x3;
+            yy0 += y0 * y0;
+            yy1 += y1 * y1;
+            yy2 += y2 * y2;
+            yy3 += y3 * y3;
+        }
+        for (; i < size; i++) {
+            final float xi = x[i], yi = y[i];
+            xy0 += xi * yi;
+            xx0 += xi * xi;
+            yy0 += yi * yi;
+        }
+        final double dotp = (xy0 + xy1) + (xy2 + xy3);
+        final double denom = Math.sqrt((xx0 + xx1) + (xx2 + xx3))
+                * Math.sqrt((yy0 + yy1) + (yy2 + yy3));
+        return (denom <= 0.d) ? 0.d : dotp / denom;
+    }
+
+    /**
+     * @return sum((x - y)^2)
+     */
+    public static double squaredEuclidDistance(@Nonnull final float[] x,
+            @Nonnull final float[] y, final int size) {
+        double s0 = 0.d, s1 = 0.d, s2 = 0.d, s3 = 0.d;
+        int i = 0;
+        for (final int end = size - 3; i < end; i += 4) {
+            final float d0 = x[i] - y[i];
+            final float d1 = x[i + 1] - y[i + 1];
+            final float d2 = x[i + 2] - y[i + 2];
+            final float d3 = x[i + 3] - y[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < size; i++) {
+            final float d = x[i] - y[i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return sum(|x - y|)
+     */
+    public static double manhattanDistance(@Nonnull final float[] x, @Nonnull final float[] y,
+            final int size) {
+        double s0 = 0.d, s1 = 0.d, s2 = 0.d, s3 = 0.d;
+        int i = 0;
+        for (final int end = size - 3; i < end; i += 4) {
+            s0 += Math.abs(x[i] - y[i]);
+            s1 += Math.abs(x[i + 1] - y[i + 1]);
+            s2 += Math.abs(x[i + 2] - y[i + 2]);
+            s3 += Math.abs(x[i + 3] - y[i + 3]);
+        }
+        for (; i < size; i++) {
+            s0 += Math.abs(x[i] - y[i]);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * @return sum(|x - y|^p)
+     */
+    public static double minkowskiDistanceSum(@Nonnull final float[] x,
+            @Nonnull final float[] y, final int size, final double p) {
+        double d = 0.d;
+        for (int i = 0; i < size; i++) {
+            d += Math.pow(Math.abs(x[i] - y[i]), p);
+        }
+        return d;
+    }
+
+    /**
+     * @return the dot product of sparse vectors x and y whose indexes are in ascending order
+     */
+    public static double dot(@Nonnull final int[] xIndexes, @Nonnull final float[] xValues,
+            final int xSize, @Nonnull final int[] yIndexes, @Nonnull final float[] yValues,
+            final int ySize) {
+        double s = 0.d;
+        int i = 0, j = 0;
+        while (i < xSize && j < ySize) {
+            final int xi = xIndexes[i], yj = yIndexes[j];
+            if (xi == yj) {
+                s += xValues[i] * yValues[j];
+                i++;
+                j++;
+            } else if (xi < yj) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return sum((x - y)^2) of sparse vectors x and y whose indexes are in ascending order
+     */
+    public static double squaredEuclidDistance(@Nonnull final int[] xIndexes,
+            @Nonnull final float[] xValues, final int xSize, @Nonnull final int[] yIndexes,
+            @Nonnull final float[] yValues, final int ySize) {
+        double s = 0.d;
+        int i = 0, j = 0;
+        while (i < xSize && j < ySize) {
+            final int xi = xIndexes[i], yj = yIndexes[j];
+            final float d;
+            if (xi == yj) {
+                d = xValues[i++] - yValues[j++];
+            } else if (xi < yj) {
+                d = xValues[i++];
+            } else {
+                d = yValues[j++];
+            }
+            s += d * d;
+        }
+        for (; i < xSize; i++) {
+            s += xValues[i] * xValues[i];
+        }
+        for (; j < ySize; j++) {
+            s += yValues[j] * yValues[j];
+        }
+        return s;
+    }
+
+    /**
+     * @return sum(|x - y|) of sparse vectors x and y whose indexes are in ascending order
+     */
+    public static double manhattanDistance(@Nonnull final int[] xIndexes,
+            @Nonnull final float[] xValues, final int xSize, @Nonnull final int[] yIndexes,
+            @Nonnull final float[] yValues, final int ySize) {
+        double s = 0.d;
+        int i = 0, j = 0;
+        while (i < xSize && j < ySize) {
+            final int xi = xIndexes[i], yj = yIndexes[j];
+            if (xi == yj) {
+                s += Math.abs(xValues[i++] - yValues[j++]);
+            } else if (xi < yj) {
+                s += Math.abs(xValues[i++]);
+            } else {
+                s += Math.abs(yValues[j++]);
+            }
+        }
+        for (; i < xSize; i++) {
+            s += Math.abs(xValues[i]);
+        }
+        for (; j < ySize; j++) {
+            s += Math.abs(yValues[j]);
+        }
+        return s;
+    }
+
+    /**
+     * @return sum(|x - y|^p) of sparse vectors x and y whose indexes are in ascending order
+     */
+    public static double minkowskiDistanceSum(@Nonnull final int[] xIndexes,
+            @Nonnull final float[] xValues, final int xSize, @Nonnull final int[] yIndexes,
+            @Nonnull final float[] yValues, final int ySize, final double p) {
+        double s = 0.d;
+        int i = 0, j = 0;
+        while (i < xSize && j < ySize) {
+            final int xi = xIndexes[i], yj = yIndexes[j];
+            final float d;
+            if (xi == yj) {
+                d = xValues[i++] - yValues[j++];
+            } else if (xi < yj) {
+                d = xValues[i++];
+            } else {
+                d = yValues[j++];
+            }
+            s += Math.pow(Math.abs(d), p);
+        }
+        for (; i < xSize; i++) {
+            s += Math.pow(Math.abs(xValues[i]), p);
+        }
+        for (; j < ySize; j++) {
+            s += Math.pow(Math.abs(yValues[j]), p);
+        }
+        return s;
+    }
+
+}
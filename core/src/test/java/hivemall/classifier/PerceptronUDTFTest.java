@@ -19,15 +19,33 @@
 package hivemall.classifier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import hivemall.model.FeatureValue;
+import hivemall.model.ModelBlock;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
 public class PerceptronUDTFTest {
@@ -118,4 +136,174 @@ public class PerceptronUDTFTest {
         assertEquals(-1.f, udtf.model.get(word3.getFeature()).get(), 1e-5f);
         assertEquals(0.f, udtf.model.get(word4.getFeature()).get(), 1e-5f);
     }
+
+    @Test
+    public void testIterations() throws HiveException {
+        List<List<String>> features = new ArrayList<List<String>>();
+        features.add(Arrays.asList("good", "opinion"));
+        features.add(Arrays.asList("bad", "opinion"));
+        features.add(Arrays.asList("good:2.0", "movie"));
+        features.add(Arrays.asList("bad:0.5", "good:0.5", "movie"));
+        int[] labels = new int[] {1, -1, 1, -1};
+
+        // 5 iterations with replay
+        PerceptronUDTF udtf = new PerceptronUDTF();
+        Map<Object, Float> replayed = new HashMap<Object, Float>();
+        initialize(udtf, "-iters 5 -disable_cv -disable_shuffle", replayed);
+        for (int i = 0; i < labels.length; i++) {
+            udtf.process(new Object[] {features.get(i), labels[i]});
+        }
+        udtf.close();
+
+        // 5 times of the input in a single iteration
+        udtf = new PerceptronUDTF();
+        Map<Object, Float> expected = new HashMap<Object, Float>();
+        initialize(udtf, "", expected);
+        for (int iter = 0; iter < 5; iter++) {
+            for (int i = 0; i < labels.length; i++) {
+                udtf.process(new Object[] {features.get(i), labels[i]});
+            }
+        }
+        udtf.close();
+
+        assertEquals(4, expected.size());
+        assertEquals(expected, replayed);
+    }
+
+    @Test
+    public void testIterationsWithWritableFeatures() throws HiveException {
+        List<List<IntWritable>> features = new ArrayList<List<IntWritable>>();
+        features.add(Arrays.asList(new IntWritable(1), new IntWritable(2)));
+        features.add(Arrays.asList(new IntWritable(3), new IntWritable(2)));
+        features.add(Arrays.asList(new IntWritable(1), new IntWritable(4)));
+        features.add(Arrays.asList(new IntWritable(3), new IntWritable(1), new IntWritable(4)));
+        int[] labels = new int[] {1, -1, 1, -1};
+
+        // 3 iterations with replay
+        PerceptronUDTF udtf = new PerceptronUDTF();
+        Map<Object, Float> replayed = new HashMap<Object, Float>();
+        initializeWritable(udtf, "-iters 3 -disable_cv -disable_shuffle", replayed);
+        for (int i = 0; i < labels.length; i++) {
+            udtf.process(new Object[] {features.get(i), new IntWritable(labels[i])});
+        }
+        udtf.close();
+
+        // 3 times of the input in a single iteration
+        udtf = new PerceptronUDTF();
+        Map<Object, Float> expected = new HashMap<Object, Float>();
+        initializeWritable(udtf, "", expected);
+        for (int iter = 0; iter < 3; iter++) {
+            for (int i = 0; i < labels.length; i++) {
+                udtf.process(new Object[] {features.get(i), new IntWritable(labels[i])});
+            }
+        }
+        udtf.close();
+
+        assertEquals(4, expected.size());
+        assertEquals(expected, replayed);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName("hivemall:type=LearnerMetricsMBean,name=PerceptronUDTF,*");
+
+        PerceptronUDTF udtf = new PerceptronUDTF();
+        Map<Object, Float> weights = new HashMap<Object, Float>();
+        initialize(udtf, "-iters 3 -disable_cv -metrics_jmx", weights);
+        assertTrue(server.queryNames(query, null).isEmpty());
+
+        udtf.process(new Object[] {Arrays.asList("good", "opinion"), 1});
+        udtf.process(new Object[] {Arrays.asList("bad", "opinion"), -1});
+        assertEquals(1, server.queryNames(query, null).size());
+
+        udtf.close();
+        assertTrue(server.queryNames(query, null).isEmpty());
+        assertEquals(3, weights.size());
+    }
+
+    @Test
+    public void testCompactModel() throws Exception {
+        PerceptronUDTF udtf = new PerceptronUDTF();
+        Map<Object, Float> expected = new HashMap<Object, Float>();
+        initialize(udtf, "-iters 2 -disable_cv -disable_shuffle", expected);
+
+        PerceptronUDTF compact = new PerceptronUDTF();
+        ObjectInspector stringOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(stringOI,
+            "-iters 2 -disable_cv -disable_shuffle -compact_model -compact_partitions 4");
+        StructObjectInspector oi = compact.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(stringOI),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector, param});
+        assertEquals("struct<part:int,block:binary>", oi.getTypeName());
+        final Map<Object, Float> actual = new HashMap<Object, Float>();
+        compact.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                int part = ((IntWritable) row[0]).get();
+                BytesWritable block = (BytesWritable) row[1];
+                try {
+                    ModelBlock.Reader reader = new ModelBlock.Reader(block.getBytes(), 0,
+                        block.getLength());
+                    assertTrue(reader.isStringKey());
+                    while (reader.next()) {
+                        String feature = Text.decode(reader.getKeyBytes(), 0,
+                            reader.getKeyLength());
+                        assertEquals(part, ModelBlock.partition(new Text(feature), 4));
+                        assertEquals(1, reader.getCount());
+                        actual.put(feature, reader.getWeight());
+                    }
+                } catch (Exception e) {
+                    throw new HiveException(e);
+                }
+            }
+        });
+
+        String[][] rows = new String[][] { {"good", "opinion"}, {"bad", "opinion"},
+                {"good", "movie"}, {"bad", "actor", "movie"}};
+        int[] labels = new int[] {1, -1, 1, -1};
+        for (int i = 0; i < rows.length; i++) {
+            udtf.process(new Object[] {Arrays.asList(rows[i]), labels[i]});
+            compact.process(new Object[] {Arrays.asList(rows[i]), labels[i]});
+        }
+        udtf.close();
+        compact.close();
+
+        assertEquals(expected, actual);
+    }
+
+    private static void initializeWritable(PerceptronUDTF udtf, String options,
+            final Map<Object, Float> weights) throws UDFArgumentException {
+        ObjectInspector intOI = PrimitiveObjectInspectorFactory.writableIntObjectInspector;
+        ListObjectInspector intListOI = ObjectInspectorFactory.getStandardListObjectInspector(intOI);
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, options);
+        udtf.initialize(new ObjectInspector[] {intListOI, intOI, param});
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                weights.put(row[0].toString(), ((FloatWritable) row[1]).get());
+            }
+        });
+    }
+
+    private static void initialize(PerceptronUDTF udtf, String options,
+            final Map<Object, Float> weights) throws UDFArgumentException {
+        ObjectInspector stringOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        ListObjectInspector stringListOI = ObjectInspectorFactory.getStandardListObjectInspector(stringOI);
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, options);
+        udtf.initialize(new ObjectInspector[] {stringListOI,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector, param});
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                weights.put(row[0].toString(), ((FloatWritable) row[1]).get());
+            }
+        });
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.model.FeatureValue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentTrainerTest {
+
+    @Test
+    public void testSync() throws HiveException {
+        final AtomicInteger count = new AtomicInteger();
+        ConcurrentTrainer trainer = new ConcurrentTrainer(4, 8, 4,
+            new ConcurrentTrainer.ExampleHandler() {
+                @Override
+                public float handle(@Nonnull FeatureValue[] features, double target,
+                        @Nullable Object label) {
+                    count.incrementAndGet();
+                    return 1.f;
+                }
+            });
+        FeatureValue[] features = new FeatureValue[] {new FeatureValue("f", 1.f)};
+        for (int i = 0; i < 1000; i++) {
+            trainer.submit(features, 1.d, null);
+        }
+        Assert.assertEquals(1000.d, trainer.sync(), 0.d);
+        Assert.assertEquals(1000, count.get());
+        trainer.submit(features, 1.d, null);
+        Assert.assertEquals(1.d, trainer.close(), 0.d);
+    }
+
+    @Test(timeout = 30000L, expected = HiveException.class)
+    public void testInterruptedWorker() throws HiveException {
+        final CountDownLatch submitted = new CountDownLatch(1);
+        ConcurrentTrainer trainer = new ConcurrentTrainer(1, 1, 3,
+            new ConcurrentTrainer.ExampleHandler() {
+                @Override
+                public float handle(@Nonnull FeatureValue[] features, double target,
+                        @Nullable Object label) throws HiveException {
+                    try {
+                        submitted.await();
+                    } catch (InterruptedException e) {
+                        throw new HiveException(e);
+                    }
+                    // the worker is interrupted when taking the second batch
+                    Thread.currentThread().interrupt();
+                    return 0.f;
+                }
+            });
+        FeatureValue[] features = new FeatureValue[] {new FeatureValue("f", 1.f)};
+        try {
+            trainer.submit(features, 1.d, null);
+            trainer.submit(features, 1.d, null);
+            submitted.countDown();
+            trainer.sync();
+        } finally {
+            try {
+                trainer.close();
+            } catch (HiveException e) {
+                // the error is already thrown
+            }
+        }
+    }
+
+}
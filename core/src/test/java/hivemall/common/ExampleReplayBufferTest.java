@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import hivemall.common.ExampleReplayBuffer.ReplayListener;
+import hivemall.model.FeatureValue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExampleReplayBufferTest {
+
+    @Test
+    public void testReplayInOrder() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer();
+        buffer.add(new FeatureValue[] {new FeatureValue(new Text("a"), 1.f),
+                new FeatureValue(Integer.valueOf(3), 0.5f)}, 1.d);
+        buffer.add(new FeatureValue[] {null, new FeatureValue(Long.valueOf(7L), 2.f)}, -1.d);
+        buffer.add(new FeatureValue[] {new FeatureValue("b", 1.5f)}, "label");
+        Assert.assertEquals(3L, buffer.size());
+        Assert.assertFalse(buffer.isSpilled());
+
+        final List<String> replayed = new ArrayList<String>();
+        ReplayListener listener = new ReplayListener() {
+            @Override
+            public void onReplay(FeatureValue[] features, double target, Object label) {
+                StringBuilder buf = new StringBuilder();
+                for (FeatureValue f : features) {
+                    if (f == null) {
+                        buf.append("null");
+                    } else {
+                        Object k = f.getFeature();
+                        buf.append(k.getClass().getSimpleName()).append(':').append(k);
+                        buf.append(':').append(f.getValueAsFloat());
+                    }
+                    buf.append(' ');
+                }
+                buf.append(target).append(' ').append(label);
+                replayed.add(buf.toString());
+            }
+        };
+        buffer.replay(listener, null);
+        buffer.close();
+
+        Assert.assertEquals(3, replayed.size());
+        Assert.assertEquals("Text:a:1.0 Integer:3:0.5 1.0 null", replayed.get(0));
+        Assert.assertEquals("null Long:7:2.0 -1.0 null", replayed.get(1));
+        Assert.assertEquals("String:b:1.5 NaN label", replayed.get(2));
+    }
+
+    @Test
+    public void testReplayWritables() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer();
+        buffer.add(new FeatureValue[] {new FeatureValue(new IntWritable(3), 0.5f),
+                new FeatureValue(new LongWritable(7L), 2.f)}, new IntWritable(1));
+        buffer.add(new FeatureValue[] {new FeatureValue(new IntWritable(4), 1.f)},
+            new LongWritable(2L));
+
+        final List<String> replayed = new ArrayList<String>();
+        buffer.replay(new ReplayListener() {
+            @Override
+            public void onReplay(FeatureValue[] features, double target, Object label) {
+                StringBuilder buf = new StringBuilder();
+                for (FeatureValue f : features) {
+                    Object k = f.getFeature();
+                    buf.append(k.getClass().getSimpleName()).append(':').append(k);
+                    buf.append(':').append(f.getValueAsFloat()).append(' ');
+                }
+                buf.append(label.getClass().getSimpleName()).append(':').append(label);
+                replayed.add(buf.toString());
+            }
+        }, null);
+        buffer.close();
+
+        Assert.assertEquals(2, replayed.size());
+        Assert.assertEquals("IntWritable:3:0.5 LongWritable:7:2.0 IntWritable:1", replayed.get(0));
+        Assert.assertEquals("IntWritable:4:1.0 LongWritable:2", replayed.get(1));
+    }
+
+    @Test
+    public void testShuffledReplay() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer();
+        testShuffledReplay(buffer, 1000);
+        Assert.assertFalse(buffer.isSpilled());
+    }
+
+    @Test
+    public void testShuffledReplayWithSpill() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer(256, null);
+        testShuffledReplay(buffer, 1000);
+    }
+
+    private static void testShuffledReplay(ExampleReplayBuffer buffer, int size)
+            throws HiveException {
+        for (int i = 0; i < size; i++) {
+            FeatureValue[] x = new FeatureValue[] {new FeatureValue(new Text("f" + i), 1.f),
+                    new FeatureValue(Integer.valueOf(i), 1.f)};
+            buffer.add(x, i);
+        }
+        Assert.assertEquals(size, buffer.size());
+
+        Random rnd = new Random(43L);
+        for (int iter = 0; iter < 2; iter++) {
+            final List<Integer> order = new ArrayList<Integer>(size);
+            final Set<Integer> seen = new HashSet<Integer>(size);
+            buffer.replay(new ReplayListener() {
+                @Override
+                public void onReplay(FeatureValue[] features, double target, Object label) {
+                    int i = (int) target;
+                    Assert.assertEquals(new Text("f" + i), features[0].getFeature());
+                    Assert.assertEquals(Integer.valueOf(i), features[1].getFeature());
+                    order.add(i);
+                    seen.add(i);
+                }
+            }, rnd);
+            Assert.assertEquals(size, order.size());
+            Assert.assertEquals(size, seen.size());
+            boolean shuffled = false;
+            for (int i = 0; i < size; i++) {
+                if (order.get(i).intValue() != i) {
+                    shuffled = true;
+                    break;
+                }
+            }
+            Assert.assertTrue(shuffled);
+        }
+        buffer.close();
+    }
+
+    @Test
+    public void testLargeRecordWithSpill() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer(64, null);
+        FeatureValue[] large = new FeatureValue[100];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = new FeatureValue(Integer.valueOf(i), 1.f);
+        }
+        buffer.add(new FeatureValue[] {new FeatureValue(Integer.valueOf(-1), 1.f)}, 0.d);
+        buffer.add(large, 1.d);
+        buffer.add(new FeatureValue[] {new FeatureValue(Integer.valueOf(-2), 1.f)}, 2.d);
+        Assert.assertTrue(buffer.isSpilled());
+
+        final int[] lengths = new int[3];
+        buffer.replay(new ReplayListener() {
+            @Override
+            public void onReplay(FeatureValue[] features, double target, Object label) {
+                lengths[(int) target] = features.length;
+            }
+        }, null);
+        buffer.close();
+
+        Assert.assertArrayEquals(new int[] {1, 100, 1}, lengths);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterReplay() throws HiveException {
+        ExampleReplayBuffer buffer = new ExampleReplayBuffer();
+        buffer.add(new FeatureValue[] {new FeatureValue(Integer.valueOf(1), 1.f)}, 1.d);
+        buffer.replay(new ReplayListener() {
+            @Override
+            public void onReplay(FeatureValue[] features, double target, Object label) {}
+        }, null);
+        buffer.add(new FeatureValue[] {new FeatureValue(Integer.valueOf(2), 1.f)}, 1.d);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LearnerMetricsTest {
+
+    @Test
+    public void testReport() throws InterruptedException {
+        LearnerMetrics metrics = new LearnerMetrics("test", false);
+        metrics.report(null, 10L);
+        Assert.assertEquals(0L, metrics.getRows());
+
+        final int rows = LearnerMetrics.SAMPLING_INTERVAL * 4;
+        for (int i = 0; i < rows; i++) {
+            long parseStart = metrics.startParse();
+            metrics.endParse(parseStart);
+            long updateStart = metrics.startUpdate();
+            if (i % LearnerMetrics.SAMPLING_INTERVAL == 0) {
+                Thread.sleep(2L);
+            }
+            metrics.endUpdate(updateStart);
+            Assert.assertFalse(metrics.incrRows());
+        }
+        metrics.addTrainingTime(5000000L);
+        metrics.report(null, 10L);
+
+        Assert.assertEquals(rows, metrics.getRows());
+        Assert.assertTrue(metrics.getRowsPerSecond() > 0L);
+        // every sampled update took 2 msec or more, which is scaled by the sampling interval
+        Assert.assertTrue(metrics.getUpdateTimeMillis() >= 2L * rows + 5L);
+        Assert.assertTrue(metrics.getParseTimeMillis() < metrics.getUpdateTimeMillis());
+        Assert.assertEquals(10L, metrics.getModelSize());
+        Assert.assertTrue(metrics.getHeapUsed() > 0L);
+        Assert.assertTrue(metrics.getGcTimeMillis() >= 0L);
+        Assert.assertEquals(0L, metrics.getMixRequestsSent());
+    }
+
+    @Test
+    public void testReportInterval() {
+        LearnerMetrics metrics = new LearnerMetrics("test", false);
+        int reported = 0;
+        for (long i = 0; i < LearnerMetrics.REPORT_INTERVAL * 3; i++) {
+            if (metrics.incrRows()) {
+                reported++;
+            }
+        }
+        Assert.assertEquals(3, reported);
+    }
+
+    @Test
+    public void testNullCounters() {
+        LearnerMetrics metrics = new LearnerMetrics("test", false);
+        metrics.incrRows();
+        // Reporter.NULL returns null counters
+        metrics.report(Reporter.NULL, 10L);
+        metrics.close(Reporter.NULL, 10L);
+        Assert.assertEquals(1L, metrics.getRows());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName query = new ObjectName("hivemall:type=LearnerMetricsMBean,name=jmxtest,*");
+
+        LearnerMetrics metrics = new LearnerMetrics("jmxtest", true);
+        Assert.assertTrue(server.queryNames(query, null).isEmpty());
+
+        metrics.incrRows();
+        metrics.incrRows();
+        Set<ObjectName> names = server.queryNames(query, null);
+        Assert.assertEquals(1, names.size());
+
+        ObjectName name = names.iterator().next();
+        metrics.report(null, 3L);
+        Assert.assertEquals(2L, server.getAttribute(name, "Rows"));
+        Assert.assertEquals(3L, server.getAttribute(name, "ModelSize"));
+
+        metrics.close(null, 3L);
+        Assert.assertTrue(server.queryNames(query, null).isEmpty());
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.evaluation;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScoreHistogramTest {
+
+    @Test
+    public void testExactAUC() {
+        double[] scores = new double[] {0.8, 0.4, 0.4, 0.7, 0.1, -0.2, 0.4};
+        boolean[] labels = new boolean[] {true, false, true, true, false, false, false};
+
+        ScoreHistogram hist = new ScoreHistogram();
+        for (int i = 0; i < scores.length; i++) {
+            hist.add(scores[i], labels[i]);
+        }
+        Assert.assertTrue(hist.isExact());
+        Assert.assertEquals(5, hist.size());
+        Assert.assertEquals(pairwiseAUC(scores, labels), hist.auc(), 1e-12d);
+    }
+
+    @Test
+    public void testSingleClass() {
+        ScoreHistogram hist = new ScoreHistogram();
+        Assert.assertTrue(Double.isNaN(hist.auc()));
+        hist.add(0.5d, true);
+        hist.add(0.1d, true);
+        Assert.assertTrue(Double.isNaN(hist.auc()));
+    }
+
+    @Test
+    public void testBinnedAUC() {
+        Random rnd = new Random(43L);
+        int n = 20000;
+        double[] scores = new double[n];
+        boolean[] labels = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = rnd.nextBoolean();
+            scores[i] = rnd.nextGaussian() + (labels[i] ? 0.5d : 0.d);
+        }
+
+        ScoreHistogram hist = new ScoreHistogram(ScoreHistogram.MIN_BINS * 4);
+        for (int i = 0; i < n; i++) {
+            hist.add(scores[i], labels[i]);
+        }
+        Assert.assertFalse(hist.isExact());
+        Assert.assertTrue(hist.size() <= ScoreHistogram.MIN_BINS * 4);
+        Assert.assertEquals(pairwiseAUC(scores, labels), hist.auc(), 1e-3d);
+    }
+
+    @Test
+    public void testClusteredScores() {
+        Random rnd = new Random(41L);
+        int n = 400000;
+        ScoreHistogram exact = new ScoreHistogram(ScoreHistogram.MAX_BINS);
+        ScoreHistogram hist = new ScoreHistogram();
+        for (int i = 0; i < n; i++) {
+            boolean label = rnd.nextBoolean();
+            // scores in [4.0, 4.3]
+            double score = 4.15d + 0.03d * rnd.nextGaussian() + (label ? 0.02d : 0.d);
+            score = Math.min(4.3d, Math.max(4.0d, score));
+            exact.add(score, label);
+            hist.add(score, label);
+        }
+        Assert.assertTrue(exact.isExact());
+        Assert.assertFalse(hist.isExact());
+        Assert.assertTrue(hist.size() <= ScoreHistogram.DEFAULT_BINS);
+        // bins adapt to the range of the scores
+        Assert.assertTrue("bins used: " + hist.size(),
+            hist.size() > ScoreHistogram.DEFAULT_BINS / 4);
+        Assert.assertEquals(exact.auc(), hist.auc(), 1e-4d);
+    }
+
+    @Test
+    public void testSerializeAndMerge() throws IOException {
+        Random rnd = new Random(31L);
+        int n = 5000;
+        double[] scores = new double[n];
+        boolean[] labels = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = rnd.nextInt(4) == 0;
+            scores[i] = rnd.nextDouble() * (labels[i] ? 2.d : 1.d);
+        }
+
+        final int bins = ScoreHistogram.MIN_BINS * 8;
+        ScoreHistogram whole = new ScoreHistogram(bins);
+        for (int i = 0; i < n; i++) {
+            whole.add(scores[i], labels[i]);
+        }
+
+        // a small exact partition, a large binned partition and an empty partition
+        ScoreHistogram p1 = new ScoreHistogram(bins);
+        ScoreHistogram p2 = new ScoreHistogram(bins);
+        ScoreHistogram p3 = new ScoreHistogram(bins);
+        for (int i = 0; i < n; i++) {
+            (i < 100 ? p1 : p2).add(scores[i], labels[i]);
+        }
+        Assert.assertTrue(p1.isExact());
+        Assert.assertFalse(p2.isExact());
+
+        ScoreHistogram merged = new ScoreHistogram(ScoreHistogram.getBins(p1.serialize(), 0));
+        for (ScoreHistogram p : new ScoreHistogram[] {p1, p2, p3}) {
+            byte[] b = p.serialize();
+            merged.merge(b, 0, b.length);
+        }
+        Assert.assertEquals(whole.size(), merged.size());
+        Assert.assertEquals(whole.auc(), merged.auc(), 1e-12d);
+
+        // exact partitions stay exact when merged
+        ScoreHistogram exact = new ScoreHistogram(bins);
+        byte[] b = p1.serialize();
+        exact.merge(b, 0, b.length);
+        Assert.assertTrue(exact.isExact());
+        Assert.assertEquals(p1.auc(), exact.auc(), 1e-12d);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMergeBinsMismatch() throws IOException {
+        ScoreHistogram h1 = new ScoreHistogram(ScoreHistogram.MIN_BINS);
+        h1.add(0.1d, true);
+        byte[] b = h1.serialize();
+        new ScoreHistogram(ScoreHistogram.MIN_BINS * 2).merge(b, 0, b.length);
+    }
+
+    private static double pairwiseAUC(double[] scores, boolean[] labels) {
+        double area = 0.d;
+        long pairs = 0L;
+        for (int i = 0; i < scores.length; i++) {
+            if (!labels[i]) {
+                continue;
+            }
+            for (int j = 0; j < scores.length; j++) {
+                if (labels[j]) {
+                    continue;
+                }
+                pairs++;
+                if (scores[i] > scores[j]) {
+                    area += 1.d;
+                } else if (scores[i] == scores[j]) {
+                    area += 0.5d;
+                }
+            }
+        }
+        return area / pairs;
+    }
+
+}
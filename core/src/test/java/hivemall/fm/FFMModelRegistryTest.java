@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.utils.buffer.HeapBuffer;
+import hivemall.utils.collections.Int2LongOpenHashTable;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FFMModelRegistryTest {
+
+    @Test
+    public void testRefCount() throws IOException {
+        FFMModelRegistry registry = new FFMModelRegistry(0);
+        Assert.assertNull(registry.acquire("m1"));
+
+        MappedFFMPredictionModel m1 = newModel();
+        Assert.assertSame(m1, registry.register("m1", m1));
+        // a model registered concurrently is discarded
+        Assert.assertSame(m1, registry.register("m1", newModel()));
+        Assert.assertSame(m1, registry.acquire("m1"));
+        Assert.assertEquals(3, registry.getRefCount("m1"));
+
+        registry.release("m1");
+        registry.release("m1");
+        Assert.assertEquals(1, registry.size());
+        registry.release("m1");
+        Assert.assertEquals(0, registry.size());
+        Assert.assertNull(registry.acquire("m1"));
+    }
+
+    @Test
+    public void testLRU() throws IOException {
+        FFMModelRegistry registry = new FFMModelRegistry(2);
+        registry.register("m1", newModel());
+        registry.register("m2", newModel());
+        registry.register("m3", newModel());
+        registry.register("m4", newModel());
+
+        registry.release("m1");
+        registry.release("m2");
+        Assert.assertNotNull(registry.acquire("m1"));
+        registry.release("m1");
+        registry.release("m3");
+        Assert.assertEquals(3, registry.size());
+
+        // m2 is the least recently used idle model
+        Assert.assertNull(registry.acquire("m2"));
+        Assert.assertNotNull(registry.acquire("m1"));
+        Assert.assertNotNull(registry.acquire("m3"));
+        Assert.assertNotNull(registry.acquire("m4"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTooMany() throws IOException {
+        FFMModelRegistry registry = new FFMModelRegistry(2);
+        registry.register("m1", newModel());
+        registry.release("m1");
+        registry.release("m1");
+    }
+
+    private static MappedFFMPredictionModel newModel() throws IOException {
+        final int factors = 2;
+        HeapBuffer buf = new HeapBuffer(HeapBuffer.DEFAULT_CHUNK_SIZE);
+        Int2LongOpenHashTable map = Int2LongOpenHashTable.newInstance();
+        Entry e = new Entry(buf, factors, buf.allocate(Entry.sizeOf(factors)));
+        e.setW(1.f);
+        map.put(1, e.getOffset());
+        FFMPredictionModel model = new FFMPredictionModel(map, buf, 0.d, factors,
+            Feature.DEFAULT_NUM_FEATURES, Feature.DEFAULT_NUM_FIELDS);
+
+        File file = File.createTempFile("FFMModelRegistryTest", ".ffm");
+        file.deleteOnExit();
+        MappedFFMPredictionModel.write(model, file);
+        return MappedFFMPredictionModel.open(file);
+    }
+
+}
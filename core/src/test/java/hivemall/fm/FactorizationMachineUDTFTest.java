@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
@@ -82,6 +83,47 @@ public class FactorizationMachineUDTFTest {
 
     }
 
+    @Test
+    public void testConcurrentIterations() throws HiveException, IOException {
+        FactorizationMachineUDTF udtf = new FactorizationMachineUDTF();
+        ObjectInspector[] argOIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    "-factors 5 -min 1 -max 5 -iters 50 -init_v gaussian -eta0 0.01 -seed 31 "
+                            + "-threads 2 -disable_cvtest")};
+
+        udtf.initialize(argOIs);
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {}
+        });
+
+        BufferedReader data = new BufferedReader(new InputStreamReader(
+            getClass().getResourceAsStream("5107786.txt")));
+        int trExamples = 0;
+        String line = data.readLine();
+        while (line != null) {
+            StringTokenizer tokenizer = new StringTokenizer(line, " ");
+            double y = Double.parseDouble(tokenizer.nextToken());
+            List<String> features = new ArrayList<String>();
+            while (tokenizer.hasMoreTokens()) {
+                String f = tokenizer.nextToken();
+                features.add(f);
+            }
+            udtf.process(new Object[] {features, y});
+            trExamples++;
+            line = data.readLine();
+        }
+        data.close();
+        udtf.close();
+
+        // losses of the last iteration
+        double loss = udtf._cvState.getPreviousLoss() / trExamples;
+        println("concurrent loss=" + loss);
+        Assert.assertTrue("Loss was greater than 0.1: " + loss, loss <= 0.1);
+    }
+
     private static void println(String line) {
         if (DEBUG) {
             System.out.println(line);
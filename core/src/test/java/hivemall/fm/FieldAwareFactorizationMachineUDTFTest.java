@@ -25,6 +25,7 @@ import java.util.ArrayList;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
@@ -97,30 +98,7 @@ public class FieldAwareFactorizationMachineUDTFTest {
                 if (input == null) {
                     break;
                 }
-                ArrayList<String> featureStrings = new ArrayList<String>();
-                ArrayList<StringFeature> features = new ArrayList<StringFeature>();
-
-                //make StringFeature for each word = data point
-                String remaining = input;
-                int wordCut = remaining.indexOf(' ');
-                while (wordCut != -1) {
-                    featureStrings.add(remaining.substring(0, wordCut));
-                    remaining = remaining.substring(wordCut + 1);
-                    wordCut = remaining.indexOf(' ');
-                }
-                int end = featureStrings.size();
-                double y = Double.parseDouble(featureStrings.get(0));
-                if (y == 0) {
-                    y = -1;//LibFFM data uses {0, 1}; Hivemall uses {-1, 1}
-                }
-                for (int wordNumber = 1; wordNumber < end; ++wordNumber) {
-                    String entireFeature = featureStrings.get(wordNumber);
-                    int featureCut = StringUtils.ordinalIndexOf(entireFeature, ":", 2);
-                    String feature = entireFeature.substring(0, featureCut);
-                    double value = Double.parseDouble(entireFeature.substring(featureCut + 1));
-                    features.add(new StringFeature(feature, value));
-                }
-                udtf.process(new Object[] {toStringArray(features), y});
+                udtf.process(parseLine(input));
             }
             cumul = udtf._cvState.getCumulativeLoss();
             loss = (cumul - loss) / lines;
@@ -131,6 +109,74 @@ public class FieldAwareFactorizationMachineUDTFTest {
         Assert.assertTrue("Last loss was greater than expected: " + loss, loss < lossThreshold);
     }
 
+    @Test
+    public void testConcurrentIterations() throws HiveException, IOException {
+        String options = "-classification -factors 10 -w0 -seed 43 -iters 3 -disable_cvtest";
+        // 40 copies of the examples exceed the buffer and are replayed from a file
+        double serialLoss = runIterations(options, 40);
+        double concurrentLoss = runIterations(options + " -threads 2", 40);
+        println("serial loss=" + serialLoss + ", concurrent loss=" + concurrentLoss);
+        Assert.assertTrue("Last loss was greater than expected: " + concurrentLoss,
+            concurrentLoss < 0.30f);
+        Assert.assertEquals(serialLoss, concurrentLoss, 0.05d);
+    }
+
+    private static double runIterations(String options, int copies) throws IOException,
+            HiveException {
+        FieldAwareFactorizationMachineUDTF udtf = new FieldAwareFactorizationMachineUDTF();
+        ObjectInspector[] argOIs = new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, options)};
+        udtf.initialize(argOIs);
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {}
+        });
+
+        int examples = 0;
+        for (int i = 0; i < copies; i++) {
+            BufferedReader data = new BufferedReader(new InputStreamReader(
+                FieldAwareFactorizationMachineUDTFTest.class.getResourceAsStream("bigdata.tr.txt")));
+            String input;
+            for (int lines = 0; lines < MAX_LINES && (input = data.readLine()) != null; lines++) {
+                udtf.process(parseLine(input));
+                examples++;
+            }
+            data.close();
+        }
+        udtf.close();
+        // losses of the last iteration
+        return udtf._cvState.getPreviousLoss() / examples;
+    }
+
+    private static Object[] parseLine(String input) {
+        ArrayList<String> featureStrings = new ArrayList<String>();
+        ArrayList<StringFeature> features = new ArrayList<StringFeature>();
+
+        //make StringFeature for each word = data point
+        String remaining = input;
+        int wordCut = remaining.indexOf(' ');
+        while (wordCut != -1) {
+            featureStrings.add(remaining.substring(0, wordCut));
+            remaining = remaining.substring(wordCut + 1);
+            wordCut = remaining.indexOf(' ');
+        }
+        int end = featureStrings.size();
+        double y = Double.parseDouble(featureStrings.get(0));
+        if (y == 0) {
+            y = -1;//LibFFM data uses {0, 1}; Hivemall uses {-1, 1}
+        }
+        for (int wordNumber = 1; wordNumber < end; ++wordNumber) {
+            String entireFeature = featureStrings.get(wordNumber);
+            int featureCut = StringUtils.ordinalIndexOf(entireFeature, ":", 2);
+            String feature = entireFeature.substring(0, featureCut);
+            double value = Double.parseDouble(entireFeature.substring(featureCut + 1));
+            features.add(new StringFeature(feature, value));
+        }
+        return new Object[] {toStringArray(features), y};
+    }
+
     private static String[] toStringArray(ArrayList<StringFeature> x) {
         final int size = x.size();
         final String[] ret = new String[size];
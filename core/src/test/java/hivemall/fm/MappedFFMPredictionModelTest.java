@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.fm;
+
+import hivemall.utils.buffer.HeapBuffer;
+import hivemall.utils.collections.Int2LongOpenHashTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedFFMPredictionModelTest {
+
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        final int factors = 4;
+        final int numFields = Feature.DEFAULT_NUM_FIELDS;
+        FFMPredictionModel expected = newModel(factors, 10000, 42L);
+
+        File file = File.createTempFile("MappedFFMPredictionModelTest", ".ffm");
+        file.deleteOnExit();
+        MappedFFMPredictionModel.write(expected, file);
+        MappedFFMPredictionModel actual = MappedFFMPredictionModel.open(file);
+
+        Assert.assertEquals(expected.getW0(), actual.getW0(), 0.d);
+        Assert.assertEquals(factors, actual.getNumFactors());
+        Assert.assertEquals(expected.getNumFeatures(), actual.getNumFeatures());
+        Assert.assertEquals(numFields, actual.getNumFields());
+        Assert.assertEquals(expected.getActualNumFeatures(), actual.getActualNumFeatures());
+
+        final float[] expectedV = new float[factors];
+        final float[] actualV = new float[factors];
+        for (int i = 0; i < 20000; i++) {
+            Feature x = new IntFeature(i, (short) (i % numFields), 1.d);
+            Assert.assertEquals(expected.getW(x), actual.getW(x), 0.f);
+            int yField = (i * 7) % numFields;
+            boolean hasV = expected.getV(x, yField, expectedV);
+            Assert.assertEquals(hasV, actual.getV(x, yField, actualV));
+            if (hasV) {
+                Assert.assertArrayEquals(expectedV, actualV, 0.f);
+            }
+        }
+        actual.close();
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        File file = File.createTempFile("MappedFFMPredictionModelTest", ".ffm");
+        file.deleteOnExit();
+        MappedFFMPredictionModel.write(newModel(3, 100, 43L), file, 0xCAFEBABE);
+        MappedFFMPredictionModel model = MappedFFMPredictionModel.open(file);
+        Assert.assertEquals(0xCAFEBABE, model.getFingerprint());
+        model.close();
+
+        // overwriting a file does not affect a model that is already mapped
+        MappedFFMPredictionModel.write(newModel(3, 100, 44L), file, 0xDEADBEEF);
+        Assert.assertEquals(0xCAFEBABE, model.getFingerprint());
+        Assert.assertEquals(0xDEADBEEF, MappedFFMPredictionModel.open(file).getFingerprint());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFile() throws IOException {
+        FFMPredictionModel model = newModel(3, 100, 43L);
+        File file = File.createTempFile("MappedFFMPredictionModelTest", ".ffm");
+        file.deleteOnExit();
+        MappedFFMPredictionModel.write(model, file);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+        MappedFFMPredictionModel.open(file);
+    }
+
+    private static FFMPredictionModel newModel(final int factors, final int numFeatures,
+            final long seed) {
+        final int entrySize = Entry.sizeOf(factors);
+        final int numFields = Feature.DEFAULT_NUM_FIELDS;
+        final Random rand = new Random(seed);
+
+        HeapBuffer buf = new HeapBuffer(HeapBuffer.DEFAULT_CHUNK_SIZE);
+        Int2LongOpenHashTable map = Int2LongOpenHashTable.newInstance();
+        final float[] V = new float[factors];
+        for (int i = 0; i < numFeatures; i++) {
+            // W of feature i
+            Entry w = new Entry(buf, factors, buf.allocate(entrySize));
+            w.setW(rand.nextFloat());
+            map.put(i, w.getOffset());
+            // V of feature i for a field
+            int yField = (i * 7) % numFields;
+            if (i % 3 == 0) {
+                continue; // no V
+            }
+            Entry v = new Entry(buf, factors, buf.allocate(entrySize));
+            for (int f = 0; f < factors; f++) {
+                V[f] = (i % 3 == 1) ? rand.nextFloat() : 0.f;
+            }
+            v.setV(V);
+            map.put(i * numFields + yField, v.getOffset());
+        }
+        return new FFMPredictionModel(map, buf, 0.5d, factors, Feature.DEFAULT_NUM_FEATURES,
+            numFields);
+    }
+
+}
@@ -21,6 +21,12 @@ package hivemall.knn.distance;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -42,4 +48,33 @@ public class EuclidDistanceUDFTest {
         Assert.assertEquals(Math.sqrt(1.0 + 9.0 + 9.0), d, 0.f);
     }
 
+
+    @Test
+    public void testDenseArrays() throws HiveException {
+        EuclidDistanceUDF udf = new EuclidDistanceUDF();
+        ObjectInspector listOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+        udf.initialize(new ObjectInspector[] {listOI, listOI});
+
+        List<Double> x = Arrays.asList(1.0, 3.0, 3.0, 0.0, 1.0);
+        List<Double> y = Arrays.asList(2.0, 0.0, 6.0, 0.0, -1.0);
+        float d = udf.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(x), new DeferredJavaObject(y)}).get();
+        Assert.assertEquals(Math.sqrt(1.0 + 9.0 + 9.0 + 4.0), d, 1E-6f);
+        Assert.assertEquals(Math.sqrt(1.0 + 9.0 + 9.0 + 4.0), EuclidDistanceUDF.euclidDistance(
+            new float[] {1.f, 3.f, 3.f, 0.f, 1.f}, new float[] {2.f, 0.f, 6.f, 0.f, -1.f}), 1E-6d);
+    }
+
+    @Test
+    public void testSortedSparseFeatures() throws HiveException {
+        EuclidDistanceUDF udf = new EuclidDistanceUDF();
+        ObjectInspector listOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+        udf.initialize(new ObjectInspector[] {listOI, listOI});
+
+        List<String> ftvec1 = Arrays.asList("3:3.0", "1:1.0", "2:3.0");
+        List<String> ftvec2 = Arrays.asList("1:2.0", "3:6.0");
+        float d = udf.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(ftvec1), new DeferredJavaObject(ftvec2)}).get();
+        Assert.assertEquals(Math.sqrt(1.0 + 9.0 + 9.0), d, 1E-6f);
+    }
+
 }
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.knn.lsh;
+
+import hivemall.knn.distance.JaccardDistanceUDF;
+import hivemall.knn.similarity.CosineSimilarityUDF;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LshKnnUDTFTest {
+
+    @Test
+    public void testCosine() throws IOException, HiveException {
+        testRecall("-metric cosine -tables 32", true);
+    }
+
+    @Test
+    public void testJaccard() throws IOException, HiveException {
+        testRecall("-metric jaccard", false);
+    }
+
+    @Test
+    public void testExcludeSelf() throws IOException, HiveException {
+        List<List<String>> rows = Arrays.asList(Arrays.asList("a:1", "b:1"),
+            Arrays.asList("a:1", "b:0.9"), Arrays.asList("c:1", "d:1"));
+        File file = writeReference(rows);
+
+        final Map<Object, List<String>> results = run(file, "-k 1 -exclude_self",
+            Arrays.<Object>asList("r0"), Arrays.asList(rows.get(0)));
+        Assert.assertEquals(Arrays.asList("r1"), results.get("r0"));
+    }
+
+    private static void testRecall(String options, boolean cosine) throws IOException,
+            HiveException {
+        final int numRows = 3000, numQueries = 100, k = 10;
+        final Random rnd = new Random(43L);
+        // rows near one of 100 cluster centers of 30 features out of 2000
+        final List<List<String>> centers = new ArrayList<List<String>>();
+        for (int c = 0; c < 100; c++) {
+            List<String> center = new ArrayList<String>();
+            for (int j = 0; j < 30; j++) {
+                center.add("f" + rnd.nextInt(2000));
+            }
+            centers.add(center);
+        }
+        final List<List<String>> rows = new ArrayList<List<String>>();
+        for (int i = 0; i < numRows + numQueries; i++) {
+            List<String> center = centers.get(rnd.nextInt(centers.size()));
+            Set<String> row = new HashSet<String>();
+            for (String f : center) {
+                if (rnd.nextInt(5) != 0) {
+                    row.add(f);
+                }
+            }
+            for (int j = 0; j < 5; j++) {
+                row.add("f" + rnd.nextInt(2000));
+            }
+            rows.add(new ArrayList<String>(row));
+        }
+        final List<List<String>> reference = rows.subList(0, numRows);
+        final List<List<String>> queries = rows.subList(numRows, rows.size());
+        final List<Object> queryIds = new ArrayList<Object>();
+        for (int q = 0; q < numQueries; q++) {
+            queryIds.add(Integer.valueOf(q));
+        }
+
+        File file = writeReference(reference);
+        Map<Object, List<String>> results = run(file, options + " -k " + k, queryIds, queries);
+
+        final JaccardDistanceUDF jaccard = new JaccardDistanceUDF();
+        int hits = 0;
+        for (int q = 0; q < numQueries; q++) {
+            // the k-th largest similarity by brute force
+            final float[] sims = new float[numRows];
+            for (int i = 0; i < numRows; i++) {
+                if (cosine) {
+                    sims[i] = CosineSimilarityUDF.cosineSimilarity(reference.get(i),
+                        queries.get(q));
+                } else {
+                    sims[i] = 1.f - jaccard.evaluate(reference.get(i), queries.get(q)).get();
+                }
+            }
+            float[] sorted = sims.clone();
+            Arrays.sort(sorted);
+            float kth = sorted[numRows - k];
+
+            List<String> neighbors = results.get(Integer.valueOf(q));
+            Assert.assertNotNull(neighbors);
+            Assert.assertTrue(neighbors.size() <= k);
+            for (String id : neighbors) {
+                if (sims[Integer.parseInt(id.substring(1))] >= kth) {
+                    hits++;
+                }
+            }
+        }
+        double recall = hits / (double) (numQueries * k);
+        Assert.assertTrue("recall: " + recall, recall > 0.9d);
+    }
+
+    private static File writeReference(List<List<String>> rows) throws IOException {
+        File file = File.createTempFile("LshKnnUDTFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        for (int i = 0; i < rows.size(); i++) {
+            writer.write("r" + i);
+            writer.write('\001');
+            List<String> row = rows.get(i);
+            for (int j = 0; j < row.size(); j++) {
+                if (j != 0) {
+                    writer.write('\002');
+                }
+                writer.write(row.get(j));
+            }
+            writer.write('\n');
+        }
+        writer.close();
+        return file;
+    }
+
+    private static Map<Object, List<String>> run(File file, String options, List<Object> ids,
+            List<List<String>> queries) throws HiveException {
+        LshKnnUDTF udtf = new LshKnnUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-loadmodel "
+                            + file.getAbsolutePath() + " " + options)});
+        final Map<Object, List<String>> results = new HashMap<Object, List<String>>();
+        final float[] prev = new float[1];
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                List<String> neighbors = results.get(row[0]);
+                float similarity = ((FloatWritable) row[2]).get();
+                if (neighbors == null) {
+                    neighbors = new ArrayList<String>();
+                    results.put(row[0], neighbors);
+                } else {
+                    // in descending order of similarity
+                    Assert.assertTrue(similarity <= prev[0]);
+                }
+                prev[0] = similarity;
+                neighbors.add(((Text) row[1]).toString());
+            }
+        });
+        for (int i = 0; i < queries.size(); i++) {
+            udtf.process(new Object[] {ids.get(i), queries.get(i)});
+        }
+        udtf.close();
+        return results;
+    }
+
+}
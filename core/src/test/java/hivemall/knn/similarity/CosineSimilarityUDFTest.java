@@ -19,9 +19,17 @@
 package hivemall.knn.similarity;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -107,4 +115,58 @@ public class CosineSimilarityUDFTest {
             CosineSimilarityUDF.cosineSimilarity(Arrays.asList("1", "2"), Arrays.asList("1", "2")),
             0.0);
     }
+
+    @Test
+    public void testDenseArrays() throws HiveException {
+        CosineSimilarityUDF udf = new CosineSimilarityUDF();
+        ObjectInspector floatListOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaFloatObjectInspector);
+        ObjectInspector doubleListOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector);
+        udf.initialize(new ObjectInspector[] {floatListOI, doubleListOI});
+
+        final Random rnd = new Random(43L);
+        for (int trial = 0; trial < 10; trial++) {
+            List<Float> x = new ArrayList<Float>();
+            List<Double> y = new ArrayList<Double>();
+            List<String> ftvec1 = new ArrayList<String>();
+            List<String> ftvec2 = new ArrayList<String>();
+            for (int i = 0; i < 37; i++) {
+                float xi = (float) rnd.nextGaussian();
+                float yi = (float) rnd.nextGaussian();
+                x.add(xi);
+                y.add((double) yi);
+                ftvec1.add(i + ":" + xi);
+                ftvec2.add(i + ":" + yi);
+            }
+            float expected = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+            float actual = udf.evaluate(
+                new DeferredObject[] {new DeferredJavaObject(x), new DeferredJavaObject(y)}).get();
+            Assert.assertEquals(expected, actual, 1E-5f);
+        }
+    }
+
+    @Test
+    public void testSortedSparseFeatures() throws HiveException {
+        CosineSimilarityUDF udf = new CosineSimilarityUDF();
+        ObjectInspector stringListOI = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+        udf.initialize(new ObjectInspector[] {stringListOI, stringListOI});
+
+        // integer features in any order, with an implicit value and a negative index
+        List<String> ftvec1 = Arrays.asList("7:0.5", "2", "-3:1.5", "11:2.0");
+        List<String> ftvec2 = Arrays.asList("11:1.0", "2:3.0", "5:1.0", "-3:-1.0");
+        float expected = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+        float actual = udf.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(ftvec1), new DeferredJavaObject(ftvec2)}).get();
+        Assert.assertEquals(expected, actual, 1E-6f);
+
+        // non-integer features fall back to the hash map
+        ftvec2 = Arrays.asList("11:1.0", "2:3.0", "apple", "-3:-1.0");
+        expected = CosineSimilarityUDF.cosineSimilarity(ftvec1, ftvec2);
+        actual = udf.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(ftvec1), new DeferredJavaObject(ftvec2)}).get();
+        Assert.assertEquals(expected, actual, 1E-6f);
+
+        Assert.assertEquals(0.f, udf.evaluate(
+            new DeferredObject[] {new DeferredJavaObject(ftvec1), new DeferredJavaObject(null)}).get(), 0.f);
+    }
+
 }
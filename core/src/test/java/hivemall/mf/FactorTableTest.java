@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mf;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FactorTableTest {
+
+    @Test
+    public void testAddRows() {
+        FactorTable table = new FactorTable(3, false, 16);
+        final int numRows = 5000; // spans several slabs
+        for (int id = 0; id < numRows; id++) {
+            int row = table.addRow(id * 7);
+            Assert.assertEquals(id, row);
+            for (int k = 0; k < 3; k++) {
+                table.set(row, k, id + k);
+            }
+            table.setBias(row, -id);
+        }
+        Assert.assertEquals(numRows, table.size());
+        Assert.assertEquals(-1, table.getRow(1));
+
+        final float[] probe = new float[3];
+        for (int id = 0; id < numRows; id++) {
+            int row = table.getRow(id * 7);
+            Assert.assertEquals(id, row);
+            table.copyTo(row, probe);
+            Assert.assertArrayEquals(new float[] {id, id + 1, id + 2}, probe, 0.f);
+            Assert.assertEquals(-id, table.getBias(row), 0.f);
+            Assert.assertEquals(-id, table.get(row, 3), 0.f);
+        }
+    }
+
+    @Test
+    public void testSumOfSquaredGradients() {
+        FactorTable table = new FactorTable(2, true, 16);
+        Assert.assertTrue(table.hasSumOfSquaredGradients());
+        int row = table.addRow(3);
+        table.set(row, 0, 1.f);
+        table.set(row, 1, 2.f);
+        table.setBias(row, 3.f);
+        table.setSumOfSquaredGradients(row, 0, 10.f);
+        table.setSumOfSquaredGradients(row, 2, 30.f);
+
+        Assert.assertArrayEquals(new float[] {1.f, 2.f}, table.copyTo(row, new float[2]), 0.f);
+        Assert.assertEquals(3.f, table.getBias(row), 0.f);
+        Assert.assertEquals(10.f, table.getSumOfSquaredGradients(row, 0), 0.f);
+        Assert.assertEquals(0.f, table.getSumOfSquaredGradients(row, 1), 0.f);
+        Assert.assertEquals(30.f, table.getSumOfSquaredGradients(row, 2), 0.f);
+    }
+
+}
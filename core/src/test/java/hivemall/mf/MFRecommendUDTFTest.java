@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mf;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MFRecommendUDTFTest {
+
+    private static final int FACTOR = 8;
+
+    @Test
+    public void testTopK() throws IOException, HiveException {
+        final Random rnd = new Random(43L);
+        final int numItems = 3000;
+        final float[][] Q = new float[numItems][];
+        final float[] B = new float[numItems];
+        for (int i = 0; i < numItems; i++) {
+            Q[i] = randomVector(rnd, 1.f + rnd.nextInt(3));
+            B[i] = (float) rnd.nextGaussian() * 0.1f;
+        }
+        File file = writeItems(Q, B);
+
+        final int numUsers = 50, k = 10;
+        final List<Object[]> queries = new ArrayList<Object[]>();
+        for (int u = 0; u < numUsers; u++) {
+            List<Float> Pu = toList(randomVector(rnd, 1.f));
+            Double Bu = Double.valueOf(rnd.nextGaussian());
+            List<Integer> excludes = new ArrayList<Integer>();
+            for (int j = 0; j < 20; j++) {
+                excludes.add(Integer.valueOf(rnd.nextInt(numItems)));
+            }
+            queries.add(new Object[] {Integer.valueOf(u), Pu, Bu, excludes});
+        }
+
+        Map<Object, List<double[]>> results = run(file, "-k " + k + " -mu 3 -batch 7", queries);
+        Assert.assertEquals(numUsers, results.size());
+        for (Object[] query : queries) {
+            @SuppressWarnings("unchecked")
+            List<Float> Pu = (List<Float>) query[1];
+            double Bu = ((Double) query[2]).doubleValue();
+            @SuppressWarnings("unchecked")
+            List<Integer> excludes = (List<Integer>) query[3];
+
+            // brute force
+            final double[] scores = new double[numItems];
+            for (int i = 0; i < numItems; i++) {
+                double score = B[i];
+                for (int f = 0; f < FACTOR; f++) {
+                    score += Pu.get(f).floatValue() * Q[i][f];
+                }
+                scores[i] = excludes.contains(Integer.valueOf(i)) ? Double.NEGATIVE_INFINITY
+                        : score;
+            }
+            double[] sorted = scores.clone();
+            Arrays.sort(sorted);
+
+            List<double[]> topk = results.get(query[0]);
+            Assert.assertEquals(k, topk.size());
+            for (int j = 0; j < k; j++) {
+                double[] r = topk.get(j);
+                int item = (int) r[0];
+                Assert.assertFalse(excludes.contains(Integer.valueOf(item)));
+                Assert.assertEquals(sorted[numItems - 1 - j], scores[item], 1E-5d);
+                Assert.assertEquals(3.d + Bu + scores[item], r[1], 1E-5d);
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutBias() throws IOException, HiveException {
+        File file = File.createTempFile("MFRecommendUDTFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write("1\0011\0020\n");
+        writer.write("2\0010\0021\001\\N\n");
+        writer.write("3\001\\N\0011\n");
+        writer.write("4\0011\0021\0010.5\n");
+        writer.close();
+
+        List<Object[]> queries = new ArrayList<Object[]>();
+        queries.add(new Object[] {Integer.valueOf(1), Arrays.asList(1.f, 2.f)});
+        Map<Object, List<double[]>> results = run(file, "-k 3", queries);
+        List<double[]> topk = results.get(Integer.valueOf(1));
+        Assert.assertEquals(3, topk.size());
+        Assert.assertArrayEquals(new double[] {4, 3.5d}, topk.get(0), 1E-5d);
+        Assert.assertArrayEquals(new double[] {2, 2.d}, topk.get(1), 1E-5d);
+        Assert.assertArrayEquals(new double[] {1, 1.d}, topk.get(2), 1E-5d);
+    }
+
+    private static float[] randomVector(Random rnd, float scale) {
+        float[] v = new float[FACTOR];
+        for (int f = 0; f < FACTOR; f++) {
+            v[f] = (float) rnd.nextGaussian() * scale;
+        }
+        return v;
+    }
+
+    private static List<Float> toList(float[] v) {
+        List<Float> list = new ArrayList<Float>(v.length);
+        for (float f : v) {
+            list.add(Float.valueOf(f));
+        }
+        return list;
+    }
+
+    private static File writeItems(float[][] Q, float[] B) throws IOException {
+        File file = File.createTempFile("MFRecommendUDTFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        for (int i = 0; i < Q.length; i++) {
+            writer.write(Integer.toString(i));
+            writer.write('\001');
+            for (int f = 0; f < Q[i].length; f++) {
+                if (f != 0) {
+                    writer.write('\002');
+                }
+                writer.write(Float.toString(Q[i][f]));
+            }
+            writer.write('\001');
+            writer.write(Float.toString(B[i]));
+            writer.write('\n');
+        }
+        writer.close();
+        return file;
+    }
+
+    private static Map<Object, List<double[]>> run(File file, String options,
+            List<Object[]> queries) throws HiveException {
+        final int numArgs = queries.get(0).length + 1;
+        final ObjectInspector[] argOIs = new ObjectInspector[numArgs];
+        argOIs[0] = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        argOIs[1] = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaFloatObjectInspector);
+        if (numArgs == 5) {
+            argOIs[2] = PrimitiveObjectInspectorFactory.javaDoubleObjectInspector;
+            argOIs[3] = ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+        }
+        argOIs[numArgs - 1] = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-loadmodel "
+                    + file.getAbsolutePath() + " " + options);
+
+        MFRecommendUDTF udtf = new MFRecommendUDTF();
+        udtf.initialize(argOIs);
+        final Map<Object, List<double[]>> results = new HashMap<Object, List<double[]>>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                List<double[]> topk = results.get(row[0]);
+                if (topk == null) {
+                    topk = new ArrayList<double[]>();
+                    results.put(row[0], topk);
+                }
+                topk.add(new double[] {((IntWritable) row[1]).get(),
+                        ((DoubleWritable) row[2]).get()});
+            }
+        });
+        for (Object[] query : queries) {
+            Object[] args = Arrays.copyOf(query, numArgs);
+            udtf.process(args);
+        }
+        udtf.close();
+        return results;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.lang.HalfFloat;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+public class MixMessageBatchTest {
+
+    @Test
+    public void testEncodeDecode() {
+        MixMessageBatch batch = new MixMessageBatch(MixEventName.argminKLD, "group1");
+        batch.add(new MixMessage(MixEventName.argminKLD, Integer.valueOf(3), 0.5f, 0.25f,
+            (short) 7, 3));
+        batch.add(new MixMessage(MixEventName.argminKLD, new Text("foo"), -1.5f, 1.f,
+            (short) -2, 127));
+        batch.add(new MixMessage(MixEventName.argminKLD, new LongWritable(1L << 40), 2.f, 0.1f,
+            5, true));
+
+        EmbeddedChannel ch = new EmbeddedChannel(new MixMessageEncoder());
+        assertTrue(ch.writeOutbound(batch));
+        ByteBuf buf = (ByteBuf) ch.readOutbound();
+        assertFalse(ch.finish());
+
+        ch = new EmbeddedChannel(new MixMessageDecoder());
+        assertTrue(ch.writeInbound(buf));
+        MixMessageBatch decoded = (MixMessageBatch) ch.readInbound();
+        assertNull(ch.readInbound());
+
+        assertEquals(MixEventName.argminKLD, decoded.getEvent());
+        assertEquals("group1", decoded.getGroupID());
+        assertEquals(3, decoded.size());
+
+        List<MixMessage> expected = batch.getMessages();
+        List<MixMessage> actual = decoded.getMessages();
+        for (int i = 0; i < expected.size(); i++) {
+            MixMessage e = expected.get(i);
+            MixMessage a = actual.get(i);
+            assertEquals(e.getFeature(), a.getFeature());
+            assertEquals(e.getWeight(), a.getWeight(), 0.f);
+            assertEquals(e.getCovariance(), a.getCovariance(), 0.f);
+            assertEquals(e.getClock(), a.getClock());
+            assertEquals(e.getDeltaUpdates(), a.getDeltaUpdates());
+            assertEquals(e.isCancelRequest(), a.isCancelRequest());
+            assertEquals("group1", a.getGroupID());
+        }
+    }
+
+    @Test
+    public void testEncodeDecodeMessage() {
+        MixMessage msg = new MixMessage(MixEventName.average, "bar", 1.5f, (short) 3, 2);
+        msg.setGroupID("group2");
+
+        EmbeddedChannel ch = new EmbeddedChannel(new MixMessageEncoder(), new MixMessageDecoder());
+        assertTrue(ch.writeOutbound(msg));
+        assertTrue(ch.writeInbound(ch.readOutbound()));
+        MixMessage decoded = (MixMessage) ch.readInbound();
+
+        assertEquals(MixEventName.average, decoded.getEvent());
+        assertEquals("bar", decoded.getFeature());
+        assertEquals(1.5f, decoded.getWeight(), 0.f);
+        assertEquals(3, decoded.getClock());
+        assertEquals(2, decoded.getDeltaUpdates());
+        assertEquals("group2", decoded.getGroupID());
+    }
+
+    @Test
+    public void testCompactEncodeDecode() {
+        EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder(true, false));
+        EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder());
+
+        for (int iter = 0; iter < 2; iter++) {// features are sent as dictionary IDs in the 2nd
+            MixMessageBatch batch = new MixMessageBatch(MixEventName.argminKLD, "group1");
+            batch.add(new MixMessage(MixEventName.argminKLD, Integer.valueOf(-3), 0.5f, 0.25f,
+                (short) -7, 3));
+            batch.add(new MixMessage(MixEventName.argminKLD, new Text("foo"), -1.5f, 1.f,
+                (short) 300, 127));
+            batch.add(new MixMessage(MixEventName.argminKLD, "bar", 2.f, 0.1f, 5, true));
+            batch.add(new MixMessage(MixEventName.argminKLD, new LongWritable(1L << 40), 2.f,
+                0.1f, (short) 0, 1));
+
+            assertTrue(client.writeOutbound(batch));
+            assertTrue(server.writeInbound(client.readOutbound()));
+            MixMessageBatch decoded = (MixMessageBatch) server.readInbound();
+
+            assertEquals(MixEventName.argminKLD, decoded.getEvent());
+            assertEquals("group1", decoded.getGroupID());
+            assertEquals(4, decoded.size());
+            List<MixMessage> expected = batch.getMessages();
+            List<MixMessage> actual = decoded.getMessages();
+            for (int i = 0; i < expected.size(); i++) {
+                MixMessage e = expected.get(i);
+                MixMessage a = actual.get(i);
+                assertEquals(e.getFeature(), a.getFeature());
+                assertEquals(e.getWeight(), a.getWeight(), 0.f);
+                assertEquals(e.getCovariance(), a.getCovariance(), 0.f);
+                assertEquals(e.getClock(), a.getClock());
+                assertEquals(e.getDeltaUpdates(), a.getDeltaUpdates());
+                assertEquals(e.isCancelRequest(), a.isCancelRequest());
+            }
+        }
+
+        // responses are sent in the compact format as well
+        client = new EmbeddedChannel(new MixMessageEncoder(true, false));
+        EmbeddedChannel serverOut = new EmbeddedChannel(new MixMessageDecoder(),
+            new MixMessageEncoder());
+        MixMessageBatch request = new MixMessageBatch(MixEventName.average, "group1");
+        request.add(new MixMessage(MixEventName.average, "bar", 1.f, (short) 1, 1));
+        client.writeOutbound(request);
+        serverOut.writeInbound(client.readOutbound());
+        serverOut.readInbound();
+        MixMessage response = new MixMessage(MixEventName.average, "bar", 0.75f, (short) 2, 0);
+        assertTrue(serverOut.writeOutbound(response));
+        ByteBuf buf = (ByteBuf) serverOut.readOutbound();
+        assertEquals(MixMessageEncoder.COMPACT_BATCH_MARKER, buf.getByte(4));
+    }
+
+    @Test
+    public void testFlush() {
+        for (boolean compact : new boolean[] {false, true}) {
+            EmbeddedChannel client = new EmbeddedChannel(new MixMessageEncoder(compact, false));
+            EmbeddedChannel server = new EmbeddedChannel(new MixMessageDecoder(),
+                new MixMessageEncoder());
+
+            MixMessageBatch request = new MixMessageBatch(MixEventName.average, "group1", 0);
+            request.setFlush(true);
+            assertTrue(client.writeOutbound(request));
+            assertTrue(server.writeInbound(client.readOutbound()));
+            MixMessageBatch decoded = (MixMessageBatch) server.readInbound();
+            assertTrue(decoded.isFlush());
+            assertTrue(decoded.isEmpty());
+            assertEquals("group1", decoded.getGroupID());
+
+            // the flush flag is not taken over by following responses
+            MixMessageBatch response = new MixMessageBatch(MixEventName.average, null);
+            response.add(new MixMessage(MixEventName.average, "bar", 0.75f, (short) 2, 0));
+            assertTrue(server.writeOutbound(response));
+            EmbeddedChannel in = new EmbeddedChannel(new MixMessageDecoder());
+            assertTrue(in.writeInbound(server.readOutbound()));
+            assertFalse(((MixMessageBatch) in.readInbound()).isFlush());
+        }
+    }
+
+    @Test
+    public void testHalfFloat() {
+        EmbeddedChannel ch = new EmbeddedChannel(new MixMessageEncoder(true, true),
+            new MixMessageDecoder());
+        MixMessageBatch batch = new MixMessageBatch(MixEventName.average, "group1");
+        batch.add(new MixMessage(MixEventName.average, Integer.valueOf(1), 0.333f, (short) 1, 1));
+        batch.add(new MixMessage(MixEventName.average, Integer.valueOf(2), 1E+6f, (short) 1, 1));
+        assertTrue(ch.writeOutbound(batch));
+        assertTrue(ch.writeInbound(ch.readOutbound()));
+        MixMessageBatch decoded = (MixMessageBatch) ch.readInbound();
+        assertEquals(0.333f, decoded.getMessages().get(0).getWeight(), HalfFloat.EPSILON);
+        assertEquals(HalfFloat.MAX_FLOAT, decoded.getMessages().get(1).getWeight(), 0.f);
+    }
+
+    @Test
+    public void testHalfFloatTinyCovariance() {
+        EmbeddedChannel ch = new EmbeddedChannel(new MixMessageEncoder(true, true),
+            new MixMessageDecoder());
+        MixMessageBatch batch = new MixMessageBatch(MixEventName.argminKLD, "group1");
+        batch.add(new MixMessage(MixEventName.argminKLD, Integer.valueOf(1), 0.5f, 1E-9f,
+            (short) 1, 1));
+        assertTrue(ch.writeOutbound(batch));
+        assertTrue(ch.writeInbound(ch.readOutbound()));
+        MixMessageBatch decoded = (MixMessageBatch) ch.readInbound();
+        // the covariance does not underflow to zero
+        assertEquals(HalfFloat.MIN_FLOAT, decoded.getMessages().get(0).getCovariance(), 0.f);
+    }
+
+    @Test
+    public void testBytesPerUpdate() {
+        final int numUpdates = 10000;
+        MixMessageBatch[] batches = new MixMessageBatch[numUpdates / 100];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new MixMessageBatch(MixEventName.average, "job_201506011234_0001");
+            for (int j = 0; j < 100; j++) {
+                Text feature = new Text("feature_" + ((i * 100 + j) % 1000));
+                batches[i].add(new MixMessage(MixEventName.average, feature, 0.1f * j,
+                    (short) i, 3));
+            }
+        }
+
+        int plain = 0;
+        EmbeddedChannel ch = new EmbeddedChannel(new MixMessageEncoder());
+        for (MixMessageBatch batch : batches) {
+            for (MixMessage msg : batch.getMessages()) {
+                msg.setGroupID(batch.getGroupID());
+                ch.writeOutbound(msg);
+                plain += ((ByteBuf) ch.readOutbound()).readableBytes();
+            }
+        }
+        int batched = encodedBytes(new MixMessageEncoder(), batches);
+        int compact = encodedBytes(new MixMessageEncoder(true, false), batches);
+        int half = encodedBytes(new MixMessageEncoder(true, true), batches);
+
+        assertTrue(batched < plain);
+        assertTrue(compact * 3 < batched * 2);
+        assertTrue(half < compact);
+    }
+
+    private static int encodedBytes(MixMessageEncoder encoder, MixMessageBatch[] batches) {
+        EmbeddedChannel ch = new EmbeddedChannel(encoder);
+        int bytes = 0;
+        for (MixMessageBatch batch : batches) {
+            ch.writeOutbound(batch);
+            bytes += ((ByteBuf) ch.readOutbound()).readableBytes();
+        }
+        return bytes;
+    }
+
+}
@@ -18,8 +18,11 @@
  */
 package hivemall.mix.client;
 
+import hivemall.mix.MixMessage;
+import hivemall.mix.MixMessage.MixEventName;
 import hivemall.mix.NodeInfo;
 
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 import org.junit.Assert;
 
@@ -33,4 +36,57 @@ public class MixRequestRouterTest {
         Assert.assertEquals(3, nodes.length);
     }
 
+    @Test
+    public void testBalance() {
+        MixRequestRouter router = new MixRequestRouter(
+            "127.0.0.1:11212,127.0.0.2:11212,127.0.0.3:11212,127.0.0.4:11212");
+        final int numFeatures = 100000;
+        int[] counts = new int[4];
+        for (int i = 0; i < numFeatures; i++) {
+            counts[router.selectNodeIndex(Integer.valueOf(i), 0)]++;
+        }
+        for (int count : counts) {
+            Assert.assertEquals(numFeatures / 4, count, numFeatures / 4 * 0.25);
+        }
+    }
+
+    @Test
+    public void testAddNode() {
+        MixRequestRouter router3 = new MixRequestRouter(
+            "127.0.0.1:11212,127.0.0.2:11212,127.0.0.3:11212");
+        MixRequestRouter router4 = new MixRequestRouter(
+            "127.0.0.1:11212,127.0.0.2:11212,127.0.0.3:11212,127.0.0.4:11212");
+        final int numFeatures = 100000;
+        int moved = 0;
+        for (int i = 0; i < numFeatures; i++) {
+            Text feature = new Text("f" + i);
+            int before = router3.selectNodeIndex(feature, 0);
+            int after = router4.selectNodeIndex(feature, 0);
+            if (before != after) {
+                // features move only to the new node
+                Assert.assertEquals(3, after);
+                moved++;
+            }
+        }
+        Assert.assertEquals(numFeatures / 4, moved, numFeatures / 4 * 0.25);
+    }
+
+    @Test
+    public void testReplicas() {
+        MixRequestRouter router = new MixRequestRouter(
+            "127.0.0.1:11212,127.0.0.2:11212,127.0.0.3:11212");
+        for (int i = 0; i < 1000; i++) {
+            Integer feature = Integer.valueOf(i);
+            int primary = router.selectNodeIndex(feature, 0);
+            int secondary = router.selectNodeIndex(feature, 1);
+            int tertiary = router.selectNodeIndex(feature, 2);
+            Assert.assertNotEquals(primary, secondary);
+            Assert.assertNotEquals(primary, tertiary);
+            Assert.assertNotEquals(secondary, tertiary);
+            Assert.assertEquals(-1, router.selectNodeIndex(feature, 3));
+            Assert.assertEquals(router.getAllNodes()[primary],
+                router.selectNode(new MixMessage(MixEventName.average, feature, 1.f, (short) 0, 1)));
+        }
+    }
+
 }
@@ -20,7 +20,10 @@ package hivemall.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import hivemall.utils.hadoop.TextInterner;
 
+import org.apache.hadoop.io.Text;
 import org.junit.Test;
 
 public class FeatureValueTest {
@@ -59,4 +62,41 @@ public class FeatureValueTest {
         FeatureValue.parse("ad_url:xxxxx");
     }
 
+    @Test
+    public void testParseText() {
+        TextInterner interner = new TextInterner();
+        FeatureValue probe = new FeatureValue();
+
+        FeatureValue.parse(new Text("ad_url:0.5"), probe, interner);
+        assertEquals(new Text("ad_url"), probe.getFeature());
+        assertEquals(0.5d, probe.getValue(), 0.d);
+        Text f1 = probe.getFeature();
+
+        FeatureValue.parse(new Text("ad_url:-1.25E-3"), probe, interner);
+        assertSame(f1, probe.getFeature());
+        assertEquals(-1.25E-3d, probe.getValue(), 0.d);
+
+        FeatureValue.parse(new Text("日本語"), probe, interner);
+        assertEquals(new Text("日本語"), probe.getFeature());
+        assertEquals(1.d, probe.getValue(), 0.d);
+        assertEquals(2, interner.size());
+    }
+
+    @Test
+    public void testParseTextAsInt() {
+        FeatureValue probe = new FeatureValue();
+        FeatureValue.parseFeatureAsInt(new Text("891572:0.3"), probe);
+        assertEquals(Integer.valueOf(891572), probe.getFeature());
+        assertEquals(0.3d, probe.getValue(), 0.d);
+
+        FeatureValue.parseFeatureAsInt(new Text("7"), probe);
+        assertEquals(Integer.valueOf(7), probe.getFeature());
+        assertEquals(1.d, probe.getValue(), 0.d);
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseTextExpectingNumberFormatException() {
+        FeatureValue.parse(new Text("ad_url:xxxxx"), new FeatureValue(), new TextInterner());
+    }
+
 }
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import hivemall.mix.MixedWeight;
+import hivemall.model.WeightValue.WeightValueParamsF1;
+import hivemall.model.WeightValue.WeightValueWithCovar;
+import hivemall.utils.collections.IMapIterator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+public class IntSparseModelTest {
+
+    @Test
+    public void testGetSet() {
+        final int size = 1 << 16;
+
+        final IntSparseModel model1 = new IntSparseModel(16);
+        final DenseModel model2 = new DenseModel(size);
+
+        final Random rand = new Random(43L);
+        for (int t = 0; t < 10000; t++) {
+            int i = rand.nextInt(size);
+            float f = rand.nextFloat();
+            IWeightValue w = new WeightValue(f);
+            model1.set(i, w);
+            model2.set(i, w);
+        }
+
+        int numTouched = 0;
+        final WeightValue probe = new WeightValue();
+        IMapIterator<Integer, IWeightValue> itor = model1.entries();
+        while (itor.next() != -1) {
+            itor.getValue(probe);
+            assertTrue(probe.isTouched());
+            int k = itor.getKey();
+            assertEquals(model2.getWeight(k), probe.get(), 0.f);
+            assertEquals(model2.getWeight(k), model1.getWeight(k), 0.f);
+            numTouched++;
+        }
+        assertEquals(model1.size(), numTouched);
+    }
+
+    @Test
+    public void testCovariance() {
+        final IntSparseModel model = new IntSparseModel(8, true);
+        assertEquals(1.f, model.getCovariance(3), 0.f);
+        assertNull(model.get(3));
+
+        model.set(3, new WeightValueWithCovar(0.5f, 0.25f));
+        model.set(5, new WeightValueWithCovar(0.1f, 0.75f, false));
+
+        IWeightValue v = model.get(3);
+        assertEquals(0.5f, v.get(), 0.f);
+        assertEquals(0.25f, v.getCovariance(), 0.f);
+        assertTrue(v.isTouched());
+        assertFalse(model.get(5).isTouched());
+        assertEquals(2, model.size());
+    }
+
+    @Test
+    public void testParamsAndDelete() {
+        final IntSparseModel model = new IntSparseModel(8);
+        model.configureParams(true, false, false);
+
+        for (int i = 0; i < 1000; i++) {
+            model.set(i, new WeightValueParamsF1(i, i * 2.f));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            model.delete(i);
+        }
+        assertEquals(500, model.size());
+        for (int i = 0; i < 1000; i++) {
+            IWeightValue v = model.get(i);
+            if (i % 2 == 0) {
+                assertNull(v);
+                assertFalse(model.contains(i));
+            } else {
+                assertEquals(i, v.get(), 0.f);
+                assertEquals(i * 2.f, v.getSumOfSquaredGradients(), 0.f);
+            }
+        }
+    }
+
+    @Test
+    public void testFlushUpdates() {
+        testFlushUpdates(new IntSparseModel(16));
+        testFlushUpdates(new DenseModel(16));
+        testFlushUpdates(new SparseModel(16, false));
+    }
+
+    private static void testFlushUpdates(@Nonnull final PredictionModel model) {
+        final ThresholdHandler handler = new ThresholdHandler(3);
+        model.configureClock();
+        model.configureMix(handler, false);
+        for (int i = 0; i < 3; i++) {
+            model.set(1, new WeightValue(1.f)); // sent on the 3rd update
+        }
+        for (int i = 0; i < 2; i++) {
+            model.set(2, new WeightValue(2.f)); // held back
+        }
+        for (int i = 0; i < 4; i++) {
+            model.set(3, new WeightValue(3.f)); // the 4th update is held back
+        }
+        assertEquals(2, handler.sent.size());
+
+        handler.sent.clear();
+        handler.threshold = 1;
+        model.flushUpdates();
+        assertEquals(2, handler.sent.size());
+        assertEquals(Integer.valueOf(2), handler.sent.get(2));
+        assertEquals(Integer.valueOf(1), handler.sent.get(3));
+
+        handler.sent.clear();
+        model.flushUpdates();
+        assertTrue(handler.sent.isEmpty());
+    }
+
+    private static final class ThresholdHandler implements ModelUpdateHandler {
+
+        final Map<Object, Integer> sent = new HashMap<Object, Integer>();
+        int threshold;
+
+        ThresholdHandler(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean onUpdate(Object feature, float weight, float covar, short clock,
+                int deltaUpdates) {
+            if (deltaUpdates < threshold) {
+                return false;
+            }
+            sent.put(feature, deltaUpdates);
+            return true;
+        }
+
+        @Override
+        public void sendCancelRequest(Object feature, MixedWeight mixed) {}
+
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import hivemall.utils.lang.HalfFloat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ModelBlockTest {
+
+    @Test
+    public void testIntegerFeatures() throws IOException {
+        Random rnd = new Random(43L);
+        Map<Long, Float> expected = new HashMap<Long, Float>();
+        ModelBlock.Builder builder = new ModelBlock.Builder(false, false);
+        while (expected.size() < 10000) {
+            int k = rnd.nextInt(1000000) - 1000;
+            if (expected.containsKey(Long.valueOf(k))) {
+                continue;
+            }
+            float w = (float) rnd.nextGaussian();
+            expected.put(Long.valueOf(k), w);
+            builder.add(new IntWritable(k), w, 1.f);
+        }
+        byte[] block = builder.build();
+        Assert.assertTrue(block.length < 10000 * 8);
+
+        ModelBlock.Reader reader = new ModelBlock.Reader(block);
+        Assert.assertFalse(reader.isStringKey());
+        Assert.assertFalse(reader.hasCovariance());
+        Assert.assertEquals(10000, reader.size());
+        long prev = Long.MIN_VALUE;
+        int n = 0;
+        while (reader.next()) {
+            Assert.assertTrue(reader.getKey() > prev);
+            prev = reader.getKey();
+            Assert.assertEquals(expected.get(Long.valueOf(prev)), reader.getWeight(), 0.f);
+            Assert.assertEquals(1, reader.getCount());
+            n++;
+        }
+        Assert.assertEquals(10000, n);
+    }
+
+    @Test
+    public void testStringFeaturesHalfFloat() throws IOException {
+        String[] features = new String[] {"movie", "opinion", "good", "m", "moviegoer", "bad",
+                "日本"};
+        ModelBlock.Builder builder = new ModelBlock.Builder(true, true);
+        for (int i = 0; i < features.length; i++) {
+            builder.add(new Text(features[i]), 0.1f * i, 1.f + i);
+        }
+        ModelBlock.Reader reader = new ModelBlock.Reader(builder.build());
+        Assert.assertTrue(reader.isStringKey());
+        Assert.assertTrue(reader.hasCovariance());
+
+        String[] sorted = features.clone();
+        Arrays.sort(sorted);
+        for (String f : sorted) {
+            Assert.assertTrue(reader.next());
+            String actual = Text.decode(reader.getKeyBytes(), 0, reader.getKeyLength());
+            Assert.assertEquals(f, actual);
+            int i = Arrays.asList(features).indexOf(f);
+            Assert.assertEquals(0.1f * i, reader.getWeight(), 1e-3f);
+            Assert.assertEquals(1.f + i, reader.getCovariance(), 1e-2f);
+        }
+        Assert.assertFalse(reader.next());
+    }
+
+    @Test
+    public void testMergeAverage() throws IOException {
+        List<byte[]> blocks = new ArrayList<byte[]>();
+        ModelBlock.Builder b1 = new ModelBlock.Builder(false, false);
+        b1.add(Integer.valueOf(1), 1.f, 1.f);
+        b1.add(Integer.valueOf(3), 3.f, 1.f);
+        blocks.add(b1.build());
+        ModelBlock.Builder b2 = new ModelBlock.Builder(false, false);
+        b2.add(Integer.valueOf(3), 5.f, 1.f);
+        b2.add(Integer.valueOf(2), 2.f, 1.f);
+        blocks.add(b2.build());
+        ModelBlock.Builder b3 = new ModelBlock.Builder(false, false);
+        b3.add(Integer.valueOf(3), 7.f, 1.f);
+        blocks.add(b3.build());
+
+        // merging partially merged blocks results in the same averages
+        byte[] merged = ModelBlock.merge(blocks);
+        byte[] partial = ModelBlock.merge(blocks.subList(0, 2));
+        byte[] merged2 = ModelBlock.merge(Arrays.asList(partial, blocks.get(2)));
+
+        for (byte[] block : new byte[][] {merged, merged2}) {
+            ModelBlock.Reader reader = new ModelBlock.Reader(block);
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(1L, reader.getKey());
+            Assert.assertEquals(1.f, reader.getWeight(), 0.f);
+            Assert.assertEquals(1, reader.getCount());
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(2L, reader.getKey());
+            Assert.assertEquals(2.f, reader.getWeight(), 0.f);
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(3L, reader.getKey());
+            Assert.assertEquals(5.f, reader.getWeight(), 1e-6f);
+            Assert.assertEquals(3, reader.getCount());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testMergeArgminKLD() throws IOException {
+        ModelBlock.Builder b1 = new ModelBlock.Builder(true, false);
+        b1.add("f", 1.f, 0.5f);
+        ModelBlock.Builder b2 = new ModelBlock.Builder(true, false);
+        b2.add("f", 4.f, 1.f);
+        ModelBlock.Builder b3 = new ModelBlock.Builder(true, false);
+        b3.add("g", 2.f, 0.25f);
+        ModelBlock.Reader reader = new ModelBlock.Reader(ModelBlock.merge(Arrays.asList(
+            b1.build(), b2.build(), b3.build())));
+
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("f", Text.decode(reader.getKeyBytes(), 0, reader.getKeyLength()));
+        // (1 / sum(1 / covar)) * sum(mean / covar)
+        Assert.assertEquals((1.f / 0.5f + 4.f / 1.f) / (1.f / 0.5f + 1.f / 1.f),
+            reader.getWeight(), 1e-6f);
+        Assert.assertEquals(1.f / (1.f / 0.5f + 1.f / 1.f), reader.getCovariance(), 1e-6f);
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals("g", Text.decode(reader.getKeyBytes(), 0, reader.getKeyLength()));
+        Assert.assertEquals(2.f, reader.getWeight(), 0.f);
+        Assert.assertEquals(0.25f, reader.getCovariance(), 0.f);
+        Assert.assertFalse(reader.next());
+    }
+
+    @Test
+    public void testHalfFloatTinyCovariances() throws IOException {
+        ModelBlock.Builder b1 = new ModelBlock.Builder(true, true);
+        b1.add(Integer.valueOf(1), 1E+6f, 1E-9f);
+        b1.add(Integer.valueOf(2), -1E+6f, 1E-3f);
+        ModelBlock.Builder b2 = new ModelBlock.Builder(true, true);
+        b2.add(Integer.valueOf(1), 2.f, 1E-12f);
+        b2.add(Integer.valueOf(2), 3.f, 0.f);
+
+        ModelBlock.Reader reader = new ModelBlock.Reader(b1.build());
+        Assert.assertTrue(reader.next());
+        // saturated instead of infinity
+        Assert.assertEquals(HalfFloat.MAX_FLOAT, reader.getWeight(), 0.f);
+        // not underflowed to zero
+        Assert.assertEquals(HalfFloat.MIN_FLOAT, reader.getCovariance(), 0.f);
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals(-HalfFloat.MAX_FLOAT, reader.getWeight(), 0.f);
+
+        reader = new ModelBlock.Reader(ModelBlock.merge(Arrays.asList(b1.build(), b2.build())));
+        Assert.assertTrue(reader.next());
+        Assert.assertEquals((HalfFloat.MAX_FLOAT + 2.f) / 2.f, reader.getWeight(), 1e-2f);
+        Assert.assertTrue(reader.getCovariance() > 0.f);
+        Assert.assertTrue(reader.next());
+        // a zero covariance dominates the merged weight without an infinity or NaN
+        Assert.assertEquals(3.f, reader.getWeight(), 1e-6f);
+        Assert.assertTrue(reader.getCovariance() >= 0.f);
+        Assert.assertFalse(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMergeDifferentKinds() throws IOException {
+        ModelBlock.Builder b1 = new ModelBlock.Builder(false, false);
+        b1.add("f", 1.f, 1.f);
+        ModelBlock.Builder b2 = new ModelBlock.Builder(false, false);
+        b2.add(Integer.valueOf(1), 1.f, 1.f);
+        ModelBlock.merge(Arrays.asList(b1.build(), b2.build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedWriter() throws IOException {
+        ModelBlock.Writer writer = new ModelBlock.Writer(false, false, false);
+        writer.add(2L, 1.f, 1.f, 1);
+        writer.add(1L, 1.f, 1.f, 1);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import hivemall.utils.collections.IMapIterator;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StripedSparseModelTest {
+
+    @Test
+    public void testConcurrentSet() throws InterruptedException {
+        final StripedSparseModel model = new StripedSparseModel(8, 16, false);
+        assertEquals(8, model.getNumStripes());
+
+        final int numThreads = 4;
+        final int perThread = 10000;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int offset = t * perThread;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < offset + perThread; i++) {
+                        model.set(Integer.valueOf(i), new WeightValue(i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(numThreads * perThread, model.size());
+        for (int i = 0; i < numThreads * perThread; i++) {
+            assertEquals(i, model.getWeight(Integer.valueOf(i)), 0.f);
+        }
+
+        final Set<Object> keys = new HashSet<Object>();
+        final WeightValue probe = new WeightValue();
+        IMapIterator<Object, IWeightValue> itor = model.entries();
+        while (itor.next() != -1) {
+            Object k = itor.getKey();
+            itor.getValue(probe);
+            assertEquals(((Integer) k).intValue(), probe.get(), 0.f);
+            assertTrue(keys.add(k));
+        }
+        assertEquals(model.size(), keys.size());
+    }
+
+}
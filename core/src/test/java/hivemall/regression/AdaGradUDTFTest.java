@@ -19,13 +19,22 @@
 package hivemall.regression;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
 import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.FloatWritable;
 import org.junit.Test;
 
 public class AdaGradUDTFTest {
@@ -56,4 +65,53 @@ public class AdaGradUDTFTest {
                 labelOI});
         assertEquals("struct<feature:bigint,weight:float>", longListSOI.getTypeName());
     }
+
+    @Test
+    public void testThreads() throws HiveException {
+        AdaGradUDTF udtf = new AdaGradUDTF();
+        ObjectInspector labelOI = PrimitiveObjectInspectorFactory.javaFloatObjectInspector;
+        ObjectInspector stringOI = PrimitiveObjectInspectorFactory.javaStringObjectInspector;
+        ListObjectInspector stringListOI = ObjectInspectorFactory.getStandardListObjectInspector(stringOI);
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-threads 4");
+        udtf.initialize(new ObjectInspector[] {stringListOI, labelOI, param});
+
+        final Map<String, Float> weights = new HashMap<String, Float>();
+        udtf.setCollector(new Collector() {
+            @Override
+            public void collect(Object input) throws HiveException {
+                Object[] row = (Object[]) input;
+                weights.put(row[0].toString(), ((FloatWritable) row[1]).get());
+            }
+        });
+
+        for (int i = 0; i < 10000; i++) {
+            int pos = i % 20;
+            float label = (pos < 10) ? 1.f : 0.f;
+            udtf.process(new Object[] {Arrays.asList("f" + pos, "bias"), label});
+        }
+        udtf.close();
+
+        assertEquals(21, weights.size());
+        for (int pos = 0; pos < 20; pos++) {
+            float w = weights.get("f" + pos).floatValue();
+            if (pos < 10) {
+                assertTrue("f" + pos + ": " + w, w > 0.f);
+            } else {
+                assertTrue("f" + pos + ": " + w, w < 0.f);
+            }
+        }
+    }
+
+    @Test(expected = UDFArgumentException.class)
+    public void testThreadsWithIntFeature() throws HiveException {
+        AdaGradUDTF udtf = new AdaGradUDTF();
+        ObjectInspector labelOI = PrimitiveObjectInspectorFactory.javaFloatObjectInspector;
+        ObjectInspector intOI = PrimitiveObjectInspectorFactory.javaIntObjectInspector;
+        ListObjectInspector intListOI = ObjectInspectorFactory.getStandardListObjectInspector(intOI);
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-threads 4 -int_feature");
+        udtf.initialize(new ObjectInspector[] {intListOI, labelOI, param});
+    }
+
 }
@@ -22,6 +22,10 @@ import static org.junit.Assert.assertEquals;
 import hivemall.smile.ModelType;
 import hivemall.smile.classification.DecisionTree.Node;
 import hivemall.smile.data.Attribute;
+import hivemall.smile.data.ColumnMajorMatrix;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
 import hivemall.smile.tools.TreePredictUDF;
 import hivemall.smile.utils.SmileExtUtils;
 import hivemall.smile.vm.StackMachine;
@@ -32,6 +36,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
@@ -256,6 +263,121 @@ public class DecisionTreeTest {
         }
     }
 
+    @Test
+    public void testHistogramSplits() {
+        final int n = 4000, p = 5;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextGaussian();
+            }
+            double z = x[i][0] + x[i][1] * x[i][2] + 0.3d * rnd.nextGaussian();
+            y[i] = (z > 0.5d) ? 2 : (z > -0.5d ? 1 : 0);
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        final int numTrain = n * 3 / 4;
+        double[][] trainx = Arrays.copyOf(x, numTrain);
+        int[] trainy = Arrays.copyOf(y, numTrain);
+
+        DecisionTree exact = new DecisionTree(attrs, trainx, trainy, p, 10, Integer.MAX_VALUE, 2,
+            1, null, null, DecisionTree.SplitRule.GINI, new smile.math.Random(1L));
+        FeatureBins bins = FeatureBins.build(attrs, trainx, 64);
+        DecisionTree hist = new DecisionTree(attrs, trainx, trainy, p, 10, Integer.MAX_VALUE, 2,
+            1, null, null, bins, DecisionTree.SplitRule.GINI, new smile.math.Random(1L));
+
+        int exactErrors = 0, histErrors = 0;
+        for (int i = numTrain; i < n; i++) {
+            if (exact.predict(x[i]) != y[i]) {
+                exactErrors++;
+            }
+            if (hist.predict(x[i]) != y[i]) {
+                histErrors++;
+            }
+        }
+        Assert.assertTrue("errors of exact splits = " + exactErrors
+                + ", errors of histogram splits = " + histErrors, histErrors <= exactErrors * 1.1d
+                + 10);
+    }
+
+    @Test
+    public void testColumnMajorMatrix() {
+        final int n = 2000, p = 4;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] y = new int[n];
+        final ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        for (int i = 0; i < n; i++) {
+            x[i][0] = (float) rnd.nextGaussian();
+            x[i][1] = (float) rnd.nextGaussian();
+            x[i][2] = (rnd.nextInt(10) == 0) ? 1.d : 0.d;
+            x[i][3] = rnd.nextInt(3);
+            y[i] = (x[i][0] + x[i][1] + x[i][2] > 0.d) ? 1 : 0;
+            builder.addRow(x[i]);
+        }
+        Attribute[] attrs = {new Attribute.NumericAttribute(0), new Attribute.NumericAttribute(1),
+                new Attribute.NumericAttribute(2), new Attribute.NominalAttribute(3)};
+        Matrix matrix = builder.build();
+
+        DecisionTree expected = new DecisionTree(attrs, x, y, p, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, 2, 1, null, null, DecisionTree.SplitRule.GINI,
+            new smile.math.Random(1L));
+        DecisionTree actual = new DecisionTree(attrs, matrix, y, p, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, 2, 1, null, null, null, DecisionTree.SplitRule.GINI,
+            new smile.math.Random(1L));
+        Assert.assertEquals(expected.predictJsCodegen(), actual.predictJsCodegen());
+    }
+
+    @Test
+    public void testParallel() {
+        final int n = 20000, p = 6;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextGaussian();
+            }
+            double z = x[i][0] + x[i][1] * x[i][2] + 0.3d * rnd.nextGaussian();
+            y[i] = (z > 0.5d) ? 2 : (z > -0.5d ? 1 : 0);
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        Matrix matrix = new RowMajorDenseMatrix(x);
+        FeatureBins bins = FeatureBins.build(attrs, x, 256);
+
+        final ForkJoinPool pool1 = new ForkJoinPool(1);
+        final ForkJoinPool pool4 = new ForkJoinPool(4);
+        try {
+            for (FeatureBins b : new FeatureBins[] {null, bins}) {
+                // splits are the same as serial ones when all the attributes are evaluated
+                DecisionTree serial = new DecisionTree(attrs, matrix, y, p, 12, Integer.MAX_VALUE,
+                    2, 1, null, null, b, DecisionTree.SplitRule.GINI, new smile.math.Random(1L),
+                    null);
+                DecisionTree parallel = new DecisionTree(attrs, matrix, y, p, 12,
+                    Integer.MAX_VALUE, 2, 1, null, null, b, DecisionTree.SplitRule.GINI,
+                    new smile.math.Random(1L), pool4);
+                Assert.assertEquals(serial.predictJsCodegen(), parallel.predictJsCodegen());
+
+                // independent of the parallelism
+                DecisionTree t1 = new DecisionTree(attrs, matrix, y, 2, 12, 64, 2, 1, null, null,
+                    b, DecisionTree.SplitRule.GINI, new smile.math.Random(1L), pool1);
+                DecisionTree t4 = new DecisionTree(attrs, matrix, y, 2, 12, 64, 2, 1, null, null,
+                    b, DecisionTree.SplitRule.GINI, new smile.math.Random(1L), pool4);
+                Assert.assertEquals(t1.predictJsCodegen(), t4.predictJsCodegen());
+            }
+        } finally {
+            pool1.shutdownNow();
+            pool4.shutdownNow();
+        }
+    }
+
     private static int predictByStackMachine(DecisionTree tree, double[] x) throws HiveException,
             IOException {
         String script = tree.predictOpCodegen(StackMachine.SEP);
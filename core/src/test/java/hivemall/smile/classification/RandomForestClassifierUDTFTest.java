@@ -27,6 +27,7 @@ import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.Collector;
@@ -34,6 +35,7 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -85,4 +87,51 @@ public class RandomForestClassifierUDTFTest {
         Assert.assertEquals(49, count.getValue());
     }
 
+
+    @Test
+    public void testSparseFeatures() throws HiveException {
+        final int n = 3000, p = 6;
+        final Random rnd = new Random(43L);
+
+        RandomForestClassifierUDTF udtf = new RandomForestClassifierUDTF();
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-trees 10 -seed 71");
+        udtf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector, param});
+
+        final List<Double> xi = new ArrayList<Double>(p);
+        for (int i = 0; i < n; i++) {
+            double z = 0.d;
+            for (int j = 0; j < p; j++) {
+                // mostly-zero features
+                double v = (rnd.nextInt(5) == 0) ? rnd.nextDouble() : 0.d;
+                xi.add(v);
+                z += (j < 2) ? v : 0.d;
+            }
+            udtf.process(new Object[] {xi, (z > 0.2d) ? 1 : 0});
+            xi.clear();
+        }
+
+        final MutableInt count = new MutableInt(0);
+        final MutableInt oobErrors = new MutableInt(0);
+        final MutableInt oobTests = new MutableInt(0);
+        Collector collector = new Collector() {
+            public void collect(Object input) throws HiveException {
+                Object[] forwardObjs = (Object[]) input;
+                count.addValue(1);
+                oobErrors.addValue(((IntWritable) forwardObjs[4]).get());
+                oobTests.addValue(((IntWritable) forwardObjs[5]).get());
+            }
+        };
+
+        udtf.setCollector(collector);
+        udtf.close();
+
+        Assert.assertEquals(10, count.getValue());
+        Assert.assertTrue(oobTests.getValue() > 0);
+        Assert.assertTrue("oob errors: " + oobErrors + '/' + oobTests,
+            oobErrors.getValue() < oobTests.getValue() * 0.1d);
+    }
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ColumnMajorMatrixTest {
+
+    @Test
+    public void testDenseAndSparseColumns() {
+        final int n = 20000, p = 3;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = (float) rnd.nextGaussian(); // dense
+            x[i][1] = (rnd.nextInt(100) == 0) ? rnd.nextInt(10) + 1 : 0.d; // sparse
+            // dense for the first rows and zeros after
+            x[i][2] = (i < 3000) ? i + 1 : 0.d;
+        }
+        ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        for (double[] row : x) {
+            builder.addRow(row);
+        }
+        ColumnMajorMatrix matrix = builder.build();
+
+        Assert.assertEquals(n, matrix.numRows());
+        Assert.assertEquals(p, matrix.numColumns());
+        Assert.assertFalse(matrix.isSparse(0));
+        Assert.assertTrue(matrix.isSparse(1));
+        Assert.assertTrue(matrix.isSparse(2));
+        Assert.assertTrue(matrix.estimateMemoryUsage() < 8L * n * p / 3);
+        assertEquals(x, matrix);
+
+        final double[] column = new double[n];
+        for (int j = 0; j < p; j++) {
+            matrix.getColumn(j, column);
+            for (int i = 0; i < n; i++) {
+                Assert.assertEquals(x[i][j], column[i], 0.d);
+            }
+        }
+    }
+
+    @Test
+    public void testPermuteRows() {
+        final int n = 5000, p = 2;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = i;
+            x[i][1] = (i % 7 == 0) ? i : 0.d;
+            perm[i] = i;
+        }
+        for (int i = n; i > 1; i--) {
+            int j = rnd.nextInt(i);
+            int tmp = perm[i - 1];
+            perm[i - 1] = perm[j];
+            perm[j] = tmp;
+        }
+        ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        for (double[] row : x) {
+            builder.addRow(row);
+        }
+        ColumnMajorMatrix matrix = builder.build();
+        Assert.assertTrue(matrix.isSparse(1));
+
+        matrix.permuteRows(perm);
+        final double[][] expected = new double[n][];
+        for (int k = 0; k < n; k++) {
+            expected[k] = x[perm[k]];
+        }
+        assertEquals(expected, matrix);
+    }
+
+    @Test
+    public void testSortedSparseColumn() {
+        final int n = 5000, p = 3;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = rnd.nextGaussian(); // dense
+            x[i][1] = (rnd.nextInt(20) == 0) ? (float) rnd.nextGaussian() : 0.d; // sparse
+            x[i][2] = (i % 11 == 0) ? 0.1d * (i - n / 2) : 0.d; // sparse in doubles
+        }
+        ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        for (double[] row : x) {
+            builder.addRow(row);
+        }
+        ColumnMajorMatrix matrix = builder.build();
+        Assert.assertTrue(matrix.isSparse(1));
+        Assert.assertTrue(matrix.isSparse(2));
+        Assert.assertTrue(matrix.isDouble(2));
+
+        Assert.assertNull(matrix.getSortedColumn(0));
+        final double[] column = new double[n];
+        for (int j = 1; j < p; j++) {
+            ColumnMajorMatrix.SortedSparseColumn sorted = matrix.getSortedColumn(j);
+            Assert.assertNotNull(sorted);
+            Assert.assertSame(sorted, matrix.getSortedColumn(j));
+            for (int i = 0; i < n; i++) {
+                column[i] = x[i][j];
+            }
+            Arrays.sort(column);
+            for (int k = 0; k < n; k++) {
+                Assert.assertEquals(column[k], sorted.get(k), 0.d);
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleColumns() {
+        final int n = 5000, p = 4;
+        final double[][] x = new double[n][p];
+        for (int i = 0; i < n; i++) {
+            x[i][0] = i + 0.5d; // exact in floats
+            x[i][1] = (1 << 24) + i; // dense, and above 2^24 from the 2nd row
+            x[i][2] = (i % 7 == 0) ? 0.1d * i : 0.d; // sparse
+            // buffered in float chunks before the first inexact value
+            x[i][3] = (i < 3000) ? i : 1.d / i;
+        }
+        ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        for (double[] row : x) {
+            builder.addRow(row);
+        }
+        ColumnMajorMatrix matrix = builder.build();
+
+        Assert.assertFalse(matrix.isDouble(0));
+        Assert.assertTrue(matrix.isDouble(1));
+        Assert.assertFalse(matrix.isSparse(1));
+        Assert.assertTrue(matrix.isDouble(2));
+        Assert.assertTrue(matrix.isSparse(2));
+        Assert.assertTrue(matrix.isDouble(3));
+        Assert.assertFalse(matrix.isSparse(3));
+        assertEquals(x, matrix);
+
+        final int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = n - 1 - i;
+        }
+        matrix.permuteRows(perm);
+        final double[][] expected = new double[n][];
+        for (int k = 0; k < n; k++) {
+            expected[k] = x[perm[k]];
+        }
+        assertEquals(expected, matrix);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRaggedRows() {
+        ColumnMajorMatrix.Builder builder = new ColumnMajorMatrix.Builder();
+        builder.addRow(new double[] {1.d, 2.d});
+        builder.addRow(new double[] {1.d});
+    }
+
+    private static void assertEquals(final double[][] expected, final Matrix actual) {
+        final double[] row = new double[actual.numColumns()];
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertArrayEquals(expected[i], actual.getRow(i, row), 0.d);
+        }
+    }
+
+}
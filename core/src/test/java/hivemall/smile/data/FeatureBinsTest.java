@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeatureBinsTest {
+
+    @Test
+    public void testFewDistinctValues() {
+        double[][] x = { {3.d, 0.d}, {1.d, 1.d}, {2.d, 0.d}, {1.d, 1.d}, {3.d, 1.d}};
+        Attribute[] attrs = {new Attribute.NumericAttribute(0), new Attribute.NominalAttribute(1)};
+        FeatureBins bins = FeatureBins.build(attrs, x, 256);
+
+        Assert.assertEquals(3, bins.getNumBins(0));
+        Assert.assertEquals(0, bins.getNumBins(1));
+        Assert.assertEquals(1.5d, bins.getSplitValue(0, 0), 0.d);
+        Assert.assertEquals(2.5d, bins.getSplitValue(0, 1), 0.d);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, bins.getSplitValue(0, 2), 0.d);
+        Assert.assertEquals(2, bins.getBin(0, 0));
+        Assert.assertEquals(0, bins.getBin(1, 0));
+        Assert.assertEquals(1, bins.getBin(2, 0));
+    }
+
+    @Test
+    public void testQuantiles() {
+        testQuantiles(256);
+        testQuantiles(1000); // coded in short
+    }
+
+    private static void testQuantiles(final int maxBins) {
+        final int n = 100000;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][1];
+        for (int i = 0; i < n; i++) {
+            // skewed values with many ties
+            x[i][0] = Math.floor(Math.exp(rnd.nextGaussian() * 2.d) * 100.d);
+        }
+        Attribute[] attrs = {new Attribute.NumericAttribute(0)};
+        FeatureBins bins = FeatureBins.build(attrs, x, maxBins);
+
+        final int numBins = bins.getNumBins(0);
+        Assert.assertTrue("numBins: " + numBins, numBins > maxBins / 2 && numBins <= maxBins);
+
+        final int[] counts = new int[numBins];
+        for (int i = 0; i < n; i++) {
+            final int b = bins.getBin(i, 0);
+            final double v = x[i][0];
+            Assert.assertTrue(v <= bins.getSplitValue(0, b));
+            if (b > 0) {
+                Assert.assertTrue(v > bins.getSplitValue(0, b - 1));
+            }
+            counts[b]++;
+        }
+        Arrays.sort(counts);
+        // bins are about the same frequency unless a single value dominates a bin
+        Assert.assertTrue("median bin size: " + counts[numBins / 2],
+            counts[numBins / 2] <= 2 * n / numBins);
+    }
+
+}
@@ -19,6 +19,13 @@
 package hivemall.smile.regression;
 
 import hivemall.smile.data.Attribute;
+import hivemall.smile.data.FeatureBins;
+import hivemall.smile.data.Matrix;
+import hivemall.smile.data.RowMajorDenseMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.junit.Assert;
@@ -74,6 +81,89 @@ public class RegressionTreeTest {
         Assert.assertTrue("MSE = " + (rss / n), (rss / n) < 42);
     }
 
+    @Test
+    public void testHistogramSplits() {
+        final int n = 4000, p = 5;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextDouble();
+            }
+            y[i] = java.lang.Math.sin(4.d * x[i][0]) + 2.d * x[i][1] * x[i][2] + 0.1d * rnd.nextGaussian();
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        final int numTrain = n * 3 / 4;
+        double[][] trainx = Arrays.copyOf(x, numTrain);
+        double[] trainy = Arrays.copyOf(y, numTrain);
+
+        RegressionTree exact = new RegressionTree(attrs, trainx, trainy, p, 8, Integer.MAX_VALUE,
+            5, 1, null, null, null, new smile.math.Random(1L));
+        FeatureBins bins = FeatureBins.build(attrs, trainx, 64);
+        RegressionTree hist = new RegressionTree(attrs, trainx, trainy, p, 8, Integer.MAX_VALUE,
+            5, 1, null, bins, null, null, new smile.math.Random(1L));
+
+        double exactRss = 0.d, histRss = 0.d;
+        for (int i = numTrain; i < n; i++) {
+            double r1 = y[i] - exact.predict(x[i]);
+            exactRss += r1 * r1;
+            double r2 = y[i] - hist.predict(x[i]);
+            histRss += r2 * r2;
+        }
+        double exactMse = exactRss / (n - numTrain);
+        double histMse = histRss / (n - numTrain);
+        Assert.assertTrue("MSE of exact splits = " + exactMse + ", MSE of histogram splits = "
+                + histMse, histMse < exactMse * 1.1d);
+    }
+
+    @Test
+    public void testParallel() {
+        final int n = 20000, p = 6;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextDouble();
+            }
+            y[i] = java.lang.Math.sin(4.d * x[i][0]) + 2.d * x[i][1] * x[i][2] + 0.1d * rnd.nextGaussian();
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        Matrix matrix = new RowMajorDenseMatrix(x);
+        FeatureBins bins = FeatureBins.build(attrs, x, 256);
+
+        final ForkJoinPool pool1 = new ForkJoinPool(1);
+        final ForkJoinPool pool4 = new ForkJoinPool(4);
+        try {
+            for (FeatureBins b : new FeatureBins[] {null, bins}) {
+                // splits are the same as serial ones when all the attributes are evaluated
+                RegressionTree serial = new RegressionTree(attrs, matrix, y, p, 10,
+                    Integer.MAX_VALUE, 5, 1, null, b, null, null, new smile.math.Random(1L), null);
+                RegressionTree parallel = new RegressionTree(attrs, matrix, y, p, 10,
+                    Integer.MAX_VALUE, 5, 1, null, b, null, null, new smile.math.Random(1L), pool4);
+                Assert.assertEquals(serial.predictJsCodegen(), parallel.predictJsCodegen());
+                Assert.assertArrayEquals(serial.importance(), parallel.importance(), 1E-8d);
+
+                // independent of the parallelism
+                RegressionTree t1 = new RegressionTree(attrs, matrix, y, 2, 10, Integer.MAX_VALUE,
+                    5, 1, null, b, null, null, new smile.math.Random(1L), pool1);
+                RegressionTree t4 = new RegressionTree(attrs, matrix, y, 2, 10, Integer.MAX_VALUE,
+                    5, 1, null, b, null, null, new smile.math.Random(1L), pool4);
+                Assert.assertEquals(t1.predictJsCodegen(), t4.predictJsCodegen());
+            }
+        } finally {
+            pool1.shutdownNow();
+            pool4.shutdownNow();
+        }
+    }
+
     @Test
     public void testSerPredict() throws HiveException {
 
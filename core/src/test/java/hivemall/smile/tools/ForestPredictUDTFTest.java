@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.tools;
+
+import hivemall.smile.ModelType;
+import hivemall.smile.classification.DecisionTree;
+import hivemall.smile.data.Attribute;
+import hivemall.smile.regression.RegressionTree;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.lang.ArrayUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.Collector;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForestPredictUDTFTest {
+
+    @Test
+    public void testClassification() throws IOException, HiveException {
+        final int n = 500, p = 4, numTrees = 9;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextGaussian();
+            }
+            double z = x[i][0] + x[i][1] * x[i][2] + 0.3d * rnd.nextGaussian();
+            y[i] = (z > 0.5d) ? 2 : (z > -0.5d ? 1 : 0);
+        }
+        Attribute[] attrs = numericAttributes(p);
+
+        final DecisionTree[] trees = new DecisionTree[numTrees];
+        final File file = File.createTempFile("ForestPredictUDTFTest", ".txt");
+        file.deleteOnExit();
+        final Writer writer = new FileWriter(file);
+        for (int t = 0; t < numTrees; t++) {
+            int[] bag = bootstrap(n, rnd);
+            double[][] bx = new double[n][];
+            int[] by = new int[n];
+            for (int i = 0; i < n; i++) {
+                bx[i] = x[bag[i]];
+                by[i] = y[bag[i]];
+            }
+            trees[t] = new DecisionTree(attrs, bx, by, 30);
+            // mixes the serialization and flat models
+            ModelType type = (t % 2 == 0) ? ModelType.serialization_compressed
+                    : ModelType.flat_compressed;
+            byte[] b = (t % 2 == 0) ? trees[t].predictSerCodegen(true)
+                    : trees[t].predictFlatCodegen(true);
+            writeModel(writer, "model" + t, type, b);
+        }
+        writer.close();
+
+        ForestPredictUDTF udtf = new ForestPredictUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-loadmodel "
+                            + file.getAbsolutePath() + " -classification -batch 7")});
+        final List<Object[]> results = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                results.add(((Object[]) input).clone());
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            udtf.process(new Object[] {i, ArrayUtils.toList(x[i])});
+        }
+        udtf.close();
+
+        Assert.assertEquals(n, results.size());
+        for (Object[] result : results) {
+            int i = ((Integer) result[0]).intValue();
+            int[] votes = new int[3];
+            for (DecisionTree tree : trees) {
+                votes[tree.predict(x[i])]++;
+            }
+            int label = ((IntWritable) result[1]).get();
+            double probability = ((DoubleWritable) result[2]).get();
+            @SuppressWarnings("unchecked")
+            List<DoubleWritable> probabilities = (List<DoubleWritable>) result[3];
+            Assert.assertEquals(3, probabilities.size());
+            for (int k = 0; k < 3; k++) {
+                Assert.assertTrue(votes[k] <= votes[label]);
+                Assert.assertEquals(votes[k] / (double) numTrees, probabilities.get(k).get(),
+                    1e-10d);
+            }
+            Assert.assertEquals(votes[label] / (double) numTrees, probability, 1e-10d);
+        }
+    }
+
+    @Test
+    public void testRegression() throws IOException, HiveException {
+        final int n = 500, p = 5, numTrees = 6;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextDouble();
+            }
+            y[i] = Math.sin(4.d * x[i][0]) + 2.d * x[i][1] * x[i][2] + 0.1d * rnd.nextGaussian();
+        }
+        Attribute[] attrs = numericAttributes(p);
+
+        final RegressionTree[] trees = new RegressionTree[numTrees];
+        final File file = File.createTempFile("ForestPredictUDTFTest", ".txt");
+        file.deleteOnExit();
+        final Writer writer = new FileWriter(file);
+        for (int t = 0; t < numTrees; t++) {
+            int[] bag = bootstrap(n, rnd);
+            double[][] bx = new double[n][];
+            double[] by = new double[n];
+            for (int i = 0; i < n; i++) {
+                bx[i] = x[bag[i]];
+                by[i] = y[bag[i]];
+            }
+            trees[t] = new RegressionTree(attrs, bx, by, 30);
+            ModelType type = (t % 2 == 0) ? ModelType.serialization : ModelType.flat;
+            byte[] b = (t % 2 == 0) ? trees[t].predictSerCodegen(false)
+                    : trees[t].predictFlatCodegen(false);
+            writeModel(writer, "model" + t, type, b);
+        }
+        writer.close();
+
+        ForestPredictUDTF udtf = new ForestPredictUDTF();
+        udtf.initialize(new ObjectInspector[] {
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                ObjectInspectorUtils.getConstantObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-loadmodel "
+                            + file.getAbsolutePath())});
+        final List<Object[]> results = new ArrayList<Object[]>();
+        udtf.setCollector(new Collector() {
+            public void collect(Object input) throws HiveException {
+                results.add(((Object[]) input).clone());
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            udtf.process(new Object[] {"row" + i, ArrayUtils.toList(x[i])});
+        }
+        udtf.close();
+
+        Assert.assertEquals(n, results.size());
+        for (Object[] result : results) {
+            int i = Integer.parseInt(((String) result[0]).substring(3));
+            double expected = 0.d;
+            for (RegressionTree tree : trees) {
+                expected += tree.predict(x[i]);
+            }
+            expected /= numTrees;
+            Assert.assertEquals(expected, ((DoubleWritable) result[1]).get(), 1e-10d);
+        }
+    }
+
+    private static Attribute[] numericAttributes(int p) {
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        return attrs;
+    }
+
+    private static int[] bootstrap(int n, Random rnd) {
+        int[] bag = new int[n];
+        for (int i = 0; i < n; i++) {
+            bag[i] = rnd.nextInt(n);
+        }
+        return bag;
+    }
+
+    /**
+     * Writes a row of a model table as Hive's text file does.
+     */
+    private static void writeModel(Writer writer, String modelId, ModelType type, byte[] model)
+            throws IOException {
+        writer.write(modelId);
+        writer.write('\001');
+        writer.write(String.valueOf(type.getId()));
+        writer.write('\001');
+        writer.write(new String(Base91.encode(model)));
+        writer.write('\001');
+        writer.write("0.1\0020.2");
+        writer.write('\n');
+    }
+
+}
@@ -24,7 +24,9 @@ import hivemall.smile.classification.DecisionTree;
 import hivemall.smile.data.Attribute;
 import hivemall.smile.regression.RegressionTree;
 import hivemall.smile.utils.SmileExtUtils;
+import hivemall.smile.vm.FlatTree;
 import hivemall.smile.vm.StackMachine;
+import hivemall.utils.codec.Base91;
 import hivemall.utils.lang.ArrayUtils;
 
 import java.io.BufferedInputStream;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.Random;
 
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
@@ -42,6 +45,8 @@ import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
 import org.junit.Test;
 
 import smile.data.AttributeDataset;
@@ -150,6 +155,136 @@ public class TreePredictUDFTest {
         }
     }
 
+    @Test
+    public void testFlatClassification() throws IOException, HiveException {
+        final int n = 2000, p = 4;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final int[] y = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p - 1; j++) {
+                x[i][j] = rnd.nextGaussian();
+            }
+            x[i][p - 1] = rnd.nextInt(4);
+            double z = x[i][0] + x[i][1] * x[i][2] + (x[i][p - 1] == 2.d ? 1.d : 0.d);
+            y[i] = (z > 0.5d) ? 2 : (z > -0.5d ? 1 : 0);
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p - 1; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        attrs[p - 1] = new Attribute.NominalAttribute(p - 1);
+        DecisionTree tree = new DecisionTree(attrs, x, y, 100);
+
+        for (ModelType type : new ModelType[] {ModelType.flat, ModelType.flat_compressed}) {
+            String model = new String(Base91.encode(tree.predictFlatCodegen(type.isCompressed())));
+            TreePredictUDF udf = new TreePredictUDF();
+            udf.initialize(new ObjectInspector[] {
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaBooleanObjectInspector, true)});
+            for (int i = 0; i < n; i++) {
+                DeferredObject[] arguments = new DeferredObject[] {
+                        new DeferredJavaObject("flat_classification_" + type),
+                        new DeferredJavaObject(type.getId()), new DeferredJavaObject(model),
+                        new DeferredJavaObject(ArrayUtils.toList(x[i])),
+                        new DeferredJavaObject(true)};
+                IntWritable result = (IntWritable) udf.evaluate(arguments);
+                assertEquals(tree.predict(x[i]), result.get());
+            }
+            udf.close();
+        }
+    }
+
+    @Test
+    public void testFlatRegression() throws IOException, HiveException {
+        final int n = 2000, p = 5;
+        final Random rnd = new Random(43L);
+        final double[][] x = new double[n][p];
+        final double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < p; j++) {
+                x[i][j] = rnd.nextDouble();
+            }
+            y[i] = java.lang.Math.sin(4.d * x[i][0]) + 2.d * x[i][1] * x[i][2];
+        }
+        Attribute[] attrs = new Attribute[p];
+        for (int j = 0; j < p; j++) {
+            attrs[j] = new Attribute.NumericAttribute(j);
+        }
+        RegressionTree tree = new RegressionTree(attrs, x, y, 100);
+
+        for (ModelType type : new ModelType[] {ModelType.flat, ModelType.flat_compressed}) {
+            String model = new String(Base91.encode(tree.predictFlatCodegen(type.isCompressed())));
+            TreePredictUDF udf = new TreePredictUDF();
+            udf.initialize(new ObjectInspector[] {
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    ObjectInspectorFactory.getStandardListObjectInspector(PrimitiveObjectInspectorFactory.javaDoubleObjectInspector),
+                    ObjectInspectorUtils.getConstantObjectInspector(
+                        PrimitiveObjectInspectorFactory.javaBooleanObjectInspector, false)});
+            for (int i = 0; i < n; i++) {
+                DeferredObject[] arguments = new DeferredObject[] {
+                        new DeferredJavaObject("flat_regression_" + type),
+                        new DeferredJavaObject(type.getId()), new DeferredJavaObject(model),
+                        new DeferredJavaObject(ArrayUtils.toList(x[i])),
+                        new DeferredJavaObject(false)};
+                DoubleWritable result = (DoubleWritable) udf.evaluate(arguments);
+                assertEquals(tree.predict(x[i]), result.get(), 0.d);
+            }
+            udf.close();
+        }
+    }
+
+    @Test
+    public void testFlatTreeCache() {
+        FlatTree.Builder builder = new FlatTree.Builder();
+        int root = builder.addNumericSplit(0, 0.5d);
+        builder.addLeaf(1.d);
+        builder.setFalseChild(root);
+        builder.addLeaf(2.d);
+        FlatTree tree = builder.build();
+        Text script = new Text("script");
+        int fingerprint = TreePredictUDF.FlatTreeCache.fingerprint(script.getBytes(),
+            script.getLength());
+
+        TreePredictUDF.FlatTreeCache cache = new TreePredictUDF.FlatTreeCache(7);
+        cache.put("m1", script.getLength(), fingerprint, tree);
+        cache.put("m2", script.getLength(), fingerprint, tree);
+        Assert.assertSame(tree, cache.get("m1", script.getLength(), fingerprint));
+        Assert.assertNull(cache.get("m1", script.getLength() + 1, fingerprint));
+        Assert.assertNull(cache.get("m1", script.getLength(), fingerprint + 1));
+
+        // m2 is the least recently used
+        cache.put("m3", script.getLength(), fingerprint, tree);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(6, cache.numNodes());
+        Assert.assertNull(cache.get("m2", script.getLength(), fingerprint));
+        Assert.assertNotNull(cache.get("m1", script.getLength(), fingerprint));
+
+        // m3 is evicted as m1 has just been used
+        cache.setMaxNodes(1);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotNull(cache.get("m1", script.getLength(), fingerprint));
+    }
+
+    @Test
+    public void testFlatTreeCacheFingerprint() {
+        // scripts of the same length that differ only in a single byte
+        byte[] b1 = new byte[4096];
+        for (int i = 0; i < b1.length; i++) {
+            b1[i] = (byte) ('A' + (i % 26));
+        }
+        byte[] b2 = b1.clone();
+        b2[4095 - 33] = '#';
+        Assert.assertNotEquals(TreePredictUDF.FlatTreeCache.fingerprint(b1, b1.length),
+            TreePredictUDF.FlatTreeCache.fingerprint(b2, b2.length));
+    }
+
     private static int evalPredict(DecisionTree tree, double[] x) throws HiveException, IOException {
         String opScript = tree.predictOpCodegen(StackMachine.SEP);
         debugPrint(opScript);
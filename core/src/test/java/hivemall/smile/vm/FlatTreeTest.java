@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.smile.vm;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlatTreeTest {
+
+    @Test
+    public void testPredict() {
+        // x[0] <= 0.5 ? (x[1] == 2 ? 10 : 20) : 30
+        FlatTree.Builder builder = new FlatTree.Builder();
+        int root = builder.addNumericSplit(0, 0.5d);
+        int left = builder.addNominalSplit(1, 2.d);
+        builder.addLeaf(10.d);
+        builder.setFalseChild(left);
+        builder.addLeaf(20.d);
+        builder.setFalseChild(root);
+        builder.addLeaf(30.d);
+        FlatTree tree = builder.build();
+
+        Assert.assertEquals(5, tree.numNodes());
+        Assert.assertEquals(10.d, tree.predict(new double[] {0.5d, 2.d}), 0.d);
+        Assert.assertEquals(20.d, tree.predict(new double[] {0.1d, 3.d}), 0.d);
+        Assert.assertEquals(30.d, tree.predict(new double[] {0.6d, 2.d}), 0.d);
+        Assert.assertEquals(30.d, tree.predict(new double[] {Double.NaN, 2.d}), 0.d);
+
+        byte[] b = tree.serialize();
+        FlatTree deserialized = FlatTree.deserialize(b, 0, b.length);
+        Assert.assertEquals(5, deserialized.numNodes());
+        Assert.assertEquals(20.d, deserialized.predict(new double[] {0.1d, 3.d}), 0.d);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializeLoop() {
+        // a split node whose false child points back to itself
+        ByteBuffer buf = ByteBuffer.allocate(4 + 16 * 2);
+        buf.putInt(2);
+        buf.putInt(0).putInt(-1);
+        buf.putDouble(0.5d).putDouble(1.d);
+        buf.putInt(0).putInt(0);
+        FlatTree.deserialize(buf.array(), 0, buf.capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDeserializeTruncated() {
+        FlatTree.Builder builder = new FlatTree.Builder();
+        builder.addLeaf(1.d);
+        byte[] b = builder.build().serialize();
+        FlatTree.deserialize(b, 0, b.length - 1);
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.tools;
+
+import hivemall.model.ModelBlock;
+import hivemall.utils.codec.Base91;
+import hivemall.utils.math.MathUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
+import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LinearPredictUDFTest {
+
+    @Test
+    public void testTextModel() throws IOException, HiveException {
+        File file = File.createTempFile("LinearPredictUDFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write("good\u00010.5\n");
+        writer.write("bad\u0001-1.5\n");
+        writer.write("movie\u00010.25\u00011.0\n");
+        writer.write("null\u0001\\N\n");
+        writer.close();
+
+        LinearPredictUDF udf = new LinearPredictUDF();
+        initialize(udf, PrimitiveObjectInspectorFactory.javaStringObjectInspector, "-loadmodel "
+                + file.getAbsolutePath());
+        Assert.assertEquals(0.5d + 0.25d * 2.d, evaluate(udf, "good", "movie:2", "unknown"),
+            1e-6d);
+        Assert.assertEquals(-1.5d * 0.5d, evaluate(udf, "bad:0.5", "null"), 1e-6d);
+        Assert.assertEquals(0.d, evaluate(udf), 0.d);
+
+        LinearPredictUDF sigmoid = new LinearPredictUDF();
+        initialize(sigmoid, PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+            "-sigmoid -loadmodel " + file.getAbsolutePath());
+        Assert.assertEquals(MathUtils.sigmoid(-1.d), evaluate(sigmoid, "good", "bad"), 1e-6d);
+    }
+
+    @Test
+    public void testIntFeature() throws IOException, HiveException {
+        File file = File.createTempFile("LinearPredictUDFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write("1\u00010.5\n");
+        writer.write("7\u0001-2.0\n");
+        writer.close();
+
+        LinearPredictUDF udf = new LinearPredictUDF();
+        initialize(udf, PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+            "-int_feature -loadmodel " + file.getAbsolutePath());
+        Assert.assertEquals(0.5d - 2.d * 0.1d, evaluate(udf, "1", "7:0.1", "3:1.0"), 1e-6d);
+
+        LinearPredictUDF intUdf = new LinearPredictUDF();
+        initialize(intUdf, PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+            "-int_feature -loadmodel " + file.getAbsolutePath());
+        Assert.assertEquals(-1.5d, evaluate(intUdf, 1, 7, 8), 1e-6d);
+    }
+
+    @Test
+    public void testModelBlocks() throws IOException, HiveException {
+        ModelBlock.Builder b1 = new ModelBlock.Builder(false, false);
+        b1.add("good", 0.5f, 1.f);
+        b1.add("movie", 0.25f, 1.f);
+        ModelBlock.Builder b2 = new ModelBlock.Builder(false, false);
+        b2.add("bad", -1.5f, 1.f);
+
+        File file = File.createTempFile("LinearPredictUDFTest", ".txt");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write("0\u0001" + new String(Base91.encode(b1.build()), "UTF-8") + "\n");
+        writer.write("1\u0001" + new String(Base91.encode(b2.build()), "UTF-8") + "\n");
+        writer.close();
+
+        LinearPredictUDF udf = new LinearPredictUDF();
+        initialize(udf, PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+            "-model_blocks -loadmodel " + file.getAbsolutePath());
+        Assert.assertEquals(0.5d - 1.5d + 0.25d * 4.d, evaluate(udf, "good", "bad", "movie:4"),
+            1e-6d);
+    }
+
+    private static void initialize(LinearPredictUDF udf, ObjectInspector elemOI, String options)
+            throws HiveException {
+        ObjectInspector param = ObjectInspectorUtils.getConstantObjectInspector(
+            PrimitiveObjectInspectorFactory.javaStringObjectInspector, options);
+        udf.initialize(new ObjectInspector[] {
+                ObjectInspectorFactory.getStandardListObjectInspector(elemOI), param});
+    }
+
+    private static double evaluate(LinearPredictUDF udf, Object... features)
+            throws HiveException {
+        DoubleWritable result = udf.evaluate(new DeferredObject[] {
+                new DeferredJavaObject(Arrays.asList(features)), new DeferredJavaObject(null)});
+        return result.get();
+    }
+
+}
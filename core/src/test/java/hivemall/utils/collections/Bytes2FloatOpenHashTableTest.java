@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.collections;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Bytes2FloatOpenHashTableTest {
+
+    @Test
+    public void testPutAndGet() {
+        Bytes2FloatOpenHashTable map = new Bytes2FloatOpenHashTable(16);
+        final int numEntries = 100000;
+        for (int i = 0; i < numEntries; i++) {
+            Text t = new Text("feature" + i);
+            map.put(t.getBytes(), 0, t.getLength(), i + 0.1f);
+        }
+        Assert.assertEquals(numEntries, map.size());
+        for (int i = 0; i < numEntries; i++) {
+            Text t = new Text("feature" + i);
+            Assert.assertEquals(i + 0.1f, map.get(t.getBytes(), 0, t.getLength()), 0.d);
+        }
+        Text t = new Text("feature");
+        Assert.assertEquals(-1.f, map.get(t.getBytes(), 0, t.getLength()), 0.d);
+    }
+
+    @Test
+    public void testSlice() {
+        Bytes2FloatOpenHashTable map = new Bytes2FloatOpenHashTable();
+        map.defaultReturnValue(0.f);
+        byte[] b = "apple:0.5".getBytes();
+        map.put(b, 0, 5, 3.f);
+        map.put(b, 0, 5, 5.f);
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals(5.f, map.get("xapple".getBytes(), 1, 5), 0.d);
+        Assert.assertEquals(0.f, map.get(b, 0, 4), 0.d);
+        Assert.assertEquals(0.f, map.get(b, 0, b.length), 0.d);
+    }
+
+}
@@ -66,6 +66,26 @@ public class OpenHashMapTest {
         Assert.assertEquals(-1, itor.next());
     }
 
+    @Test
+    public void testIteratorWithoutRelease() {
+        OpenHashMap<String, Integer> map = new OpenHashMap<String, Integer>(100);
+        final int numEntries = 1000;
+        for (int i = 0; i < numEntries; i++) {
+            map.put(Integer.toString(i), i);
+        }
+
+        IMapIterator<String, Integer> itor = map.entries(false);
+        int count = 0;
+        while (itor.next() != -1) {
+            Assert.assertEquals(Integer.valueOf(itor.getKey()), itor.getValue());
+            count++;
+        }
+        Assert.assertEquals(numEntries, count);
+        for (int i = 0; i < numEntries; i++) {
+            Assert.assertEquals(Integer.valueOf(i), map.get(Integer.toString(i)));
+        }
+    }
+
     @Test
     public void testIteratorGetProbe() {
         OpenHashMap<String, MutableInt> map = new OpenHashMap<String, MutableInt>(100);
@@ -35,4 +35,15 @@ public class MurmurHash3Test {
         }
     }
 
+    @Test
+    public void testMurmurhash3Bytes() throws Exception {
+        Random rand = new Random(43);
+        for (int i = 0; i < 100; i++) {
+            String s = Integer.toOctalString(rand.nextInt(Integer.MAX_VALUE)) + "\u00e9\u3042";
+            byte[] b = s.getBytes("UTF-8");
+            Assert.assertEquals(MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), 0x9747b28c),
+                MurmurHash3.murmurhash3_x86_32(b, 0, b.length, 0x9747b28c));
+        }
+    }
+
 }
@@ -66,6 +66,31 @@ public class HalfFloatTest {
         }
     }
 
+    @Test
+    public void testSaturated() {
+        assertEquals(HalfFloat.MAX_FLOAT,
+            HalfFloat.halfFloatToFloat(HalfFloat.floatToSaturatedHalfFloat(1e10f)), 0.f);
+        assertEquals(-HalfFloat.MAX_FLOAT,
+            HalfFloat.halfFloatToFloat(HalfFloat.floatToSaturatedHalfFloat(-65520f)), 0.f);
+        assertEquals(1.5f, HalfFloat.halfFloatToFloat(HalfFloat.floatToSaturatedHalfFloat(1.5f)),
+            0.f);
+        // underflow
+        assertEquals(0.f, HalfFloat.halfFloatToFloat(HalfFloat.floatToSaturatedHalfFloat(1e-9f)),
+            0.f);
+    }
+
+    @Test
+    public void testNonZero() {
+        exactCheck(HalfFloat.MIN_FLOAT);
+        assertEquals(HalfFloat.MIN_FLOAT,
+            HalfFloat.halfFloatToFloat(HalfFloat.floatToNonZeroHalfFloat(1e-9f)), 0.f);
+        assertEquals(-HalfFloat.MIN_FLOAT,
+            HalfFloat.halfFloatToFloat(HalfFloat.floatToNonZeroHalfFloat(-Float.MIN_VALUE)), 0.f);
+        assertEquals(0.f, HalfFloat.halfFloatToFloat(HalfFloat.floatToNonZeroHalfFloat(0.f)), 0.f);
+        assertEquals(HalfFloat.MAX_FLOAT,
+            HalfFloat.halfFloatToFloat(HalfFloat.floatToNonZeroHalfFloat(1e10f)), 0.f);
+    }
+
     @Test
     public void testOverflow() {
         // Integers equal to or above 65520 are rounded to "infinity".
@@ -22,6 +22,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class NumberUtilsTest {
@@ -44,6 +47,44 @@ public class NumberUtilsTest {
         assertEquals(2000, NumberUtils.parseInt(s7));
     }
 
+    @Test
+    public void testParseIntBytes() {
+        String[] values = {"0", "1", "-1", "+12", "2147483647", "-2147483648", "000123"};
+        for (String s : values) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(Integer.parseInt(s), NumberUtils.parseInt(b, 0, b.length));
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseIntBytesOverflow() {
+        byte[] b = "2147483648".getBytes(StandardCharsets.UTF_8);
+        NumberUtils.parseInt(b, 0, b.length);
+    }
+
+    @Test
+    public void testParseDoubleBytes() {
+        String[] values = {"0", "-0", "0.0", "1", "-1.5", "+3.25", ".5", "1.", "1e3", "1E-3",
+                "-2.5e+10", "0.000001", "123456789012345", "1234567890123456789", "3.4028235E38",
+                "4.9E-324", "1e-400", "NaN", "-Infinity", "0x1p3", "1.5f", "0.1234567890123456789"};
+        for (String s : values) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(s, Double.parseDouble(s), NumberUtils.parseDouble(b, 0, b.length), 0.d);
+        }
+
+        Random rand = new Random(43L);
+        for (int i = 0; i < 10000; i++) {
+            String s = Float.toString(rand.nextFloat() * (rand.nextInt(20) - 10));
+            byte[] b = ("x:" + s).getBytes(StandardCharsets.UTF_8);
+            assertEquals(s, Double.parseDouble(s), NumberUtils.parseDouble(b, 2, b.length), 0.d);
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testParseDoubleBytesEmpty() {
+        NumberUtils.parseDouble(new byte[0], 0, 0);
+    }
+
     @Test
     public void testIsFiniteDouble() {
         assertTrue(NumberUtils.isFinite(Double.MAX_VALUE));
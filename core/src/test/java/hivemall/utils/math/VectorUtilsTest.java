@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.utils.math;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VectorUtilsTest {
+
+    @Test
+    public void testDenseKernels() {
+        final Random rnd = new Random(43L);
+        for (int size = 0; size <= 19; size++) {
+            float[] x = new float[size];
+            float[] y = new float[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = (float) rnd.nextGaussian();
+                y[i] = (float) rnd.nextGaussian();
+            }
+            double dot = 0.d, xx = 0.d, yy = 0.d, l2 = 0.d, l1 = 0.d, l3 = 0.d;
+            for (int i = 0; i < size; i++) {
+                float d = x[i] - y[i];
+                dot += x[i] * y[i];
+                xx += x[i] * x[i];
+                yy += y[i] * y[i];
+                l2 += d * d;
+                l1 += Math.abs(d);
+                l3 += Math.pow(Math.abs(d), 3.d);
+            }
+            Assert.assertEquals(dot, VectorUtils.dot(x, y, size), 1E-5d);
+            Assert.assertEquals(xx, VectorUtils.squaredNorm(x, size), 1E-5d);
+            Assert.assertEquals(l2, VectorUtils.squaredEuclidDistance(x, y, size), 1E-5d);
+            Assert.assertEquals(l1, VectorUtils.manhattanDistance(x, y, size), 1E-5d);
+            Assert.assertEquals(l3, VectorUtils.minkowskiDistanceSum(x, y, size, 3.d), 1E-5d);
+            double cos = (size == 0) ? 0.d : dot / Math.sqrt(xx) / Math.sqrt(yy);
+            Assert.assertEquals(cos, VectorUtils.cosineSimilarity(x, y, size), 1E-6d);
+        }
+    }
+
+    @Test
+    public void testCosineSimilarityOfZeroVector() {
+        float[] x = new float[] {1.f, 2.f, 3.f, 4.f, 5.f};
+        float[] zero = new float[5];
+        Assert.assertEquals(0.d, VectorUtils.cosineSimilarity(x, zero, 5), 0.d);
+        Assert.assertEquals(1.d, VectorUtils.cosineSimilarity(x, x, 5), 1E-6d);
+    }
+
+    @Test
+    public void testSparseKernels() {
+        final Random rnd = new Random(43L);
+        final int dims = 50;
+        for (int trial = 0; trial < 20; trial++) {
+            float[] x = new float[dims];
+            float[] y = new float[dims];
+            int[] xi = new int[dims], yi = new int[dims];
+            float[] xv = new float[dims], yv = new float[dims];
+            int xn = 0, yn = 0;
+            for (int i = 0; i < dims; i++) {
+                if (rnd.nextInt(3) == 0) {
+                    x[i] = (float) rnd.nextGaussian();
+                    xi[xn] = i;
+                    xv[xn++] = x[i];
+                }
+                if (rnd.nextInt(3) == 0) {
+                    y[i] = (float) rnd.nextGaussian();
+                    yi[yn] = i;
+                    yv[yn++] = y[i];
+                }
+            }
+            Assert.assertEquals(VectorUtils.dot(x, y, dims),
+                VectorUtils.dot(xi, xv, xn, yi, yv, yn), 1E-5d);
+            Assert.assertEquals(VectorUtils.squaredEuclidDistance(x, y, dims),
+                VectorUtils.squaredEuclidDistance(xi, xv, xn, yi, yv, yn), 1E-5d);
+            Assert.assertEquals(VectorUtils.manhattanDistance(x, y, dims),
+                VectorUtils.manhattanDistance(xi, xv, xn, yi, yv, yn), 1E-5d);
+            Assert.assertEquals(VectorUtils.minkowskiDistanceSum(x, y, dims, 3.d),
+                VectorUtils.minkowskiDistanceSum(xi, xv, xn, yi, yv, yn, 3.d), 1E-5d);
+        }
+    }
+
+}
@@ -24,6 +24,10 @@ public final class MixServerMetrics implements MixServerMetricsMBean {
     private long writeThroughput;
     private long lastReads;
     private long lastWrites;
+    private volatile int numSessions;
+    private volatile long numFeatures;
+    private volatile long storeMemoryUsage;
+    private volatile String[] sessionStats = new String[0];
 
     public MixServerMetrics() {}
 
@@ -43,6 +47,22 @@ public final class MixServerMetrics implements MixServerMetricsMBean {
         this.lastWrites = lastWrites;
     }
 
+    public void setNumSessions(int numSessions) {
+        this.numSessions = numSessions;
+    }
+
+    public void setNumFeatures(long numFeatures) {
+        this.numFeatures = numFeatures;
+    }
+
+    public void setStoreMemoryUsage(long storeMemoryUsage) {
+        this.storeMemoryUsage = storeMemoryUsage;
+    }
+
+    public void setSessionStats(String[] sessionStats) {
+        this.sessionStats = sessionStats;
+    }
+
     @Override
     public long getReadThroughput() {
         return readThroughput;
@@ -63,4 +83,24 @@ public final class MixServerMetrics implements MixServerMetricsMBean {
         return lastWrites;
     }
 
+    @Override
+    public int getNumSessions() {
+        return numSessions;
+    }
+
+    @Override
+    public long getNumFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public long getStoreMemoryUsage() {
+        return storeMemoryUsage;
+    }
+
+    @Override
+    public String[] getSessionStats() {
+        return sessionStats;
+    }
+
 }
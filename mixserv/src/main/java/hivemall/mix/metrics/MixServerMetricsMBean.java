@@ -28,4 +28,21 @@ public interface MixServerMetricsMBean {
 
     long getLastWrites();
 
+    int getNumSessions();
+
+    /**
+     * @return the total number of features held in sessions
+     */
+    long getNumFeatures();
+
+    /**
+     * @return the estimated memory usage in bytes of partial results held in sessions
+     */
+    long getStoreMemoryUsage();
+
+    /**
+     * @return the number of features and the memory usage of each session
+     */
+    String[] getSessionStats();
+
 }
@@ -22,8 +22,10 @@ import hivemall.mix.MixEnv;
 import hivemall.mix.metrics.MetricsRegistry;
 import hivemall.mix.metrics.MixServerMetrics;
 import hivemall.mix.metrics.ThroughputCounter;
+import hivemall.mix.store.SessionSnapshotter;
 import hivemall.mix.store.SessionStore;
 import hivemall.mix.store.SessionStore.IdleSessionSweeper;
+import hivemall.mix.store.SessionStore.SessionMetricsCollector;
 import hivemall.utils.lang.CommandLineUtils;
 import hivemall.utils.lang.Primitives;
 import io.netty.bootstrap.ServerBootstrap;
@@ -37,6 +39,8 @@ import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -44,6 +48,7 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
 
 import org.apache.commons.cli.CommandLine;
@@ -62,6 +67,11 @@ public final class MixServer implements Runnable {
     private final long sessionTTLinSec;
     private final long sweepIntervalInSec;
     private final boolean jmx;
+    private final boolean legacyStore;
+    private final int numShards;
+    @Nullable
+    private final File snapshotDir;
+    private final long snapshotIntervalInSec;
     private volatile ServerState state;
 
     public MixServer(CommandLine cl) {
@@ -75,6 +85,23 @@ public final class MixServer implements Runnable {
         this.sessionTTLinSec = Primitives.parseLong(cl.getOptionValue("ttl"), 120L);
         this.sweepIntervalInSec = Primitives.parseLong(cl.getOptionValue("sweep"), 60L);
         this.jmx = cl.hasOption("jmx");
+        String store = cl.getOptionValue("store", "sharded");
+        if ("legacy".equalsIgnoreCase(store)) {
+            this.legacyStore = true;
+        } else if ("sharded".equalsIgnoreCase(store)) {
+            this.legacyStore = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported store: " + store);
+        }
+        this.numShards = Primitives.parseInt(cl.getOptionValue("shards"),
+            SessionStore.DEFAULT_NUM_SHARDS);
+        String dir = cl.getOptionValue("snapshot_dir");
+        this.snapshotDir = (dir == null) ? null : new File(dir);
+        if (snapshotDir != null && legacyStore) {
+            throw new IllegalArgumentException("-snapshot_dir is not supported by -store legacy");
+        }
+        this.snapshotIntervalInSec = Primitives.parseLong(cl.getOptionValue("snapshot_interval"),
+            30L);
         this.state = ServerState.INITIALIZING;
         // Print the configurations that this Mix server works with
         logger.info(this.toString());
@@ -102,6 +129,14 @@ public final class MixServer implements Runnable {
             "The interval in sec that the session expiry thread runs [default: 60 sec]");
         opts.addOption("jmx", "metrics", false,
             "Toggle this option to enable monitoring metrics using JMX [default: false]");
+        opts.addOption("store", "session_store", true,
+            "The type of a session store [sharded (default), legacy]");
+        opts.addOption("shards", "num_shards", true,
+            "The number of lock shards of a sharded session store [default: 64]");
+        opts.addOption("snapshot_dir", true,
+            "The directory to write and restore snapshots of sessions [default: none]");
+        opts.addOption("snapshot_interval", true,
+            "The interval in sec that snapshots of sessions are written [default: 30 sec]");
         return opts;
     }
 
@@ -109,7 +144,9 @@ public final class MixServer implements Runnable {
     public String toString() {
         return "[port=" + port + ", numWorkers=" + numWorkers + ", ssl=" + ssl + ", scale=" + scale
                 + ", syncThreshold=" + syncThreshold + ", sessionTTLinSec=" + sessionTTLinSec
-                + ", sweepIntervalInSec=" + sweepIntervalInSec + ", jmx=" + jmx + ", state="
+                + ", sweepIntervalInSec=" + sweepIntervalInSec + ", jmx=" + jmx + ", legacyStore=" + legacyStore
+                + ", numShards=" + numShards + ", snapshotDir=" + snapshotDir
+                + ", snapshotIntervalInSec=" + snapshotIntervalInSec + ", state="
                 + state + "]";
     }
 
@@ -125,12 +162,14 @@ public final class MixServer implements Runnable {
             e.printStackTrace();
         } catch (SSLException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
-    public void start() throws CertificateException, SSLException, InterruptedException {
+    public void start() throws CertificateException, IOException, InterruptedException {
         // Configure SSL.
         final SslContext sslCtx;
         if (ssl) {
@@ -149,10 +188,21 @@ public final class MixServer implements Runnable {
         }
 
         // configure initializer
-        SessionStore sessionStore = new SessionStore();
+        SessionStore sessionStore = new SessionStore(!legacyStore, numShards);
         MixServerHandler msgHandler = new MixServerHandler(sessionStore, syncThreshold, scale);
         MixServerInitializer initializer = new MixServerInitializer(msgHandler, throughputCounter,
             sslCtx);
+        metricCollector.scheduleAtFixedRate(new SessionMetricsCollector(sessionStore, metrics),
+            5000L, 5000L, TimeUnit.MILLISECONDS);
+
+        // restore sessions from snapshots
+        SessionSnapshotter snapshotter = null;
+        ScheduledExecutorService snapshotWriter = null;
+        if (snapshotDir != null) {
+            snapshotter = new SessionSnapshotter(sessionStore, snapshotDir);
+            snapshotter.recover();
+            snapshotWriter = Executors.newSingleThreadScheduledExecutor();
+        }
 
         Runnable cleanSessionTask = new IdleSessionSweeper(sessionStore, sessionTTLinSec * 1000L);
         ScheduledExecutorService idleSessionChecker = Executors.newScheduledThreadPool(1);
@@ -160,11 +210,21 @@ public final class MixServer implements Runnable {
             // start idle session sweeper
             idleSessionChecker.scheduleAtFixedRate(cleanSessionTask, sessionTTLinSec + 10L,
                 sweepIntervalInSec, TimeUnit.SECONDS);
+            // start snapshot writer
+            if (snapshotWriter != null) {
+                snapshotWriter.scheduleWithFixedDelay(snapshotter, snapshotIntervalInSec,
+                    snapshotIntervalInSec, TimeUnit.SECONDS);
+            }
             // accept connections
             acceptConnections(initializer, port, numWorkers);
         } finally {
             // release threads
             idleSessionChecker.shutdownNow();
+            if (snapshotWriter != null) {
+                snapshotWriter.shutdown();
+                snapshotWriter.awaitTermination(60L, TimeUnit.SECONDS);
+                snapshotter.close();
+            }
             if (jmx) {
                 MetricsRegistry.unregisterMBeans(port);
             }
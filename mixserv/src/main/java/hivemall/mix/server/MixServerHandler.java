@@ -20,22 +20,22 @@ package hivemall.mix.server;
 
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
-import hivemall.mix.store.PartialArgminKLD;
-import hivemall.mix.store.PartialAverage;
-import hivemall.mix.store.PartialResult;
+import hivemall.mix.MixMessageBatch;
+import hivemall.mix.store.GlobalWeight;
 import hivemall.mix.store.SessionObject;
 import hivemall.mix.store.SessionStore;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
-import java.util.concurrent.ConcurrentMap;
+import java.util.List;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 @Sharable
-public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessage> {
+public final class MixServerHandler extends SimpleChannelInboundHandler<Object> {
 
     @Nonnull
     private final SessionStore sessionStore;
@@ -51,14 +51,19 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, MixMessage msg) throws Exception {
+    protected void channelRead0(ChannelHandlerContext ctx, Object obj) throws Exception {
+        if (obj instanceof MixMessageBatch) {
+            mixBatch(ctx, (MixMessageBatch) obj);
+            return;
+        }
+
+        final MixMessage msg = (MixMessage) obj;
         final MixEventName event = msg.getEvent();
         switch (event) {
             case average:
             case argminKLD: {
                 SessionObject session = getSession(msg);
-                PartialResult partial = getPartialResult(msg, session);
-                mix(ctx, msg, partial, session);
+                mix(ctx, msg, session);
                 break;
             }
             case closeGroup: {
@@ -70,6 +75,55 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
         }
     }
 
+    /**
+     * Mixes requests in a batch and replies the responses in a batch. Every request of a flush
+     * batch is replied so that a closing client gets the global weights of its last updates.
+     */
+    private void mixBatch(@Nonnull ChannelHandlerContext ctx, @Nonnull MixMessageBatch batch) {
+        final MixEventName event = batch.getEvent();
+        switch (event) {
+            case average:
+            case argminKLD:
+                break;
+            default:
+                throw new IllegalStateException("Unexpected event: " + event);
+        }
+
+        final List<MixMessage> requests = batch.getMessages();
+        final int size = requests.size();
+        final boolean flush = batch.isFlush();
+        if (size == 0 && !flush) {
+            return;
+        }
+        final SessionObject session = getSession(batch.getGroupID());
+        session.incrRequest(size);
+
+        final int threshold = flush ? 0 : syncThreshold;
+        final GlobalWeight result = new GlobalWeight();
+        MixMessageBatch responses = null;
+        for (int i = 0; i < size; i++) {
+            MixMessage requestMsg = requests.get(i);
+            MixMessage responseMsg = mix(requestMsg, session, threshold, result);
+            if (responseMsg != null) {
+                if (responses == null) {
+                    responses = new MixMessageBatch(event, null);
+                }
+                responses.add(responseMsg);
+            }
+        }
+        if (flush) {// the client waits for the reply to a flush batch
+            if (responses == null) {
+                responses = new MixMessageBatch(event, null, 0);
+            }
+            responses.setFlush(true);
+        }
+
+        if (responses != null) {
+            session.incrResponse(responses.size());
+            ctx.writeAndFlush(responses);
+        }
+    }
+
     private void closeGroup(@Nonnull MixMessage msg) {
         String groupId = msg.getGroupID();
         if (groupId == null) {
@@ -80,82 +134,60 @@ public final class MixServerHandler extends SimpleChannelInboundHandler<MixMessa
 
     @Nonnull
     private SessionObject getSession(@Nonnull MixMessage msg) {
-        String groupID = msg.getGroupID();
-        if (groupID == null) {
-            throw new IllegalStateException("JobID is not set in the request message");
-        }
-        SessionObject session = sessionStore.get(groupID);
+        SessionObject session = getSession(msg.getGroupID());
         session.incrRequest();
         return session;
     }
 
     @Nonnull
-    private PartialResult getPartialResult(@Nonnull MixMessage msg, @Nonnull SessionObject session) {
-        final ConcurrentMap<Object, PartialResult> map = session.get();
-
-        Object feature = msg.getFeature();
-        PartialResult partial = map.get(feature);
-        if (partial == null) {
-            final MixEventName event = msg.getEvent();
-            switch (event) {
-                case average:
-                    partial = new PartialAverage();
-                    break;
-                case argminKLD:
-                    partial = new PartialArgminKLD();
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected event: " + event);
-            }
-            PartialResult existing = map.putIfAbsent(feature, partial);
-            if (existing != null) {
-                partial = existing;
-            }
+    private SessionObject getSession(@Nullable String groupID) {
+        if (groupID == null) {
+            throw new IllegalStateException("JobID is not set in the request message");
         }
-        return partial;
+        return sessionStore.get(groupID);
     }
 
     private void mix(final ChannelHandlerContext ctx, final MixMessage requestMsg,
-            final PartialResult partial, final SessionObject session) {
+            final SessionObject session) {
+        MixMessage responseMsg = mix(requestMsg, session, new GlobalWeight());
+        if (responseMsg != null) {
+            session.incrResponse();
+            ctx.writeAndFlush(responseMsg);
+        }
+    }
+
+    /**
+     * @return a response message if the model should be synced, otherwise null
+     */
+    @Nullable
+    private MixMessage mix(final MixMessage requestMsg, final SessionObject session,
+            final GlobalWeight result) {
+        return mix(requestMsg, session, syncThreshold, result);
+    }
+
+    /**
+     * @param syncThreshold 0 to always sync the model
+     * @return a response message if the model should be synced, otherwise null
+     */
+    @Nullable
+    private MixMessage mix(final MixMessage requestMsg, final SessionObject session,
+            final int syncThreshold, final GlobalWeight result) {
         final MixEventName event = requestMsg.getEvent();
         final Object feature = requestMsg.getFeature();
-        final float weight = requestMsg.getWeight();
-        final float covar = requestMsg.getCovariance();
-        final short localClock = requestMsg.getClock();
         final int deltaUpdates = requestMsg.getDeltaUpdates();
-        final boolean cancelRequest = requestMsg.isCancelRequest();
 
         if (deltaUpdates <= 0) {
             throw new IllegalArgumentException("Illegal deltaUpdates received: " + deltaUpdates);
         }
 
-        MixMessage responseMsg = null;
-        try {
-            partial.lock();
-
-            if (cancelRequest) {
-                partial.subtract(weight, covar, deltaUpdates, scale);
-            } else {
-                int diffClock = partial.diffClock(localClock);
-                partial.add(weight, covar, deltaUpdates, scale);
-
-                if (diffClock >= syncThreshold) {// sync model if clock DIFF is above threshold
-                    float averagedWeight = partial.getWeight(scale);
-                    float meanCovar = partial.getCovariance(scale);
-                    short globalClock = partial.getClock();
-                    responseMsg = new MixMessage(event, feature, averagedWeight, meanCovar,
-                        globalClock, 0 /* deltaUpdates */);
-                }
-            }
-
-        } finally {
-            partial.unlock();
-        }
-
-        if (responseMsg != null) {
-            session.incrResponse();
-            ctx.writeAndFlush(responseMsg);
+        boolean sync = session.get().mix(event, feature, requestMsg.getWeight(),
+            requestMsg.getCovariance(), requestMsg.getClock(), deltaUpdates,
+            requestMsg.isCancelRequest(), scale, syncThreshold, result);
+        if (!sync) {
+            return null;
         }
+        return new MixMessage(event, feature, result.getWeight(), result.getCovariance(),
+            result.getClock(), 0 /* deltaUpdates */);
     }
 
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A store that holds a {@link PartialResult} object with its own lock for each feature.
+ */
+@ThreadSafe
+public final class ConcurrentPartialResultStore implements PartialResultStore {
+    /** Rough per-feature bytes of a hash entry, a partial result and its lock */
+    private static final int BYTES_PER_ENTRY = 120;
+
+    @Nonnull
+    private final ConcurrentMap<Object, PartialResult> map;
+
+    public ConcurrentPartialResultStore(@Nonnegative int expectedSize) {
+        this.map = new ConcurrentHashMap<Object, PartialResult>(expectedSize);
+    }
+
+    @Override
+    public boolean mix(@Nonnull MixEventName event, @Nonnull Object feature, float weight,
+            float covar, short localClock, int deltaUpdates, boolean cancelRequest, float scale,
+            int syncThreshold, @Nonnull GlobalWeight result) {
+        final PartialResult partial = getPartialResult(event, feature);
+        try {
+            partial.lock();
+
+            if (cancelRequest) {
+                partial.subtract(weight, covar, deltaUpdates, scale);
+            } else {
+                int diffClock = partial.diffClock(localClock);
+                partial.add(weight, covar, deltaUpdates, scale);
+
+                if (diffClock >= syncThreshold) {// sync model if clock DIFF is above threshold
+                    result.set(partial.getWeight(scale), partial.getCovariance(scale),
+                        partial.getClock());
+                    return true;
+                }
+            }
+        } finally {
+            partial.unlock();
+        }
+        return false;
+    }
+
+    @Nonnull
+    private PartialResult getPartialResult(@Nonnull MixEventName event, @Nonnull Object feature) {
+        PartialResult partial = map.get(feature);
+        if (partial == null) {
+            switch (event) {
+                case average:
+                    partial = new PartialAverage();
+                    break;
+                case argminKLD:
+                    partial = new PartialArgminKLD();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected event: " + event);
+            }
+            PartialResult existing = map.putIfAbsent(feature, partial);
+            if (existing != null) {
+                partial = existing;
+            }
+        }
+        return partial;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        return (long) map.size() * BYTES_PER_ENTRY;
+    }
+
+    @Override
+    public int snapshot(@Nonnull SnapshotFile file, boolean full) throws IOException {
+        throw new UnsupportedOperationException("Snapshot is not supported by the legacy store");
+    }
+
+    @Override
+    public int restore(@Nonnull SnapshotFile file) throws IOException {
+        throw new UnsupportedOperationException("Snapshot is not supported by the legacy store");
+    }
+
+}
@@ -68,6 +68,10 @@ public abstract class PartialResult {
     // Label 'l' and 'g' represent local and global clocks, respectively.
     // In this case, it returns a minimum value, l...g or g...l.
     public final int diffClock(final short localClock) {
+        return diffClock(globalClock, localClock);
+    }
+
+    public static int diffClock(final short globalClock, final short localClock) {
         short tempValue1 = globalClock;
         tempValue1 -= localClock;
         short tempValue2 = localClock;
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Partial results of a session, i.e., the global weights of features mixed from the local
+ * weights of clients.
+ */
+@ThreadSafe
+public interface PartialResultStore {
+
+    /**
+     * Mixes a local weight of a feature into the global weight, or cancels a local weight mixed
+     * before when cancelRequest is true.
+     * 
+     * @return true if the clock difference reached the sync threshold. The global weight is set to
+     *         result then
+     */
+    boolean mix(@Nonnull MixEventName event, @Nonnull Object feature, float weight, float covar,
+            short localClock, @Nonnegative int deltaUpdates, boolean cancelRequest,
+            @Nonnegative float scale, @Nonnegative int syncThreshold, @Nonnull GlobalWeight result);
+
+    /**
+     * @return the number of features
+     */
+    int size();
+
+    /**
+     * @return the estimated memory usage in bytes
+     */
+    long getMemoryUsage();
+
+    /**
+     * Appends the entries updated since the last snapshot, or all entries if full is true, to
+     * the given file.
+     * 
+     * @return the number of written entries
+     * @throws UnsupportedOperationException if the store does not support snapshots
+     */
+    int snapshot(@Nonnull SnapshotFile file, boolean full) throws IOException;
+
+    /**
+     * Restores entries from the given snapshot file.
+     * 
+     * @return the number of read entries
+     * @throws UnsupportedOperationException if the store does not support snapshots
+     */
+    int restore(@Nonnull SnapshotFile file) throws IOException;
+
+}
@@ -18,7 +18,8 @@
  */
 package hivemall.mix.store;
 
-import java.util.concurrent.ConcurrentMap;
+import hivemall.utils.lang.NumberUtils;
+
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nonnull;
@@ -28,23 +29,24 @@ import javax.annotation.concurrent.ThreadSafe;
 public final class SessionObject {
 
     @Nonnull
-    private final ConcurrentMap<Object, PartialResult> object;
+    private final PartialResultStore object;
     private volatile long lastAccessed; // being accessed by multiple threads
 
     private final AtomicLong num_requests;
     private final AtomicLong num_responses;
 
-    public SessionObject(@Nonnull ConcurrentMap<Object, PartialResult> obj) {
+    public SessionObject(@Nonnull PartialResultStore obj) {
         if (obj == null) {
             throw new IllegalArgumentException("obj is null");
         }
         this.object = obj;
+        this.lastAccessed = System.currentTimeMillis();
         this.num_requests = new AtomicLong(0L);
         this.num_responses = new AtomicLong(0L);
     }
 
     @Nonnull
-    public ConcurrentMap<Object, PartialResult> get() {
+    public PartialResultStore get() {
         return object;
     }
 
@@ -60,10 +62,19 @@ public final class SessionObject {
         num_requests.getAndIncrement();
     }
 
+    public void incrRequest(int n) {
+        this.lastAccessed = System.currentTimeMillis();
+        num_requests.getAndAdd(n);
+    }
+
     public void incrResponse() {
         num_responses.getAndIncrement();
     }
 
+    public void incrResponse(int n) {
+        num_responses.getAndAdd(n);
+    }
+
     public long getRequests() {
         return num_requests.get();
     }
@@ -77,7 +88,8 @@ public final class SessionObject {
         long responses = num_responses.get();
         float percentage = ((float) ((double) responses / requests)) * 100.f;
         return "#requests: " + requests + ", #responses: " + responses + " ("
-                + String.format("%,.2f", percentage) + "%)";
+                + String.format("%,.2f", percentage) + "%), #features: " + object.size()
+                + ", memory: " + NumberUtils.prettySize(object.getMemoryUsage());
     }
 
 }
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.utils.io.IOUtils;
+import hivemall.utils.lang.NumberUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes snapshots of sessions to a local directory, one {@link SnapshotFile} per session.
+ * 
+ * Each run appends the entries updated since the last run to the snapshot files. A snapshot file
+ * is rewritten with all entries of a session when it grows more than the compaction ratio of the
+ * last full snapshot. Snapshots are taken shard by shard so that the mix requests wait for a
+ * shard lock only while the updated entries of the shard are copied.
+ * 
+ * This class is expected to be run by a single thread.
+ */
+@NotThreadSafe
+public final class SessionSnapshotter implements Runnable {
+    private static final Log logger = LogFactory.getLog(SessionSnapshotter.class);
+
+    private static final String SUFFIX = ".snapshot";
+    private static final String TMP_SUFFIX = ".snapshot.tmp";
+    private static final int COMPACTION_RATIO = 3;
+    private static final long MIN_COMPACTION_BYTES = 1024L * 1024L;
+
+    @Nonnull
+    private final SessionStore sessionStore;
+    @Nonnull
+    private final ConcurrentMap<String, SessionObject> sessions;
+    @Nonnull
+    private final File dir;
+    @Nonnull
+    private final Map<String, Snapshot> snapshots;
+
+    public SessionSnapshotter(@Nonnull SessionStore sessionStore, @Nonnull File dir) {
+        if (!sessionStore.isSharded()) {
+            throw new IllegalArgumentException("Snapshot requires a sharded session store");
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create a snapshot directory: "
+                    + dir.getAbsolutePath());
+        }
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + dir.getAbsolutePath());
+        }
+        this.sessionStore = sessionStore;
+        this.sessions = sessionStore.getSessions();
+        this.dir = dir;
+        this.snapshots = new HashMap<String, Snapshot>();
+    }
+
+    /**
+     * Restores sessions from the snapshot files in the directory. This method should be called
+     * before the server accepts connections.
+     * 
+     * @return the number of restored sessions
+     */
+    public int recover() throws IOException {
+        final long startTime = System.currentTimeMillis();
+        int numSessions = 0;
+        long numEntries = 0L, bytes = 0L;
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list files in " + dir.getAbsolutePath());
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                file.delete(); // an incomplete compaction
+                continue;
+            }
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            String groupID = decodeGroupID(name.substring(0, name.length() - SUFFIX.length()));
+            SessionObject session = sessionStore.get(groupID);
+            SnapshotFile snapshotFile = new SnapshotFile(file);
+            try {
+                numEntries += session.get().restore(snapshotFile);
+            } catch (IOException e) {
+                snapshotFile.close();
+                throw e;
+            }
+            bytes += snapshotFile.length();
+            snapshots.put(groupID, new Snapshot(session, snapshotFile));
+            numSessions++;
+        }
+        if (numSessions > 0 && logger.isInfoEnabled()) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            logger.info("Recovered " + numSessions + " sessions (" + numEntries + " entries, "
+                    + NumberUtils.prettySize(bytes) + ") from " + dir.getAbsolutePath() + " in "
+                    + elapsed + " ms");
+        }
+        return numSessions;
+    }
+
+    @Override
+    public void run() {
+        try {
+            snapshot();
+        } catch (Throwable e) {
+            // an exception would suppress subsequent executions of a scheduled task
+            logger.error("Failed to take a snapshot", e);
+        }
+    }
+
+    void snapshot() throws IOException {
+        for (Map.Entry<String, SessionObject> e : sessions.entrySet()) {
+            final String groupID = e.getKey();
+            final SessionObject session = e.getValue();
+            Snapshot snapshot = snapshots.get(groupID);
+            if (snapshot != null && snapshot.session != session) {
+                // the session is recreated after removal
+                snapshot.file.close(true);
+                snapshot = null;
+            }
+            if (snapshot == null) {
+                File file = getFile(groupID, SUFFIX);
+                if (file.exists()) {
+                    file.delete();
+                }
+                snapshot = new Snapshot(session, new SnapshotFile(file));
+                snapshots.put(groupID, snapshot);
+            }
+            try {
+                if (snapshot.requireCompaction()) {
+                    compact(groupID, snapshot);
+                } else {
+                    session.get().snapshot(snapshot.file, false);
+                }
+            } catch (IOException ioe) {
+                // flags of the entries might be cleared without being written
+                snapshot.lastFullBytes = -1L;
+                throw ioe;
+            }
+            snapshot.file.flush();
+        }
+
+        // remove snapshots of closed or expired sessions
+        final Iterator<Map.Entry<String, Snapshot>> itor = snapshots.entrySet().iterator();
+        while (itor.hasNext()) {
+            Map.Entry<String, Snapshot> e = itor.next();
+            Snapshot snapshot = e.getValue();
+            if (sessions.get(e.getKey()) != snapshot.session) {
+                snapshot.file.close(true);
+                itor.remove();
+            }
+        }
+    }
+
+    private void compact(@Nonnull String groupID, @Nonnull Snapshot snapshot) throws IOException {
+        final File tmpFile = getFile(groupID, TMP_SUFFIX);
+        if (tmpFile.exists()) {
+            tmpFile.delete();
+        }
+        SnapshotFile tmp = new SnapshotFile(tmpFile);
+        try {
+            snapshot.session.get().snapshot(tmp, true);
+            tmp.flush();
+        } finally {
+            tmp.close();
+        }
+
+        final File file = snapshot.file.getFile();
+        snapshot.file.close();
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmpFile.getAbsolutePath() + " to "
+                    + file.getAbsolutePath());
+        }
+        snapshot.file = new SnapshotFile(file);
+        snapshot.lastFullBytes = snapshot.file.length();
+    }
+
+    /**
+     * Takes the last snapshot and closes the snapshot files.
+     */
+    public void close() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            logger.error("Failed to take the last snapshot", e);
+        }
+        for (Snapshot snapshot : snapshots.values()) {
+            IOUtils.closeQuietly(snapshot.file);
+        }
+        snapshots.clear();
+    }
+
+    @Nonnull
+    private File getFile(@Nonnull String groupID, @Nonnull String suffix) {
+        try {
+            return new File(dir, URLEncoder.encode(groupID, "UTF-8") + suffix);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nonnull
+    private static String decodeGroupID(@Nonnull String name) {
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Snapshot {
+
+        @Nonnull
+        final SessionObject session;
+        @Nonnull
+        SnapshotFile file;
+        /** bytes of the last full snapshot, or -1 if a full snapshot is required */
+        long lastFullBytes;
+
+        Snapshot(@Nonnull SessionObject session, @Nonnull SnapshotFile file) {
+            this.session = session;
+            this.file = file;
+            this.lastFullBytes = file.length();
+        }
+
+        boolean requireCompaction() {
+            if (lastFullBytes < 0L) {
+                return true;
+            }
+            long bytes = file.length();
+            return bytes > MIN_COMPACTION_BYTES && bytes > lastFullBytes * COMPACTION_RATIO;
+        }
+    }
+
+}
@@ -18,7 +18,12 @@
  */
 package hivemall.mix.store;
 
+import hivemall.mix.metrics.MixServerMetrics;
+import hivemall.utils.lang.NumberUtils;
+
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -36,14 +41,33 @@ public final class SessionStore {
     private static final int EXPECTED_MODEL_SIZE = 4194305; /* 2^22+1=4194304+1=4194305 */
     private static final Log logger = LogFactory.getLog(SessionStore.class);
 
+    public static final int DEFAULT_NUM_SHARDS = 64;
+
     private final ConcurrentMap<String, SessionObject> sessions;
+    private final boolean sharded;
+    private final int numShards;
 
     public SessionStore() {
+        this(true, DEFAULT_NUM_SHARDS);
+    }
+
+    /**
+     * @param sharded use {@link ShardedPartialResultStore} if true, otherwise use
+     *        {@link ConcurrentPartialResultStore}
+     * @param numShards the number of shards of a session
+     */
+    public SessionStore(boolean sharded, @Nonnegative int numShards) {
         this.sessions = new ConcurrentHashMap<String, SessionObject>();
+        this.sharded = sharded;
+        this.numShards = numShards;
+    }
+
+    public boolean isSharded() {
+        return sharded;
     }
 
     @Nonnull
-    private ConcurrentMap<String, SessionObject> getSessions() {
+    ConcurrentMap<String, SessionObject> getSessions() {
         return sessions;
     }
 
@@ -51,9 +75,13 @@ public final class SessionStore {
     public SessionObject get(@Nonnull String groupID) {
         SessionObject sessionObj = sessions.get(groupID);
         if (sessionObj == null) {
-            ConcurrentMap<Object, PartialResult> map = new ConcurrentHashMap<Object, PartialResult>(
-                EXPECTED_MODEL_SIZE);
-            sessionObj = new SessionObject(map);
+            final PartialResultStore store;
+            if (sharded) {
+                store = new ShardedPartialResultStore(numShards);
+            } else {
+                store = new ConcurrentPartialResultStore(EXPECTED_MODEL_SIZE);
+            }
+            sessionObj = new SessionObject(store);
             SessionObject existing = sessions.putIfAbsent(groupID, sessionObj);
             if (existing != null) {
                 sessionObj = existing;
@@ -70,6 +98,41 @@ public final class SessionStore {
         }
     }
 
+    /**
+     * Collects the number of features and the memory usage of each session.
+     */
+    @ThreadSafe
+    public static final class SessionMetricsCollector implements Runnable {
+
+        private final ConcurrentMap<String, SessionObject> sessions;
+        private final MixServerMetrics metrics;
+
+        public SessionMetricsCollector(@Nonnull SessionStore sessionStore,
+                @Nonnull MixServerMetrics metrics) {
+            this.sessions = sessionStore.getSessions();
+            this.metrics = metrics;
+        }
+
+        public void run() {
+            final List<String> stats = new ArrayList<String>(sessions.size());
+            long totalFeatures = 0L;
+            long totalMemory = 0L;
+            for (Map.Entry<String, SessionObject> e : sessions.entrySet()) {
+                PartialResultStore store = e.getValue().get();
+                int features = store.size();
+                long memory = store.getMemoryUsage();
+                totalFeatures += features;
+                totalMemory += memory;
+                stats.add(e.getKey() + "\t#features: " + features + ", memory: "
+                        + NumberUtils.prettySize(memory));
+            }
+            metrics.setNumSessions(stats.size());
+            metrics.setNumFeatures(totalFeatures);
+            metrics.setStoreMemoryUsage(totalMemory);
+            metrics.setSessionStats(stats.toArray(new String[stats.size()]));
+        }
+    }
+
     @ThreadSafe
     public static final class IdleSessionSweeper implements Runnable {
 
@@ -0,0 +1,590 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+import hivemall.utils.io.FastByteArrayOutputStream;
+import hivemall.utils.math.MathUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A store that keeps partial results in primitive arrays of open-addressing hash tables, which
+ * are sharded by features and guarded by a lock per shard.
+ * 
+ * Integer features (Integer, IntWritable and LongWritable) are keyed by long values and the other
+ * features are keyed by objects. Arrays for the average and argminKLD events are allocated on
+ * demand. Updated entries are flagged so that they can be written to a {@link SnapshotFile}
+ * incrementally.
+ */
+@ThreadSafe
+public final class ShardedPartialResultStore implements PartialResultStore {
+    private static final int DEFAULT_SHARD_CAPACITY = 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte LONG_ENTRY = 1;
+    private static final byte TEXT_ENTRY = 2;
+    private static final byte STRING_ENTRY = 3;
+
+    @Nonnull
+    private final Shard[] shards;
+    private final int shift;
+
+    public ShardedPartialResultStore(@Nonnegative int numShards) {
+        this(numShards, DEFAULT_SHARD_CAPACITY);
+    }
+
+    public ShardedPartialResultStore(@Nonnegative int numShards, @Nonnegative int shardCapacity) {
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be greater than 0: " + numShards);
+        }
+        int bits = MathUtils.bitsRequired(numShards - 1);
+        int n = 1 << bits;
+        int capacity = 1 << MathUtils.bitsRequired(Math.max(shardCapacity, 2) - 1);
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Shard(capacity);
+        }
+        this.shift = 32 - bits;
+    }
+
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    @Override
+    public boolean mix(@Nonnull final MixEventName event, @Nonnull final Object feature,
+            final float weight, final float covar, final short localClock,
+            final int deltaUpdates, final boolean cancelRequest, final float scale,
+            final int syncThreshold, @Nonnull final GlobalWeight result) {
+        final boolean numeric;
+        final long longKey;
+        final int hash;
+        if (feature instanceof Integer) {
+            numeric = true;
+            longKey = ((Integer) feature).intValue();
+            hash = hash(longKey);
+        } else if (feature instanceof IntWritable) {
+            numeric = true;
+            longKey = ((IntWritable) feature).get();
+            hash = hash(longKey);
+        } else if (feature instanceof LongWritable) {
+            numeric = true;
+            longKey = ((LongWritable) feature).get();
+            hash = hash(longKey);
+        } else {
+            numeric = false;
+            longKey = 0L;
+            hash = feature.hashCode() * 0x9E3779B9;
+        }
+
+        final Shard shard = getShard(hash);
+        shard.lock.lock();
+        try {
+            final int i = numeric ? shard.findOrInsert(longKey, hash) : shard.findOrInsert(
+                feature, hash);
+            shard.markUpdated(i);
+            switch (event) {
+                case average:
+                    return shard.mixAverage(i, weight, localClock, deltaUpdates, cancelRequest,
+                        scale, syncThreshold, result);
+                case argminKLD:
+                    return shard.mixArgminKLD(i, weight, covar, localClock, deltaUpdates,
+                        cancelRequest, scale, syncThreshold, result);
+                default:
+                    throw new IllegalStateException("Unexpected event: " + event);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Nonnull
+    private Shard getShard(final int hash) {
+        return (shift == 32) ? shards[0] : shards[hash >>> shift];
+    }
+
+    private static int hash(final long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return h * 0x9E3779B9;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                size += shard.size;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        long bytes = 0L;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                bytes += shard.getMemoryUsage();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public int snapshot(@Nonnull final SnapshotFile file, final boolean full) throws IOException {
+        final FastByteArrayOutputStream bos = new FastByteArrayOutputStream(8192);
+        final DataOutputStream out = new DataOutputStream(bos);
+        int total = 0;
+        for (Shard shard : shards) {
+            bos.reset();
+            final int n;
+            shard.lock.lock();
+            try {
+                n = shard.snapshot(out, full);
+            } finally {
+                shard.lock.unlock();
+            }
+            if (n > 0) {
+                out.flush();
+                file.appendBlock(bos.getInternalArray(), bos.size(), n);
+                total += n;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public int restore(@Nonnull final SnapshotFile file) throws IOException {
+        int total = 0;
+        ByteBuffer block;
+        while ((block = file.readBlock()) != null) {
+            while (block.hasRemaining()) {
+                restoreEntry(block);
+                total++;
+            }
+        }
+        return total;
+    }
+
+    private void restoreEntry(@Nonnull final ByteBuffer src) throws IOException {
+        final byte type = src.get();
+        long longKey = 0L;
+        Object objectKey = null;
+        final int hash;
+        switch (type) {
+            case LONG_ENTRY: {
+                longKey = src.getLong();
+                hash = hash(longKey);
+                break;
+            }
+            case TEXT_ENTRY:
+            case STRING_ENTRY: {
+                byte[] b = new byte[src.getInt()];
+                src.get(b);
+                objectKey = (type == TEXT_ENTRY) ? new Text(b) : new String(b, UTF8);
+                hash = objectKey.hashCode() * 0x9E3779B9;
+                break;
+            }
+            default:
+                throw new IOException("Unexpected entry type: " + type);
+        }
+        final short clock = src.getShort();
+        final double sum = src.getDouble();
+        final int totalUpdates = src.getInt();
+        final float sumInvCovar = src.getFloat();
+
+        final Shard shard = getShard(hash);
+        shard.lock.lock();
+        try {
+            int i = (objectKey == null) ? shard.findOrInsert(longKey, hash) : shard.findOrInsert(
+                objectKey, hash);
+            shard.restore(i, clock, sum, totalUpdates, sumInvCovar);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * An open-addressing hash table with linear probing. Entries are never removed.
+     */
+    private static final class Shard {
+        private static final byte FREE = 0;
+        private static final byte LONG_KEY = 1;
+        private static final byte OBJECT_KEY = 2;
+        private static final byte KEY_MASK = 3;
+        /** A flag of states telling that the entry is updated since the last snapshot */
+        private static final byte UPDATED = 4;
+
+        private static final float LOAD_FACTOR = 0.7f;
+
+        /** A ReentrantLock rather than a spin lock since other threads wait for rehashing */
+        private final ReentrantLock lock;
+
+        @GuardedBy("lock")
+        private byte[] states;
+        @GuardedBy("lock")
+        private long[] longKeys;
+        @GuardedBy("lock")
+        private Object[] objectKeys;
+        @GuardedBy("lock")
+        private short[] clocks;
+        /** scaled sum of weights for average, sum of mean/covar for argminKLD */
+        @GuardedBy("lock")
+        private double[] sums;
+        /** total updates for average */
+        @GuardedBy("lock")
+        private int[] totalUpdates;
+        /** sum of 1/covar for argminKLD */
+        @GuardedBy("lock")
+        private float[] sumInvCovars;
+
+        @GuardedBy("lock")
+        private int size;
+        @GuardedBy("lock")
+        private int threshold;
+        @GuardedBy("lock")
+        private long objectKeyBytes;
+
+        /** slots of the entries updated since the last snapshot, in the order of updates */
+        @GuardedBy("lock")
+        private int[] dirtySlots;
+        @GuardedBy("lock")
+        private int numDirty;
+
+        Shard(int capacity) {
+            this.lock = new ReentrantLock();
+            this.states = new byte[capacity];
+            this.clocks = new short[capacity];
+            this.sums = new double[capacity];
+            this.dirtySlots = new int[16];
+            this.numDirty = 0;
+            this.size = 0;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+            this.objectKeyBytes = 0L;
+        }
+
+        int findOrInsert(final long key, final int hash) {
+            int mask = states.length - 1;
+            int i = hash & mask;
+            while (true) {
+                byte state = states[i];
+                if (state == FREE) {
+                    break;
+                }
+                if ((state & KEY_MASK) == LONG_KEY && longKeys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            if (size >= threshold) {
+                rehash();
+                return findOrInsert(key, hash);
+            }
+            if (longKeys == null) {
+                this.longKeys = new long[states.length];
+            }
+            states[i] = LONG_KEY;
+            longKeys[i] = key;
+            size++;
+            return i;
+        }
+
+        int findOrInsert(@Nonnull final Object key, final int hash) {
+            int mask = states.length - 1;
+            int i = hash & mask;
+            while (true) {
+                byte state = states[i];
+                if (state == FREE) {
+                    break;
+                }
+                if ((state & KEY_MASK) == OBJECT_KEY && key.equals(objectKeys[i])) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            if (size >= threshold) {
+                rehash();
+                return findOrInsert(key, hash);
+            }
+            if (objectKeys == null) {
+                this.objectKeys = new Object[states.length];
+            }
+            states[i] = OBJECT_KEY;
+            objectKeys[i] = key;
+            objectKeyBytes += estimateBytes(key);
+            size++;
+            return i;
+        }
+
+        void markUpdated(final int i) {
+            final byte state = states[i];
+            if ((state & UPDATED) != 0) {
+                return;
+            }
+            states[i] = (byte) (state | UPDATED);
+            if (numDirty == dirtySlots.length) {
+                this.dirtySlots = Arrays.copyOf(dirtySlots, numDirty * 2);
+            }
+            dirtySlots[numDirty++] = i;
+        }
+
+        boolean mixAverage(final int i, final float weight, final short localClock,
+                final int deltaUpdates, final boolean cancelRequest, final float scale,
+                final int syncThreshold, @Nonnull final GlobalWeight result) {
+            if (totalUpdates == null) {
+                this.totalUpdates = new int[states.length];
+            }
+            if (cancelRequest) {
+                sums[i] -= (weight / scale) * deltaUpdates;
+                totalUpdates[i] -= deltaUpdates;
+                return false;
+            }
+            int diffClock = PartialResult.diffClock(clocks[i], localClock);
+            sums[i] += (weight / scale) * deltaUpdates;
+            totalUpdates[i] += deltaUpdates;
+            clocks[i] += deltaUpdates;
+            if (diffClock >= syncThreshold) {
+                float globalWeight = (float) (sums[i] / totalUpdates[i]) * scale;
+                result.set(globalWeight, 1.f, clocks[i]);
+                return true;
+            }
+            return false;
+        }
+
+        boolean mixArgminKLD(final int i, final float weight, final float covar,
+                final short localClock, final int deltaUpdates, final boolean cancelRequest,
+                final float scale, final int syncThreshold, @Nonnull final GlobalWeight result) {
+            if (sumInvCovars == null) {
+                this.sumInvCovars = new float[states.length];
+            }
+            if (cancelRequest) {
+                sums[i] -= (weight / covar) / scale;
+                sumInvCovars[i] -= (1.f / covar) / scale;
+                return false;
+            }
+            int diffClock = PartialResult.diffClock(clocks[i], localClock);
+            sums[i] += (weight / covar) / scale;
+            sumInvCovars[i] += (1.f / covar) / scale;
+            clocks[i] += deltaUpdates;
+            if (diffClock >= syncThreshold) {
+                float globalWeight = (float) (sums[i] / sumInvCovars[i]);
+                float globalCovar = 1.f / (sumInvCovars[i] * scale);
+                result.set(globalWeight, globalCovar, clocks[i]);
+                return true;
+            }
+            return false;
+        }
+
+        private void rehash() {
+            final int oldCapacity = states.length;
+            final int newCapacity = oldCapacity << 1;
+            final int mask = newCapacity - 1;
+
+            final byte[] oldStates = states;
+            final long[] oldLongKeys = longKeys;
+            final Object[] oldObjectKeys = objectKeys;
+            final short[] oldClocks = clocks;
+            final double[] oldSums = sums;
+            final int[] oldTotalUpdates = totalUpdates;
+            final float[] oldSumInvCovars = sumInvCovars;
+
+            this.states = new byte[newCapacity];
+            this.longKeys = (oldLongKeys == null) ? null : new long[newCapacity];
+            this.objectKeys = (oldObjectKeys == null) ? null : new Object[newCapacity];
+            this.clocks = new short[newCapacity];
+            this.sums = new double[newCapacity];
+            this.totalUpdates = (oldTotalUpdates == null) ? null : new int[newCapacity];
+            this.sumInvCovars = (oldSumInvCovars == null) ? null : new float[newCapacity];
+
+            for (int j = 0; j < oldCapacity; j++) {
+                final byte state = oldStates[j];
+                if (state == FREE) {
+                    continue;
+                }
+                final int hash;
+                if ((state & KEY_MASK) == LONG_KEY) {
+                    hash = hash(oldLongKeys[j]);
+                } else {
+                    hash = oldObjectKeys[j].hashCode() * 0x9E3779B9;
+                }
+                int i = hash & mask;
+                while (states[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                states[i] = state;
+                if ((state & KEY_MASK) == LONG_KEY) {
+                    longKeys[i] = oldLongKeys[j];
+                } else {
+                    objectKeys[i] = oldObjectKeys[j];
+                }
+                clocks[i] = oldClocks[j];
+                sums[i] = oldSums[j];
+                if (oldTotalUpdates != null) {
+                    totalUpdates[i] = oldTotalUpdates[j];
+                }
+                if (oldSumInvCovars != null) {
+                    sumInvCovars[i] = oldSumInvCovars[j];
+                }
+            }
+            this.threshold = (int) (newCapacity * LOAD_FACTOR);
+
+            if (numDirty > 0) {// slots are moved
+                int n = 0;
+                for (int j = 0; j < newCapacity; j++) {
+                    final int i = (j * 0x9E3779B9) & mask;
+                    if ((states[i] & UPDATED) != 0) {
+                        dirtySlots[n++] = i;
+                    }
+                }
+                assert (n == numDirty) : n + " != " + numDirty;
+            }
+        }
+
+        /**
+         * Writes updated entries, or all entries if full is true, and clears their flags.
+         * Incremental snapshots only visit the dirty slots instead of scanning the whole table.
+         * 
+         * @return the number of written entries
+         */
+        int snapshot(@Nonnull final DataOutputStream out, final boolean full) throws IOException {
+            if (!full) {
+                for (int k = 0; k < numDirty; k++) {
+                    final int i = dirtySlots[k];
+                    writeEntry(out, i);
+                    states[i] &= KEY_MASK;
+                }
+                final int n = numDirty;
+                this.numDirty = 0;
+                return n;
+            }
+            int n = 0;
+            final int mask = states.length - 1;
+            for (int j = 0; j <= mask; j++) {
+                // visit slots in a scattered order since inserting entries in the order of slots
+                // into a smaller table causes long probe sequences on restoration
+                final int i = (j * 0x9E3779B9) & mask;
+                final byte state = states[i];
+                if (state == FREE) {
+                    continue;
+                }
+                writeEntry(out, i);
+                states[i] = (byte) (state & KEY_MASK);
+                n++;
+            }
+            this.numDirty = 0;
+            return n;
+        }
+
+        private void writeEntry(@Nonnull final DataOutputStream out, final int i)
+                throws IOException {
+            if ((states[i] & KEY_MASK) == LONG_KEY) {
+                out.writeByte(LONG_ENTRY);
+                out.writeLong(longKeys[i]);
+            } else {
+                final Object key = objectKeys[i];
+                if (key instanceof Text) {
+                    Text text = (Text) key;
+                    out.writeByte(TEXT_ENTRY);
+                    out.writeInt(text.getLength());
+                    out.write(text.getBytes(), 0, text.getLength());
+                } else {
+                    byte[] b = key.toString().getBytes(UTF8);
+                    out.writeByte(STRING_ENTRY);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+            }
+            out.writeShort(clocks[i]);
+            out.writeDouble(sums[i]);
+            out.writeInt((totalUpdates == null) ? 0 : totalUpdates[i]);
+            out.writeFloat((sumInvCovars == null) ? 0.f : sumInvCovars[i]);
+        }
+
+        void restore(final int i, final short clock, final double sum, final int updates,
+                final float sumInvCovar) {
+            clocks[i] = clock;
+            sums[i] = sum;
+            if (updates != 0) {
+                if (totalUpdates == null) {
+                    this.totalUpdates = new int[states.length];
+                }
+                totalUpdates[i] = updates;
+            }
+            if (sumInvCovar != 0.f) {
+                if (sumInvCovars == null) {
+                    this.sumInvCovars = new float[states.length];
+                }
+                sumInvCovars[i] = sumInvCovar;
+            }
+        }
+
+        long getMemoryUsage() {
+            final long capacity = states.length;
+            long bytesPerSlot = 1L /* state */+ 2L /* clock */+ 8L /* sum */;
+            if (longKeys != null) {
+                bytesPerSlot += 8L;
+            }
+            if (objectKeys != null) {
+                bytesPerSlot += 4L; // assuming compressed oops
+            }
+            if (totalUpdates != null) {
+                bytesPerSlot += 4L;
+            }
+            if (sumInvCovars != null) {
+                bytesPerSlot += 4L;
+            }
+            return capacity * bytesPerSlot + objectKeyBytes + 4L * dirtySlots.length;
+        }
+
+    }
+
+    /**
+     * @return estimated bytes of a feature object
+     */
+    private static long estimateBytes(@Nonnull final Object key) {
+        if (key instanceof Text) {
+            return 40L + ((Text) key).getLength();
+        } else if (key instanceof String) {
+            return 56L + ((String) key).length() * 2L;
+        }
+        return 16L;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.utils.io.NioSegment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An append-only file of snapshot blocks. A block consists of a header (payload length, the
+ * number of entries and CRC32 of the payload) and entries written by
+ * {@link PartialResultStore#snapshot(SnapshotFile, boolean)}. Entries of later blocks overwrite
+ * the earlier ones on restoration.
+ * 
+ * A broken block at the tail, e.g., written partially on a crash, is truncated when it is read.
+ */
+@NotThreadSafe
+public final class SnapshotFile extends NioSegment {
+    private static final Log logger = LogFactory.getLog(SnapshotFile.class);
+
+    private static final int MAGIC = 0x4D495853; // "MIXS"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8;
+    private static final int BLOCK_HEADER_BYTES = 12;
+
+    private final ByteBuffer header;
+    private final CRC32 crc;
+
+    private long writePos;
+    private long readPos;
+
+    public SnapshotFile(@Nonnull File file) throws IOException {
+        super(file);
+        this.header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        this.crc = new CRC32();
+        long size = channel.size();
+        if (size < FILE_HEADER_BYTES) {
+            channel.truncate(0L);
+            header.clear();
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            write(0L, header);
+            this.writePos = FILE_HEADER_BYTES;
+        } else {
+            header.clear().limit(FILE_HEADER_BYTES);
+            read(0L, header);
+            header.flip();
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException("Illegal snapshot file: " + file.getAbsolutePath());
+            }
+            this.writePos = size;
+        }
+        this.readPos = FILE_HEADER_BYTES;
+    }
+
+    /**
+     * @return the file length in bytes
+     */
+    public long length() {
+        return writePos;
+    }
+
+    public void appendBlock(@Nonnull byte[] payload, @Nonnegative int length,
+            @Nonnegative int numEntries) throws IOException {
+        crc.reset();
+        crc.update(payload, 0, length);
+        header.clear();
+        header.putInt(length).putInt(numEntries).putInt((int) crc.getValue()).flip();
+        write(writePos, header);
+        write(writePos + BLOCK_HEADER_BYTES, ByteBuffer.wrap(payload, 0, length));
+        this.writePos += BLOCK_HEADER_BYTES + length;
+    }
+
+    /**
+     * Reads blocks from the head of the file.
+     * 
+     * @return the payload of the next block, or null if reached the end
+     */
+    @Nullable
+    public ByteBuffer readBlock() throws IOException {
+        if (readPos + BLOCK_HEADER_BYTES > writePos) {
+            return truncate(readPos);
+        }
+        header.clear();
+        read(readPos, header);
+        header.flip();
+        final int length = header.getInt();
+        header.getInt(); // the number of entries
+        final int checksum = header.getInt();
+        if (length < 0 || readPos + BLOCK_HEADER_BYTES + length > writePos) {
+            return truncate(readPos);
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(length);
+        read(readPos + BLOCK_HEADER_BYTES, payload);
+        crc.reset();
+        crc.update(payload.array(), 0, length);
+        if ((int) crc.getValue() != checksum) {
+            return truncate(readPos);
+        }
+        payload.flip();
+        this.readPos += BLOCK_HEADER_BYTES + length;
+        return payload;
+    }
+
+    @Nullable
+    private ByteBuffer truncate(final long pos) throws IOException {
+        if (pos < writePos) {
+            logger.warn("Truncated a broken snapshot block at " + pos + " of "
+                    + getFile().getAbsolutePath());
+            channel.truncate(pos);
+            this.writePos = pos;
+        }
+        return null;
+    }
+
+}
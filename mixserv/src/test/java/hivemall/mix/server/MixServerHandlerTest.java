@@ -18,15 +18,12 @@
  */
 package hivemall.mix.server;
 
-import static org.mockito.Mockito.mock;
 import hivemall.mix.MixMessage;
 import hivemall.mix.MixMessage.MixEventName;
-import hivemall.mix.store.PartialAverage;
-import hivemall.mix.store.PartialResult;
+import hivemall.mix.store.GlobalWeight;
 import hivemall.mix.store.SessionObject;
 import hivemall.mix.store.SessionStore;
 import hivemall.test.HivemallTestBase;
-import io.netty.channel.ChannelHandlerContext;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -48,39 +45,51 @@ public final class MixServerHandlerTest extends HivemallTestBase {
     @Test
     public void MxiWeightTest() throws NoSuchMethodException, SecurityException,
             IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
-        SessionStore session = new SessionStore();
+        mixWeight(new SessionStore());
+    }
+
+    @Test
+    public void MxiWeightLegacyStoreTest() throws NoSuchMethodException, SecurityException,
+            IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        mixWeight(new SessionStore(false, SessionStore.DEFAULT_NUM_SHARDS));
+    }
+
+    private void mixWeight(SessionStore session) throws NoSuchMethodException,
+            SecurityException, IllegalAccessException, IllegalArgumentException,
+            InvocationTargetException {
         MixServerHandler handler = new MixServerHandler(session, 4, 1.0f);
 
-        Method mixMethod = MixServerHandler.class.getDeclaredMethod("mix",
-            ChannelHandlerContext.class, MixMessage.class, PartialResult.class, SessionObject.class);
+        Method mixMethod = MixServerHandler.class.getDeclaredMethod("mix", MixMessage.class,
+            SessionObject.class, GlobalWeight.class);
         mixMethod.setAccessible(true);
 
         SessionObject sessionObj = session.get("dummy");
+        GlobalWeight result = new GlobalWeight();
 
         // Initially, clock=0
-        PartialAverage acc = new PartialAverage();
         MixMessage msg1 = new MixMessage(MixEventName.average, dummyFeature, 3.0f, (short) 5, 1);
+        MixMessage res1 = (MixMessage) mixMethod.invoke(handler, msg1, sessionObj, result);
+        Assert.assertNotNull(res1);
+        Assert.assertEquals(1, res1.getClock());
+        Assert.assertEquals(3.0, res1.getWeight(), 0.001);
 
-        mixMethod.invoke(handler, ctx, msg1, acc, sessionObj);
-        Assert.assertEquals(1, acc.getClock());
-        Assert.assertEquals(3.0, acc.getWeight(1.0f), 0.001);
-
+        // clock diff is below the threshold
         MixMessage msg2 = new MixMessage(MixEventName.average, dummyFeature, 5.0f, (short) -1, 1);
-        mixMethod.invoke(handler, ctx, msg2, acc, sessionObj);
-        Assert.assertEquals(2, acc.getClock());
-        Assert.assertEquals(4.0, acc.getWeight(1.0f), 0.001);
+        MixMessage res2 = (MixMessage) mixMethod.invoke(handler, msg2, sessionObj, result);
+        Assert.assertNull(res2);
 
         MixMessage msg3 = new MixMessage(MixEventName.average, dummyFeature, 7.0f, (short) 6, 1);
-        mixMethod.invoke(handler, ctx, msg3, acc, sessionObj);
-        Assert.assertEquals(3, acc.getClock());
-        Assert.assertEquals(5.0, acc.getWeight(1.0f), 0.001);
+        MixMessage res3 = (MixMessage) mixMethod.invoke(handler, msg3, sessionObj, result);
+        Assert.assertNotNull(res3);
+        Assert.assertEquals(3, res3.getClock());
+        Assert.assertEquals(5.0, res3.getWeight(), 0.001);
+        Assert.assertEquals(1, sessionObj.get().size());
 
         // Check expected exceptions
         exception.expectCause(new CauseMatcher(IllegalArgumentException.class,
             "Illegal deltaUpdates received: 0"));
         MixMessage msg4 = new MixMessage(MixEventName.average, dummyFeature, 0.0f, (short) 0, 0);
-        mixMethod.invoke(handler, ctx, msg4, acc, sessionObj);
+        mixMethod.invoke(handler, msg4, sessionObj, result);
     }
 
     private static class CauseMatcher extends TypeSafeMatcher<Throwable> {
@@ -30,12 +30,18 @@ import hivemall.utils.io.IOUtils;
 import hivemall.utils.lang.CommandLineUtils;
 import hivemall.utils.net.NetUtils;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
 
 import org.apache.commons.cli.CommandLine;
 import org.junit.Assert;
@@ -119,6 +125,75 @@ public class MixServerTest extends HivemallTestBase {
         }
     }
 
+    @Test
+    public void testOneServerDown() throws Exception {
+        invokeClientWithDeadServer(0);
+    }
+
+    @Test
+    public void testFailoverToReplica() throws Exception {
+        invokeClientWithDeadServer(1);
+    }
+
+    private static void invokeClientWithDeadServer(final int numReplicas) throws Exception {
+        final int port = NetUtils.getAvailablePort();
+        CommandLine cl = CommandLineUtils.parseOptions(
+            new String[] {"-port", Integer.toString(port), "-sync_threshold", "3"},
+            MixServer.getOptions());
+        MixServer server = new MixServer(cl);
+        ExecutorService serverExec = Executors.newSingleThreadExecutor();
+        serverExec.submit(server);
+
+        waitForState(server, ServerState.RUNNING);
+
+        final int deadPort = NetUtils.getAvailablePort();
+        final ExecutorService clientsExec = Executors.newCachedThreadPool();
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 2; i++) {
+            futures.add(clientsExec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    invokeClientWithDeadServer("testDeadServer" + numReplicas, port, deadPort,
+                        numReplicas);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS); // propagates assertion errors of clients
+        }
+        clientsExec.shutdown();
+        serverExec.shutdown();
+    }
+
+    private static void invokeClientWithDeadServer(String groupId, int port, int deadPort,
+            int numReplicas) throws Exception {
+        PredictionModel model = new DenseModel(100, false);
+        model.configureClock();
+        MixClient client = null;
+        try {
+            client = new MixClient(MixEventName.average, groupId, "localhost:" + port
+                    + ",localhost:" + deadPort, false, 2, model);
+            client.setNumReplicas(numReplicas);
+            model.configureMix(client, false);
+
+            final long startTime = System.currentTimeMillis();
+            final Random rand = new Random(43);
+            for (int i = 0; i < 100000; i++) {
+                Integer feature = Integer.valueOf(rand.nextInt(100));
+                float weight = (float) rand.nextGaussian();
+                model.set(feature, new WeightValue(weight));
+            }
+            long elapsed = System.currentTimeMillis() - startTime;
+            // training must not wait for the dead server
+            Assert.assertTrue("elapsed time: " + elapsed, elapsed < 10000L);
+
+            waitForMixed(model, 1000L, 10000L);
+        } finally {
+            IOUtils.closeQuietly(client);
+        }
+    }
+
     @Test
     public void testMultipleClients() throws InterruptedException {
         final int port = NetUtils.getAvailablePort();
@@ -194,7 +269,7 @@ public class MixServerTest extends HivemallTestBase {
                 @Override
                 public void run() {
                     try {
-                        invokeClient01("test2ClientsZeroOne", port, false, false);
+                        invokeClient01("test2ClientsZeroOne", port, false, false, 0, false, null);
                     } catch (InterruptedException e) {
                         Assert.fail(e.getMessage());
                     }
@@ -224,7 +299,7 @@ public class MixServerTest extends HivemallTestBase {
                 @Override
                 public void run() {
                     try {
-                        invokeClient01("test2ClientsZeroOne", port, true, false);
+                        invokeClient01("test2ClientsZeroOne", port, true, false, 0, false, null);
                     } catch (InterruptedException e) {
                         Assert.fail(e.getMessage());
                     }
@@ -254,7 +329,7 @@ public class MixServerTest extends HivemallTestBase {
                 @Override
                 public void run() {
                     try {
-                        invokeClient01("test2ClientsZeroOne", port, false, true);
+                        invokeClient01("test2ClientsZeroOne", port, false, true, 0, false, null);
                     } catch (InterruptedException e) {
                         Assert.fail(e.getMessage());
                     }
@@ -284,7 +359,7 @@ public class MixServerTest extends HivemallTestBase {
                 @Override
                 public void run() {
                     try {
-                        invokeClient01("test2ClientsZeroOne", port, true, true);
+                        invokeClient01("test2ClientsZeroOne", port, true, true, 0, false, null);
                     } catch (InterruptedException e) {
                         Assert.fail(e.getMessage());
                     }
@@ -296,17 +371,126 @@ public class MixServerTest extends HivemallTestBase {
         serverExec.shutdown();
     }
 
+    @Test
+    public void test2ClientsZeroOneSparseModelWithBatching() throws Exception {
+        final int port = NetUtils.getAvailablePort();
+        CommandLine cl = CommandLineUtils.parseOptions(
+            new String[] {"-port", Integer.toString(port), "-sync_threshold", "30"},
+            MixServer.getOptions());
+        MixServer server = new MixServer(cl);
+        ExecutorService serverExec = Executors.newSingleThreadExecutor();
+        serverExec.submit(server);
+
+        waitForState(server, ServerState.RUNNING);
+
+        final ExecutorService clientsExec = Executors.newCachedThreadPool();
+        final CountDownLatch started = new CountDownLatch(2);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 2; i++) {
+            futures.add(clientsExec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    invokeClient01("test2ClientsZeroOneBatch", port, false, false, 64, false,
+                        started);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS); // propagates assertion errors of clients
+        }
+        clientsExec.shutdown();
+        serverExec.shutdown();
+    }
+
+    @Test
+    public void test2ClientsZeroOneDenseModelWithBatching() throws Exception {
+        final int port = NetUtils.getAvailablePort();
+        CommandLine cl = CommandLineUtils.parseOptions(
+            new String[] {"-port", Integer.toString(port), "-sync_threshold", "30"},
+            MixServer.getOptions());
+        MixServer server = new MixServer(cl);
+        ExecutorService serverExec = Executors.newSingleThreadExecutor();
+        serverExec.submit(server);
+
+        waitForState(server, ServerState.RUNNING);
+
+        final ExecutorService clientsExec = Executors.newCachedThreadPool();
+        final CountDownLatch started = new CountDownLatch(2);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 2; i++) {
+            futures.add(clientsExec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    invokeClient01("test2ClientsZeroOneBatch", port, true, false, 64, false,
+                        started);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS); // propagates assertion errors of clients
+        }
+        clientsExec.shutdown();
+        serverExec.shutdown();
+    }
+
+    @Test
+    public void test2ClientsZeroOneSparseModelWithCompactFormat() throws Exception {
+        final int port = NetUtils.getAvailablePort();
+        CommandLine cl = CommandLineUtils.parseOptions(
+            new String[] {"-port", Integer.toString(port), "-sync_threshold", "30"},
+            MixServer.getOptions());
+        MixServer server = new MixServer(cl);
+        ExecutorService serverExec = Executors.newSingleThreadExecutor();
+        serverExec.submit(server);
+
+        waitForState(server, ServerState.RUNNING);
+
+        final ExecutorService clientsExec = Executors.newCachedThreadPool();
+        final CountDownLatch started = new CountDownLatch(2);
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 2; i++) {
+            futures.add(clientsExec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    invokeClient01("test2ClientsZeroOneCompact", port, false, false, 64, true,
+                        started);
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(60, TimeUnit.SECONDS); // propagates assertion errors of clients
+        }
+        clientsExec.shutdown();
+        serverExec.shutdown();
+    }
+
+    /**
+     * @param started counted down and awaited so that the clients train concurrently. A client
+     *        training alone gets no responses, since the global clock does not run ahead of its
+     *        local clocks
+     */
     private static void invokeClient01(String groupId, int serverPort, boolean denseModel,
-            boolean cancelMix) throws InterruptedException {
+            boolean cancelMix, int batchSize, boolean compact, @Nullable CountDownLatch started)
+            throws InterruptedException {
         PredictionModel model = denseModel ? new DenseModel(100, false) : new SparseModel(100,
             false);
         model.configureClock();
         MixClient client = null;
         try {
             client = new MixClient(MixEventName.average, groupId, "localhost:" + serverPort, false,
-                3, model);
+                3, model, batchSize, 100L);
+            if (compact) {
+                client.setCompactFormat(true);
+            }
             model.configureMix(client, cancelMix);
 
+            if (started != null) {
+                started.countDown();
+                started.await(10, TimeUnit.SECONDS);
+            }
             final Random rand = new Random(43);
             for (int i = 0; i < 1000000; i++) {
                 Integer feature = Integer.valueOf(rand.nextInt(100));
@@ -315,6 +499,9 @@ public class MixServerTest extends HivemallTestBase {
             }
 
             waitForMixed(model, 100000L, 10000L);
+            if (batchSize > 0) {
+                IOUtils.closeQuietly(client); // flushes the last batch and waits for the reply
+            }
 
             long numMixed = model.getNumMixed();
             Assert.assertTrue("number of mix events: " + numMixed, numMixed > 0);
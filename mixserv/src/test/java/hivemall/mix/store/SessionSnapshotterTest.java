@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionSnapshotterTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.dir = File.createTempFile("mixserv", "snapshot");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        SessionStore store = new SessionStore(true, 4);
+        SessionSnapshotter snapshotter = new SessionSnapshotter(store, dir);
+        Random rand = new Random(43L);
+        mix(store.get("average"), MixEventName.average, rand, 10000);
+        mix(store.get("argminKLD"), MixEventName.argminKLD, rand, 10000);
+        snapshotter.snapshot();
+        // incremental snapshot
+        mix(store.get("average"), MixEventName.average, rand, 1000);
+        mix(store.get("argminKLD"), MixEventName.argminKLD, rand, 1000);
+        snapshotter.close();
+
+        SessionStore recovered = new SessionStore(true, 8);
+        SessionSnapshotter recoverer = new SessionSnapshotter(recovered, dir);
+        Assert.assertEquals(2, recoverer.recover());
+        assertSame(store.get("average"), recovered.get("average"), MixEventName.average);
+        assertSame(store.get("argminKLD"), recovered.get("argminKLD"), MixEventName.argminKLD);
+        recoverer.close();
+    }
+
+    @Test
+    public void testIncrementalSnapshotAfterRehash() throws IOException {
+        SessionStore store = new SessionStore(true, 1);
+        SessionSnapshotter snapshotter = new SessionSnapshotter(store, dir);
+        Random rand = new Random(43L);
+        SessionObject session = store.get("g1");
+        mix(session, MixEventName.average, rand, 100);
+        snapshotter.snapshot();
+        mix(session, MixEventName.average, rand, 50);
+        // new features rehash the table while updated entries are pending
+        mix(session, MixEventName.average, rand, 10000);
+        snapshotter.snapshot();
+        mix(session, MixEventName.average, rand, 100);
+        snapshotter.close();
+
+        SessionStore recovered = new SessionStore(true, 1);
+        SessionSnapshotter recoverer = new SessionSnapshotter(recovered, dir);
+        Assert.assertEquals(1, recoverer.recover());
+        assertSame(session, recovered.get("g1"), MixEventName.average);
+        recoverer.close();
+    }
+
+    @Test
+    public void testRecoverTruncatedFile() throws IOException {
+        SessionStore store = new SessionStore(true, 1);
+        SessionSnapshotter snapshotter = new SessionSnapshotter(store, dir);
+        Random rand = new Random(43L);
+        SessionObject session = store.get("g1");
+        mix(session, MixEventName.average, rand, 10000);
+        snapshotter.snapshot();
+        File file = new File(dir, "g1.snapshot");
+        long length = file.length();
+        int size = session.get().size();
+
+        mix(session, MixEventName.average, rand, 1000);
+        snapshotter.close();
+        Assert.assertTrue(file.length() > length);
+
+        // a partially written block
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+
+        SessionStore recovered = new SessionStore(true, 1);
+        SessionSnapshotter recoverer = new SessionSnapshotter(recovered, dir);
+        Assert.assertEquals(1, recoverer.recover());
+        Assert.assertEquals(length, file.length());
+        Assert.assertEquals(size, recovered.get("g1").get().size());
+        recoverer.close();
+    }
+
+    @Test
+    public void testRemoveSnapshotOfClosedSession() throws IOException {
+        SessionStore store = new SessionStore(true, 4);
+        SessionSnapshotter snapshotter = new SessionSnapshotter(store, dir);
+        mix(store.get("g1"), MixEventName.average, new Random(43L), 100);
+        snapshotter.snapshot();
+        File file = new File(dir, "g1.snapshot");
+        Assert.assertTrue(file.exists());
+
+        store.remove("g1");
+        snapshotter.snapshot();
+        Assert.assertFalse(file.exists());
+        snapshotter.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        SessionStore store = new SessionStore(true, 4);
+        SessionSnapshotter snapshotter = new SessionSnapshotter(store, dir);
+        SessionObject session = store.get("g1");
+        Random rand = new Random(43L);
+        File file = new File(dir, "g1.snapshot");
+        long maxLength = 0L;
+        for (int i = 0; i < 100; i++) {
+            mix(session, MixEventName.average, rand, 20000);
+            snapshotter.snapshot();
+            maxLength = Math.max(maxLength, file.length());
+        }
+        snapshotter.close();
+        // a full snapshot of 1000 features is about 28KB
+        Assert.assertTrue("file length: " + maxLength, maxLength < 4L * 1024L * 1024L);
+
+        SessionStore recovered = new SessionStore(true, 4);
+        SessionSnapshotter recoverer = new SessionSnapshotter(recovered, dir);
+        recoverer.recover();
+        assertSame(session, recovered.get("g1"), MixEventName.average);
+        recoverer.close();
+    }
+
+    private static void mix(SessionObject session, MixEventName event, Random rand, int n) {
+        GlobalWeight result = new GlobalWeight();
+        for (int i = 0; i < n; i++) {
+            final Object feature;
+            if (rand.nextBoolean()) {
+                feature = new IntWritable(rand.nextInt(500));
+            } else {
+                feature = new Text("f" + rand.nextInt(500));
+            }
+            session.get().mix(event, feature, rand.nextFloat(), rand.nextFloat() + 0.1f,
+                (short) rand.nextInt(100), rand.nextInt(127) + 1, rand.nextInt(10) == 0, 1.f, 3,
+                result);
+        }
+    }
+
+    private static void assertSame(SessionObject expected, SessionObject actual,
+            MixEventName event) {
+        Assert.assertEquals(expected.get().size(), actual.get().size());
+        GlobalWeight expectedResult = new GlobalWeight();
+        GlobalWeight actualResult = new GlobalWeight();
+        for (int i = 0; i < 500; i++) {
+            Object[] features = {new IntWritable(i), new Text("f" + i)};
+            for (Object feature : features) {
+                // sync threshold 0 always returns the global weight
+                Assert.assertTrue(expected.get().mix(event, feature, 0.5f, 1.f, (short) 0, 1,
+                    false, 1.f, 0, expectedResult));
+                Assert.assertTrue(actual.get().mix(event, feature, 0.5f, 1.f, (short) 0, 1,
+                    false, 1.f, 0, actualResult));
+                Assert.assertEquals(expectedResult.getWeight(), actualResult.getWeight(), 0.f);
+                Assert.assertEquals(expectedResult.getCovariance(),
+                    actualResult.getCovariance(), 0.f);
+                Assert.assertEquals(expectedResult.getClock(), actualResult.getClock());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package hivemall.mix.store;
+
+import hivemall.mix.MixMessage.MixEventName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardedPartialResultStoreTest {
+
+    @Test
+    public void testAverageSameAsLegacy() {
+        testSameAsLegacy(MixEventName.average);
+    }
+
+    @Test
+    public void testArgminKLDSameAsLegacy() {
+        testSameAsLegacy(MixEventName.argminKLD);
+    }
+
+    private static void testSameAsLegacy(MixEventName event) {
+        final PartialResultStore legacy = new ConcurrentPartialResultStore(16);
+        // small capacity to exercise rehashing
+        final PartialResultStore sharded = new ShardedPartialResultStore(4, 2);
+        final GlobalWeight expected = new GlobalWeight();
+        final GlobalWeight actual = new GlobalWeight();
+
+        final Random rand = new Random(43L);
+        for (int i = 0; i < 100000; i++) {
+            final Object feature;
+            if (rand.nextBoolean()) {
+                feature = new IntWritable(rand.nextInt(1000));
+            } else {
+                feature = new Text("f" + rand.nextInt(1000));
+            }
+            float weight = rand.nextFloat() - 0.5f;
+            float covar = rand.nextFloat() + 0.1f;
+            short clock = (short) rand.nextInt(100);
+            int deltaUpdates = rand.nextInt(127) + 1;
+            boolean cancel = rand.nextInt(10) == 0;
+
+            boolean expectedSync = legacy.mix(event, feature, weight, covar, clock, deltaUpdates,
+                cancel, 2.f, 3, expected);
+            boolean actualSync = sharded.mix(event, feature, weight, covar, clock, deltaUpdates,
+                cancel, 2.f, 3, actual);
+            Assert.assertEquals(expectedSync, actualSync);
+            if (expectedSync) {
+                Assert.assertEquals(expected.getWeight(), actual.getWeight(), 1E-5f);
+                Assert.assertEquals(expected.getCovariance(), actual.getCovariance(), 1E-5f);
+                Assert.assertEquals(expected.getClock(), actual.getClock());
+            }
+        }
+        Assert.assertEquals(legacy.size(), sharded.size());
+    }
+
+    @Test
+    public void testConcurrentMix() throws Exception {
+        final PartialResultStore store = new ShardedPartialResultStore(8, 2);
+        final int numThreads = 4;
+        final int numFeatures = 10000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    GlobalWeight result = new GlobalWeight();
+                    for (int i = 0; i < numFeatures; i++) {
+                        store.mix(MixEventName.average, new IntWritable(i), 1.f, 1.f, (short) 0,
+                            1, false, 1.f, Integer.MAX_VALUE, result);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(numFeatures, store.size());
+        GlobalWeight result = new GlobalWeight();
+        for (int i = 0; i < numFeatures; i++) {
+            Assert.assertTrue(store.mix(MixEventName.average, new IntWritable(i), 1.f, 1.f,
+                (short) 0, 1, false, 1.f, 0, result));
+            Assert.assertEquals(numThreads + 1, result.getClock());
+            Assert.assertEquals(1.f, result.getWeight(), 0.f);
+        }
+    }
+
+    @Test
+    public void testMemoryUsage() {
+        PartialResultStore legacy = new ConcurrentPartialResultStore(16);
+        PartialResultStore sharded = new ShardedPartialResultStore(64);
+        GlobalWeight result = new GlobalWeight();
+        for (int i = 0; i < 100000; i++) {
+            IntWritable feature = new IntWritable(i);
+            legacy.mix(MixEventName.average, feature, 1.f, 1.f, (short) 0, 1, false, 1.f, 30,
+                result);
+            sharded.mix(MixEventName.average, feature, 1.f, 1.f, (short) 0, 1, false, 1.f, 30,
+                result);
+        }
+        Assert.assertEquals(legacy.size(), sharded.size());
+        Assert.assertTrue(sharded.getMemoryUsage() < legacy.getMemoryUsage());
+    }
+
+}